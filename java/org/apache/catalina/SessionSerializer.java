@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * Creates the streams used to write session data to, and read session data
+ * from, a Store or another cluster node. Session implementations write
+ * themselves to the returned streams so an implementation is free to choose
+ * how each value is encoded.
+ * <p>
+ * Data written using standard Java serialization can always be read,
+ * regardless of the configured serializer, so a serializer may be changed
+ * without losing previously persisted sessions.
+ */
+public interface SessionSerializer {
+
+    /**
+     * Create a stream to write session data to the given output stream.
+     *
+     * @param os The stream to which the encoded data will be written
+     *
+     * @return A stream to which the session data should be written
+     *
+     * @throws IOException if the stream cannot be created
+     */
+    ObjectOutputStream getObjectOutputStream(OutputStream os) throws IOException;
+
+
+    /**
+     * Create a stream to read session data that was written using a stream
+     * returned by {@link #getObjectOutputStream(OutputStream)}.
+     *
+     * @param is         The stream from which the encoded data will be read
+     * @param javaStreams Creates the streams used to read any values that were
+     *                   written using Java serialization so that the class
+     *                   loaders and filters of the caller are used
+     *
+     * @return A stream from which the session data can be read
+     *
+     * @throws IOException if the stream cannot be created
+     */
+    ObjectInputStream getObjectInputStream(InputStream is, ObjectInputStreamFactory javaStreams)
+            throws IOException;
+
+
+    /**
+     * Creates the {@link ObjectInputStream}s used to read data written using
+     * Java serialization.
+     */
+    @FunctionalInterface
+    interface ObjectInputStreamFactory {
+
+        /**
+         * @param is The stream containing the Java serialized data
+         *
+         * @return An appropriately configured stream from which to read the
+         *         data
+         *
+         * @throws IOException if the stream cannot be created
+         */
+        ObjectInputStream create(InputStream is) throws IOException;
+    }
+}
@@ -35,4 +35,16 @@ public interface StoreManager extends DistributedManager {
      * @param session Session to be removed
      */
     void removeSuper(Session session);
+
+    /**
+     * Notify this Manager that a request referencing the session with the
+     * given ID is being processed so that, if the session is not in memory,
+     * the Manager may start loading it from the Store before the application
+     * asks for it. The default implementation does nothing.
+     *
+     * @param id The ID of the session referenced by the request
+     */
+    default void readAhead(String id) {
+        // NO-OP
+    }
 }
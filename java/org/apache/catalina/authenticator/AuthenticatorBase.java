@@ -58,6 +58,7 @@ import org.apache.catalina.util.SessionIdGeneratorBase;
 import org.apache.catalina.util.StandardSessionIdGenerator;
 import org.apache.catalina.valves.ValveBase;
 import org.apache.coyote.ActionCode;
+import org.apache.coyote.RequestPhase;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
@@ -448,166 +449,178 @@ public abstract class AuthenticatorBase extends ValveBase
     @Override
     public void invoke(Request request, Response response) throws IOException, ServletException {
 
-        if (log.isDebugEnabled()) {
-            log.debug("Security checking request " + request.getMethod() + " " +
-                    request.getRequestURI());
-        }
+        request.phaseStart(RequestPhase.AUTHENTICATE);
+        boolean authenticating = true;
+        try {
+            if (log.isDebugEnabled()) {
+                log.debug("Security checking request " + request.getMethod() + " " +
+                        request.getRequestURI());
+            }
 
-        // Have we got a cached authenticated Principal to record?
-        if (cache) {
-            Principal principal = request.getUserPrincipal();
-            if (principal == null) {
-                Session session = request.getSessionInternal(false);
-                if (session != null) {
-                    principal = session.getPrincipal();
-                    if (principal != null) {
-                        if (log.isDebugEnabled()) {
-                            log.debug("We have cached auth type " + session.getAuthType() +
-                                    " for principal " + principal);
+            // Have we got a cached authenticated Principal to record?
+            if (cache) {
+                Principal principal = request.getUserPrincipal();
+                if (principal == null) {
+                    Session session = request.getSessionInternal(false);
+                    if (session != null) {
+                        principal = session.getPrincipal();
+                        if (principal != null) {
+                            if (log.isDebugEnabled()) {
+                                log.debug("We have cached auth type " + session.getAuthType() +
+                                        " for principal " + principal);
+                            }
+                            request.setAuthType(session.getAuthType());
+                            request.setUserPrincipal(principal);
                         }
-                        request.setAuthType(session.getAuthType());
-                        request.setUserPrincipal(principal);
                     }
                 }
             }
-        }
-
-        boolean authRequired = isContinuationRequired(request);
 
-        Realm realm = this.context.getRealm();
-        // Is this request URI subject to a security constraint?
-        SecurityConstraint[] constraints = realm.findSecurityConstraints(request, this.context);
+            boolean authRequired = isContinuationRequired(request);
 
-        AuthConfigProvider jaspicProvider = getJaspicProvider();
-        if (jaspicProvider != null) {
-            authRequired = true;
-        }
+            Realm realm = this.context.getRealm();
+            // Is this request URI subject to a security constraint?
+            SecurityConstraint[] constraints = realm.findSecurityConstraints(request, this.context);
 
-        if (constraints == null && !context.getPreemptiveAuthentication() && !authRequired) {
-            if (log.isDebugEnabled()) {
-                log.debug(" Not subject to any constraint");
+            AuthConfigProvider jaspicProvider = getJaspicProvider();
+            if (jaspicProvider != null) {
+                authRequired = true;
             }
-            getNext().invoke(request, response);
-            return;
-        }
 
-        // Make sure that constrained resources are not cached by web proxies
-        // or browsers as caching can provide a security hole
-        if (constraints != null && disableProxyCaching &&
-                !"POST".equalsIgnoreCase(request.getMethod())) {
-            if (securePagesWithPragma) {
-                // Note: These can cause problems with downloading files with IE
-                response.setHeader("Pragma", "No-cache");
-                response.setHeader("Cache-Control", "no-cache");
-            } else {
-                response.setHeader("Cache-Control", "private");
+            if (constraints == null && !context.getPreemptiveAuthentication() && !authRequired) {
+                if (log.isDebugEnabled()) {
+                    log.debug(" Not subject to any constraint");
+                }
+                request.phaseEnd(RequestPhase.AUTHENTICATE);
+                authenticating = false;
+                getNext().invoke(request, response);
+                return;
             }
-            response.setHeader("Expires", DATE_ONE);
-        }
 
-        if (constraints != null) {
-            // Enforce any user data constraint for this security constraint
-            if (log.isDebugEnabled()) {
-                log.debug(" Calling hasUserDataPermission()");
+            // Make sure that constrained resources are not cached by web proxies
+            // or browsers as caching can provide a security hole
+            if (constraints != null && disableProxyCaching &&
+                    !"POST".equalsIgnoreCase(request.getMethod())) {
+                if (securePagesWithPragma) {
+                    // Note: These can cause problems with downloading files with IE
+                    response.setHeader("Pragma", "No-cache");
+                    response.setHeader("Cache-Control", "no-cache");
+                } else {
+                    response.setHeader("Cache-Control", "private");
+                }
+                response.setHeader("Expires", DATE_ONE);
             }
-            if (!realm.hasUserDataPermission(request, response, constraints)) {
+
+            if (constraints != null) {
+                // Enforce any user data constraint for this security constraint
                 if (log.isDebugEnabled()) {
-                    log.debug(" Failed hasUserDataPermission() test");
+                    log.debug(" Calling hasUserDataPermission()");
+                }
+                if (!realm.hasUserDataPermission(request, response, constraints)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(" Failed hasUserDataPermission() test");
+                    }
+                    /*
+                     * ASSERT: Authenticator already set the appropriate HTTP status
+                     * code, so we do not have to do anything special
+                     */
+                    return;
                 }
-                /*
-                 * ASSERT: Authenticator already set the appropriate HTTP status
-                 * code, so we do not have to do anything special
-                 */
-                return;
             }
-        }
 
-        // Since authenticate modifies the response on failure,
-        // we have to check for allow-from-all first.
-        boolean hasAuthConstraint = false;
-        if (constraints != null) {
-            hasAuthConstraint = true;
-            for (int i = 0; i < constraints.length && hasAuthConstraint; i++) {
-                if (!constraints[i].getAuthConstraint()) {
-                    hasAuthConstraint = false;
-                } else if (!constraints[i].getAllRoles() &&
-                        !constraints[i].getAuthenticatedUsers()) {
-                    String[] roles = constraints[i].findAuthRoles();
-                    if (roles == null || roles.length == 0) {
+            // Since authenticate modifies the response on failure,
+            // we have to check for allow-from-all first.
+            boolean hasAuthConstraint = false;
+            if (constraints != null) {
+                hasAuthConstraint = true;
+                for (int i = 0; i < constraints.length && hasAuthConstraint; i++) {
+                    if (!constraints[i].getAuthConstraint()) {
                         hasAuthConstraint = false;
+                    } else if (!constraints[i].getAllRoles() &&
+                            !constraints[i].getAuthenticatedUsers()) {
+                        String[] roles = constraints[i].findAuthRoles();
+                        if (roles == null || roles.length == 0) {
+                            hasAuthConstraint = false;
+                        }
                     }
                 }
             }
-        }
 
-        if (!authRequired && hasAuthConstraint) {
-            authRequired = true;
-        }
+            if (!authRequired && hasAuthConstraint) {
+                authRequired = true;
+            }
 
-        if (!authRequired && context.getPreemptiveAuthentication()) {
-            authRequired =
-                    request.getCoyoteRequest().getMimeHeaders().getValue("authorization") != null;
-        }
+            if (!authRequired && context.getPreemptiveAuthentication()) {
+                authRequired =
+                        request.getCoyoteRequest().getMimeHeaders().getValue("authorization") != null;
+            }
 
-        if (!authRequired && context.getPreemptiveAuthentication()
-                && HttpServletRequest.CLIENT_CERT_AUTH.equals(getAuthMethod())) {
-            X509Certificate[] certs = getRequestCertificates(request);
-            authRequired = certs != null && certs.length > 0;
-        }
+            if (!authRequired && context.getPreemptiveAuthentication()
+                    && HttpServletRequest.CLIENT_CERT_AUTH.equals(getAuthMethod())) {
+                X509Certificate[] certs = getRequestCertificates(request);
+                authRequired = certs != null && certs.length > 0;
+            }
 
-        JaspicState jaspicState = null;
+            JaspicState jaspicState = null;
 
-        if (authRequired) {
-            if (log.isDebugEnabled()) {
-                log.debug(" Calling authenticate()");
-            }
+            if (authRequired) {
+                if (log.isDebugEnabled()) {
+                    log.debug(" Calling authenticate()");
+                }
 
-            if (jaspicProvider != null) {
-                jaspicState = getJaspicState(jaspicProvider, request, response, hasAuthConstraint);
-                if (jaspicState == null) {
+                if (jaspicProvider != null) {
+                    jaspicState = getJaspicState(jaspicProvider, request, response, hasAuthConstraint);
+                    if (jaspicState == null) {
+                        return;
+                    }
+                }
+
+                if (jaspicProvider == null && !doAuthenticate(request, response) ||
+                        jaspicProvider != null &&
+                                !authenticateJaspic(request, response, jaspicState, false)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(" Failed authenticate() test");
+                    }
+                    /*
+                     * ASSERT: Authenticator already set the appropriate HTTP status
+                     * code, so we do not have to do anything special
+                     */
                     return;
                 }
+
             }
 
-            if (jaspicProvider == null && !doAuthenticate(request, response) ||
-                    jaspicProvider != null &&
-                            !authenticateJaspic(request, response, jaspicState, false)) {
+            if (constraints != null) {
                 if (log.isDebugEnabled()) {
-                    log.debug(" Failed authenticate() test");
+                    log.debug(" Calling accessControl()");
+                }
+                if (!realm.hasResourcePermission(request, response, constraints, this.context)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(" Failed accessControl() test");
+                    }
+                    /*
+                     * ASSERT: AccessControl method has already set the appropriate
+                     * HTTP status code, so we do not have to do anything special
+                     */
+                    return;
                 }
-                /*
-                 * ASSERT: Authenticator already set the appropriate HTTP status
-                 * code, so we do not have to do anything special
-                 */
-                return;
             }
 
-        }
-
-        if (constraints != null) {
+            // Any and all specified constraints have been satisfied
             if (log.isDebugEnabled()) {
-                log.debug(" Calling accessControl()");
+                log.debug(" Successfully passed all security constraints");
             }
-            if (!realm.hasResourcePermission(request, response, constraints, this.context)) {
-                if (log.isDebugEnabled()) {
-                    log.debug(" Failed accessControl() test");
-                }
-                /*
-                 * ASSERT: AccessControl method has already set the appropriate
-                 * HTTP status code, so we do not have to do anything special
-                 */
-                return;
-            }
-        }
-
-        // Any and all specified constraints have been satisfied
-        if (log.isDebugEnabled()) {
-            log.debug(" Successfully passed all security constraints");
-        }
-        getNext().invoke(request, response);
+            request.phaseEnd(RequestPhase.AUTHENTICATE);
+            authenticating = false;
+            getNext().invoke(request, response);
 
-        if (jaspicProvider != null) {
-            secureResponseJspic(request, response, jaspicState);
+            if (jaspicProvider != null) {
+                secureResponseJspic(request, response, jaspicState);
+            }
+        } finally {
+            if (authenticating) {
+                request.phaseEnd(RequestPhase.AUTHENTICATE);
+            }
         }
     }
 
@@ -32,6 +32,8 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.catalina.Authenticator;
 import org.apache.catalina.Context;
 import org.apache.catalina.Host;
+import org.apache.catalina.Manager;
+import org.apache.catalina.StoreManager;
 import org.apache.catalina.Wrapper;
 import org.apache.catalina.authenticator.AuthenticatorBase;
 import org.apache.catalina.core.AsyncContextImpl;
@@ -40,6 +42,7 @@ import org.apache.catalina.util.SessionConfig;
 import org.apache.catalina.util.URLEncoder;
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.Adapter;
+import org.apache.coyote.RequestPhase;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
@@ -241,8 +244,14 @@ public class CoyoteAdapter implements Adapter {
             }
 
             if (!request.isAsync()) {
-                request.finishRequest();
-                response.finishResponse();
+                // Async processing has completed
+                req.phaseStart(RequestPhase.FINISH);
+                try {
+                    request.finishRequest();
+                    response.finishResponse();
+                } finally {
+                    req.phaseEnd(RequestPhase.FINISH);
+                }
             }
 
             // Check to see if the processor is in an error state. If it is,
@@ -334,7 +343,12 @@ public class CoyoteAdapter implements Adapter {
         try {
             // Parse and set Catalina and configuration specific
             // request parameters
-            postParseSuccess = postParseRequest(req, request, res, response);
+            req.phaseStart(RequestPhase.MAP);
+            try {
+                postParseSuccess = postParseRequest(req, request, res, response);
+            } finally {
+                req.phaseEnd(RequestPhase.MAP);
+            }
             if (postParseSuccess) {
                 //check valves if we support async
                 request.setAsyncSupported(
@@ -370,8 +384,13 @@ public class CoyoteAdapter implements Adapter {
                     request.getAsyncContextInternal().setErrorState(throwable, true);
                 }
             } else {
-                request.finishRequest();
-                response.finishResponse();
+                req.phaseStart(RequestPhase.FINISH);
+                try {
+                    request.finishRequest();
+                    response.finishResponse();
+                } finally {
+                    req.phaseEnd(RequestPhase.FINISH);
+                }
             }
 
         } catch (IOException e) {
@@ -732,6 +751,13 @@ public class CoyoteAdapter implements Adapter {
 
             sessionID = request.getRequestedSessionId();
 
+            if (sessionID != null) {
+                Manager manager = request.getContext().getManager();
+                if (manager instanceof StoreManager) {
+                    ((StoreManager) manager).readAhead(sessionID);
+                }
+            }
+
             mapRequired = false;
             if (version != null && request.getContext() == versionContext) {
                 // We got the version that we asked for. That is it.
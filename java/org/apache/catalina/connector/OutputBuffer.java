@@ -760,7 +760,8 @@ public class OutputBuffer extends Writer {
     }
 
     private void flushCharBuffer() throws IOException {
-        realWriteChars(cb.slice());
+        // No need to slice as the converter only uses position and limit
+        realWriteChars(cb);
         clear(cb);
     }
 
@@ -797,12 +798,15 @@ public class OutputBuffer extends Writer {
     }
 
     private int transfer(String s, int off, int len, CharBuffer to) {
-        toWriteMode(to);
-        int max = Math.min(len, to.remaining());
+        // Copy directly into the backing array rather than via
+        // CharBuffer.put() which, depending on the JRE, may copy the String
+        // one character at a time
+        int max = Math.min(len, to.capacity() - to.limit());
         if (max > 0) {
-            to.put(s, off, off + max);
+            int limit = to.limit();
+            s.getChars(off, off + max, to.array(), to.arrayOffset() + limit);
+            to.limit(limit + max);
         }
-        toReadMode(to);
         return max;
     }
 
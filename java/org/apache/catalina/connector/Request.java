@@ -87,6 +87,7 @@ import org.apache.catalina.util.RequestUtil;
 import org.apache.catalina.util.TLSUtil;
 import org.apache.catalina.util.URLEncoder;
 import org.apache.coyote.ActionCode;
+import org.apache.coyote.RequestPhase;
 import org.apache.coyote.UpgradeToken;
 import org.apache.coyote.http11.upgrade.InternalHttpUpgradeHandler;
 import org.apache.juli.logging.Log;
@@ -100,6 +101,7 @@ import org.apache.tomcat.util.buf.StringUtils;
 import org.apache.tomcat.util.buf.UDecoder;
 import org.apache.tomcat.util.http.CookieProcessor;
 import org.apache.tomcat.util.http.FastHttpDateFormat;
+import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.http.Parameters;
 import org.apache.tomcat.util.http.Parameters.FailReason;
 import org.apache.tomcat.util.http.ServerCookie;
@@ -217,6 +219,7 @@ public class Request implements HttpServletRequest {
      * The default Locale if none are specified.
      */
     protected static final Locale defaultLocale = Locale.getDefault();
+    private static final List<Locale> DEFAULT_LOCALES = Collections.singletonList(defaultLocale);
 
 
     /**
@@ -239,6 +242,16 @@ public class Request implements HttpServletRequest {
     protected final ArrayList<Locale> locales = new ArrayList<>();
 
 
+    /**
+     * The value of the most recently parsed <code>Accept-Language</code>
+     * header and the Locales it contained. Clients using a keep-alive
+     * connection usually send the same header with every request so the
+     * result is retained across recycling to avoid parsing it again.
+     */
+    private String cachedLocalesHeader = null;
+    private final ArrayList<Locale> cachedLocales = new ArrayList<>();
+
+
     /**
      * Internal notes associated with this request by Catalina components
      * and event listeners.
@@ -337,7 +350,7 @@ public class Request implements HttpServletRequest {
     /**
      * Hash map used in the getParametersMap method.
      */
-    protected ParameterMap<String, String[]> parameterMap = new ParameterMap<>();
+    protected ParameterMap<String, String[]> parameterMap = null;
 
 
     /**
@@ -496,8 +509,9 @@ public class Request implements HttpServletRequest {
         recycleCookieInfo(false);
 
         if (Globals.IS_SECURITY_ENABLED || Connector.RECYCLE_FACADES) {
-            parameterMap = new ParameterMap<>();
-        } else {
+            // Created on first use by getParameterMap()
+            parameterMap = null;
+        } else if (parameterMap != null) {
             parameterMap.setLocked(false);
             parameterMap.clear();
         }
@@ -1095,9 +1109,7 @@ public class Request implements HttpServletRequest {
         if (locales.size() > 0) {
             return Collections.enumeration(locales);
         }
-        ArrayList<Locale> results = new ArrayList<>();
-        results.add(defaultLocale);
-        return Collections.enumeration(results);
+        return Collections.enumeration(DEFAULT_LOCALES);
 
     }
 
@@ -1134,7 +1146,9 @@ public class Request implements HttpServletRequest {
     @Override
     public Map<String, String[]> getParameterMap() {
 
-        if (parameterMap.isLocked()) {
+        if (parameterMap == null) {
+            parameterMap = new ParameterMap<>();
+        } else if (parameterMap.isLocked()) {
             return parameterMap;
         }
 
@@ -2925,6 +2939,35 @@ public class Request implements HttpServletRequest {
 
     // ------------------------------------------------------ Protected Methods
 
+    /**
+     * Mark the start of a processing phase of this request if phase timing
+     * is enabled. The coyote request is null for some Request instances
+     * created outside of a connector, e.g. by tests, in which case this is a
+     * NO-OP.
+     *
+     * @param phase The phase that is starting
+     */
+    public void phaseStart(RequestPhase phase) {
+        if (coyoteRequest != null) {
+            coyoteRequest.phaseStart(phase);
+        }
+    }
+
+
+    /**
+     * Mark the end of a processing phase of this request if phase timing is
+     * enabled.
+     *
+     * @param phase The phase that is ending
+     * @see #phaseStart(RequestPhase)
+     */
+    public void phaseEnd(RequestPhase phase) {
+        if (coyoteRequest != null) {
+            coyoteRequest.phaseEnd(phase);
+        }
+    }
+
+
     protected Session doGetSession(boolean create) {
 
         // There cannot be a session if no context has been assigned yet
@@ -2947,10 +2990,13 @@ public class Request implements HttpServletRequest {
             return null;      // Sessions are not supported
         }
         if (requestedSessionId != null) {
+            phaseStart(RequestPhase.SESSION);
             try {
                 session = manager.findSession(requestedSessionId);
             } catch (IOException e) {
                 session = null;
+            } finally {
+                phaseEnd(RequestPhase.SESSION);
             }
             if ((session != null) && !session.isValid()) {
                 session = null;
@@ -3015,7 +3061,12 @@ public class Request implements HttpServletRequest {
         } else {
             sessionId = null;
         }
-        session = manager.createSession(sessionId);
+        phaseStart(RequestPhase.SESSION);
+        try {
+            session = manager.createSession(sessionId);
+        } finally {
+            phaseEnd(RequestPhase.SESSION);
+        }
 
         // Creating a new session cookie based on that session
         if (session != null
@@ -3347,6 +3398,27 @@ public class Request implements HttpServletRequest {
 
         localesParsed = true;
 
+        // Only a single Accept-Language header is cached
+        MessageBytes singleHeader = null;
+        if (coyoteRequest != null) {
+            MimeHeaders headers = coyoteRequest.getMimeHeaders();
+            int index = headers.findHeader("accept-language", 0);
+            if (index == -1) {
+                return;
+            }
+            if (headers.findHeader("accept-language", index + 1) == -1) {
+                singleHeader = headers.getValue(index);
+                if (cachedLocalesHeader != null && singleHeader.equals(cachedLocalesHeader)) {
+                    // Same header as a previous request. Avoid the iterator as
+                    // this is the common case.
+                    for (int i = 0; i < cachedLocales.size(); i++) {
+                        addLocale(cachedLocales.get(i));
+                    }
+                    return;
+                }
+            }
+        }
+
         // Store the accumulated languages that have been requested in
         // a local collection, sorted by the quality value (so we can
         // add Locales in descending order).  The values will be ArrayLists
@@ -3367,6 +3439,14 @@ public class Request implements HttpServletRequest {
                 addLocale(locale);
             }
         }
+
+        if (singleHeader != null) {
+            cachedLocalesHeader = singleHeader.toString();
+            cachedLocales.clear();
+            for (ArrayList<Locale> list : locales.values()) {
+                cachedLocales.addAll(list);
+            }
+        }
     }
 
 
@@ -32,6 +32,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.catalina.Globals;
 import org.apache.catalina.security.SecurityUtil;
+import org.apache.coyote.RequestPhase;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.res.StringManager;
 
@@ -98,6 +99,14 @@ public final class ApplicationFilterChain implements FilterChain {
      */
     private boolean servletSupportsAsync = false;
 
+
+    /**
+     * The low-level request used to record the time spent in the servlet when
+     * phase timing is enabled. Only set for chains created for the original
+     * request, not for chains created by a request dispatcher.
+     */
+    private org.apache.coyote.Request coyoteRequest = null;
+
     /**
      * The string manager for our package.
      */
@@ -213,6 +222,9 @@ public final class ApplicationFilterChain implements FilterChain {
                 request.setAttribute(Globals.ASYNC_SUPPORTED_ATTR,
                         Boolean.FALSE);
             }
+            if (coyoteRequest != null) {
+                coyoteRequest.phaseStart(RequestPhase.SERVLET);
+            }
             // Use potentially wrapped request from this point
             if ((request instanceof HttpServletRequest) &&
                     (response instanceof HttpServletResponse) &&
@@ -237,6 +249,9 @@ public final class ApplicationFilterChain implements FilterChain {
             ExceptionUtils.handleThrowable(e);
             throw new ServletException(sm.getString("filterChain.servlet"), e);
         } finally {
+            if (coyoteRequest != null) {
+                coyoteRequest.phaseEnd(RequestPhase.SERVLET);
+            }
             if (ApplicationDispatcher.WRAP_SAME_OBJECT) {
                 lastServicedRequest.set(null);
                 lastServicedResponse.set(null);
@@ -303,6 +318,7 @@ public final class ApplicationFilterChain implements FilterChain {
         pos = 0;
         servlet = null;
         servletSupportsAsync = false;
+        coyoteRequest = null;
     }
 
 
@@ -329,6 +345,11 @@ public final class ApplicationFilterChain implements FilterChain {
     }
 
 
+    void setCoyoteRequest(org.apache.coyote.Request coyoteRequest) {
+        this.coyoteRequest = coyoteRequest;
+    }
+
+
     /**
      * Identifies the Filters, if any, in this FilterChain that do not support
      * async.
@@ -71,6 +71,9 @@ public final class ApplicationFilterFactory {
                     req.setFilterChain(filterChain);
                 }
             }
+            if (req.getCoyoteRequest().getPhaseTiming()) {
+                filterChain.setCoyoteRequest(req.getCoyoteRequest());
+            }
         } else {
             // Request dispatcher in use
             filterChain = new ApplicationFilterChain();
@@ -116,6 +116,7 @@ import org.apache.tomcat.JarScanner;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.IntrospectionUtils;
 import org.apache.tomcat.util.buf.StringUtils;
+import org.apache.tomcat.util.collections.LatencyHistogram;
 import org.apache.tomcat.util.descriptor.XmlIdentifiers;
 import org.apache.tomcat.util.descriptor.web.ApplicationParameter;
 import org.apache.tomcat.util.descriptor.web.ErrorPage;
@@ -189,6 +190,13 @@ public class StandardContext extends ContainerBase
     private String altDDName = null;
 
 
+    /**
+     * Processing times, in microseconds, of the requests passed to a Wrapper
+     * by the basic Valve for this Context.
+     */
+    private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+
+
     /**
      * Lifecycle provider.
      */
@@ -4326,6 +4334,57 @@ public class StandardContext extends ContainerBase
         return result;
     }
 
+    /**
+     * @return the histogram of the processing times, in microseconds, of the
+     *         requests processed by this context
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+
+    public long getLatencyP50() {
+        return getLatencyPercentile(50);
+    }
+
+    public long getLatencyP90() {
+        return getLatencyPercentile(90);
+    }
+
+    public long getLatencyP99() {
+        return getLatencyPercentile(99);
+    }
+
+    public long getLatencyP999() {
+        return getLatencyPercentile(99.9);
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 100
+     *
+     * @return the processing time, in microseconds, at the given percentile
+     *         of the requests processed by this context
+     */
+    public long getLatencyPercentile(double percentile) {
+        return getLatencyHistogram().getSnapshot().getValueAtPercentile(percentile);
+    }
+
+    public String getLatencySummary() {
+        return getLatencyHistogram().getSnapshot().toString();
+    }
+
+    /**
+     * @return a summary of the processing times, in microseconds, of the
+     *         requests processed by this context since the previous call to
+     *         this method
+     */
+    public String getLatencyIntervalSummary() {
+        return getLatencyHistogram().getIntervalSnapshot().toString();
+    }
+
+    public void resetLatencyHistogram() {
+        getLatencyHistogram().reset();
+    }
+
 
     /**
      * Return the real path for a given virtual path, if possible; otherwise
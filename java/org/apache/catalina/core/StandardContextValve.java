@@ -17,6 +17,7 @@
 package org.apache.catalina.core;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
@@ -26,6 +27,7 @@ import org.apache.catalina.Wrapper;
 import org.apache.catalina.connector.Request;
 import org.apache.catalina.connector.Response;
 import org.apache.catalina.valves.ValveBase;
+import org.apache.coyote.RequestPhase;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.res.StringManager;
 
@@ -62,6 +64,18 @@ final class StandardContextValve extends ValveBase {
     public final void invoke(Request request, Response response)
         throws IOException, ServletException {
 
+        request.phaseStart(RequestPhase.CONTEXT);
+        try {
+            doInvoke(request, response);
+        } finally {
+            request.phaseEnd(RequestPhase.CONTEXT);
+        }
+    }
+
+
+    private void doInvoke(Request request, Response response)
+        throws IOException, ServletException {
+
         // Disallow any direct access to resources under WEB-INF or META-INF
         MessageBytes requestPathMB = request.getRequestPathMB();
         if ((requestPathMB.startsWithIgnoreCase("/META-INF/", 0))
@@ -93,6 +107,16 @@ final class StandardContextValve extends ValveBase {
         if (request.isAsyncSupported()) {
             request.setAsyncSupported(wrapper.getPipeline().isAsyncSupported());
         }
-        wrapper.getPipeline().getFirst().invoke(request, response);
+        if (container instanceof StandardContext) {
+            long t1 = System.nanoTime();
+            try {
+                wrapper.getPipeline().getFirst().invoke(request, response);
+            } finally {
+                ((StandardContext) container).getLatencyHistogram().record(
+                        TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - t1));
+            }
+        } else {
+            wrapper.getPipeline().getFirst().invoke(request, response);
+        }
     }
 }
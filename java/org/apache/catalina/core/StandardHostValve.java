@@ -33,6 +33,7 @@ import org.apache.catalina.connector.Request;
 import org.apache.catalina.connector.Response;
 import org.apache.catalina.valves.ValveBase;
 import org.apache.coyote.ActionCode;
+import org.apache.coyote.RequestPhase;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
@@ -119,6 +120,7 @@ final class StandardHostValve extends ValveBase {
 
         boolean asyncAtStart = request.isAsync();
 
+        request.phaseStart(RequestPhase.HOST);
         try {
             context.bind(Globals.IS_SECURITY_ENABLED, MY_CLASSLOADER);
 
@@ -188,6 +190,7 @@ final class StandardHostValve extends ValveBase {
             }
 
             context.unbind(Globals.IS_SECURITY_ENABLED, MY_CLASSLOADER);
+            request.phaseEnd(RequestPhase.HOST);
         }
     }
 
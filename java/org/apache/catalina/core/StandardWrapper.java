@@ -58,6 +58,7 @@ import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.InstanceManager;
 import org.apache.tomcat.PeriodicEventListener;
 import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.collections.LatencyHistogram;
 import org.apache.tomcat.util.log.SystemLogHandler;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.modeler.Util;
@@ -1446,6 +1447,57 @@ public class StandardWrapper extends ContainerBase
         swValve.incrementErrorCount();
     }
 
+    /**
+     * @return the histogram of the processing times, in microseconds, of the
+     *         requests processed by this servlet
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return swValve.getLatencyHistogram();
+    }
+
+    public long getLatencyP50() {
+        return getLatencyPercentile(50);
+    }
+
+    public long getLatencyP90() {
+        return getLatencyPercentile(90);
+    }
+
+    public long getLatencyP99() {
+        return getLatencyPercentile(99);
+    }
+
+    public long getLatencyP999() {
+        return getLatencyPercentile(99.9);
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 100
+     *
+     * @return the processing time, in microseconds, at the given percentile
+     *         of the requests processed by this servlet
+     */
+    public long getLatencyPercentile(double percentile) {
+        return getLatencyHistogram().getSnapshot().getValueAtPercentile(percentile);
+    }
+
+    public String getLatencySummary() {
+        return getLatencyHistogram().getSnapshot().toString();
+    }
+
+    /**
+     * @return a summary of the processing times, in microseconds, of the
+     *         requests processed by this servlet since the previous call
+     *         to this method
+     */
+    public String getLatencyIntervalSummary() {
+        return getLatencyHistogram().getIntervalSnapshot().toString();
+    }
+
+    public void resetLatencyHistogram() {
+        getLatencyHistogram().reset();
+    }
+
     public long getLoadTime() {
         return loadTime;
     }
@@ -20,6 +20,7 @@ package org.apache.catalina.core;
 
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.DispatcherType;
@@ -36,8 +37,10 @@ import org.apache.catalina.connector.ClientAbortException;
 import org.apache.catalina.connector.Request;
 import org.apache.catalina.connector.Response;
 import org.apache.catalina.valves.ValveBase;
+import org.apache.coyote.RequestPhase;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.collections.LatencyHistogram;
 import org.apache.tomcat.util.log.SystemLogHandler;
 import org.apache.tomcat.util.res.StringManager;
 
@@ -61,11 +64,13 @@ final class StandardWrapperValve
     // Some JMX statistics. This valve is associated with a StandardWrapper.
     // We expose the StandardWrapper as JMX ( j2eeType=Servlet ). The fields
     // are here for performance.
-    private volatile long processingTime;
+    private volatile long processingTimeNanos;
     private volatile long maxTime;
     private volatile long minTime = Long.MAX_VALUE;
     private final AtomicInteger requestCount = new AtomicInteger(0);
     private final AtomicInteger errorCount = new AtomicInteger(0);
+    // Processing times in microseconds
+    private final LatencyHistogram latencyHistogram = new LatencyHistogram();
 
 
     /**
@@ -96,7 +101,7 @@ final class StandardWrapperValve
         boolean unavailable = false;
         Throwable throwable = null;
         // This should be a Request attribute...
-        long t1=System.currentTimeMillis();
+        long t1=System.nanoTime();
         requestCount.incrementAndGet();
         StandardWrapper wrapper = (StandardWrapper) getContainer();
         Servlet servlet = null;
@@ -175,6 +180,7 @@ final class StandardWrapperValve
         // NOTE: This also calls the servlet's service() method
         try {
             if ((servlet != null) && (filterChain != null)) {
+                request.phaseStart(RequestPhase.FILTER_CHAIN);
                 // Swallow output if needed
                 if (context.getSwallowOutput()) {
                     try {
@@ -253,6 +259,7 @@ final class StandardWrapperValve
             throwable = e;
             exception(request, response, e);
         }
+        request.phaseEnd(RequestPhase.FILTER_CHAIN);
 
         // Release the filter chain (if any) for this request
         if (filterChain != null) {
@@ -290,10 +297,12 @@ final class StandardWrapperValve
                 exception(request, response, e);
             }
         }
-        long t2=System.currentTimeMillis();
+        long t2=System.nanoTime();
 
-        long time=t2-t1;
-        processingTime += time;
+        long timeNanos=t2-t1;
+        processingTimeNanos += timeNanos;
+        latencyHistogram.record(TimeUnit.NANOSECONDS.toMicros(timeNanos));
+        long time=TimeUnit.NANOSECONDS.toMillis(timeNanos);
         if( time > maxTime) maxTime=time;
         if( time < minTime) minTime=time;
 
@@ -321,7 +330,7 @@ final class StandardWrapperValve
     }
 
     public long getProcessingTime() {
-        return processingTime;
+        return TimeUnit.NANOSECONDS.toMillis(processingTimeNanos);
     }
 
     public long getMaxTime() {
@@ -344,6 +353,10 @@ final class StandardWrapperValve
         errorCount.incrementAndGet();
     }
 
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+
     @Override
     protected void initInternal() throws LifecycleException {
         // NOOP - Don't register this Valve in JMX
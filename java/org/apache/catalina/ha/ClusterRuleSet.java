@@ -91,6 +91,14 @@ public class ClusterRuleSet implements RuleSet {
                "setSessionIdGenerator",
                "org.apache.catalina.SessionIdGenerator");
 
+        digester.addObjectCreate(prefix + "Manager/SessionSerializer",
+                "org.apache.catalina.session.JavaSessionSerializer",
+                "className");
+        digester.addSetProperties(prefix + "Manager/SessionSerializer");
+        digester.addSetNext(prefix + "Manager/SessionSerializer",
+               "setSessionSerializer",
+               "org.apache.catalina.SessionSerializer");
+
         digester.addObjectCreate(prefix + "Channel",
                                  null, // MUST be specified in the element
                                  "className");
@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.deploy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * The chunks of a file, with their SHA-256 hashes and the SHA-256 hash of the
+ * whole file. The chunk boundaries are defined by the content of the file
+ * using a rolling hash rather than by fixed offsets, so that a change to one
+ * part of the file, including inserting or removing bytes, only changes the
+ * chunks around it. The chunks of two versions of the same WAR file therefore
+ * have mostly the same hashes, which allows the chunks that did not change to
+ * be reused rather than transferred again.
+ * <p>
+ * Chunks are on average the requested chunk size, rounded down to a power of
+ * two, and are between a quarter and four times that size. Only files
+ * chunked with the same chunk size have matching chunks.
+ */
+public class ChunkedFile {
+
+    private static final StringManager sm = StringManager.getManager(ChunkedFile.class);
+
+    /**
+     * The digest algorithm used for the chunk and file hashes.
+     */
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /*
+     * The random values of the rolling hash. The seed is fixed since every
+     * node must find the same chunk boundaries.
+     */
+    private static final long[] GEAR = new long[256];
+    static {
+        Random random = new Random(0x5eed_cafe_f00dL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final File file;
+    private final int chunkSize;
+    private final long length;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final byte[][] hashes;
+    private final byte[] fileHash;
+
+
+    private ChunkedFile(File file, int chunkSize, long length, long[] offsets,
+            int[] lengths, byte[][] hashes, byte[] fileHash) {
+        this.file = file;
+        this.chunkSize = chunkSize;
+        this.length = length;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.hashes = hashes;
+        this.fileHash = fileHash;
+    }
+
+
+    /**
+     * Reads a file and splits it into chunks.
+     *
+     * @param f         The file to chunk
+     * @param chunkSize The average chunk size
+     * @return the chunks of the file
+     * @throws IOException if the file cannot be read
+     */
+    public static ChunkedFile getInstance(File f, int chunkSize) throws IOException {
+        if (chunkSize < 64) {
+            throw new IllegalArgumentException(
+                    sm.getString("chunkedFile.invalidChunkSize", Integer.valueOf(chunkSize)));
+        }
+        int averageSize = Integer.highestOneBit(chunkSize);
+        long mask = averageSize - 1;
+        int minSize = averageSize / 4;
+        int maxSize = averageSize * 4;
+
+        MessageDigest fileDigest = createDigest();
+        MessageDigest chunkDigest = createDigest();
+        int capacity = 16;
+        long[] offsets = new long[capacity];
+        int[] lengths = new int[capacity];
+        byte[][] hashes = new byte[capacity][];
+        int count = 0;
+
+        long length = 0;
+        long offset = 0;
+        int chunkLength = 0;
+        long hash = 0;
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(f)) {
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                fileDigest.update(buf, 0, read);
+                int start = 0;
+                for (int i = 0; i < read; i++) {
+                    hash = (hash << 1) + GEAR[buf[i] & 0xFF];
+                    chunkLength++;
+                    if (chunkLength >= maxSize || (chunkLength >= minSize && (hash & mask) == 0)) {
+                        chunkDigest.update(buf, start, i + 1 - start);
+                        start = i + 1;
+                        if (count == capacity) {
+                            capacity *= 2;
+                            offsets = Arrays.copyOf(offsets, capacity);
+                            lengths = Arrays.copyOf(lengths, capacity);
+                            hashes = Arrays.copyOf(hashes, capacity);
+                        }
+                        offsets[count] = offset;
+                        lengths[count] = chunkLength;
+                        hashes[count] = chunkDigest.digest();
+                        count++;
+                        offset += chunkLength;
+                        chunkLength = 0;
+                        hash = 0;
+                    }
+                }
+                chunkDigest.update(buf, start, read - start);
+                length += read;
+            }
+        }
+        if (chunkLength > 0) {
+            if (count == capacity) {
+                capacity++;
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                hashes = Arrays.copyOf(hashes, capacity);
+            }
+            offsets[count] = offset;
+            lengths[count] = chunkLength;
+            hashes[count] = chunkDigest.digest();
+            count++;
+        }
+        return new ChunkedFile(f, chunkSize, length, Arrays.copyOf(offsets, count),
+                Arrays.copyOf(lengths, count), Arrays.copyOf(hashes, count), fileDigest.digest());
+    }
+
+
+    /**
+     * Reads the data of a chunk from the file.
+     *
+     * @param index The index of the chunk
+     * @return the data of the chunk
+     * @throws IOException if the file cannot be read
+     */
+    public byte[] readChunk(int index) throws IOException {
+        byte[] data = new byte[lengths[index]];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(offsets[index]);
+            raf.readFully(data);
+        }
+        return data;
+    }
+
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getChunkCount() {
+        return lengths.length;
+    }
+
+    public long getChunkOffset(int index) {
+        return offsets[index];
+    }
+
+    public int getChunkLength(int index) {
+        return lengths[index];
+    }
+
+    public byte[] getChunkHash(int index) {
+        return hashes[index];
+    }
+
+    public int[] getChunkLengths() {
+        return lengths;
+    }
+
+    public byte[][] getChunkHashes() {
+        return hashes;
+    }
+
+    public byte[] getFileHash() {
+        return fileHash;
+    }
+
+
+    /**
+     * @return a new digest for the chunk and file hashes
+     */
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
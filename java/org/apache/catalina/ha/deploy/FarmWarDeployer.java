@@ -19,7 +19,14 @@ package org.apache.catalina.ha.deploy;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -38,6 +45,7 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
 
 
 /**
@@ -54,6 +62,13 @@ import org.apache.tomcat.util.res.StringManager;
  * </ul>
  * Currently we only support deployment of WAR files since they are easier to
  * send across the wire.
+ * <p>
+ * When incrementalTransfer is enabled, a WAR is not sent as a sequence of
+ * {@link FileMessage}s. The other nodes are sent a {@link FileManifestMessage}
+ * listing the content defined chunks of the WAR, reuse the chunks that did not
+ * change from the version of the WAR they have deployed and request the
+ * others, which are sent in parallel and written as they arrive. The
+ * assembled WAR is verified against the manifest before it is deployed.
  *
  * @author Peter Rossbach
  */
@@ -69,6 +84,19 @@ public class FarmWarDeployer extends ClusterListener
     protected final HashMap<String, FileMessageFactory> fileFactories =
         new HashMap<>();
 
+    /**
+     * The WARs being assembled from chunks, by file name.
+     */
+    protected final HashMap<String, FileChunkAssembler> fileAssemblers =
+        new HashMap<>();
+
+    /**
+     * The chunks of the WARs sent to the other nodes, by file name, used to
+     * answer their chunk requests.
+     */
+    protected final Map<String, ChunkedFile> chunkedFiles =
+        new ConcurrentHashMap<>();
+
     /**
      * Deployment directory.
      */
@@ -128,6 +156,27 @@ public class FarmWarDeployer extends ClusterListener
      */
     protected int maxValidTime = 5 * 60;
 
+    /**
+     * Send WARs as content defined chunks, only the chunks that changed being
+     * transferred.
+     */
+    protected boolean incrementalTransfer = false;
+
+    /**
+     * The average size of the content defined chunks.
+     */
+    protected int chunkSize = 32 * 1024;
+
+    /**
+     * The number of threads used to send chunks in parallel.
+     */
+    protected int transferThreads = 4;
+
+    /**
+     * The executor used to send chunks.
+     */
+    private ExecutorService transferExecutor = null;
+
     /*--Constructor---------------------------------------------*/
     public FarmWarDeployer() {
     }
@@ -175,6 +224,13 @@ public class FarmWarDeployer extends ClusterListener
         // Retrieve the MBean server
         mBeanServer = Registry.getRegistry(null, null).getMBeanServer();
 
+        TaskThreadFactory tf = new TaskThreadFactory(
+                "FarmWarDeployer-" + hostname + "-Transfer-", true, Thread.NORM_PRIORITY);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(transferThreads,
+                transferThreads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), tf);
+        executor.allowCoreThreadTimeOut(true);
+        transferExecutor = executor;
+
         started = true;
         count = 0;
 
@@ -199,6 +255,11 @@ public class FarmWarDeployer extends ClusterListener
             watcher = null;
 
         }
+        if (transferExecutor != null) {
+            transferExecutor.shutdownNow();
+            transferExecutor = null;
+        }
+        chunkedFiles.clear();
         if (log.isInfoEnabled())
             log.info(sm.getString("farmWarDeployer.stopped"));
     }
@@ -222,39 +283,26 @@ public class FarmWarDeployer extends ClusterListener
                 // TODO correct second try after app is in service!
                 if (factory.writeMessage(fmsg)) {
                     //last message received war file is completed
-                    String name = factory.getFile().getName();
-                    if (!name.endsWith(".war"))
-                        name = name + ".war";
-                    File deployable = new File(getDeployDirFile(), name);
                     try {
-                        String contextName = fmsg.getContextName();
-                        if (!isServiced(contextName)) {
-                            addServiced(contextName);
-                            try {
-                                remove(contextName);
-                                if (!factory.getFile().renameTo(deployable)) {
-                                    log.error(sm.getString(
-                                            "farmWarDeployer.renameFail",
-                                            factory.getFile(), deployable));
-                                }
-                                check(contextName);
-                            } finally {
-                                removeServiced(contextName);
-                            }
-                            if (log.isDebugEnabled())
-                                log.debug(sm.getString(
-                                        "farmWarDeployer.deployEnd",
-                                        contextName));
-                        } else
-                            log.error(sm.getString(
-                                    "farmWarDeployer.servicingDeploy",
-                                    contextName, name));
-                    } catch (Exception ex) {
-                        log.error(sm.getString("farmWarDeployer.fileMessageError"), ex);
+                        deploy(fmsg.getContextName(), factory.getFile());
                     } finally {
                         removeFactory(fmsg);
                     }
                 }
+            } else if (msg instanceof FileManifestMessage) {
+                manifestReceived((FileManifestMessage) msg);
+            } else if (msg instanceof FileChunkRequestMessage) {
+                chunkRequestReceived((FileChunkRequestMessage) msg);
+            } else if (msg instanceof FileChunkMessage) {
+                FileChunkMessage cmsg = (FileChunkMessage) msg;
+                FileChunkAssembler assembler = getAssembler(cmsg.getFileName(), cmsg.getFileHash());
+                if (assembler == null) {
+                    if (log.isDebugEnabled())
+                        log.debug(sm.getString("farmWarDeployer.unknownChunk",
+                                Integer.valueOf(cmsg.getChunkIndex()), cmsg.getFileName()));
+                } else if (assembler.writeChunk(cmsg)) {
+                    assembled(assembler);
+                }
             } else if (msg instanceof UndeployMessage) {
                 try {
                     UndeployMessage umsg = (UndeployMessage) msg;
@@ -286,6 +334,156 @@ public class FarmWarDeployer extends ClusterListener
         }
     }
 
+    /**
+     * Deploy a war file that was received from the cluster.
+     *
+     * @param contextName The context name of the application
+     * @param file The received war file
+     */
+    protected void deploy(String contextName, File file) {
+        String name = file.getName();
+        if (!name.endsWith(".war"))
+            name = name + ".war";
+        File deployable = new File(getDeployDirFile(), name);
+        try {
+            if (!isServiced(contextName)) {
+                addServiced(contextName);
+                try {
+                    remove(contextName);
+                    if (!file.renameTo(deployable)) {
+                        log.error(sm.getString(
+                                "farmWarDeployer.renameFail",
+                                file, deployable));
+                    }
+                    check(contextName);
+                } finally {
+                    removeServiced(contextName);
+                }
+                if (log.isDebugEnabled())
+                    log.debug(sm.getString(
+                            "farmWarDeployer.deployEnd",
+                            contextName));
+            } else
+                log.error(sm.getString(
+                        "farmWarDeployer.servicingDeploy",
+                        contextName, name));
+        } catch (Exception ex) {
+            log.error(sm.getString("farmWarDeployer.fileMessageError"), ex);
+        }
+    }
+
+    /**
+     * Start assembling a war file described by a manifest, reusing the chunks
+     * of the currently deployed version and requesting the others from the
+     * sender.
+     *
+     * @param msg The manifest
+     * @throws IOException If the war file cannot be created or written
+     */
+    protected void manifestReceived(FileManifestMessage msg) throws IOException {
+        if (log.isDebugEnabled())
+            log.debug(sm.getString("farmWarDeployer.msgRxDeploy",
+                    msg.getContextName(), msg.getFileName()));
+        File writeToFile = new File(getTempDirFile(), msg.getFileName());
+        FileChunkAssembler assembler;
+        synchronized (this) {
+            FileChunkAssembler previous = fileAssemblers.remove(msg.getFileName());
+            if (previous != null) {
+                previous.cleanup();
+            }
+            assembler = new FileChunkAssembler(writeToFile, msg);
+            assembler.setMaxValidTime(maxValidTime);
+            fileAssemblers.put(msg.getFileName(), assembler);
+        }
+        String name = msg.getFileName();
+        if (!name.endsWith(".war"))
+            name = name + ".war";
+        int[] chunkIndexes = assembler.reuse(new File(getDeployDirFile(), name));
+        if (chunkIndexes.length == 0) {
+            if (assembler.isComplete()) {
+                assembled(assembler);
+            }
+        } else {
+            if (log.isDebugEnabled())
+                log.debug(sm.getString("farmWarDeployer.chunkRequest",
+                        Integer.valueOf(chunkIndexes.length), Integer.valueOf(msg.getChunkCount()),
+                        msg.getFileName(), msg.getAddress()));
+            FileChunkRequestMessage request = new FileChunkRequestMessage(
+                    getCluster().getLocalMember(), msg.getFileName(),
+                    msg.getContextName(), msg.getFileHash(), chunkIndexes);
+            getCluster().send(request, msg.getAddress());
+        }
+    }
+
+    /**
+     * Send the requested chunks of a war file to the requesting node, in
+     * parallel.
+     *
+     * @param msg The request
+     */
+    protected void chunkRequestReceived(FileChunkRequestMessage msg) {
+        ChunkedFile chunkedFile = chunkedFiles.get(msg.getFileName());
+        ExecutorService executor = transferExecutor;
+        if (chunkedFile == null || executor == null ||
+                !Arrays.equals(chunkedFile.getFileHash(), msg.getFileHash())) {
+            log.warn(sm.getString("farmWarDeployer.unknownTransfer",
+                    msg.getFileName(), msg.getAddress()));
+            return;
+        }
+        Member localMember = getCluster().getLocalMember();
+        Member dest = msg.getAddress();
+        for (int index : msg.getChunkIndexes()) {
+            executor.execute(() -> {
+                try {
+                    FileChunkMessage chunk = new FileChunkMessage(localMember,
+                            msg.getFileName(), msg.getContextName(),
+                            msg.getFileHash(), index, chunkedFile.readChunk(index));
+                    getCluster().send(chunk, dest);
+                } catch (Exception e) {
+                    log.error(sm.getString("farmWarDeployer.chunkSendFail",
+                            Integer.valueOf(index), msg.getFileName(), dest), e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Verify a war file once all of its chunks have been written, and deploy
+     * it if it matches its manifest.
+     *
+     * @param assembler The assembler of the war file
+     * @throws IOException If the war file cannot be read
+     */
+    protected void assembled(FileChunkAssembler assembler) throws IOException {
+        FileManifestMessage manifest = assembler.getManifest();
+        synchronized (this) {
+            fileAssemblers.remove(manifest.getFileName(), assembler);
+        }
+        if (assembler.verify()) {
+            deploy(manifest.getContextName(), assembler.getFile());
+        } else {
+            log.error(sm.getString("farmWarDeployer.verifyFail",
+                    manifest.getFileName(), manifest.getContextName()));
+            if (!assembler.getFile().delete()) {
+                log.error(sm.getString("farmWarDeployer.deleteFail", assembler.getFile()));
+            }
+        }
+    }
+
+    /**
+     * @param fileName The name of the war file
+     * @param fileHash The hash of the war file
+     * @return the assembler of the war file, or null if the war file is not
+     *         being assembled
+     */
+    protected synchronized FileChunkAssembler getAssembler(String fileName, byte[] fileHash) {
+        FileChunkAssembler assembler = fileAssemblers.get(fileName);
+        if (assembler != null && Arrays.equals(assembler.getManifest().getFileHash(), fileHash)) {
+            return assembler;
+        }
+        return null;
+    }
+
     /**
      * Create factory for all transported war files
      *
@@ -327,7 +525,10 @@ public class FarmWarDeployer extends ClusterListener
      */
     @Override
     public boolean accept(ClusterMessage msg) {
-        return (msg instanceof FileMessage) || (msg instanceof UndeployMessage);
+        return (msg instanceof FileMessage) || (msg instanceof UndeployMessage) ||
+                (msg instanceof FileManifestMessage) ||
+                (msg instanceof FileChunkRequestMessage) ||
+                (msg instanceof FileChunkMessage);
     }
 
     /**
@@ -360,6 +561,20 @@ public class FarmWarDeployer extends ClusterListener
         if (members.length == 0) return;
 
         Member localMember = getCluster().getLocalMember();
+        if (incrementalTransfer) {
+            if(log.isDebugEnabled())
+                log.debug(sm.getString("farmWarDeployer.sendStart", contextName,
+                        webapp));
+            ChunkedFile chunkedFile = ChunkedFile.getInstance(webapp, chunkSize);
+            chunkedFiles.put(webapp.getName(), chunkedFile);
+            FileManifestMessage msg = new FileManifestMessage(localMember,
+                    webapp.getName(), contextName, chunkedFile);
+            for (int i = 0; i < members.length; i++) {
+                getCluster().send(msg, members[i]);
+            }
+            // The chunks are sent as the members request them
+            return;
+        }
         FileMessageFactory factory =
             FileMessageFactory.getInstance(webapp, false);
         FileMessage msg = new FileMessage(localMember, webapp.getName(),
@@ -725,6 +940,30 @@ public class FarmWarDeployer extends ClusterListener
         this.maxValidTime = maxValidTime;
     }
 
+    public boolean getIncrementalTransfer() {
+        return incrementalTransfer;
+    }
+
+    public void setIncrementalTransfer(boolean incrementalTransfer) {
+        this.incrementalTransfer = incrementalTransfer;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getTransferThreads() {
+        return transferThreads;
+    }
+
+    public void setTransferThreads(int transferThreads) {
+        this.transferThreads = transferThreads;
+    }
+
     /**
      * Copy a file to the specified temp directory.
      * @param from copy from temp
@@ -770,6 +1009,9 @@ public class FarmWarDeployer extends ClusterListener
                 fileFactories.remove(fileName);
             }
         }
+        synchronized (this) {
+            fileAssemblers.values().removeIf(assembler -> !assembler.isValid());
+        }
     }
 
     private File getAbsolutePath(String path) {
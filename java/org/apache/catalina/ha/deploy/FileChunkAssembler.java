@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.deploy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.buf.HexUtils;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Assembles a file described by a {@link FileManifestMessage} from the chunks
+ * of a previous version of the file that did not change and from the
+ * {@link FileChunkMessage}s received for the others. Every chunk is written at
+ * its offset as soon as it arrives, so chunks may arrive in any order. A chunk
+ * that appears more than once in the file is only requested once.
+ * <p>
+ * Every received chunk is checked against its hash in the manifest and, once
+ * all chunks have been written, {@link #verify()} checks the assembled file
+ * against the length and hash of the whole file.
+ */
+public class FileChunkAssembler {
+    private static final Log log = LogFactory.getLog(FileChunkAssembler.class);
+    private static final StringManager sm = StringManager.getManager(FileChunkAssembler.class);
+
+    /**
+     * The file that we are writing
+     */
+    protected final File file;
+
+    /**
+     * The manifest of the file
+     */
+    protected final FileManifestMessage manifest;
+
+    /**
+     * The offset of each chunk in the file
+     */
+    protected final long[] offsets;
+
+    /**
+     * The indexes of the chunks not yet written, by the hex encoded hash of
+     * the chunk
+     */
+    protected final Map<String, List<Integer>> missing = new LinkedHashMap<>();
+
+    /**
+     * The channel used to write the chunks
+     */
+    protected FileChannel channel;
+
+    /**
+     * The time this instance was created. (in milliseconds)
+     */
+    protected final long creationTime;
+
+    /**
+     * The maximum valid time(in seconds) from creationTime.
+     */
+    protected int maxValidTime = -1;
+
+
+    /**
+     * Creates the file and sizes it to the length in the manifest.
+     *
+     * @param f        The file to be written
+     * @param manifest The manifest of the file
+     * @throws IOException if the file cannot be created
+     */
+    @SuppressWarnings("resource")
+    public FileChunkAssembler(File f, FileManifestMessage manifest) throws IOException {
+        this.file = f;
+        this.manifest = manifest;
+        int[] lengths = manifest.getChunkLengths();
+        byte[][] hashes = manifest.getChunkHashes();
+        offsets = new long[lengths.length];
+        long offset = 0;
+        for (int i = 0; i < lengths.length; i++) {
+            offsets[i] = offset;
+            offset += lengths[i];
+            missing.computeIfAbsent(HexUtils.toHexString(hashes[i]),
+                    k -> new ArrayList<>(1)).add(Integer.valueOf(i));
+        }
+        if (offset != manifest.getFileLength()) {
+            throw new IOException(sm.getString("fileChunkAssembler.invalidManifest",
+                    manifest.getFileName(), Long.valueOf(manifest.getFileLength()), Long.valueOf(offset)));
+        }
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength(offset);
+        channel = raf.getChannel();
+        creationTime = System.currentTimeMillis();
+    }
+
+
+    /**
+     * Copies the chunks that did not change from a previous version of the
+     * file.
+     *
+     * @param previous The previous version of the file, which need not exist
+     * @return the indexes of the chunks that are still missing, one for each
+     *         distinct chunk
+     * @throws IOException if the previous version cannot be read or the file
+     *         cannot be written
+     */
+    public synchronized int[] reuse(File previous) throws IOException {
+        if (previous.isFile() && !missing.isEmpty()) {
+            ChunkedFile chunkedFile = ChunkedFile.getInstance(previous, manifest.getChunkSize());
+            for (int i = 0; i < chunkedFile.getChunkCount() && !missing.isEmpty(); i++) {
+                List<Integer> indexes = missing.remove(HexUtils.toHexString(chunkedFile.getChunkHash(i)));
+                if (indexes != null) {
+                    write(indexes, chunkedFile.readChunk(i));
+                }
+            }
+        }
+        return getMissingChunks();
+    }
+
+
+    /**
+     * Writes a chunk to the file, at the offset of every chunk of the file
+     * with the same content.
+     *
+     * @param msg The message containing the chunk
+     * @return true if the chunk was the last one missing, false otherwise
+     * @throws IOException if the chunk does not match the manifest or cannot
+     *         be written
+     */
+    public synchronized boolean writeChunk(FileChunkMessage msg) throws IOException {
+        int index = msg.getChunkIndex();
+        byte[] data = msg.getData();
+        if (index < 0 || index >= offsets.length) {
+            throw new IOException(sm.getString("fileChunkAssembler.invalidChunk",
+                    Integer.valueOf(index), manifest.getFileName()));
+        }
+        byte[] expected = manifest.getChunkHashes()[index];
+        if (!MessageDigest.isEqual(expected, ChunkedFile.createDigest().digest(data))) {
+            throw new IOException(sm.getString("fileChunkAssembler.hashMismatch",
+                    Integer.valueOf(index), manifest.getFileName()));
+        }
+        List<Integer> indexes = missing.remove(HexUtils.toHexString(expected));
+        if (indexes == null) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("fileChunkAssembler.duplicateChunk",
+                        Integer.valueOf(index), manifest.getFileName()));
+            }
+            return false;
+        }
+        write(indexes, data);
+        return missing.isEmpty();
+    }
+
+
+    /**
+     * Closes the file and checks its length and hash against the manifest.
+     *
+     * @return true if the file matches the manifest, false otherwise
+     * @throws IOException if the file cannot be read
+     */
+    public synchronized boolean verify() throws IOException {
+        cleanup();
+        if (!missing.isEmpty() || file.length() != manifest.getFileLength()) {
+            return false;
+        }
+        MessageDigest digest = ChunkedFile.createDigest();
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                digest.update(buf, 0, read);
+            }
+        }
+        return MessageDigest.isEqual(manifest.getFileHash(), digest.digest());
+    }
+
+
+    /**
+     * Closes the file.
+     */
+    public synchronized void cleanup() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+            channel = null;
+        }
+    }
+
+
+    private void write(List<Integer> indexes, byte[] data) throws IOException {
+        if (channel == null) {
+            throw new IOException(sm.getString("fileChunkAssembler.closed", manifest.getFileName()));
+        }
+        for (Integer index : indexes) {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            long position = offsets[index.intValue()];
+            while (buf.hasRemaining()) {
+                position += channel.write(buf, position);
+            }
+        }
+    }
+
+
+    public synchronized int[] getMissingChunks() {
+        int[] result = new int[missing.size()];
+        int i = 0;
+        for (List<Integer> indexes : missing.values()) {
+            result[i++] = indexes.get(0).intValue();
+        }
+        return result;
+    }
+
+    public synchronized boolean isComplete() {
+        return missing.isEmpty();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public FileManifestMessage getManifest() {
+        return manifest;
+    }
+
+    public boolean isValid() {
+        if (maxValidTime > 0) {
+            long timeNow = System.currentTimeMillis();
+            int timeIdle = (int) ((timeNow - creationTime) / 1000L);
+            if (timeIdle > maxValidTime) {
+                cleanup();
+                if (file.exists() && !file.delete()) {
+                    log.warn(sm.getString("fileChunkAssembler.deleteFail", file));
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getMaxValidTime() {
+        return maxValidTime;
+    }
+
+    public void setMaxValidTime(int maxValidTime) {
+        this.maxValidTime = maxValidTime;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.deploy;
+
+import org.apache.catalina.ha.ClusterMessageBase;
+import org.apache.catalina.tribes.Member;
+import org.apache.tomcat.util.buf.HexUtils;
+
+/**
+ * Contains the data of one chunk of a file described by a
+ * {@link FileManifestMessage}. Chunks may be sent in parallel and may arrive
+ * in any order.
+ */
+public class FileChunkMessage extends ClusterMessageBase {
+    private static final long serialVersionUID = 1L;
+
+    private final String fileName;
+    private final String contextName;
+    private final byte[] fileHash;
+    private final int chunkIndex;
+    private final byte[] data;
+
+    public FileChunkMessage(Member source,
+                            String fileName,
+                            String contextName,
+                            byte[] fileHash,
+                            int chunkIndex,
+                            byte[] data) {
+        this.address = source;
+        this.fileName = fileName;
+        this.contextName = contextName;
+        this.fileHash = fileHash;
+        this.chunkIndex = chunkIndex;
+        this.data = data;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+    public String getContextName() {
+        return contextName;
+    }
+    public byte[] getFileHash() {
+        return fileHash;
+    }
+    public int getChunkIndex() {
+        return chunkIndex;
+    }
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public String getUniqueId() {
+        StringBuilder result = new StringBuilder(getFileName());
+        result.append("#-#");
+        result.append(getChunkIndex());
+        result.append("#-#");
+        result.append(System.currentTimeMillis());
+        return result.toString();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.deploy;
+
+import org.apache.catalina.ha.ClusterMessageBase;
+import org.apache.catalina.tribes.Member;
+import org.apache.tomcat.util.buf.HexUtils;
+
+/**
+ * Sent by a node that received a {@link FileManifestMessage} to request the
+ * chunks of the file it could not reuse from its own copy.
+ */
+public class FileChunkRequestMessage extends ClusterMessageBase {
+    private static final long serialVersionUID = 1L;
+
+    private final String fileName;
+    private final String contextName;
+    private final byte[] fileHash;
+    private final int[] chunkIndexes;
+
+    public FileChunkRequestMessage(Member source,
+                                   String fileName,
+                                   String contextName,
+                                   byte[] fileHash,
+                                   int[] chunkIndexes) {
+        this.address = source;
+        this.fileName = fileName;
+        this.contextName = contextName;
+        this.fileHash = fileHash;
+        this.chunkIndexes = chunkIndexes;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+    public String getContextName() {
+        return contextName;
+    }
+    public byte[] getFileHash() {
+        return fileHash;
+    }
+    public int[] getChunkIndexes() {
+        return chunkIndexes;
+    }
+
+    @Override
+    public String getUniqueId() {
+        StringBuilder result = new StringBuilder(getFileName());
+        result.append("#-#");
+        result.append(HexUtils.toHexString(getFileHash()));
+        result.append("#-#");
+        result.append(System.currentTimeMillis());
+        return result.toString();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.deploy;
+
+import org.apache.catalina.ha.ClusterMessageBase;
+import org.apache.catalina.tribes.Member;
+import org.apache.tomcat.util.buf.HexUtils;
+
+/**
+ * Describes a file that is transferred in content defined chunks: the chunk
+ * size used to split it, the length and hash of every chunk and the length and
+ * hash of the whole file. The receiver reuses the chunks it already has,
+ * requests the others with a {@link FileChunkRequestMessage} and verifies the
+ * assembled file against the manifest.
+ *
+ * @see ChunkedFile
+ */
+public class FileManifestMessage extends ClusterMessageBase {
+    private static final long serialVersionUID = 1L;
+
+    private final String fileName;
+    private final String contextName;
+    private final int chunkSize;
+    private final long fileLength;
+    private final byte[] fileHash;
+    private final int[] chunkLengths;
+    private final byte[][] chunkHashes;
+
+    public FileManifestMessage(Member source,
+                               String fileName,
+                               String contextName,
+                               ChunkedFile chunkedFile) {
+        this.address = source;
+        this.fileName = fileName;
+        this.contextName = contextName;
+        this.chunkSize = chunkedFile.getChunkSize();
+        this.fileLength = chunkedFile.getLength();
+        this.fileHash = chunkedFile.getFileHash();
+        this.chunkLengths = chunkedFile.getChunkLengths();
+        this.chunkHashes = chunkedFile.getChunkHashes();
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+    public String getContextName() {
+        return contextName;
+    }
+    public int getChunkSize() {
+        return chunkSize;
+    }
+    public long getFileLength() {
+        return fileLength;
+    }
+    public byte[] getFileHash() {
+        return fileHash;
+    }
+    public int getChunkCount() {
+        return chunkLengths.length;
+    }
+    public int[] getChunkLengths() {
+        return chunkLengths;
+    }
+    public byte[][] getChunkHashes() {
+        return chunkHashes;
+    }
+
+    @Override
+    public String getUniqueId() {
+        StringBuilder result = new StringBuilder(getFileName());
+        result.append("#-#");
+        result.append(HexUtils.toHexString(getFileHash()));
+        result.append("#-#");
+        result.append(System.currentTimeMillis());
+        return result.toString();
+    }
+}
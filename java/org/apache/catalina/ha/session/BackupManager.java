@@ -72,6 +72,22 @@ public class BackupManager extends ClusterManagerBase
      */
     private long accessTimeout = 5000;
 
+    /**
+     * Should backup nodes be selected using a consistent hash ring?
+     */
+    private boolean consistentHashing = false;
+
+    /**
+     * The number of backup nodes for each session when using consistent
+     * hashing.
+     */
+    private int backupCount = 1;
+
+    /**
+     * The number of points each node has on the consistent hash ring.
+     */
+    private int virtualNodes = 100;
+
     /**
      * Constructor, just calls super()
      *
@@ -81,6 +97,20 @@ public class BackupManager extends ClusterManagerBase
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Always <code>false</code> for this Manager. Sessions may become primary
+     * on this node, or be held here as a backup, without being added via
+     * {@link #add(org.apache.catalina.Session)} so every session has to be
+     * checked.
+     */
+    @Override
+    public boolean getUseExpirationIndex() {
+        return false;
+    }
+
+
 //******************************************************************************/
 //      ClusterManager Interface
 //******************************************************************************/
@@ -146,7 +176,8 @@ public class BackupManager extends ClusterManagerBase
             if (cluster == null) throw new LifecycleException(sm.getString("backupManager.noCluster", getName()));
             LazyReplicatedMap<String,Session> map = new LazyReplicatedMap<>(
                     this, cluster.getChannel(), rpcTimeout, getMapName(),
-                    getClassLoaders(), terminateOnStartFailure);
+                    getClassLoaders(), terminateOnStartFailure,
+                    consistentHashing, backupCount, virtualNodes);
             map.setChannelSendOptions(mapSendOptions);
             map.setAccessTimeout(accessTimeout);
             this.sessions = map;
@@ -244,6 +275,30 @@ public class BackupManager extends ClusterManagerBase
         this.accessTimeout = accessTimeout;
     }
 
+    public boolean isConsistentHashing() {
+        return consistentHashing;
+    }
+
+    public void setConsistentHashing(boolean consistentHashing) {
+        this.consistentHashing = consistentHashing;
+    }
+
+    public int getBackupCount() {
+        return backupCount;
+    }
+
+    public void setBackupCount(int backupCount) {
+        this.backupCount = backupCount;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
     @Override
     public String[] getInvalidatedSessions() {
         return new String[0];
@@ -257,6 +312,9 @@ public class BackupManager extends ClusterManagerBase
         result.rpcTimeout = rpcTimeout;
         result.terminateOnStartFailure = terminateOnStartFailure;
         result.accessTimeout = accessTimeout;
+        result.consistentHashing = consistentHashing;
+        result.backupCount = backupCount;
+        result.virtualNodes = virtualNodes;
         return result;
     }
 
@@ -18,6 +18,7 @@ package org.apache.catalina.ha.session;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 
 import org.apache.catalina.Cluster;
 import org.apache.catalina.Context;
@@ -57,6 +58,12 @@ public abstract class ClusterManagerBase extends ManagerBase implements ClusterM
      */
     private boolean recordAllActions = false;
 
+    /**
+     * Should delta requests be sent using the compact encoding, which only
+     * nodes of this or a later version can read?
+     */
+    private boolean compactDeltaRequests = false;
+
     @Override
     public CatalinaCluster getCluster() {
         return cluster;
@@ -86,6 +93,15 @@ public abstract class ClusterManagerBase extends ManagerBase implements ClusterM
     }
 
 
+    public boolean isCompactDeltaRequests() {
+        return compactDeltaRequests;
+    }
+
+    public void setCompactDeltaRequests(boolean compactDeltaRequests) {
+        this.compactDeltaRequests = compactDeltaRequests;
+    }
+
+
     public static ClassLoader[] getClassLoaders(Context context) {
         ClassLoader tccl = Thread.currentThread().getContextClassLoader();
         Loader loader = context.getLoader();
@@ -120,6 +136,25 @@ public abstract class ClusterManagerBase extends ManagerBase implements ClusterM
     }
 
 
+    /**
+     * Open a stream to read session data written using
+     * {@link #getSessionObjectOutputStream(java.io.OutputStream)}.
+     *
+     * @param data   The session data
+     * @param offset The offset of the session data in the array
+     * @param length The length of the session data
+     *
+     * @return A stream from which the session data can be read
+     *
+     * @throws IOException if the stream cannot be created
+     */
+    public ObjectInputStream getSessionObjectInputStream(byte[] data, int offset, int length)
+            throws IOException {
+        ByteArrayInputStream fis = new ByteArrayInputStream(data, offset, length);
+        return getSessionObjectInputStream(fis, is -> new ReplicationStream(is, getClassLoaders()));
+    }
+
+
     //  ---------------------------------------------------- persistence handler
 
     /**
@@ -144,6 +179,7 @@ public abstract class ClusterManagerBase extends ManagerBase implements ClusterM
         copy.setName("Clone-from-" + getName());
         copy.setMaxActiveSessions(getMaxActiveSessions());
         copy.setProcessExpiresFrequency(getProcessExpiresFrequency());
+        copy.setUseExpirationIndex(getUseExpirationIndex());
         copy.setNotifyListenersOnReplication(isNotifyListenersOnReplication());
         copy.setSessionAttributeNameFilter(getSessionAttributeNameFilter());
         copy.setSessionAttributeValueClassNameFilter(getSessionAttributeValueClassNameFilter());
@@ -151,6 +187,7 @@ public abstract class ClusterManagerBase extends ManagerBase implements ClusterM
         copy.setSecureRandomClass(getSecureRandomClass());
         copy.setSecureRandomProvider(getSecureRandomProvider());
         copy.setSecureRandomAlgorithm(getSecureRandomAlgorithm());
+        copy.setSessionSerializer(getSessionSerializer());
         if (getSessionIdGenerator() != null) {
             try {
                 SessionIdGenerator copyIdGenerator = sessionIdGeneratorClass.getConstructor().newInstance();
@@ -162,6 +199,7 @@ public abstract class ClusterManagerBase extends ManagerBase implements ClusterM
             }
         }
         copy.setRecordAllActions(isRecordAllActions());
+        copy.setCompactDeltaRequests(isCompactDeltaRequests());
     }
 
     /**
@@ -81,7 +81,8 @@ public class ClusterSessionListener extends ClusterListener {
 
                     // A no context manager message is replied in order to avoid
                     // timeout of GET_ALL_SESSIONS sync phase.
-                    if (msg.getEventType() == SessionMessage.EVT_GET_ALL_SESSIONS) {
+                    if (msg.getEventType() == SessionMessage.EVT_GET_ALL_SESSIONS ||
+                            msg.getEventType() == SessionMessage.EVT_GET_SESSION_PARTITION) {
                         SessionMessage replymsg = new SessionMessageImpl(ctxname,
                                 SessionMessage.EVT_ALL_SESSION_NOCONTEXTMANAGER,
                                 null, "NO-CONTEXT-MANAGER","NO-CONTEXT-MANAGER-" + ctxname);
@@ -22,8 +22,23 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.catalina.Engine;
 import org.apache.catalina.Host;
@@ -40,6 +55,7 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
 
 /**
  * The DeltaManager manages replicated sessions by only replicating the deltas
@@ -89,15 +105,78 @@ public class DeltaManager extends ClusterManagerBase{
     private boolean stateTimestampDrop = true ;
     private volatile long stateTransferCreateSendTime;
 
+    /**
+     * Should the session state be transferred in partitions streamed from
+     * all the members of the cluster in parallel?
+     */
+    private boolean parallelStateTransfer = false;
+
+    /**
+     * Should the node start before a parallel state transfer completes,
+     * fetching sessions that have not yet been transferred on demand?
+     */
+    private boolean lazyStateTransfer = false;
+
+    /**
+     * The number of threads used to load the sessions received during a
+     * parallel state transfer.
+     */
+    private int stateTransferThreads = 4;
+
+    /**
+     * The number of session blocks of a partition that may be sent before
+     * the receiving node acknowledges them.
+     */
+    private int stateTransferWindow = 4;
+
+    /**
+     * The size in bytes above which a serialized delta request is replaced by
+     * the full session, if the full session is smaller. A negative value
+     * disables the limit.
+     */
+    private int maxDeltaRequestSize = -1;
+
+    /**
+     * The time in milliseconds a request waits for a session that has not
+     * yet been transferred to be fetched.
+     */
+    private static final long SESSION_FETCH_TIMEOUT = 2000;
+
+    /**
+     * The maximum number of session ids that were fetched but not found to
+     * remember.
+     */
+    private static final int SESSION_FETCH_MISSES_MAX = 10000;
+
+    /**
+     * The partitions of the parallel state transfer in progress, or
+     * <code>null</code>.
+     */
+    private volatile SessionPartition[] sessionPartitions = null;
+    private final Set<Member> stateTransferFailedMembers = ConcurrentHashMap.newKeySet();
+    private final Map<String,CountDownLatch> sessionFetches = new ConcurrentHashMap<>();
+    private final Set<String> sessionFetchMisses = ConcurrentHashMap.newKeySet();
+    private final Set<Member> sessionFetchTimeouts = ConcurrentHashMap.newKeySet();
+    private final Map<String,Semaphore> partitionCredits = new ConcurrentHashMap<>();
+    private volatile ExecutorService stateTransferExecutor;
+    private volatile ExecutorService partitionSenderExecutor;
+    private final Object partitionSenderExecutorLock = new Object();
+
     // -------------------------------------------------------- stats attributes
 
-    private long sessionReplaceCounter = 0 ;
+    private final AtomicLong sessionReplaceCounter = new AtomicLong(0);
+    /**
+     * Guards the updates of sessionCounter as sessions are deserialized
+     * concurrently by the parallel state transfer.
+     */
+    private final Object sessionCounterLock = new Object();
     private long counterReceive_EVT_GET_ALL_SESSIONS = 0 ;
     private long counterReceive_EVT_ALL_SESSION_DATA = 0 ;
     private long counterReceive_EVT_SESSION_CREATED = 0 ;
     private long counterReceive_EVT_SESSION_EXPIRED = 0;
     private long counterReceive_EVT_SESSION_ACCESSED = 0 ;
     private long counterReceive_EVT_SESSION_DELTA = 0;
+    private long counterReceive_EVT_SESSION_DATA = 0;
     private int counterReceive_EVT_ALL_SESSION_TRANSFERCOMPLETE = 0 ;
     private long counterReceive_EVT_CHANGE_SESSION_ID = 0 ;
     private long counterReceive_EVT_ALL_SESSION_NOCONTEXTMANAGER = 0 ;
@@ -105,6 +184,7 @@ public class DeltaManager extends ClusterManagerBase{
     private long counterSend_EVT_ALL_SESSION_DATA = 0 ;
     private long counterSend_EVT_SESSION_CREATED = 0;
     private long counterSend_EVT_SESSION_DELTA = 0 ;
+    private long counterSend_EVT_SESSION_DATA = 0 ;
     private long counterSend_EVT_SESSION_ACCESSED = 0;
     private long counterSend_EVT_SESSION_EXPIRED = 0;
     private int counterSend_EVT_ALL_SESSION_TRANSFERCOMPLETE = 0 ;
@@ -157,6 +237,13 @@ public class DeltaManager extends ClusterManagerBase{
         return counterSend_EVT_SESSION_DELTA;
     }
 
+    /**
+     * @return Returns the counterSend_EVT_SESSION_DATA.
+     */
+    public long getCounterSend_EVT_SESSION_DATA() {
+        return counterSend_EVT_SESSION_DATA;
+    }
+
     /**
      * @return Returns the counterSend_EVT_SESSION_EXPIRED.
      */
@@ -220,6 +307,13 @@ public class DeltaManager extends ClusterManagerBase{
         return counterReceive_EVT_SESSION_DELTA;
     }
 
+    /**
+     * @return Returns the counterReceive_EVT_SESSION_DATA.
+     */
+    public long getCounterReceive_EVT_SESSION_DATA() {
+        return counterReceive_EVT_SESSION_DATA;
+    }
+
     /**
      * @return Returns the counterReceive_EVT_SESSION_EXPIRED.
      */
@@ -261,7 +355,7 @@ public class DeltaManager extends ClusterManagerBase{
      * @return Returns the sessionReplaceCounter.
      */
     public long getSessionReplaceCounter() {
-        return sessionReplaceCounter;
+        return sessionReplaceCounter.get();
     }
 
     /**
@@ -368,6 +462,76 @@ public class DeltaManager extends ClusterManagerBase{
         this.sendAllSessionsSize = sendAllSessionsSize;
     }
 
+    /**
+     * @return the parallelStateTransfer.
+     */
+    public boolean isParallelStateTransfer() {
+        return parallelStateTransfer;
+    }
+
+    /**
+     * @param parallelStateTransfer The parallelStateTransfer to set.
+     */
+    public void setParallelStateTransfer(boolean parallelStateTransfer) {
+        this.parallelStateTransfer = parallelStateTransfer;
+    }
+
+    /**
+     * @return the lazyStateTransfer.
+     */
+    public boolean isLazyStateTransfer() {
+        return lazyStateTransfer;
+    }
+
+    /**
+     * @param lazyStateTransfer The lazyStateTransfer to set.
+     */
+    public void setLazyStateTransfer(boolean lazyStateTransfer) {
+        this.lazyStateTransfer = lazyStateTransfer;
+    }
+
+    /**
+     * @return the stateTransferThreads.
+     */
+    public int getStateTransferThreads() {
+        return stateTransferThreads;
+    }
+
+    /**
+     * @param stateTransferThreads The stateTransferThreads to set.
+     */
+    public void setStateTransferThreads(int stateTransferThreads) {
+        this.stateTransferThreads = stateTransferThreads;
+    }
+
+    /**
+     * @return the stateTransferWindow.
+     */
+    public int getStateTransferWindow() {
+        return stateTransferWindow;
+    }
+
+    /**
+     * @param stateTransferWindow The stateTransferWindow to set.
+     */
+    public void setStateTransferWindow(int stateTransferWindow) {
+        this.stateTransferWindow = stateTransferWindow;
+    }
+
+    /**
+     * @return the maxDeltaRequestSize.
+     */
+    public int getMaxDeltaRequestSize() {
+        return maxDeltaRequestSize;
+    }
+
+    /**
+     * @param maxDeltaRequestSize The maxDeltaRequestSize to set.
+     */
+    public void setMaxDeltaRequestSize(int maxDeltaRequestSize) {
+        this.maxDeltaRequestSize = maxDeltaRequestSize;
+    }
+
     /**
      * @return the notifySessionListenersOnReplication.
      */
@@ -479,6 +643,30 @@ public class DeltaManager extends ClusterManagerBase{
         return new DeltaSession(this);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * While a lazy parallel state transfer is in progress, a session that has
+     * not yet been transferred is fetched from the member sending its
+     * partition. A session that was not found, or that is held by a member
+     * that did not reply in time, is not fetched again until the transfer
+     * ends.
+     */
+    @Override
+    public Session findSession(String id) throws IOException {
+        Session session = super.findSession(id);
+        SessionPartition[] partitions = sessionPartitions;
+        if (session == null && id != null && partitions != null && isLazyStateTransfer()) {
+            SessionPartition partition = partitions[getSessionPartition(id, partitions.length)];
+            Member member = partition.member;
+            if (!partition.complete && !sessionFetchMisses.contains(id) &&
+                    !sessionFetchTimeouts.contains(member)) {
+                session = fetchSession(id, member);
+            }
+        }
+        return session;
+    }
+
     @Override
     public void changeSessionId(Session session) {
         changeSessionId(session, true);
@@ -563,7 +751,7 @@ public class DeltaManager extends ClusterManagerBase{
             throws ClassNotFoundException, IOException {
         session.lock();
         try {
-            ReplicationStream ois = getReplicationStream(data);
+            ObjectInputStream ois = getSessionObjectInputStream(data, 0, data.length);
             session.getDeltaRequest().readExternal(ois);
             ois.close();
             return session.getDeltaRequest();
@@ -585,7 +773,7 @@ public class DeltaManager extends ClusterManagerBase{
             throws IOException {
         session.lock();
         try {
-            return deltaRequest.serialize();
+            return deltaRequest.serialize(getSessionSerializer(), isCompactDeltaRequests());
         } finally {
             session.unlock();
         }
@@ -602,10 +790,28 @@ public class DeltaManager extends ClusterManagerBase{
      *                if an input/output error occurs
      */
     protected void deserializeSessions(byte[] data) throws ClassNotFoundException,IOException {
+        deserializeSessions(data, 0, data.length, true);
+    }
+
+    /**
+     * Load sessions from other cluster node.
+     *
+     * @param data Serialized data
+     * @param offset The offset of the sessions in the data
+     * @param length The length of the sessions in the data
+     * @param replaceExisting Should sessions that already exist on this node
+     *        be replaced?
+     * @exception ClassNotFoundException
+     *                if a serialized class cannot be found during the reload
+     * @exception IOException
+     *                if an input/output error occurs
+     */
+    protected void deserializeSessions(byte[] data, int offset, int length, boolean replaceExisting)
+            throws ClassNotFoundException,IOException {
 
         // Open an input stream to the specified pathname, if any
         // Load the previously unloaded active sessions
-        try (ObjectInputStream ois = getReplicationStream(data)) {
+        try (ObjectInputStream ois = getSessionObjectInputStream(data, offset, length)) {
             Integer count = (Integer) ois.readObject();
             int n = count.intValue();
             for (int i = 0; i < n; i++) {
@@ -625,10 +831,13 @@ public class DeltaManager extends ClusterManagerBase{
                 session.resetDeltaRequest();
                 // FIXME How inform other session id cache like SingleSignOn
                 // increment sessionCounter to correct stats report
-                if (findSession(session.getIdInternal()) == null ) {
-                    sessionCounter++;
+                if (sessions.get(session.getIdInternal()) == null ) {
+                    incrementSessionCounter();
+                } else if (!replaceExisting) {
+                    // The existing session is newer
+                    continue;
                 } else {
-                    sessionReplaceCounter++;
+                    sessionReplaceCounter.incrementAndGet();
                     // FIXME better is to grap this sessions again !
                     if (log.isWarnEnabled()) {
                         log.warn(sm.getString("deltaManager.loading.existing.session",
@@ -650,6 +859,13 @@ public class DeltaManager extends ClusterManagerBase{
     }
 
 
+    private void incrementSessionCounter() {
+        synchronized (sessionCounterLock) {
+            sessionCounter++;
+        }
+    }
+
+
     /**
      * Save any currently active sessions in the appropriate persistence
      * mechanism, if any. If persistence is not supported, this method returns
@@ -661,10 +877,15 @@ public class DeltaManager extends ClusterManagerBase{
      *                if an input/output error occurs
      */
     protected byte[] serializeSessions(Session[] currentSessions) throws IOException {
+        ByteArrayOutputStream fos = new ByteArrayOutputStream();
+        serializeSessions(currentSessions, fos);
+        // send object data as byte[]
+        return fos.toByteArray();
+    }
 
+    private void serializeSessions(Session[] currentSessions, OutputStream os) throws IOException {
         // Open an output stream to the specified pathname, if any
-        ByteArrayOutputStream fos = new ByteArrayOutputStream();
-        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(fos))) {
+        try (ObjectOutputStream oos = getSessionObjectOutputStream(new BufferedOutputStream(os))) {
             oos.writeObject(Integer.valueOf(currentSessions.length));
             for(int i=0 ; i < currentSessions.length;i++) {
                 ((DeltaSession)currentSessions[i]).writeObjectData(oos);
@@ -675,9 +896,6 @@ public class DeltaManager extends ClusterManagerBase{
             log.error(sm.getString("deltaManager.unloading.ioe", e), e);
             throw e;
         }
-
-        // send object data as byte[]
-        return fos.toByteArray();
     }
 
     /**
@@ -728,7 +946,9 @@ public class DeltaManager extends ClusterManagerBase{
      * @see #findSessionMasterMember()
      */
     public synchronized void getAllClusterSessions() {
-        if (cluster != null && cluster.getMembers().length > 0) {
+        if (cluster != null && cluster.getMembers().length > 0 && isParallelStateTransfer()) {
+            getAllClusterSessionPartitions();
+        } else if (cluster != null && cluster.getMembers().length > 0) {
             long beforeSendTime = System.currentTimeMillis();
             Member mbr = findSessionMasterMember();
             if(mbr == null) { // No domain member found
@@ -756,27 +976,7 @@ public class DeltaManager extends ClusterManagerBase{
                 waitForSendAllSessions(beforeSendTime);
             } finally {
                 synchronized(receivedMessageQueue) {
-                    for (SessionMessage smsg : receivedMessageQueue) {
-                        if (!stateTimestampDrop) {
-                            messageReceived(smsg, smsg.getAddress());
-                        } else {
-                            if (smsg.getEventType() != SessionMessage.EVT_GET_ALL_SESSIONS &&
-                                    smsg.getTimestamp() >= stateTransferCreateSendTime) {
-                                // FIXME handle EVT_GET_ALL_SESSIONS later
-                                messageReceived(smsg, smsg.getAddress());
-                            } else {
-                                if (log.isWarnEnabled()) {
-                                    log.warn(sm.getString("deltaManager.dropMessage",
-                                            getName(),
-                                            smsg.getEventTypeString(),
-                                            new Date(stateTransferCreateSendTime),
-                                            new Date(smsg.getTimestamp())));
-                                }
-                            }
-                        }
-                    }
-                    receivedMessageQueue.clear();
-                    receiverQueue = false ;
+                    processReceivedMessageQueue();
                 }
            }
         } else {
@@ -784,6 +984,180 @@ public class DeltaManager extends ClusterManagerBase{
         }
     }
 
+    /**
+     * Handle the session messages that were queued during the state transfer.
+     * Must be called holding the lock on the queue.
+     */
+    private void processReceivedMessageQueue() {
+        for (SessionMessage smsg : receivedMessageQueue) {
+            if (!stateTimestampDrop) {
+                messageReceived(smsg, smsg.getAddress());
+            } else {
+                if (smsg.getEventType() == SessionMessage.EVT_GET_SESSION_PARTITION ||
+                        (smsg.getEventType() != SessionMessage.EVT_GET_ALL_SESSIONS &&
+                        smsg.getTimestamp() >= stateTransferCreateSendTime)) {
+                    // FIXME handle EVT_GET_ALL_SESSIONS later
+                    messageReceived(smsg, smsg.getAddress());
+                } else {
+                    if (log.isWarnEnabled()) {
+                        log.warn(sm.getString("deltaManager.dropMessage",
+                                getName(),
+                                smsg.getEventTypeString(),
+                                new Date(stateTransferCreateSendTime),
+                                new Date(smsg.getTimestamp())));
+                    }
+                }
+            }
+        }
+        receivedMessageQueue.clear();
+        receiverQueue = false ;
+    }
+
+    /**
+     * Request one partition of the sessions from each member of the cluster.
+     * The members stream their partitions in parallel, waiting for each block
+     * to be acknowledged once the window is full, and the blocks are loaded
+     * by a pool of threads. Unless {@link #isLazyStateTransfer()}, wait for
+     * the transfer to complete or time out.
+     */
+    protected void getAllClusterSessionPartitions() {
+        Member[] members = cluster.getMembers();
+        long beforeSendTime = System.currentTimeMillis();
+        SessionPartition[] partitions = new SessionPartition[members.length];
+        for (int i = 0; i < members.length; i++) {
+            partitions[i] = new SessionPartition(members[i]);
+        }
+        stateTransferCreateSendTime = beforeSendTime ;
+        stateTransfered = false ;
+        stateTransferFailedMembers.clear();
+        sessionFetchMisses.clear();
+        sessionFetchTimeouts.clear();
+        if (stateTransferExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(stateTransferThreads,
+                    stateTransferThreads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new TaskThreadFactory(getName() + "-StateTransfer-", true, Thread.NORM_PRIORITY));
+            executor.allowCoreThreadTimeOut(true);
+            stateTransferExecutor = executor;
+        }
+        synchronized(receivedMessageQueue) {
+            receiverQueue = true ;
+            sessionPartitions = partitions;
+        }
+        if (log.isInfoEnabled())
+            log.info(sm.getString("deltaManager.waitForSessionPartitions", getName(),
+                    Integer.valueOf(members.length), Integer.valueOf(getStateTransferTimeout())));
+        for (int i = 0; i < partitions.length; i++) {
+            requestSessionPartition(i, partitions.length, members[i]);
+        }
+        if (!isLazyStateTransfer()) {
+            waitForSendAllSessions(beforeSendTime);
+            completeStateTransfer(partitions);
+        }
+    }
+
+    /**
+     * @param id The session id
+     * @param partitions The number of partitions
+     * @return the partition of the session
+     */
+    protected static int getSessionPartition(String id, int partitions) {
+        return (id.hashCode() & 0x7FFFFFFF) % partitions;
+    }
+
+    private void requestSessionPartition(int partition, int partitions, Member member) {
+        byte[] data = ByteBuffer.allocate(12).putInt(partition).putInt(partitions)
+                .putInt(getStateTransferWindow()).array();
+        SessionMessage msg = new SessionMessageImpl(getName(),
+                SessionMessage.EVT_GET_SESSION_PARTITION, data, "GET-PARTITION",
+                "GET-PARTITION-" + getName());
+        msg.setTimestamp(System.currentTimeMillis());
+        counterSend_EVT_GET_ALL_SESSIONS++;
+        cluster.send(msg, member, Channel.SEND_OPTIONS_ASYNCHRONOUS);
+    }
+
+    /**
+     * End the parallel state transfer, complete or not, and handle the
+     * session messages that were queued during the transfer.
+     */
+    private void completeStateTransfer(SessionPartition[] partitions) {
+        synchronized(receivedMessageQueue) {
+            if (sessionPartitions != partitions) {
+                return;
+            }
+            sessionPartitions = null;
+            processReceivedMessageQueue();
+        }
+        for (CountDownLatch latch : sessionFetches.values()) {
+            latch.countDown();
+        }
+        sessionFetchMisses.clear();
+        sessionFetchTimeouts.clear();
+    }
+
+    private void partitionComplete(SessionPartition[] partitions) {
+        for (SessionPartition partition : partitions) {
+            if (!partition.complete) {
+                return;
+            }
+        }
+        stateTransfered = true ;
+        if (isLazyStateTransfer() && log.isInfoEnabled()) {
+            log.info(sm.getString("deltaManager.sessionReceived", getName(),
+                    new Date(stateTransferCreateSendTime),
+                    Long.valueOf(System.currentTimeMillis() - stateTransferCreateSendTime)));
+        }
+        completeStateTransfer(partitions);
+    }
+
+    private Session fetchSession(String id, Member member) throws IOException {
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch existing = sessionFetches.putIfAbsent(id, latch);
+        if (existing == null) {
+            SessionMessage msg = new SessionMessageImpl(getName(), SessionMessage.EVT_GET_SESSION,
+                    null, id, "GET-SESSION-" + id);
+            cluster.send(msg, member, Channel.SEND_OPTIONS_ASYNCHRONOUS);
+        } else {
+            latch = existing;
+        }
+        boolean timedOut = false;
+        try {
+            timedOut = !latch.await(SESSION_FETCH_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sessionFetches.remove(id, latch);
+        Session session = sessions.get(id);
+        if (session == null) {
+            if (timedOut) {
+                if (sessionFetchTimeouts.add(member) && log.isWarnEnabled()) {
+                    log.warn(sm.getString("deltaManager.fetchSession.timeout", getName(), member));
+                }
+            } else {
+                if (sessionFetchMisses.size() >= SESSION_FETCH_MISSES_MAX) {
+                    sessionFetchMisses.clear();
+                }
+                sessionFetchMisses.add(id);
+            }
+        }
+        return session;
+    }
+
+    /**
+     * @return the pool that streams the partitions requested by other nodes,
+     *         created when a partition is first requested
+     */
+    private ExecutorService getPartitionSenderExecutor() {
+        synchronized (partitionSenderExecutorLock) {
+            if (partitionSenderExecutor == null) {
+                // Partitions are streamed on their own threads as they wait
+                // for the receiving node
+                partitionSenderExecutor = Executors.newCachedThreadPool(new TaskThreadFactory(
+                        getName() + "-PartitionSender-", true, Thread.NORM_PRIORITY));
+            }
+            return partitionSenderExecutor;
+        }
+    }
+
     /**
      * Find the master of the session state
      * @return master member of sessions
@@ -877,10 +1251,44 @@ public class DeltaManager extends ClusterManagerBase{
             }
         }
 
+        SessionPartition[] partitions = sessionPartitions;
+        if (partitions != null) {
+            completeStateTransfer(partitions);
+        }
+        if (stateTransferExecutor != null) {
+            stateTransferExecutor.shutdownNow();
+            stateTransferExecutor = null;
+        }
+        synchronized (partitionSenderExecutorLock) {
+            if (partitionSenderExecutor != null) {
+                partitionSenderExecutor.shutdownNow();
+                partitionSenderExecutor = null;
+            }
+        }
+
         // Require a new random number generator if we are restarted
         super.stopInternal();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Also ends a lazy parallel state transfer that has timed out.
+     */
+    @Override
+    public void backgroundProcess() {
+        super.backgroundProcess();
+        SessionPartition[] partitions = sessionPartitions;
+        long elapsed = System.currentTimeMillis() - stateTransferCreateSendTime;
+        if (partitions != null && getStateTransferTimeout() > 0 &&
+                elapsed > 1000L * getStateTransferTimeout()) {
+            counterNoStateTransfered++ ;
+            log.error(sm.getString("deltaManager.noSessionState", getName(),
+                    new Date(stateTransferCreateSendTime), Long.valueOf(elapsed)));
+            completeStateTransfer(partitions);
+        }
+    }
+
     // -------------------------------------------------------- Replication
     // Methods
 
@@ -897,10 +1305,12 @@ public class DeltaManager extends ClusterManagerBase{
             SessionMessage msg = (SessionMessage) cmsg;
             switch (msg.getEventType()) {
                 case SessionMessage.EVT_GET_ALL_SESSIONS:
+                case SessionMessage.EVT_GET_SESSION_PARTITION:
                 case SessionMessage.EVT_SESSION_CREATED:
                 case SessionMessage.EVT_SESSION_EXPIRED:
                 case SessionMessage.EVT_SESSION_ACCESSED:
                 case SessionMessage.EVT_SESSION_DELTA:
+                case SessionMessage.EVT_SESSION_DATA:
                 case SessionMessage.EVT_CHANGE_SESSION_ID:
                     synchronized(receivedMessageQueue) {
                         if(receiverQueue) {
@@ -963,13 +1373,31 @@ public class DeltaManager extends ClusterManagerBase{
             DeltaRequest deltaRequest = session.getDeltaRequest();
             session.lock();
             if (deltaRequest.getSize() > 0) {
-                counterSend_EVT_SESSION_DELTA++;
                 byte[] data = serializeDeltaRequest(session,deltaRequest);
-                msg = new SessionMessageImpl(getName(),
-                                             SessionMessage.EVT_SESSION_DELTA,
-                                             data,
-                                             sessionId,
-                                             sessionId + "-" + System.currentTimeMillis());
+                byte[] full = null;
+                if (maxDeltaRequestSize >= 0 && data.length > maxDeltaRequestSize) {
+                    full = serializeSessions(new Session[] { session });
+                }
+                if (full != null && full.length < data.length) {
+                    counterSend_EVT_SESSION_DATA++;
+                    msg = new SessionMessageImpl(getName(),
+                                                 SessionMessage.EVT_SESSION_DATA,
+                                                 full,
+                                                 sessionId,
+                                                 sessionId + "-" + System.currentTimeMillis());
+                    if (log.isDebugEnabled()) {
+                        log.debug(sm.getString("deltaManager.createMessage.full",
+                                getName(), sessionId, Integer.valueOf(data.length),
+                                Integer.valueOf(full.length)));
+                    }
+                } else {
+                    counterSend_EVT_SESSION_DELTA++;
+                    msg = new SessionMessageImpl(getName(),
+                                                 SessionMessage.EVT_SESSION_DELTA,
+                                                 data,
+                                                 sessionId,
+                                                 sessionId + "-" + System.currentTimeMillis());
+                }
                 session.resetDeltaRequest();
             }
         } catch (IOException x) {
@@ -1044,15 +1472,18 @@ public class DeltaManager extends ClusterManagerBase{
             }
         }
         rejectedSessions = 0 ;
-        sessionReplaceCounter = 0 ;
+        sessionReplaceCounter.set(0);
         counterNoStateTransfered = 0 ;
         setMaxActive(getActiveSessions());
-        sessionCounter = getActiveSessions() ;
+        synchronized (sessionCounterLock) {
+            sessionCounter = getActiveSessions();
+        }
         counterReceive_EVT_ALL_SESSION_DATA = 0;
         counterReceive_EVT_GET_ALL_SESSIONS = 0;
         counterReceive_EVT_SESSION_ACCESSED = 0 ;
         counterReceive_EVT_SESSION_CREATED = 0 ;
         counterReceive_EVT_SESSION_DELTA = 0 ;
+        counterReceive_EVT_SESSION_DATA = 0 ;
         counterReceive_EVT_SESSION_EXPIRED = 0 ;
         counterReceive_EVT_ALL_SESSION_TRANSFERCOMPLETE = 0;
         counterReceive_EVT_CHANGE_SESSION_ID = 0;
@@ -1061,6 +1492,7 @@ public class DeltaManager extends ClusterManagerBase{
         counterSend_EVT_SESSION_ACCESSED = 0 ;
         counterSend_EVT_SESSION_CREATED = 0 ;
         counterSend_EVT_SESSION_DELTA = 0 ;
+        counterSend_EVT_SESSION_DATA = 0 ;
         counterSend_EVT_SESSION_EXPIRED = 0 ;
         counterSend_EVT_ALL_SESSION_TRANSFERCOMPLETE = 0;
         counterSend_EVT_CHANGE_SESSION_ID = 0;
@@ -1176,12 +1608,27 @@ public class DeltaManager extends ClusterManagerBase{
                 case SessionMessage.EVT_SESSION_DELTA:
                    handleSESSION_DELTA(msg,sender);
                    break;
+                case SessionMessage.EVT_SESSION_DATA:
+                    handleSESSION_DATA(msg,sender);
+                    break;
                 case SessionMessage.EVT_CHANGE_SESSION_ID:
                     handleCHANGE_SESSION_ID(msg,sender);
                     break;
                 case SessionMessage.EVT_ALL_SESSION_NOCONTEXTMANAGER:
                     handleALL_SESSION_NOCONTEXTMANAGER(msg,sender);
                     break;
+                case SessionMessage.EVT_GET_SESSION_PARTITION:
+                    handleGET_SESSION_PARTITION(msg,sender);
+                    break;
+                case SessionMessage.EVT_SESSION_PARTITION_DATA:
+                    handleSESSION_PARTITION_DATA(msg,sender);
+                    break;
+                case SessionMessage.EVT_SESSION_PARTITION_ACK:
+                    handleSESSION_PARTITION_ACK(msg,sender);
+                    break;
+                case SessionMessage.EVT_GET_SESSION:
+                    handleGET_SESSION(msg,sender);
+                    break;
                 default:
                     //we didn't recognize the message type, do nothing
                     break;
@@ -1244,6 +1691,40 @@ public class DeltaManager extends ClusterManagerBase{
         }
     }
 
+    /**
+     * handle receive full session state sent instead of a delta that was too
+     * large
+     * @param msg Session message
+     * @param sender Member which sent the message
+     * @throws IOException IO error with serialization
+     * @throws ClassNotFoundException Serialization error
+     */
+    protected void handleSESSION_DATA(SessionMessage msg, Member sender)
+            throws IOException, ClassNotFoundException {
+        counterReceive_EVT_SESSION_DATA++;
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("deltaManager.receiveMessage.full",
+                    getName(), msg.getSessionID()));
+        }
+        byte[] data = msg.getSession();
+        try (ObjectInputStream ois = getSessionObjectInputStream(data, 0, data.length)) {
+            // Written by serializeSessions so preceded by the count
+            ois.readObject();
+            DeltaSession session = (DeltaSession) createEmptySession();
+            session.readObjectData(ois);
+            session.setManager(this);
+            session.setValid(true);
+            session.setPrimarySession(false);
+            session.access();
+            session.setAccessCount(0);
+            session.resetDeltaRequest();
+            if (sessions.get(session.getIdInternal()) == null) {
+                incrementSessionCounter();
+            }
+            add(session);
+        }
+    }
+
     /**
      * handle receive session is access at other node ( primary session is now false)
      * @param msg Session message
@@ -1407,7 +1888,273 @@ public class DeltaManager extends ClusterManagerBase{
         if (log.isDebugEnabled())
             log.debug(sm.getString("deltaManager.receiveMessage.noContextManager",
                     getName(), sender.getHost(), Integer.valueOf(sender.getPort())));
-        noContextManagerReceived = true ;
+        SessionPartition[] partitions = sessionPartitions;
+        if (partitions != null) {
+            reassignSessionPartitions(partitions, sender);
+        } else {
+            noContextManagerReceived = true ;
+        }
+    }
+
+    /**
+     * Request the partitions of a member that has no matching context manager
+     * from another member. If no other member is left, the partitions are
+     * treated as empty.
+     * @param partitions The partitions of the transfer in progress
+     * @param failed The member without a context manager
+     */
+    protected void reassignSessionPartitions(SessionPartition[] partitions, Member failed) {
+        stateTransferFailedMembers.add(failed);
+        Member next = null;
+        for (Member member : cluster.getMembers()) {
+            if (!stateTransferFailedMembers.contains(member)) {
+                next = member;
+                break;
+            }
+        }
+        boolean completed = false;
+        for (int i = 0; i < partitions.length; i++) {
+            SessionPartition partition = partitions[i];
+            synchronized (partition) {
+                if (partition.complete || !partition.member.equals(failed)) {
+                    continue;
+                }
+                if (next == null) {
+                    partition.complete = true;
+                    completed = true;
+                    continue;
+                }
+                partition.member = next;
+            }
+            requestSessionPartition(i, partitions.length, next);
+        }
+        if (completed) {
+            partitionComplete(partitions);
+        }
+    }
+
+    /**
+     * handle receive that other node wants one partition of the sessions.
+     * The partition is streamed in blocks of
+     * {@link #getSendAllSessionsSize()} sessions by another thread, which
+     * waits for acknowledgements when the window requested by the other node
+     * is full.
+     * @param msg Session message
+     * @param sender Member which sent the message
+     */
+    protected void handleGET_SESSION_PARTITION(SessionMessage msg, Member sender) {
+        counterReceive_EVT_GET_ALL_SESSIONS++;
+        ByteBuffer request = ByteBuffer.wrap(msg.getSession());
+        int partition = request.getInt();
+        int partitions = request.getInt();
+        int window = request.getInt();
+        Session[] currentSessions = findSessions();
+        long findSessionTimestamp = System.currentTimeMillis();
+        String key = sender.getName() + "#" + partition;
+        Semaphore credits = new Semaphore(window);
+        partitionCredits.put(key, credits);
+        try {
+            getPartitionSenderExecutor().execute(() -> {
+                try {
+                    sendSessionPartition(sender, partition, partitions, currentSessions,
+                            credits, findSessionTimestamp);
+                } catch (IOException e) {
+                    log.error(sm.getString("deltaManager.sendPartition.error", getName(),
+                            Integer.valueOf(partition), sender), e);
+                } finally {
+                    partitionCredits.remove(key, credits);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Stopping
+            partitionCredits.remove(key, credits);
+        }
+    }
+
+    /**
+     * Send the sessions of one partition in blocks, waiting for a credit
+     * before each block.
+     * @param sender The member that requested the partition
+     * @param partition The partition
+     * @param partitions The number of partitions
+     * @param currentSessions All sessions
+     * @param credits The blocks that may be sent before an acknowledgement
+     * @param sendTimestamp Timestamp
+     * @throws IOException IO error sending messages
+     */
+    protected void sendSessionPartition(Member sender, int partition, int partitions,
+            Session[] currentSessions, Semaphore credits, long sendTimestamp) throws IOException {
+        List<Session> partitionSessions = new ArrayList<>();
+        for (Session session : currentSessions) {
+            if (getSessionPartition(session.getIdInternal(), partitions) == partition) {
+                partitionSessions.add(session);
+            }
+        }
+        int size = Math.max(1, getSendAllSessionsSize());
+        int i = 0;
+        do {
+            int len = Math.min(size, partitionSessions.size() - i);
+            try {
+                if (getStateTransferTimeout() > 0) {
+                    if (!credits.tryAcquire(getStateTransferTimeout(), TimeUnit.SECONDS)) {
+                        log.warn(sm.getString("deltaManager.sendPartition.timeout", getName(),
+                                Integer.valueOf(partition), sender));
+                        return;
+                    }
+                } else {
+                    credits.acquire();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            Session[] block = partitionSessions.subList(i, i + len).toArray(new Session[0]);
+            i += len;
+            sendSessionBlock(sender, partition, i >= partitionSessions.size(), block,
+                    sendTimestamp, "SESSION-PARTITION");
+        } while (i < partitionSessions.size());
+    }
+
+    /**
+     * send a block of sessions from a partition to sender
+     * @param sender Sender member
+     * @param partition The partition or -1 if the block is the reply to a
+     *        single session request
+     * @param last Is this the last block of the partition?
+     * @param block Sessions to send
+     * @param sendTimestamp Timestamp
+     * @param sessionId The session id of the message
+     * @throws IOException IO error sending messages
+     */
+    protected void sendSessionBlock(Member sender, int partition, boolean last, Session[] block,
+            long sendTimestamp, String sessionId) throws IOException {
+        ByteArrayOutputStream fos = new ByteArrayOutputStream();
+        fos.write(ByteBuffer.allocate(5).putInt(partition).put((byte) (last ? 1 : 0)).array());
+        serializeSessions(block, fos);
+        SessionMessage newmsg = new SessionMessageImpl(name,
+                SessionMessage.EVT_SESSION_PARTITION_DATA, fos.toByteArray(), sessionId,
+                "SESSION-PARTITION-" + getName());
+        newmsg.setTimestamp(sendTimestamp);
+        counterSend_EVT_ALL_SESSION_DATA++;
+        int sendOptions = Channel.SEND_OPTIONS_SYNCHRONIZED_ACK|Channel.SEND_OPTIONS_USE_ACK;
+        cluster.send(newmsg, sender, sendOptions);
+    }
+
+    /**
+     * handle receive a block of sessions from a partition, or a single
+     * session that was requested. Partition blocks are loaded by the state
+     * transfer threads, which then acknowledge them.
+     * @param msg Session message
+     * @param sender Member which sent the message
+     * @throws ClassNotFoundException Serialization error
+     * @throws IOException IO error with serialization
+     */
+    protected void handleSESSION_PARTITION_DATA(SessionMessage msg, Member sender)
+            throws ClassNotFoundException, IOException {
+        counterReceive_EVT_ALL_SESSION_DATA++;
+        byte[] data = msg.getSession();
+        ByteBuffer header = ByteBuffer.wrap(data, 0, 5);
+        int partition = header.getInt();
+        boolean last = header.get() != 0;
+        if (partition < 0) {
+            try {
+                deserializeSessions(data, 5, data.length - 5, false);
+            } finally {
+                CountDownLatch latch = sessionFetches.remove(msg.getSessionID());
+                if (latch != null) {
+                    latch.countDown();
+                }
+            }
+            return;
+        }
+
+        SessionPartition[] partitions = sessionPartitions;
+        if (partitions == null || partition >= partitions.length) {
+            // The transfer has ended. Let the sender finish.
+            if (!last) {
+                sendPartitionAck(sender, partition);
+            }
+            return;
+        }
+        SessionPartition sessionPartition = partitions[partition];
+        synchronized (sessionPartition) {
+            sessionPartition.pending++;
+            if (last) {
+                sessionPartition.lastReceived = true;
+            }
+        }
+        ClassLoader loader = getClassLoaders()[0];
+        Runnable load = () -> {
+            Thread currentThread = Thread.currentThread();
+            ClassLoader contextLoader = currentThread.getContextClassLoader();
+            try {
+                currentThread.setContextClassLoader(loader);
+                deserializeSessions(data, 5, data.length - 5, false);
+            } catch (ClassNotFoundException | IOException e) {
+                // Logged by deserializeSessions
+            } finally {
+                currentThread.setContextClassLoader(contextLoader);
+            }
+            if (!last) {
+                sendPartitionAck(sender, partition);
+            }
+            boolean complete;
+            synchronized (sessionPartition) {
+                sessionPartition.pending--;
+                complete = sessionPartition.lastReceived && sessionPartition.pending == 0 &&
+                        !sessionPartition.complete;
+                if (complete) {
+                    sessionPartition.complete = true;
+                }
+            }
+            if (complete) {
+                partitionComplete(partitions);
+            }
+        };
+        ExecutorService executor = stateTransferExecutor;
+        if (executor == null) {
+            // Stopping
+            return;
+        }
+        try {
+            executor.execute(load);
+        } catch (RejectedExecutionException e) {
+            // Stopping
+        }
+    }
+
+    private void sendPartitionAck(Member sender, int partition) {
+        SessionMessage msg = new SessionMessageImpl(getName(),
+                SessionMessage.EVT_SESSION_PARTITION_ACK,
+                ByteBuffer.allocate(4).putInt(partition).array(), "PARTITION-ACK",
+                "PARTITION-ACK-" + getName());
+        cluster.send(msg, sender, Channel.SEND_OPTIONS_ASYNCHRONOUS);
+    }
+
+    /**
+     * handle receive that other node has loaded a block of sessions from a
+     * partition, allowing another block to be sent.
+     * @param msg Session message
+     * @param sender Member which sent the message
+     */
+    protected void handleSESSION_PARTITION_ACK(SessionMessage msg, Member sender) {
+        int partition = ByteBuffer.wrap(msg.getSession()).getInt();
+        Semaphore credits = partitionCredits.get(sender.getName() + "#" + partition);
+        if (credits != null) {
+            credits.release();
+        }
+    }
+
+    /**
+     * handle receive that other node wants a single session it has not yet
+     * received. An empty block is sent if the session does not exist here.
+     * @param msg Session message
+     * @param sender Member which sent the message
+     * @throws IOException IO error sending messages
+     */
+    protected void handleGET_SESSION(SessionMessage msg, Member sender) throws IOException {
+        Session session = sessions.get(msg.getSessionID());
+        Session[] block = session == null ? new Session[0] : new Session[] { session };
+        sendSessionBlock(sender, -1, true, block, System.currentTimeMillis(), msg.getSessionID());
     }
 
     /**
@@ -1444,8 +2191,29 @@ public class DeltaManager extends ClusterManagerBase{
         result.stateTransferTimeout = stateTransferTimeout;
         result.sendAllSessions = sendAllSessions;
         result.sendAllSessionsSize = sendAllSessionsSize;
+        result.maxDeltaRequestSize = maxDeltaRequestSize;
         result.sendAllSessionsWaitTime = sendAllSessionsWaitTime ;
         result.stateTimestampDrop = stateTimestampDrop ;
+        result.parallelStateTransfer = parallelStateTransfer;
+        result.lazyStateTransfer = lazyStateTransfer;
+        result.stateTransferThreads = stateTransferThreads;
+        result.stateTransferWindow = stateTransferWindow;
         return result;
     }
+
+
+    /**
+     * The progress of one partition of a parallel state transfer.
+     */
+    protected static class SessionPartition {
+        private volatile Member member;
+        private volatile boolean complete;
+        // Guarded by this
+        private int pending;
+        private boolean lastReceived;
+
+        SessionPartition(Member member) {
+            this.member = member;
+        }
+    }
 }
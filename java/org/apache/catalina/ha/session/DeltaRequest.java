@@ -29,10 +29,13 @@ import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.security.Principal;
+import java.util.Iterator;
 import java.util.LinkedList;
 
 import org.apache.catalina.SessionListener;
+import org.apache.catalina.SessionSerializer;
 import org.apache.catalina.realm.GenericPrincipal;
+import org.apache.catalina.session.JavaSessionSerializer;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.res.StringManager;
@@ -63,6 +66,14 @@ public class DeltaRequest implements Externalizable {
     public static final String NAME_AUTHTYPE = "__SET__AUTHTYPE__";
     public static final String NAME_LISTENER = "__SET__LISTENER__";
 
+    /*
+     * The flags written after the session id. Older versions write the
+     * recordAllActions flag as a boolean so the compact flag is only set when
+     * the compact encoding of the actions is used.
+     */
+    private static final int FLAG_RECORD_ALL = 0x01;
+    private static final int FLAG_COMPACT = 0x02;
+
     private String sessionId;
     private LinkedList<AttributeInfo> actions = new LinkedList<>();
     private final LinkedList<AttributeInfo> actionPool = new LinkedList<>();
@@ -149,10 +160,15 @@ public class DeltaRequest implements Externalizable {
         //if we have already done something to this attribute, make sure
         //we don't send multiple actions across the wire
         if ( !recordAllActions) {
-            try {
-                actions.remove(info);
-            } catch (java.util.NoSuchElementException x) {
-                //do nothing, we wanted to remove it anyway
+            Iterator<AttributeInfo> iter = actions.iterator();
+            while (iter.hasNext()) {
+                AttributeInfo previous = iter.next();
+                if (previous.equals(info)) {
+                    iter.remove();
+                    previous.recycle();
+                    actionPool.addLast(previous);
+                    break;
+                }
             }
         }
         //add the action
@@ -163,8 +179,7 @@ public class DeltaRequest implements Externalizable {
         if ( !this.sessionId.equals( session.getId() ) )
             throw new java.lang.IllegalArgumentException(sm.getString("deltaRequest.ssid.mismatch"));
         session.access();
-        for ( int i=0; i<actions.size(); i++ ) {
-            AttributeInfo info = actions.get(i);
+        for (AttributeInfo info : actions) {
             switch ( info.getType() ) {
                 case TYPE_ATTRIBUTE:
                     if ( info.getAction() == ACTION_SET ) {
@@ -248,12 +263,14 @@ public class DeltaRequest implements Externalizable {
     @Override
     public void readExternal(java.io.ObjectInput in) throws IOException,ClassNotFoundException {
         //sessionId - String
-        //recordAll - boolean
+        //flags - byte (recordAll, compact)
         //size - int
         //AttributeInfo - in an array
         reset();
         sessionId = in.readUTF();
-        recordAllActions = in.readBoolean();
+        int flags = in.readUnsignedByte();
+        recordAllActions = (flags & FLAG_RECORD_ALL) != 0;
+        boolean compact = (flags & FLAG_COMPACT) != 0;
         int cnt = in.readInt();
         if (actions == null)
             actions = new LinkedList<>();
@@ -272,7 +289,11 @@ public class DeltaRequest implements Externalizable {
             else {
                 info = new AttributeInfo();
             }
-            info.readExternal(in);
+            if (compact) {
+                info.readCompact(in);
+            } else {
+                info.readExternal(in);
+            }
             actions.addLast(info);
         }//for
     }
@@ -280,16 +301,34 @@ public class DeltaRequest implements Externalizable {
 
     @Override
     public void writeExternal(java.io.ObjectOutput out ) throws java.io.IOException {
+        writeExternal(out, false);
+    }
+
+    /**
+     * Write the actions using either the encoding that every version can
+     * read or the compact encoding, which only this and later versions can
+     * read.
+     *
+     * @param out The output to write to
+     * @param compact Should the compact encoding be used?
+     * @throws IOException IO error writing the actions
+     */
+    public void writeExternal(java.io.ObjectOutput out, boolean compact) throws IOException {
         //sessionId - String
-        //recordAll - boolean
+        //flags - byte (recordAll, compact)
         //size - int
         //AttributeInfo - in an array
         out.writeUTF(getSessionId());
-        out.writeBoolean(recordAllActions);
+        int flags = recordAllActions ? FLAG_RECORD_ALL : 0;
+        if (compact) flags |= FLAG_COMPACT;
+        out.writeByte(flags);
         out.writeInt(getSize());
-        for ( int i=0; i<getSize(); i++ ) {
-            AttributeInfo info = actions.get(i);
-            info.writeExternal(out);
+        for (AttributeInfo info : actions) {
+            if (compact) {
+                info.writeCompact(out);
+            } else {
+                info.writeExternal(out);
+            }
         }
     }
 
@@ -301,15 +340,50 @@ public class DeltaRequest implements Externalizable {
      * @throws IOException IO error serializing
      */
     protected byte[] serialize() throws IOException {
+        return serialize(new JavaSessionSerializer());
+    }
+
+    /**
+     * serialize DeltaRequest
+     * @see DeltaRequest#writeExternal(java.io.ObjectOutput)
+     *
+     * @param serializer The serializer used to write the request
+     * @return serialized delta request
+     * @throws IOException IO error serializing
+     */
+    protected byte[] serialize(SessionSerializer serializer) throws IOException {
+        return serialize(serializer, false);
+    }
+
+    /**
+     * serialize DeltaRequest
+     * @see DeltaRequest#writeExternal(java.io.ObjectOutput, boolean)
+     *
+     * @param serializer The serializer used to write the request
+     * @param compact Should the compact encoding be used?
+     * @return serialized delta request
+     * @throws IOException IO error serializing
+     */
+    protected byte[] serialize(SessionSerializer serializer, boolean compact) throws IOException {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(bos);
-        writeExternal(oos);
+        ObjectOutputStream oos = serializer.getObjectOutputStream(bos);
+        writeExternal(oos, compact);
         oos.flush();
         oos.close();
         return bos.toByteArray();
     }
 
     private static class AttributeInfo implements java.io.Externalizable {
+        /*
+         * In the compact encoding the type, action and presence of a value
+         * are packed into a single header byte. The names of the actions
+         * other than attributes are implied by their type so they are not
+         * written.
+         */
+        private static final int HEADER_TYPE_MASK = 0x07;
+        private static final int HEADER_REMOVE = 0x08;
+        private static final int HEADER_HAS_VALUE = 0x10;
+
         private String name = null;
         private Object value = null;
         private int action;
@@ -350,7 +424,7 @@ public class DeltaRequest implements Externalizable {
         }
         @Override
         public int hashCode() {
-            return name.hashCode();
+            return type * 31 + name.hashCode();
         }
 
         public String getName() {
@@ -368,7 +442,11 @@ public class DeltaRequest implements Externalizable {
         public boolean equals(Object o) {
             if ( ! (o instanceof AttributeInfo ) ) return false;
             AttributeInfo other =  (AttributeInfo)o;
-            return other.getName().equals(this.getName());
+            if (other.getType() != this.getType() || !other.getName().equals(this.getName())) {
+                return false;
+            }
+            // Each listener is added or removed on its own
+            return this.getType() != TYPE_LISTENER || other.getValue() == this.getValue();
         }
 
         @Override
@@ -382,6 +460,7 @@ public class DeltaRequest implements Externalizable {
             action = in.readInt();
             name = in.readUTF();
             boolean hasValue = in.readBoolean();
+            value = null;
             if ( hasValue ) value = in.readObject();
         }
 
@@ -399,6 +478,73 @@ public class DeltaRequest implements Externalizable {
             if (getValue()!=null) out.writeObject(getValue());
         }
 
+        public void readCompact(java.io.ObjectInput in) throws IOException, ClassNotFoundException {
+            //header - byte (type, action, hasvalue)
+            //name - String, attributes only
+            //value - encoded according to the type
+            int header = in.readByte();
+            type = header & HEADER_TYPE_MASK;
+            action = (header & HEADER_REMOVE) == 0 ? ACTION_SET : ACTION_REMOVE;
+            boolean hasValue = (header & HEADER_HAS_VALUE) != 0;
+            value = null;
+            switch (type) {
+                case TYPE_ATTRIBUTE:
+                    name = in.readUTF();
+                    if (hasValue) value = in.readObject();
+                    break;
+                case TYPE_PRINCIPAL:
+                    name = NAME_PRINCIPAL;
+                    if (hasValue) value = in.readObject();
+                    break;
+                case TYPE_ISNEW:
+                    name = NAME_ISNEW;
+                    value = Boolean.valueOf(in.readBoolean());
+                    break;
+                case TYPE_MAXINTERVAL:
+                    name = NAME_MAXINTERVAL;
+                    value = Integer.valueOf(in.readInt());
+                    break;
+                case TYPE_AUTHTYPE:
+                    name = NAME_AUTHTYPE;
+                    if (hasValue) value = in.readUTF();
+                    break;
+                case TYPE_LISTENER:
+                    name = NAME_LISTENER;
+                    if (hasValue) value = in.readObject();
+                    break;
+                default:
+                    throw new IOException(sm.getString("deltaRequest.invalidAttributeInfoType",
+                            Integer.valueOf(type)));
+            }
+        }
+
+        public void writeCompact(java.io.ObjectOutput out) throws IOException {
+            //header - byte (type, action, hasvalue)
+            //name - String, attributes only
+            //value - encoded according to the type
+            int header = getType();
+            if (getAction() == ACTION_REMOVE) header |= HEADER_REMOVE;
+            if (getValue() != null) header |= HEADER_HAS_VALUE;
+            out.writeByte(header);
+            switch (getType()) {
+                case TYPE_ATTRIBUTE:
+                    out.writeUTF(getName());
+                    if (getValue() != null) out.writeObject(getValue());
+                    break;
+                case TYPE_ISNEW:
+                    out.writeBoolean(((Boolean) getValue()).booleanValue());
+                    break;
+                case TYPE_MAXINTERVAL:
+                    out.writeInt(((Integer) getValue()).intValue());
+                    break;
+                case TYPE_AUTHTYPE:
+                    if (getValue() != null) out.writeUTF((String) getValue());
+                    break;
+                default:
+                    if (getValue() != null) out.writeObject(getValue());
+            }
+        }
+
         @Override
         public String toString() {
             StringBuilder buf = new StringBuilder("AttributeInfo[type=");
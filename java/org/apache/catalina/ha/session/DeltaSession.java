@@ -136,6 +136,13 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
     public byte[] getDiff() throws IOException {
         lock();
         try {
+            if (manager instanceof ClusterManagerBase) {
+                return getDeltaRequest().serialize(((ManagerBase) manager).getSessionSerializer(),
+                        ((ClusterManagerBase) manager).isCompactDeltaRequests());
+            }
+            if (manager instanceof ManagerBase) {
+                return getDeltaRequest().serialize(((ManagerBase) manager).getSessionSerializer());
+            }
             return getDeltaRequest().serialize();
         } finally{
             unlock();
@@ -152,6 +159,13 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
         return null;
     }
 
+    private ObjectInputStream getDiffStream(byte[] diff, int offset, int length) throws IOException {
+        if (manager instanceof ClusterManagerBase) {
+            return ((ClusterManagerBase) manager).getSessionObjectInputStream(diff, offset, length);
+        }
+        return ((ClusterManager) getManager()).getReplicationStream(diff, offset, length);
+    }
+
     /**
      * Applies a diff to an existing object.
      * @param diff Serialized diff data
@@ -162,7 +176,7 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
     @Override
     public void applyDiff(byte[] diff, int offset, int length) throws IOException, ClassNotFoundException {
         lock();
-        try (ObjectInputStream stream = ((ClusterManager) getManager()).getReplicationStream(diff, offset, length)) {
+        try (ObjectInputStream stream = getDiffStream(diff, offset, length)) {
             ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
             try {
                 ClassLoader[] loaders = getClassLoaders();
@@ -257,7 +271,12 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
      */
     @Override
     public void setPrimarySession(boolean primarySession) {
+        boolean changed = this.isPrimarySession != primarySession;
         this.isPrimarySession = primarySession;
+        if (changed) {
+            // Backup sessions expire later than primary sessions
+            expirationTimeChanged();
+        }
     }
 
 
@@ -292,6 +311,7 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
 
     public void setMaxInactiveInterval(int interval, boolean addDeltaRequest) {
         super.maxInactiveInterval = interval;
+        expirationTimeChanged();
         if (addDeltaRequest && (deltaRequest != null)) {
             lock();
             try {
@@ -406,6 +426,21 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
         return this.isValid;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Backup copies are only expired once they have been idle for twice the
+     * maximum inactive interval. See {@link #isValid()}.
+     */
+    @Override
+    protected long getExpirationTimeInternal() {
+        long expirationTime = super.getExpirationTimeInternal();
+        if (expirationTime < 0 || isPrimarySession()) {
+            return expirationTime;
+        }
+        return expirationTime + maxInactiveInterval * 1000L;
+    }
+
     /**
      * End the access and register to ReplicationValve (crossContext support)
      */
@@ -692,6 +727,33 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
         }
     }
 
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The current value of the attribute is added to the delta request so
+     * that the modification is replicated.
+     */
+    @Override
+    public void markAttributeDirty(String name) {
+        if (name == null) {
+            return;
+        }
+        lock();
+        try {
+            Object value = attributes.get(name);
+            if (value == null) {
+                return;
+            }
+            super.markAttributeDirty(name);
+            if (deltaRequest != null && !exclude(name, value)) {
+                deltaRequest.setAttribute(name, value);
+            }
+        } finally {
+            unlock();
+        }
+    }
+
     // -------------------------------------------- HttpSession Private Methods
 
 
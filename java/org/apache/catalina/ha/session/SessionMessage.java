@@ -88,6 +88,36 @@ public interface SessionMessage extends ClusterMessage {
      */
     public static final int EVT_ALL_SESSION_NOCONTEXTMANAGER = 16;
 
+    /**
+     * Event type used by a starting node to request one partition of the
+     * sessions, streamed in blocks with flow control.
+     */
+    public static final int EVT_GET_SESSION_PARTITION = 17;
+
+    /**
+     * Event type used for a block of sessions from a partition, or for the
+     * reply to {@link #EVT_GET_SESSION}.
+     */
+    public static final int EVT_SESSION_PARTITION_DATA = 18;
+
+    /**
+     * Event type used by a starting node to acknowledge that a block of
+     * sessions from a partition has been loaded.
+     */
+    public static final int EVT_SESSION_PARTITION_ACK = 19;
+
+    /**
+     * Event type used by a starting node to request a single session that has
+     * not yet been transferred.
+     */
+    public static final int EVT_GET_SESSION = 20;
+
+    /**
+     * Event type used to send the full state of a session instead of a delta
+     * request that is larger than the session.
+     */
+    public static final int EVT_SESSION_DATA = 21;
+
     public String getContextName();
 
     public String getEventTypeString();
@@ -78,6 +78,16 @@ public class SessionMessageImpl extends ClusterMessageBase implements SessionMes
      * <B>EVT_ALL_SESSION_NOCONTEXTMANAGER</B><BR>
      *    send that context manager does not exist
      *    after GET_ALL_SESSION received from this sender.<BR>
+     * <B>EVT_GET_SESSION_PARTITION</B><BR>
+     *    get one partition of the sessions from one of the nodes.<BR>
+     * <B>EVT_SESSION_PARTITION_DATA</B><BR>
+     *    send a block of serialized sessions from a partition.<BR>
+     * <B>EVT_SESSION_PARTITION_ACK</B><BR>
+     *    send that a block of a partition has been loaded.<BR>
+     * <B>EVT_GET_SESSION</B><BR>
+     *    get a single session, sessionID must be set.<BR>
+     * <B>EVT_SESSION_DATA</B><BR>
+     *    send the full session instead of a large delta, sessionID must be set.<BR>
      * @param contextName - the name of the context (application
      * @param eventtype - one of the 8 event type defined in this class
      * @param session - the serialized byte array of the session itself
@@ -147,6 +157,11 @@ public class SessionMessageImpl extends ClusterMessageBase implements SessionMes
             case EVT_ALL_SESSION_TRANSFERCOMPLETE : return "SESSION-STATE-TRANSFERRED";
             case EVT_CHANGE_SESSION_ID : return "SESSION-ID-CHANGED";
             case EVT_ALL_SESSION_NOCONTEXTMANAGER : return "NO-CONTEXT-MANAGER";
+            case EVT_GET_SESSION_PARTITION : return "SESSION-GET-PARTITION";
+            case EVT_SESSION_PARTITION_DATA : return "SESSION-PARTITION-DATA";
+            case EVT_SESSION_PARTITION_ACK : return "SESSION-PARTITION-ACK";
+            case EVT_GET_SESSION : return "SESSION-GET";
+            case EVT_SESSION_DATA : return "SESSION-DATA";
             default : return "UNKNOWN-EVENT-TYPE";
         }
     }
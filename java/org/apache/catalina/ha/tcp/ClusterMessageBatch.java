@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.tcp;
+
+import java.util.List;
+
+import org.apache.catalina.ha.ClusterMessage;
+import org.apache.catalina.ha.ClusterMessageBase;
+
+/**
+ * A number of cluster messages sent together in a single channel message.
+ * The receiving {@link SimpleTcpCluster} delivers the messages to its
+ * listeners one at a time, in the order they were added to the batch.
+ */
+public class ClusterMessageBatch extends ClusterMessageBase {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ClusterMessage[] messages;
+    private final String uniqueId;
+
+
+    public ClusterMessageBatch(List<ClusterMessage> messages) {
+        this.messages = messages.toArray(new ClusterMessage[0]);
+        long now = System.currentTimeMillis();
+        this.uniqueId = "BATCH-" + messages.size() + "-" + now;
+        setTimestamp(now);
+    }
+
+
+    /**
+     * @return the messages in this batch
+     */
+    public ClusterMessage[] getMessages() {
+        return messages;
+    }
+
+
+    @Override
+    public String getUniqueId() {
+        return uniqueId;
+    }
+}
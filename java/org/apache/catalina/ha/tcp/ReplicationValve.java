@@ -21,6 +21,14 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -41,10 +49,14 @@ import org.apache.catalina.ha.ClusterSession;
 import org.apache.catalina.ha.ClusterValve;
 import org.apache.catalina.ha.session.DeltaManager;
 import org.apache.catalina.ha.session.DeltaSession;
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.Member;
 import org.apache.catalina.valves.ValveBase;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
 
 /**
  * <p>Implementation of a Valve that logs interesting contents from the
@@ -119,12 +131,108 @@ public class ReplicationValve
      */
     protected String primaryIndicatorName = "org.apache.catalina.ha.tcp.isPrimarySession";
 
+    /**
+     * Should the replication messages of concurrent requests be gathered and
+     * sent together by a background thread?
+     */
+    protected boolean groupCommit = false;
+
+    /**
+     * The time in milliseconds the first message of a group waits for the
+     * messages of other requests.
+     */
+    protected int groupCommitWindow = 2;
+
+    /**
+     * Should a request wait until the group containing its message has been
+     * acknowledged by the other members?
+     */
+    protected boolean groupCommitWaitForAck = false;
+
+    /**
+     * The maximum number of messages waiting to be sent by the group commit
+     * thread. A request blocks while the queue is full.
+     */
+    protected int groupCommitQueueSize = 1000;
+
+    protected volatile long nrOfGroupCommits = 0;
+
+    private volatile BlockingQueue<PendingMessage> pendingMessages = null;
+    private volatile boolean groupCommitRunning = false;
+    private ExecutorService groupCommitExecutor = null;
+
     // ------------------------------------------------------------- Properties
 
     public ReplicationValve() {
         super(true);
     }
 
+    /**
+     * @return <code>true</code> if the replication messages of concurrent
+     *         requests are sent together
+     */
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    /**
+     * @param groupCommit The groupCommit to set.
+     */
+    public void setGroupCommit(boolean groupCommit) {
+        this.groupCommit = groupCommit;
+    }
+
+    /**
+     * @return the time in milliseconds a message waits for others to be sent
+     *         with it
+     */
+    public int getGroupCommitWindow() {
+        return groupCommitWindow;
+    }
+
+    /**
+     * @param groupCommitWindow The groupCommitWindow to set.
+     */
+    public void setGroupCommitWindow(int groupCommitWindow) {
+        this.groupCommitWindow = groupCommitWindow;
+    }
+
+    /**
+     * @return <code>true</code> if requests wait for their group to be
+     *         acknowledged
+     */
+    public boolean isGroupCommitWaitForAck() {
+        return groupCommitWaitForAck;
+    }
+
+    /**
+     * @param groupCommitWaitForAck The groupCommitWaitForAck to set.
+     */
+    public void setGroupCommitWaitForAck(boolean groupCommitWaitForAck) {
+        this.groupCommitWaitForAck = groupCommitWaitForAck;
+    }
+
+    /**
+     * @return the maximum number of messages waiting to be sent together
+     */
+    public int getGroupCommitQueueSize() {
+        return groupCommitQueueSize;
+    }
+
+    /**
+     * @param groupCommitQueueSize The groupCommitQueueSize to set.
+     */
+    public void setGroupCommitQueueSize(int groupCommitQueueSize) {
+        this.groupCommitQueueSize = groupCommitQueueSize;
+    }
+
+    /**
+     * @return the number of groups of messages sent
+     */
+    public long getNrOfGroupCommits() {
+        return nrOfGroupCommits;
+    }
+
     /**
      * @return the cluster.
      */
@@ -369,6 +477,7 @@ public class ReplicationValve
         nrOfRequests = 0;
         nrOfSendRequests = 0;
         nrOfCrossContextSendRequests = 0;
+        nrOfGroupCommits = 0;
     }
 
     /**
@@ -390,10 +499,49 @@ public class ReplicationValve
                 }
             }
         }
+        if (groupCommit) {
+            pendingMessages = new LinkedBlockingQueue<>(Math.max(1, groupCommitQueueSize));
+            groupCommitRunning = true;
+            groupCommitExecutor = Executors.newSingleThreadExecutor(new TaskThreadFactory(
+                    "ReplicationValve-GroupCommit[" + getContainer().getName() + "]-",
+                    true, Thread.NORM_PRIORITY));
+            groupCommitExecutor.execute(this::processGroupCommits);
+        }
         super.startInternal();
     }
 
 
+    /**
+     * Stop this component and implement the requirements
+     * of {@link org.apache.catalina.util.LifecycleBase#stopInternal()}.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that prevents this component from being used
+     */
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        if (groupCommitExecutor != null) {
+            groupCommitRunning = false;
+            // Not interrupted as that would close the channel it may be
+            // sending on. The thread stops once its current group is sent.
+            groupCommitExecutor.shutdown();
+            try {
+                groupCommitExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            groupCommitExecutor = null;
+            // Send whatever was queued after the thread's last group
+            List<PendingMessage> group = new ArrayList<>();
+            pendingMessages.drainTo(group);
+            if (group.size() > 0) {
+                sendGroup(group);
+            }
+        }
+    }
+
+
     // --------------------------------------------------------- Protected Methods
 
     protected void sendReplicationMessage(Request request, long totalstart, boolean isCrossContext, ClusterManager clusterManager) {
@@ -529,13 +677,142 @@ public class ReplicationValve
     protected void send(ClusterManager manager, String sessionId) {
         ClusterMessage msg = manager.requestCompleted(sessionId);
         if (msg != null && cluster != null) {
-            cluster.send(msg);
+            if (groupCommitRunning) {
+                Future<Void> future = sendGroupCommit(msg);
+                if (groupCommitWaitForAck) {
+                    try {
+                        future.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        log.error(sm.getString("ReplicationValve.groupCommit.failure"), e.getCause());
+                    }
+                }
+            } else {
+                cluster.send(msg);
+            }
             if(doStatistics()) {
                 nrOfSendRequests++;
             }
         }
     }
 
+    /**
+     * Queue a message to be sent to all members with the messages of other
+     * requests. Blocks while the queue is full. If the group commit thread
+     * stops, or the request thread is interrupted, while waiting, the message
+     * is sent directly.
+     * @param msg The message to send
+     * @return a future completed when the group containing the message has
+     *         been sent, or acknowledged if the send options require it
+     */
+    protected Future<Void> sendGroupCommit(ClusterMessage msg) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        PendingMessage pending = new PendingMessage(msg, future);
+        BlockingQueue<PendingMessage> queue = pendingMessages;
+        try {
+            while (groupCommitRunning) {
+                if (queue.offer(pending, 1, TimeUnit.SECONDS)) {
+                    // If the valve stopped meanwhile the queue may already
+                    // have been drained for the last time
+                    if (groupCommitRunning || !queue.remove(pending)) {
+                        return future;
+                    }
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<PendingMessage> group = new ArrayList<>(1);
+        group.add(pending);
+        sendGroup(group);
+        return future;
+    }
+
+    /*
+     * Runs on the group commit thread. The first message of a group waits for
+     * the window to pass and all the messages queued by then are sent with it.
+     * A single thread sends the groups so messages keep the order in which
+     * they were queued.
+     */
+    private void processGroupCommits() {
+        BlockingQueue<PendingMessage> queue = pendingMessages;
+        List<PendingMessage> group = new ArrayList<>();
+        while (groupCommitRunning) {
+            try {
+                PendingMessage first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                if (groupCommitWindow > 0) {
+                    try {
+                        Thread.sleep(groupCommitWindow);
+                    } catch (InterruptedException e) {
+                        // Send the group now
+                    }
+                }
+                queue.drainTo(group);
+                sendGroup(group);
+            } catch (InterruptedException e) {
+                // Ignore, the running flag is checked
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    /**
+     * Send a group of messages to all members as a single channel message.
+     * @param group The messages and their futures
+     */
+    protected void sendGroup(List<PendingMessage> group) {
+        try {
+            Member[] members = cluster.getMembers();
+            if (members.length > 0) {
+                ClusterMessage msg;
+                if (group.size() == 1) {
+                    msg = group.get(0).message;
+                } else {
+                    List<ClusterMessage> messages = new ArrayList<>(group.size());
+                    for (PendingMessage pending : group) {
+                        messages.add(pending.message);
+                    }
+                    msg = new ClusterMessageBatch(messages);
+                }
+                msg.setAddress(cluster.getLocalMember());
+                cluster.getChannel().send(members, msg, getGroupCommitSendOptions());
+                nrOfGroupCommits++;
+            }
+            for (PendingMessage pending : group) {
+                pending.future.complete(null);
+            }
+        } catch (ChannelException | RuntimeException e) {
+            log.error(sm.getString("ReplicationValve.groupCommit.failure"), e);
+            for (PendingMessage pending : group) {
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @return the send options of the cluster, changed to wait for the
+     *         acknowledgement of the receiving members if
+     *         {@link #isGroupCommitWaitForAck()}
+     */
+    protected int getGroupCommitSendOptions() {
+        int options = Channel.SEND_OPTIONS_DEFAULT;
+        if (cluster instanceof SimpleTcpCluster) {
+            options = ((SimpleTcpCluster) cluster).getChannelSendOptions();
+        }
+        if (groupCommitWaitForAck) {
+            options = (options | Channel.SEND_OPTIONS_USE_ACK | Channel.SEND_OPTIONS_SYNCHRONIZED_ACK) &
+                    ~Channel.SEND_OPTIONS_ASYNCHRONOUS;
+        }
+        return options;
+    }
+
     /**
      * check for session invalidations
      * @param manager Associated manager
@@ -628,4 +905,14 @@ public class ReplicationValve
         }
     }
 
+
+    protected static final class PendingMessage {
+        private final ClusterMessage message;
+        private final CompletableFuture<Void> future;
+
+        private PendingMessage(ClusterMessage message, CompletableFuture<Void> future) {
+            this.message = message;
+            this.future = future;
+        }
+    }
 }
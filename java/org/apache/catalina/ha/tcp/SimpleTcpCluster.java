@@ -766,6 +766,13 @@ public class SimpleTcpCluster extends LifecycleMBeanBase
 
     @Override
     public void messageReceived(Serializable message, Member sender) {
+        if (message instanceof ClusterMessageBatch) {
+            for (ClusterMessage msg : ((ClusterMessageBatch) message).getMessages()) {
+                msg.setAddress(sender);
+                messageReceived(msg);
+            }
+            return;
+        }
         ClusterMessage fwd = (ClusterMessage)message;
         fwd.setAddress(sender);
         messageReceived(fwd);
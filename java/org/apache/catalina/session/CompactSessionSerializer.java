@@ -0,0 +1,593 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.catalina.SessionSerializer;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Writes session data using a compact encoding. Values of the common immutable
+ * JDK types (strings, boxed primitives) are written as a one byte type tag
+ * followed by the value. Integers and longs, such as the session timestamps,
+ * use a variable length encoding and a string that has already been written to
+ * the stream is written as a reference to the earlier copy. Any other value is
+ * written using Java serialization. All such values share a single Java
+ * serialization stream so class descriptors and shared references are written
+ * once per session (or group of sessions) as they would be with Java
+ * serialization.
+ */
+public class CompactSessionSerializer implements SessionSerializer {
+
+    private static final StringManager sm = StringManager.getManager(CompactSessionSerializer.class);
+
+    /*
+     * The first two bytes of the encoded data. Java serialization uses 0xACED.
+     */
+    static final int MAGIC = 0x5EC5;
+    static final int VERSION = 1;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_STRING = 1;
+    private static final int TAG_STRING_REF = 2;
+    private static final int TAG_LONG_STRING = 3;
+    private static final int TAG_TRUE = 4;
+    private static final int TAG_FALSE = 5;
+    private static final int TAG_BYTE = 6;
+    private static final int TAG_SHORT = 7;
+    private static final int TAG_CHARACTER = 8;
+    private static final int TAG_INTEGER = 9;
+    private static final int TAG_LONG = 10;
+    private static final int TAG_FLOAT = 11;
+    private static final int TAG_DOUBLE = 12;
+    private static final int TAG_JAVA = 13;
+
+    /*
+     * Strings of up to this many characters are guaranteed to fit in the
+     * 65535 bytes allowed by DataOutput.writeUTF().
+     */
+    private static final int MAX_UTF_LENGTH = 65535 / 3;
+
+    /*
+     * Lengths read from the stream are not trusted. Arrays are allocated in
+     * increments of at most this size as the data is read so a corrupt or
+     * malicious length cannot trigger a large allocation on its own.
+     */
+    private static final int READ_CHUNK_SIZE = 8192;
+
+    /*
+     * The largest array most JVMs are able to allocate.
+     */
+    private static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+
+    @Override
+    public ObjectOutputStream getObjectOutputStream(OutputStream os) throws IOException {
+        return new CompactObjectOutputStream(os);
+    }
+
+
+    @Override
+    public ObjectInputStream getObjectInputStream(InputStream is,
+            ObjectInputStreamFactory javaStreams) throws IOException {
+        return new CompactObjectInputStream(is, javaStreams);
+    }
+
+
+    /**
+     * Is the data that starts with the given bytes in this format?
+     *
+     * @param b1 The first byte of the data
+     * @param b2 The second byte of the data
+     *
+     * @return {@code true} if the data was written by this serializer
+     */
+    static boolean isCompact(int b1, int b2) {
+        return ((b1 << 8) | b2) == MAGIC;
+    }
+
+
+    /*
+     * Uses the ObjectOutputStream sub-class hooks to replace the
+     * implementation of every method so that the session implementations can
+     * write to this stream without change.
+     */
+    private static final class CompactObjectOutputStream extends ObjectOutputStream {
+
+        private final DataOutputStream out;
+        private final Map<String,Integer> strings = new HashMap<>();
+        private ByteArrayOutputStream javaBuffer = null;
+        private ObjectOutputStream javaOut = null;
+
+        CompactObjectOutputStream(OutputStream os) throws IOException {
+            super();
+            out = new DataOutputStream(os);
+            out.writeShort(MAGIC);
+            out.writeByte(VERSION);
+        }
+
+        @Override
+        protected void writeObjectOverride(Object obj) throws IOException {
+            if (obj == null) {
+                out.writeByte(TAG_NULL);
+                return;
+            }
+            Class<?> clazz = obj.getClass();
+            if (clazz == String.class) {
+                writeString((String) obj);
+            } else if (clazz == Boolean.class) {
+                out.writeByte(((Boolean) obj).booleanValue() ? TAG_TRUE : TAG_FALSE);
+            } else if (clazz == Integer.class) {
+                out.writeByte(TAG_INTEGER);
+                writeVarLong(zigZag(((Integer) obj).intValue()));
+            } else if (clazz == Long.class) {
+                out.writeByte(TAG_LONG);
+                writeVarLong(zigZag(((Long) obj).longValue()));
+            } else if (clazz == Byte.class) {
+                out.writeByte(TAG_BYTE);
+                out.writeByte(((Byte) obj).byteValue());
+            } else if (clazz == Short.class) {
+                out.writeByte(TAG_SHORT);
+                out.writeShort(((Short) obj).shortValue());
+            } else if (clazz == Character.class) {
+                out.writeByte(TAG_CHARACTER);
+                out.writeChar(((Character) obj).charValue());
+            } else if (clazz == Float.class) {
+                out.writeByte(TAG_FLOAT);
+                out.writeFloat(((Float) obj).floatValue());
+            } else if (clazz == Double.class) {
+                out.writeByte(TAG_DOUBLE);
+                out.writeDouble(((Double) obj).doubleValue());
+            } else {
+                writeJava(obj);
+            }
+        }
+
+        private void writeString(String s) throws IOException {
+            Integer index = strings.get(s);
+            if (index != null) {
+                out.writeByte(TAG_STRING_REF);
+                writeVarLong(index.intValue());
+            } else if (s.length() <= MAX_UTF_LENGTH) {
+                strings.put(s, Integer.valueOf(strings.size()));
+                out.writeByte(TAG_STRING);
+                out.writeUTF(s);
+            } else {
+                out.writeByte(TAG_LONG_STRING);
+                writeVarLong(s.length());
+                out.writeChars(s);
+            }
+        }
+
+        private void writeJava(Object obj) throws IOException {
+            if (javaOut == null) {
+                javaBuffer = new ByteArrayOutputStream();
+                javaOut = new ObjectOutputStream(javaBuffer);
+            }
+            try {
+                javaOut.writeObject(obj);
+            } finally {
+                // If the object could not be written, the stream contains
+                // the exception so the reader is able to skip the value
+                javaOut.flush();
+                out.writeByte(TAG_JAVA);
+                writeVarLong(javaBuffer.size());
+                javaBuffer.writeTo(out);
+                javaBuffer.reset();
+            }
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+
+        private static long zigZag(long value) {
+            return (value << 1) ^ (value >> 63);
+        }
+
+        @Override
+        public void writeUnshared(Object obj) throws IOException {
+            writeObjectOverride(obj);
+        }
+
+        @Override
+        public void write(int val) throws IOException {
+            out.write(val);
+        }
+
+        @Override
+        public void write(byte[] buf) throws IOException {
+            out.write(buf);
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            out.write(buf, off, len);
+        }
+
+        @Override
+        public void writeBoolean(boolean val) throws IOException {
+            out.writeBoolean(val);
+        }
+
+        @Override
+        public void writeByte(int val) throws IOException {
+            out.writeByte(val);
+        }
+
+        @Override
+        public void writeShort(int val) throws IOException {
+            out.writeShort(val);
+        }
+
+        @Override
+        public void writeChar(int val) throws IOException {
+            out.writeChar(val);
+        }
+
+        @Override
+        public void writeInt(int val) throws IOException {
+            out.writeInt(val);
+        }
+
+        @Override
+        public void writeLong(long val) throws IOException {
+            out.writeLong(val);
+        }
+
+        @Override
+        public void writeFloat(float val) throws IOException {
+            out.writeFloat(val);
+        }
+
+        @Override
+        public void writeDouble(double val) throws IOException {
+            out.writeDouble(val);
+        }
+
+        @Override
+        public void writeBytes(String str) throws IOException {
+            out.writeBytes(str);
+        }
+
+        @Override
+        public void writeChars(String str) throws IOException {
+            out.writeChars(str);
+        }
+
+        @Override
+        public void writeUTF(String str) throws IOException {
+            out.writeUTF(str);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+
+    private static final class CompactObjectInputStream extends ObjectInputStream {
+
+        private final DataInputStream in;
+        private final ObjectInputStreamFactory javaStreams;
+        private final List<String> strings = new ArrayList<>();
+        private JavaChunkInputStream javaChunks = null;
+        private ObjectInputStream javaIn = null;
+
+        CompactObjectInputStream(InputStream is, ObjectInputStreamFactory javaStreams)
+                throws IOException {
+            super();
+            in = new DataInputStream(is);
+            this.javaStreams = javaStreams;
+            int magic = in.readUnsignedShort();
+            int version = in.readUnsignedByte();
+            if (magic != MAGIC || version != VERSION) {
+                throw new StreamCorruptedException(sm.getString(
+                        "compactSessionSerializer.invalidHeader", Integer.toHexString(magic),
+                        Integer.toString(version)));
+            }
+        }
+
+        @Override
+        protected Object readObjectOverride() throws IOException, ClassNotFoundException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case TAG_NULL:
+                    return null;
+                case TAG_STRING: {
+                    String s = in.readUTF();
+                    strings.add(s);
+                    return s;
+                }
+                case TAG_STRING_REF: {
+                    int index = (int) readVarLong();
+                    if (index < 0 || index >= strings.size()) {
+                        throw new StreamCorruptedException(sm.getString(
+                                "compactSessionSerializer.invalidStringRef", Integer.toString(index)));
+                    }
+                    return strings.get(index);
+                }
+                case TAG_LONG_STRING: {
+                    int length = readLength();
+                    StringBuilder sb = new StringBuilder(Math.min(length, READ_CHUNK_SIZE));
+                    for (int i = 0; i < length; i++) {
+                        sb.append(in.readChar());
+                    }
+                    return sb.toString();
+                }
+                case TAG_TRUE:
+                    return Boolean.TRUE;
+                case TAG_FALSE:
+                    return Boolean.FALSE;
+                case TAG_BYTE:
+                    return Byte.valueOf(in.readByte());
+                case TAG_SHORT:
+                    return Short.valueOf(in.readShort());
+                case TAG_CHARACTER:
+                    return Character.valueOf(in.readChar());
+                case TAG_INTEGER:
+                    return Integer.valueOf((int) unZigZag(readVarLong()));
+                case TAG_LONG:
+                    return Long.valueOf(unZigZag(readVarLong()));
+                case TAG_FLOAT:
+                    return Float.valueOf(in.readFloat());
+                case TAG_DOUBLE:
+                    return Double.valueOf(in.readDouble());
+                case TAG_JAVA:
+                    return readJava();
+                default:
+                    throw new StreamCorruptedException(sm.getString(
+                            "compactSessionSerializer.invalidTag", Integer.toString(tag)));
+            }
+        }
+
+        private Object readJava() throws IOException, ClassNotFoundException {
+            byte[] chunk = readBytes(readLength());
+            if (javaIn == null) {
+                javaChunks = new JavaChunkInputStream();
+                javaChunks.add(chunk);
+                javaIn = javaStreams.create(javaChunks);
+            } else {
+                javaChunks.add(chunk);
+            }
+            return javaIn.readObject();
+        }
+
+        private int readLength() throws IOException {
+            long length = readVarLong();
+            if (length < 0 || length > MAX_LENGTH) {
+                throw new StreamCorruptedException(sm.getString(
+                        "compactSessionSerializer.invalidLength", Long.toString(length)));
+            }
+            return (int) length;
+        }
+
+        private byte[] readBytes(int length) throws IOException {
+            if (length <= READ_CHUNK_SIZE) {
+                byte[] result = new byte[length];
+                in.readFully(result);
+                return result;
+            }
+            // Only grow the buffer as the data actually arrives
+            byte[] result = new byte[READ_CHUNK_SIZE];
+            int pos = 0;
+            while (pos < length) {
+                if (pos == result.length) {
+                    result = Arrays.copyOf(result, (int) Math.min((long) result.length * 2, length));
+                }
+                int read = in.read(result, pos, result.length - pos);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                pos += read;
+            }
+            return result;
+        }
+
+        private long readVarLong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new StreamCorruptedException(sm.getString("compactSessionSerializer.invalidVarLong"));
+        }
+
+        private static long unZigZag(long value) {
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        @Override
+        public Object readUnshared() throws IOException, ClassNotFoundException {
+            return readObjectOverride();
+        }
+
+        @Override
+        public int read() throws IOException {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            return in.read(buf, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        @Override
+        public boolean readBoolean() throws IOException {
+            return in.readBoolean();
+        }
+
+        @Override
+        public byte readByte() throws IOException {
+            return in.readByte();
+        }
+
+        @Override
+        public int readUnsignedByte() throws IOException {
+            return in.readUnsignedByte();
+        }
+
+        @Override
+        public char readChar() throws IOException {
+            return in.readChar();
+        }
+
+        @Override
+        public short readShort() throws IOException {
+            return in.readShort();
+        }
+
+        @Override
+        public int readUnsignedShort() throws IOException {
+            return in.readUnsignedShort();
+        }
+
+        @Override
+        public int readInt() throws IOException {
+            return in.readInt();
+        }
+
+        @Override
+        public long readLong() throws IOException {
+            return in.readLong();
+        }
+
+        @Override
+        public float readFloat() throws IOException {
+            return in.readFloat();
+        }
+
+        @Override
+        public double readDouble() throws IOException {
+            return in.readDouble();
+        }
+
+        @Override
+        public void readFully(byte[] buf) throws IOException {
+            in.readFully(buf);
+        }
+
+        @Override
+        public void readFully(byte[] buf, int off, int len) throws IOException {
+            in.readFully(buf, off, len);
+        }
+
+        @Override
+        public int skipBytes(int len) throws IOException {
+            return in.skipBytes(len);
+        }
+
+        @Override
+        public String readUTF() throws IOException {
+            return in.readUTF();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (javaIn != null) {
+                javaIn.close();
+            }
+            in.close();
+        }
+    }
+
+
+    /*
+     * Provides the Java serialization stream to the ObjectInputStream that
+     * reads it. The stream is written in chunks, one for each value, and each
+     * chunk is added once the value is read.
+     */
+    private static final class JavaChunkInputStream extends InputStream {
+
+        private byte[] buf = new byte[0];
+        private int pos = 0;
+
+        void add(byte[] chunk) {
+            int remaining = buf.length - pos;
+            if (remaining == 0) {
+                buf = chunk;
+            } else {
+                byte[] newBuf = new byte[remaining + chunk.length];
+                System.arraycopy(buf, pos, newBuf, 0, remaining);
+                System.arraycopy(chunk, 0, newBuf, remaining, chunk.length);
+                buf = newBuf;
+            }
+            pos = 0;
+        }
+
+        @Override
+        public int read() {
+            if (pos < buf.length) {
+                return buf[pos++] & 0xFF;
+            }
+            return -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int remaining = buf.length - pos;
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = Math.min(len, remaining);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buf.length - pos;
+        }
+    }
+}
@@ -292,7 +292,7 @@ public final class FileStore extends StoreBase {
         }
 
         try (FileOutputStream fos = new FileOutputStream(file.getAbsolutePath());
-                ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(fos))) {
+                ObjectOutputStream oos = getObjectOutputStream(new BufferedOutputStream(fos))) {
             ((StandardSession)session).writeObjectData(oos);
         }
     }
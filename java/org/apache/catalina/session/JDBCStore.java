@@ -30,7 +30,10 @@ import java.sql.Driver;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -115,7 +118,25 @@ public class JDBCStore extends StoreBase {
     /**
      * DataSource to use
      */
-    protected DataSource dataSource = null;
+    protected volatile DataSource dataSource = null;
+
+    /**
+     * Should each operation use its own connection from the DataSource rather
+     * than all operations being serialized through a single connection?
+     */
+    private boolean concurrentAccess = false;
+
+    /**
+     * Should sessions be saved by updating any existing row, and only
+     * inserting a new row if there is none, rather than by deleting any
+     * existing row and then inserting a new one?
+     */
+    private boolean upsert = false;
+
+    /**
+     * The maximum number of sessions written in a single JDBC batch.
+     */
+    private int batchSize = 100;
 
 
     // ------------------------------------------------------------ Table & cols
@@ -477,6 +498,63 @@ public class JDBCStore extends StoreBase {
       this.localDataSource = localDataSource;
     }
 
+    /**
+     * @return {@code true} if each operation obtains its own connection from
+     *         the DataSource so that operations may run concurrently
+     */
+    public boolean getConcurrentAccess() {
+        return concurrentAccess;
+    }
+
+    /**
+     * Set to {@code true} to have each operation obtain its own connection
+     * from the DataSource, allowing operations to run concurrently. This has
+     * no effect unless a DataSource is used.
+     *
+     * @param concurrentAccess the new flag value
+     */
+    public void setConcurrentAccess(boolean concurrentAccess) {
+        this.concurrentAccess = concurrentAccess;
+    }
+
+    /**
+     * @return {@code true} if sessions are saved by updating any existing
+     *         row and only inserting a row if none exists
+     */
+    public boolean getUpsert() {
+        return upsert;
+    }
+
+    /**
+     * Set to {@code true} to save sessions by updating any existing row and
+     * only inserting a row if none exists. By default, any existing row is
+     * deleted and a new row inserted.
+     *
+     * @param upsert the new flag value
+     */
+    public void setUpsert(boolean upsert) {
+        this.upsert = upsert;
+    }
+
+    /**
+     * @return the maximum number of sessions written in a single JDBC batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the maximum number of sessions written in a single JDBC batch when
+     * several sessions are saved at once.
+     *
+     * @param batchSize the new batch size
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize > 0) {
+            this.batchSize = batchSize;
+        }
+    }
+
 
     // --------------------------------------------------------- Public Methods
 
@@ -502,6 +580,9 @@ public class JDBCStore extends StoreBase {
      * @exception IOException if an input/output error occurred
      */
     private String[] keys(boolean expiredOnly) throws IOException {
+        if (isConcurrent()) {
+            return keysConcurrent(expiredOnly);
+        }
         String keys[] = null;
         synchronized (this) {
             int numberOfTries = 2;
@@ -513,13 +594,8 @@ public class JDBCStore extends StoreBase {
                 }
                 try {
 
-                    String keysSql = "SELECT " + sessionIdCol + " FROM "
-                            + sessionTable + " WHERE " + sessionAppCol + " = ?";
-                    if (expiredOnly) {
-                        keysSql += " AND (" + sessionLastAccessedCol + " + "
-                                + sessionMaxInactiveCol + " * 1000 < ?)";
-                    }
-                    try (PreparedStatement preparedKeysSql = _conn.prepareStatement(keysSql)) {
+                    try (PreparedStatement preparedKeysSql =
+                            _conn.prepareStatement(getKeysSql(expiredOnly))) {
                         preparedKeysSql.setString(1, getName());
                         if (expiredOnly) {
                             preparedKeysSql.setLong(2, System.currentTimeMillis());
@@ -562,6 +638,9 @@ public class JDBCStore extends StoreBase {
      */
     @Override
     public int getSize() throws IOException {
+        if (isConcurrent()) {
+            return getSizeConcurrent();
+        }
         int size = 0;
 
         synchronized (this) {
@@ -575,10 +654,7 @@ public class JDBCStore extends StoreBase {
 
                 try {
                     if (preparedSizeSql == null) {
-                        String sizeSql = "SELECT COUNT(" + sessionIdCol
-                                + ") FROM " + sessionTable + " WHERE "
-                                + sessionAppCol + " = ?";
-                        preparedSizeSql = _conn.prepareStatement(sizeSql);
+                        preparedSizeSql = _conn.prepareStatement(getSizeSql());
                     }
 
                     preparedSizeSql.setString(1, getName());
@@ -613,6 +689,9 @@ public class JDBCStore extends StoreBase {
      */
     @Override
     public Session load(String id) throws ClassNotFoundException, IOException {
+        if (isConcurrent()) {
+            return loadConcurrent(id);
+        }
         StandardSession _session = null;
         org.apache.catalina.Context context = getManager().getContext();
         Log contextLog = context.getLogger();
@@ -629,31 +708,13 @@ public class JDBCStore extends StoreBase {
 
                 try {
                     if (preparedLoadSql == null) {
-                        String loadSql = "SELECT " + sessionIdCol + ", "
-                                + sessionDataCol + " FROM " + sessionTable
-                                + " WHERE " + sessionIdCol + " = ? AND "
-                                + sessionAppCol + " = ?";
-                        preparedLoadSql = _conn.prepareStatement(loadSql);
+                        preparedLoadSql = _conn.prepareStatement(getLoadSql());
                     }
 
                     preparedLoadSql.setString(1, id);
                     preparedLoadSql.setString(2, getName());
                     try (ResultSet rst = preparedLoadSql.executeQuery()) {
-                        if (rst.next()) {
-                            try (ObjectInputStream ois =
-                                    getObjectInputStream(rst.getBinaryStream(2))) {
-                                if (contextLog.isDebugEnabled()) {
-                                    contextLog.debug(sm.getString(
-                                            getStoreName() + ".loading", id, sessionTable));
-                                }
-
-                                _session = (StandardSession) manager.createEmptySession();
-                                _session.readObjectData(ois);
-                                _session.setManager(manager);
-                            }
-                        } else if (context.getLogger().isDebugEnabled()) {
-                            contextLog.debug(getStoreName() + ": No persisted data object found");
-                        }
+                        _session = readSession(rst, id);
                         // Break out after the finally block
                         numberOfTries = 0;
                     }
@@ -684,6 +745,18 @@ public class JDBCStore extends StoreBase {
     @Override
     public void remove(String id) throws IOException {
 
+        if (isConcurrent()) {
+            removeConcurrent(id);
+        } else {
+            removeSynchronized(id);
+        }
+
+        if (manager.getContext().getLogger().isDebugEnabled()) {
+            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".removing", id, sessionTable));
+        }
+    }
+
+    private void removeSynchronized(String id) {
         synchronized (this) {
             int numberOfTries = 2;
             while (numberOfTries > 0) {
@@ -707,10 +780,6 @@ public class JDBCStore extends StoreBase {
                 numberOfTries--;
             }
         }
-
-        if (manager.getContext().getLogger().isDebugEnabled()) {
-            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".removing", id, sessionTable));
-        }
     }
 
     /**
@@ -724,10 +793,7 @@ public class JDBCStore extends StoreBase {
      */
     private void remove(String id, Connection _conn) throws SQLException {
         if (preparedRemoveSql == null) {
-            String removeSql = "DELETE FROM " + sessionTable
-                    + " WHERE " + sessionIdCol + " = ?  AND "
-                    + sessionAppCol + " = ?";
-            preparedRemoveSql = _conn.prepareStatement(removeSql);
+            preparedRemoveSql = _conn.prepareStatement(getRemoveSql());
         }
 
         preparedRemoveSql.setString(1, id);
@@ -743,6 +809,11 @@ public class JDBCStore extends StoreBase {
     @Override
     public void clear() throws IOException {
 
+        if (isConcurrent()) {
+            clearConcurrent();
+            return;
+        }
+
         synchronized (this) {
             int numberOfTries = 2;
             while (numberOfTries > 0) {
@@ -753,9 +824,7 @@ public class JDBCStore extends StoreBase {
 
                 try {
                     if (preparedClearSql == null) {
-                        String clearSql = "DELETE FROM " + sessionTable
-                             + " WHERE " + sessionAppCol + " = ?";
-                        preparedClearSql = _conn.prepareStatement(clearSql);
+                        preparedClearSql = _conn.prepareStatement(getClearSql());
                     }
 
                     preparedClearSql.setString(1, getName());
@@ -782,7 +851,17 @@ public class JDBCStore extends StoreBase {
      */
     @Override
     public void save(Session session) throws IOException {
-        ByteArrayOutputStream bos = null;
+        if (isConcurrent()) {
+            try {
+                saveAllConcurrent(Collections.singletonList(session));
+            } catch (SQLException e) {
+                manager.getContext().getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
+            } catch (IOException e) {
+                // Ignore
+            }
+            logSaved(session);
+            return;
+        }
 
         synchronized (this) {
             int numberOfTries = 2;
@@ -793,40 +872,31 @@ public class JDBCStore extends StoreBase {
                 }
 
                 try {
-                    // If sessions already exist in DB, remove and insert again.
-                    // TODO:
-                    // * Check if ID exists in database and if so use UPDATE.
-                    remove(session.getIdInternal(), _conn);
-
-                    bos = new ByteArrayOutputStream();
-                    try (ObjectOutputStream oos =
-                            new ObjectOutputStream(new BufferedOutputStream(bos))) {
-                        ((StandardSession) session).writeObjectData(oos);
-                    }
-                    byte[] obs = bos.toByteArray();
-                    int size = obs.length;
-                    try (ByteArrayInputStream bis = new ByteArrayInputStream(obs, 0, size);
-                            InputStream in = new BufferedInputStream(bis, size)) {
-                        if (preparedSaveSql == null) {
-                            String saveSql = "INSERT INTO " + sessionTable + " ("
-                               + sessionIdCol + ", " + sessionAppCol + ", "
-                               + sessionDataCol + ", " + sessionValidCol
-                               + ", " + sessionMaxInactiveCol + ", "
-                               + sessionLastAccessedCol
-                               + ") VALUES (?, ?, ?, ?, ?, ?)";
-                           preparedSaveSql = _conn.prepareStatement(saveSql);
-                        }
+                    if (upsert) {
+                        save(_conn, Collections.singletonList(session));
+                    } else {
+                        // If sessions already exist in DB, remove and insert again.
+                        remove(session.getIdInternal(), _conn);
+
+                        byte[] obs = serialize(session);
+                        int size = obs.length;
+                        try (ByteArrayInputStream bis = new ByteArrayInputStream(obs, 0, size);
+                                InputStream in = new BufferedInputStream(bis, size)) {
+                            if (preparedSaveSql == null) {
+                               preparedSaveSql = _conn.prepareStatement(getInsertSql());
+                            }
 
-                        preparedSaveSql.setString(1, session.getIdInternal());
-                        preparedSaveSql.setString(2, getName());
-                        preparedSaveSql.setBinaryStream(3, in, size);
-                        preparedSaveSql.setString(4, session.isValid() ? "1" : "0");
-                        preparedSaveSql.setInt(5, session.getMaxInactiveInterval());
-                        preparedSaveSql.setLong(6, session.getLastAccessedTime());
-                        preparedSaveSql.execute();
-                        // Break out after the finally block
-                        numberOfTries = 0;
+                            preparedSaveSql.setString(1, session.getIdInternal());
+                            preparedSaveSql.setString(2, getName());
+                            preparedSaveSql.setBinaryStream(3, in, size);
+                            preparedSaveSql.setString(4, session.isValid() ? "1" : "0");
+                            preparedSaveSql.setInt(5, session.getMaxInactiveInterval());
+                            preparedSaveSql.setLong(6, session.getLastAccessedTime());
+                            preparedSaveSql.execute();
+                        }
                     }
+                    // Break out after the finally block
+                    numberOfTries = 0;
                 } catch (SQLException e) {
                     manager.getContext().getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
                     if (dbConnection != null)
@@ -840,6 +910,53 @@ public class JDBCStore extends StoreBase {
             }
         }
 
+        logSaved(session);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The sessions are written using JDBC batches of at most
+     * {@link #getBatchSize()} sessions. Each batch is committed separately.
+     */
+    @Override
+    public void saveAll(List<Session> sessions) throws IOException {
+        if (sessions.isEmpty()) {
+            return;
+        }
+        if (isConcurrent()) {
+            try {
+                saveAllConcurrent(sessions);
+            } catch (SQLException e) {
+                manager.getContext().getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
+                throw new IOException(e);
+            }
+        } else {
+            synchronized (this) {
+                Connection _conn = getConnection();
+                if (_conn == null) {
+                    throw new IOException(sm.getString(getStoreName() + ".noConnection"));
+                }
+                try {
+                    save(_conn, sessions);
+                } catch (SQLException e) {
+                    manager.getContext().getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
+                    if (dbConnection != null)
+                        close(dbConnection);
+                    throw new IOException(e);
+                } finally {
+                    release(_conn);
+                }
+            }
+        }
+        for (Session session : sessions) {
+            logSaved(session);
+        }
+    }
+
+
+    private void logSaved(Session session) {
         if (manager.getContext().getLogger().isDebugEnabled()) {
             manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".saving",
                     session.getIdInternal(), sessionTable));
@@ -847,6 +964,368 @@ public class JDBCStore extends StoreBase {
     }
 
 
+    /*
+     * Write the sessions using JDBC batches in a transaction per batch.
+     */
+    private void save(Connection conn, List<Session> sessions) throws SQLException, IOException {
+        boolean autoCommit = conn.getAutoCommit();
+        if (autoCommit) {
+            conn.setAutoCommit(false);
+        }
+        try {
+            for (int start = 0; start < sessions.size(); start += batchSize) {
+                List<Session> batch =
+                        sessions.subList(start, Math.min(sessions.size(), start + batchSize));
+                byte[][] data = new byte[batch.size()][];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = serialize(batch.get(i));
+                }
+                try {
+                    saveBatch(conn, batch, data);
+                } catch (SQLException e) {
+                    if (!isDuplicateKey(e)) {
+                        throw e;
+                    }
+                    // Another thread or node inserted one of the sessions
+                    // after this one found no row for it. Retry once, the
+                    // update (or remove) will now find the row.
+                    conn.rollback();
+                    saveBatch(conn, batch, data);
+                }
+                conn.commit();
+            }
+        } catch (SQLException | IOException | RuntimeException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException e2) {
+                // Ignore. The original exception is more useful.
+            }
+            throw e;
+        } finally {
+            if (autoCommit) {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+
+    private void saveBatch(Connection conn, List<Session> batch, byte[][] data)
+            throws SQLException {
+        boolean[] insert = new boolean[data.length];
+        if (upsert) {
+            try (PreparedStatement update = conn.prepareStatement(getUpdateSql())) {
+                for (int i = 0; i < data.length; i++) {
+                    bindUpdate(update, batch.get(i), data[i]);
+                    update.addBatch();
+                }
+                int[] counts = update.executeBatch();
+                for (int i = 0; i < data.length; i++) {
+                    if (i >= counts.length || counts[i] == Statement.SUCCESS_NO_INFO) {
+                        // The driver did not report the result so
+                        // repeat the update individually
+                        bindUpdate(update, batch.get(i), data[i]);
+                        insert[i] = update.executeUpdate() == 0;
+                    } else {
+                        insert[i] = counts[i] == 0;
+                    }
+                }
+            }
+        } else {
+            try (PreparedStatement remove = conn.prepareStatement(getRemoveSql())) {
+                for (int i = 0; i < data.length; i++) {
+                    remove.setString(1, batch.get(i).getIdInternal());
+                    remove.setString(2, getName());
+                    remove.addBatch();
+                    insert[i] = true;
+                }
+                remove.executeBatch();
+            }
+        }
+        try (PreparedStatement insertStatement = conn.prepareStatement(getInsertSql())) {
+            boolean inserts = false;
+            for (int i = 0; i < data.length; i++) {
+                if (insert[i]) {
+                    bindInsert(insertStatement, batch.get(i), data[i]);
+                    insertStatement.addBatch();
+                    inserts = true;
+                }
+            }
+            if (inserts) {
+                insertStatement.executeBatch();
+            }
+        }
+    }
+
+
+    /*
+     * Integrity constraint violations have an SQL state of class 23.
+     */
+    private static boolean isDuplicateKey(SQLException e) {
+        while (e != null) {
+            if (e instanceof SQLIntegrityConstraintViolationException ||
+                    (e.getSQLState() != null && e.getSQLState().startsWith("23"))) {
+                return true;
+            }
+            e = e.getNextException();
+        }
+        return false;
+    }
+
+
+    private void bindInsert(PreparedStatement insert, Session session, byte[] data)
+            throws SQLException {
+        insert.setString(1, session.getIdInternal());
+        insert.setString(2, getName());
+        insert.setBinaryStream(3, new ByteArrayInputStream(data), data.length);
+        insert.setString(4, session.isValid() ? "1" : "0");
+        insert.setInt(5, session.getMaxInactiveInterval());
+        insert.setLong(6, session.getLastAccessedTime());
+    }
+
+
+    private void bindUpdate(PreparedStatement update, Session session, byte[] data)
+            throws SQLException {
+        update.setBinaryStream(1, new ByteArrayInputStream(data), data.length);
+        update.setString(2, session.isValid() ? "1" : "0");
+        update.setInt(3, session.getMaxInactiveInterval());
+        update.setLong(4, session.getLastAccessedTime());
+        update.setString(5, session.getIdInternal());
+        update.setString(6, getName());
+    }
+
+
+    private byte[] serialize(Session session) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos =
+                getObjectOutputStream(new BufferedOutputStream(bos))) {
+            ((StandardSession) session).writeObjectData(oos);
+        }
+        return bos.toByteArray();
+    }
+
+
+    private StandardSession readSession(ResultSet rst, String id)
+            throws SQLException, ClassNotFoundException, IOException {
+        Log contextLog = manager.getContext().getLogger();
+        if (rst.next()) {
+            try (ObjectInputStream ois =
+                    getObjectInputStream(rst.getBinaryStream(2))) {
+                if (contextLog.isDebugEnabled()) {
+                    contextLog.debug(sm.getString(
+                            getStoreName() + ".loading", id, sessionTable));
+                }
+
+                StandardSession session = (StandardSession) manager.createEmptySession();
+                session.readObjectData(ois);
+                session.setManager(manager);
+                return session;
+            }
+        } else if (contextLog.isDebugEnabled()) {
+            contextLog.debug(getStoreName() + ": No persisted data object found");
+        }
+        return null;
+    }
+
+
+    // ------------------------------------------------------- Concurrent access
+
+    /*
+     * When concurrent access is enabled each operation obtains a connection
+     * from the DataSource, and uses statements local to that operation, so
+     * operations do not need to be synchronized.
+     */
+
+    private boolean isConcurrent() {
+        return concurrentAccess && dataSourceName != null;
+    }
+
+
+    private Connection getPooledConnection() {
+        try {
+            if (dataSource == null) {
+                lookupDataSource();
+            }
+            if (dataSource != null) {
+                return dataSource.getConnection();
+            }
+        } catch (SQLException e) {
+            manager.getContext().getLogger().error(sm.getString(getStoreName() + ".checkConnectionSQLException",
+                    e.toString()));
+        }
+        return null;
+    }
+
+
+    private String[] keysConcurrent(boolean expiredOnly) {
+        Connection conn = getPooledConnection();
+        if (conn == null) {
+            return new String[0];
+        }
+        List<String> keys = new ArrayList<>();
+        try (Connection c = conn;
+                PreparedStatement keysSql = c.prepareStatement(getKeysSql(expiredOnly))) {
+            keysSql.setString(1, getName());
+            if (expiredOnly) {
+                keysSql.setLong(2, System.currentTimeMillis());
+            }
+            try (ResultSet rst = keysSql.executeQuery()) {
+                while (rst.next()) {
+                    keys.add(rst.getString(1));
+                }
+            }
+        } catch (SQLException e) {
+            manager.getContext().getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
+            return new String[0];
+        }
+        return keys.toArray(new String[0]);
+    }
+
+
+    private int getSizeConcurrent() {
+        Connection conn = getPooledConnection();
+        if (conn == null) {
+            return 0;
+        }
+        try (Connection c = conn;
+                PreparedStatement sizeSql = c.prepareStatement(getSizeSql())) {
+            sizeSql.setString(1, getName());
+            try (ResultSet rst = sizeSql.executeQuery()) {
+                if (rst.next()) {
+                    return rst.getInt(1);
+                }
+            }
+        } catch (SQLException e) {
+            manager.getContext().getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
+        }
+        return 0;
+    }
+
+
+    private Session loadConcurrent(String id) throws ClassNotFoundException, IOException {
+        Connection conn = getPooledConnection();
+        if (conn == null) {
+            return null;
+        }
+        org.apache.catalina.Context context = getManager().getContext();
+        ClassLoader oldThreadContextCL = context.bind(Globals.IS_SECURITY_ENABLED, null);
+        try (Connection c = conn;
+                PreparedStatement loadSql = c.prepareStatement(getLoadSql())) {
+            loadSql.setString(1, id);
+            loadSql.setString(2, getName());
+            try (ResultSet rst = loadSql.executeQuery()) {
+                return readSession(rst, id);
+            }
+        } catch (SQLException e) {
+            context.getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
+        } finally {
+            context.unbind(Globals.IS_SECURITY_ENABLED, oldThreadContextCL);
+        }
+        return null;
+    }
+
+
+    private void removeConcurrent(String id) {
+        Connection conn = getPooledConnection();
+        if (conn == null) {
+            return;
+        }
+        try (Connection c = conn;
+                PreparedStatement removeSql = c.prepareStatement(getRemoveSql())) {
+            removeSql.setString(1, id);
+            removeSql.setString(2, getName());
+            removeSql.execute();
+        } catch (SQLException e) {
+            manager.getContext().getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
+        }
+    }
+
+
+    private void clearConcurrent() {
+        Connection conn = getPooledConnection();
+        if (conn == null) {
+            return;
+        }
+        try (Connection c = conn;
+                PreparedStatement clearSql = c.prepareStatement(getClearSql())) {
+            clearSql.setString(1, getName());
+            clearSql.execute();
+        } catch (SQLException e) {
+            manager.getContext().getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
+        }
+    }
+
+
+    private void saveAllConcurrent(List<Session> sessions) throws SQLException, IOException {
+        Connection conn = getPooledConnection();
+        if (conn == null) {
+            throw new IOException(sm.getString(getStoreName() + ".noConnection"));
+        }
+        try (Connection c = conn) {
+            save(c, sessions);
+        }
+    }
+
+
+    // ------------------------------------------------------------------- SQL
+
+    private String getKeysSql(boolean expiredOnly) {
+        String keysSql = "SELECT " + sessionIdCol + " FROM "
+                + sessionTable + " WHERE " + sessionAppCol + " = ?";
+        if (expiredOnly) {
+            keysSql += " AND (" + sessionLastAccessedCol + " + "
+                    + sessionMaxInactiveCol + " * 1000 < ?)";
+        }
+        return keysSql;
+    }
+
+
+    private String getSizeSql() {
+        return "SELECT COUNT(" + sessionIdCol
+                + ") FROM " + sessionTable + " WHERE "
+                + sessionAppCol + " = ?";
+    }
+
+
+    private String getLoadSql() {
+        return "SELECT " + sessionIdCol + ", "
+                + sessionDataCol + " FROM " + sessionTable
+                + " WHERE " + sessionIdCol + " = ? AND "
+                + sessionAppCol + " = ?";
+    }
+
+
+    private String getRemoveSql() {
+        return "DELETE FROM " + sessionTable
+                + " WHERE " + sessionIdCol + " = ?  AND "
+                + sessionAppCol + " = ?";
+    }
+
+
+    private String getClearSql() {
+        return "DELETE FROM " + sessionTable
+                + " WHERE " + sessionAppCol + " = ?";
+    }
+
+
+    private String getInsertSql() {
+        return "INSERT INTO " + sessionTable + " ("
+                + sessionIdCol + ", " + sessionAppCol + ", "
+                + sessionDataCol + ", " + sessionValidCol
+                + ", " + sessionMaxInactiveCol + ", "
+                + sessionLastAccessedCol
+                + ") VALUES (?, ?, ?, ?, ?, ?)";
+    }
+
+
+    private String getUpdateSql() {
+        return "UPDATE " + sessionTable + " SET "
+                + sessionDataCol + " = ?, " + sessionValidCol + " = ?, "
+                + sessionMaxInactiveCol + " = ?, " + sessionLastAccessedCol
+                + " = ? WHERE " + sessionIdCol + " = ? AND "
+                + sessionAppCol + " = ?";
+    }
+
+
     // --------------------------------------------------------- Protected Methods
 
     /**
@@ -890,26 +1369,7 @@ public class JDBCStore extends StoreBase {
             return dbConnection;
 
         if (dataSourceName != null && dataSource == null) {
-            org.apache.catalina.Context context = getManager().getContext();
-            ClassLoader oldThreadContextCL = null;
-            if (localDataSource) {
-                oldThreadContextCL = context.bind(Globals.IS_SECURITY_ENABLED, null);
-            }
-
-            Context initCtx;
-            try {
-                initCtx = new InitialContext();
-                Context envCtx = (Context) initCtx.lookup("java:comp/env");
-                this.dataSource = (DataSource) envCtx.lookup(this.dataSourceName);
-            } catch (NamingException e) {
-                context.getLogger().error(
-                        sm.getString(getStoreName() + ".wrongDataSource",
-                                this.dataSourceName), e);
-            } finally {
-                if (localDataSource) {
-                    context.unbind(Globals.IS_SECURITY_ENABLED, oldThreadContextCL);
-                }
-            }
+            lookupDataSource();
         }
 
         if (dataSource != null) {
@@ -941,6 +1401,35 @@ public class JDBCStore extends StoreBase {
 
     }
 
+    /*
+     * Look up the DataSource in JNDI.
+     */
+    private synchronized void lookupDataSource() {
+        if (dataSource != null) {
+            return;
+        }
+        org.apache.catalina.Context context = getManager().getContext();
+        ClassLoader oldThreadContextCL = null;
+        if (localDataSource) {
+            oldThreadContextCL = context.bind(Globals.IS_SECURITY_ENABLED, null);
+        }
+
+        Context initCtx;
+        try {
+            initCtx = new InitialContext();
+            Context envCtx = (Context) initCtx.lookup("java:comp/env");
+            this.dataSource = (DataSource) envCtx.lookup(this.dataSourceName);
+        } catch (NamingException e) {
+            context.getLogger().error(
+                    sm.getString(getStoreName() + ".wrongDataSource",
+                            this.dataSourceName), e);
+        } finally {
+            if (localDataSource) {
+                context.unbind(Globals.IS_SECURITY_ENABLED, oldThreadContextCL);
+            }
+        }
+    }
+
     /**
      * Close the specified database connection.
      *
@@ -1030,6 +1519,10 @@ public class JDBCStore extends StoreBase {
     protected synchronized void startInternal() throws LifecycleException {
 
         if (dataSourceName == null) {
+            if (concurrentAccess) {
+                manager.getContext().getLogger().warn(
+                        sm.getString(getStoreName() + ".concurrentAccessNoDataSource"));
+            }
             // If not using a connection pool, open a connection to the database
             this.dbConnection = getConnection();
         }
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import org.apache.catalina.SessionSerializer;
+
+/**
+ * Writes session data using standard Java serialization. This is the format
+ * used by earlier versions and may be configured where session data must be
+ * read by those versions, for example in a cluster that is being upgraded.
+ */
+public class JavaSessionSerializer implements SessionSerializer {
+
+    @Override
+    public ObjectOutputStream getObjectOutputStream(OutputStream os) throws IOException {
+        return new ObjectOutputStream(os);
+    }
+
+
+    @Override
+    public ObjectInputStream getObjectInputStream(InputStream is,
+            ObjectInputStreamFactory javaStreams) throws IOException {
+        return javaStreams.create(is);
+    }
+}
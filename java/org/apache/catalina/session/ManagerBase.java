@@ -19,14 +19,26 @@ package org.apache.catalina.session;
 
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Deque;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
@@ -43,6 +55,8 @@ import org.apache.catalina.LifecycleState;
 import org.apache.catalina.Manager;
 import org.apache.catalina.Session;
 import org.apache.catalina.SessionIdGenerator;
+import org.apache.catalina.SessionSerializer;
+import org.apache.catalina.SessionSerializer.ObjectInputStreamFactory;
 import org.apache.catalina.util.LifecycleMBeanBase;
 import org.apache.catalina.util.SessionIdGeneratorBase;
 import org.apache.catalina.util.StandardSessionIdGenerator;
@@ -110,6 +124,12 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
     protected SessionIdGenerator sessionIdGenerator = null;
     protected Class<? extends SessionIdGenerator> sessionIdGeneratorClass = null;
 
+    /**
+     * Creates the streams used to write session data to a Store or to another
+     * cluster node.
+     */
+    protected SessionSerializer sessionSerializer = new JavaSessionSerializer();
+
     /**
      * The longest time (in seconds) that an expired session had been alive.
      */
@@ -176,6 +196,74 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
      */
     protected int processExpiresFrequency = 6;
 
+    /**
+     * Duration, in milliseconds, of each bucket of the expiration index.
+     */
+    private static final long EXPIRATION_INDEX_TICK = 1000;
+
+    /**
+     * Should an index of sessions by expiration time be used so that
+     * {@link #processExpires()} only checks the sessions that may have
+     * expired?
+     */
+    private boolean useExpirationIndex = true;
+
+    private volatile SessionExpirationIndex expirationIndex = null;
+
+    /**
+     * The order in which sessions are evicted when a limit is reached.
+     */
+    private EvictionPolicy evictionPolicy = EvictionPolicy.NONE;
+
+    /**
+     * The fraction of the maximum heap that may be used before sessions are
+     * evicted, or a value less than or equal to zero for no limit.
+     */
+    private double evictionHeapThreshold = -1;
+
+    /**
+     * The fraction of the active sessions evicted at once when the heap
+     * threshold is exceeded and the minimum fraction of maxActiveSessions
+     * evicted at once when that limit is reached.
+     */
+    private static final double EVICTION_BATCH_FRACTION = 0.01;
+
+    private static final double HEAP_EVICTION_FRACTION = 0.1;
+
+    /**
+     * The maximum number of sessions examined when calculating
+     * {@link #getSessionAverageAttributeSize()}.
+     */
+    private static final int ATTRIBUTE_SIZE_SAMPLE = 100;
+
+    /**
+     * The number of garbage collections when sessions were last evicted
+     * because the heap threshold was exceeded.
+     */
+    private long heapEvictionCollectionCount = -1;
+
+    private final Object evictionLock = new Object();
+
+    /**
+     * Number of sessions that have been evicted.
+     */
+    protected final AtomicLong evictedSessions = new AtomicLong(0);
+
+    /**
+     * Number of look ups of session IDs that did not match an active session.
+     */
+    protected final AtomicLong sessionLookupMisses = new AtomicLong(0);
+
+    /*
+     * Statistics for the checks for expired sessions made by processExpires().
+     */
+    private volatile long sweepCount = 0;
+    private volatile long lastSweepTime = 0;
+    private volatile long maxSweepTime = 0;
+    private volatile int lastSweepCheckedSessions = 0;
+    private volatile int lastSweepExpiredSessions = 0;
+    private volatile int maxSweepExpiredSessions = 0;
+
     /**
      * The string manager for this package.
      */
@@ -423,6 +511,103 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
     }
 
 
+    /**
+     * @return the serializer used to write session data.
+     */
+    public SessionSerializer getSessionSerializer() {
+        return sessionSerializer;
+    }
+
+
+    /**
+     * Configure the serializer used to write session data. Data written by any
+     * of the serializers provided with Tomcat can be read regardless of this
+     * setting.
+     *
+     * @param sessionSerializer The serializer to use
+     */
+    public void setSessionSerializer(SessionSerializer sessionSerializer) {
+        this.sessionSerializer = sessionSerializer;
+    }
+
+
+    /**
+     * @return {@code true} if session data is written using the
+     *         {@link CompactSessionSerializer}
+     */
+    public boolean getCompactSessionSerialization() {
+        return sessionSerializer instanceof CompactSessionSerializer;
+    }
+
+
+    /**
+     * Configure whether session data is written using the
+     * {@link CompactSessionSerializer} rather than Java serialization. Data
+     * written in the compact format can only be read by Tomcat versions that
+     * support it so this is disabled by default.
+     *
+     * @param compactSessionSerialization {@code true} to use the compact
+     *                                    format
+     */
+    public void setCompactSessionSerialization(boolean compactSessionSerialization) {
+        if (compactSessionSerialization) {
+            if (!(sessionSerializer instanceof CompactSessionSerializer)) {
+                sessionSerializer = new CompactSessionSerializer();
+            }
+        } else if (sessionSerializer instanceof CompactSessionSerializer) {
+            sessionSerializer = new JavaSessionSerializer();
+        }
+    }
+
+
+    /**
+     * Create a stream to write session data to using the configured
+     * {@link SessionSerializer}.
+     *
+     * @param os The stream to which the session data will be written
+     *
+     * @return The stream to which the session data should be written
+     *
+     * @throws IOException if the stream cannot be created
+     */
+    public ObjectOutputStream getSessionObjectOutputStream(OutputStream os) throws IOException {
+        return sessionSerializer.getObjectOutputStream(os);
+    }
+
+
+    /**
+     * Create a stream to read session data from. The format of the data is
+     * determined from the data so that data written using Java serialization
+     * or by the {@link CompactSessionSerializer} may be read regardless of the
+     * configured {@link SessionSerializer}.
+     *
+     * @param is          The stream from which the session data will be read
+     * @param javaStreams Creates the streams used to read Java serialized data
+     *
+     * @return The stream from which the session data should be read
+     *
+     * @throws IOException if the stream cannot be created
+     */
+    public ObjectInputStream getSessionObjectInputStream(InputStream is,
+            ObjectInputStreamFactory javaStreams) throws IOException {
+        if (!is.markSupported()) {
+            is = new BufferedInputStream(is);
+        }
+        is.mark(2);
+        int b1 = is.read();
+        int b2 = is.read();
+        is.reset();
+        if (b1 == 0xAC && b2 == 0xED) {
+            return javaStreams.create(is);
+        } else if (CompactSessionSerializer.isCompact(b1, b2)) {
+            return sessionSerializer instanceof CompactSessionSerializer ?
+                    sessionSerializer.getObjectInputStream(is, javaStreams) :
+                    new CompactSessionSerializer().getObjectInputStream(is, javaStreams);
+        }
+        return sessionSerializer.getObjectInputStream(is, javaStreams);
+    }
+
+
     /**
      * @return The descriptive short name of this Manager implementation.
      */
@@ -543,6 +728,210 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
                                    Integer.valueOf(this.processExpiresFrequency));
 
     }
+
+
+    /**
+     * @return <code>true</code> if an index of sessions by expiration time is
+     *         used to limit the sessions checked by {@link #processExpires()}
+     */
+    public boolean getUseExpirationIndex() {
+        return useExpirationIndex;
+    }
+
+
+    /**
+     * Configure whether an index of sessions by expiration time is used to
+     * limit the sessions checked by {@link #processExpires()}. If not, every
+     * session is checked each time. Changes take effect when the Manager is
+     * next started.
+     *
+     * @param useExpirationIndex <code>true</code> to use the index
+     */
+    public void setUseExpirationIndex(boolean useExpirationIndex) {
+        this.useExpirationIndex = useExpirationIndex;
+    }
+
+
+    /**
+     * @return The order in which sessions are evicted when
+     *         maxActiveSessions or the heap threshold is reached. One of
+     *         <code>none</code>, <code>lru</code> or <code>oldest</code>.
+     */
+    public String getEvictionPolicy() {
+        return evictionPolicy.name().toLowerCase(Locale.ENGLISH);
+    }
+
+
+    /**
+     * Configure how sessions are evicted when maxActiveSessions or the heap
+     * threshold is reached. With <code>none</code> no sessions are evicted and
+     * new sessions are rejected once maxActiveSessions is reached. With
+     * <code>lru</code> the sessions that were accessed least recently are
+     * evicted first and with <code>oldest</code> the sessions that were
+     * created first are evicted first.
+     *
+     * @param evictionPolicy The eviction policy
+     */
+    public void setEvictionPolicy(String evictionPolicy) {
+        try {
+            this.evictionPolicy =
+                    EvictionPolicy.valueOf(evictionPolicy.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IllegalArgumentException(
+                    sm.getString("managerBase.evictionPolicy.invalid", evictionPolicy), e);
+        }
+    }
+
+
+    /**
+     * @return The fraction of the maximum heap that may be used before
+     *         sessions are evicted. A value less than or equal to zero means
+     *         sessions are not evicted because of heap use.
+     */
+    public double getEvictionHeapThreshold() {
+        return evictionHeapThreshold;
+    }
+
+
+    /**
+     * Set the fraction of the maximum heap that may be used before sessions
+     * are evicted. Heap use is checked by {@link #backgroundProcess()} and,
+     * each time the threshold is found to be exceeded, a tenth of the active
+     * sessions are evicted according to the eviction policy.
+     *
+     * @param evictionHeapThreshold The fraction of the maximum heap, for
+     *        example <code>0.9</code>, or a value less than or equal to zero
+     *        for no limit
+     */
+    public void setEvictionHeapThreshold(double evictionHeapThreshold) {
+        this.evictionHeapThreshold = evictionHeapThreshold;
+    }
+
+
+    /**
+     * @return The number of sessions that have been evicted
+     */
+    public long getEvictedSessions() {
+        return evictedSessions.get();
+    }
+
+
+    /**
+     * @return The number of times a session ID was looked up that did not
+     *         match an active session
+     */
+    public long getSessionLookupMisses() {
+        return sessionLookupMisses.get();
+    }
+
+
+    /**
+     * Estimate the average serialized size of the attributes of a session.
+     * The estimate is calculated from a sample of the active sessions each
+     * time it is requested, as serializing the attributes is too expensive to
+     * do as part of the background processing.
+     *
+     * @return The average size in bytes of the serialized attribute values of
+     *         the sampled sessions
+     */
+    public int getSessionAverageAttributeSize() {
+        return calculateSessionAverageAttributeSize();
+    }
+
+
+    /**
+     * Calculate the value returned by {@link #getSessionAverageAttributeSize()}
+     * from a sample of the active sessions.
+     *
+     * @return The average size in bytes of the serialized attribute values of
+     *         the sampled sessions
+     */
+    protected int calculateSessionAverageAttributeSize() {
+        int count = 0;
+        long total = 0;
+        for (Session session : sessions.values()) {
+            if (!(session instanceof StandardSession)) {
+                continue;
+            }
+            Map<String,Object> attributes = ((StandardSession) session).attributes;
+            for (Object value : attributes.values()) {
+                total += getSerializedSize(value);
+            }
+            if (++count == ATTRIBUTE_SIZE_SAMPLE) {
+                break;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        return (int) (total / count);
+    }
+
+
+    private static long getSerializedSize(Object value) {
+        CountingOutputStream cos = new CountingOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(cos)) {
+            oos.writeObject(value);
+        } catch (IOException | RuntimeException e) {
+            // Not serializable, or modified concurrently. Count what was
+            // written.
+        }
+        return cos.count;
+    }
+
+
+    /**
+     * @return The number of times processExpires() has checked for expired
+     *         sessions
+     */
+    public long getSweepCount() {
+        return sweepCount;
+    }
+
+
+    /**
+     * @return The time, in milliseconds, taken by the most recent check for
+     *         expired sessions
+     */
+    public long getLastSweepTime() {
+        return lastSweepTime;
+    }
+
+
+    /**
+     * @return The longest time, in milliseconds, taken by a check for expired
+     *         sessions
+     */
+    public long getMaxSweepTime() {
+        return maxSweepTime;
+    }
+
+
+    /**
+     * @return The number of sessions checked by the most recent check for
+     *         expired sessions
+     */
+    public int getLastSweepCheckedSessions() {
+        return lastSweepCheckedSessions;
+    }
+
+
+    /**
+     * @return The number of sessions expired by the most recent check for
+     *         expired sessions
+     */
+    public int getLastSweepExpiredSessions() {
+        return lastSweepExpiredSessions;
+    }
+
+
+    /**
+     * @return The largest number of sessions expired by a single check for
+     *         expired sessions
+     */
+    public int getMaxSweepExpiredSessions() {
+        return maxSweepExpiredSessions;
+    }
     // --------------------------------------------------------- Public Methods
 
 
@@ -554,31 +943,251 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
     @Override
     public void backgroundProcess() {
         count = (count + 1) % processExpiresFrequency;
-        if (count == 0)
+        if (count == 0) {
             processExpires();
+        }
+        processHeapEviction();
     }
 
+
     /**
-     * Invalidate all sessions that have expired.
+     * Evict sessions if the heap threshold is exceeded. As the heap in use is
+     * only known after a garbage collection, sessions are evicted at most once
+     * per collection.
      */
-    public void processExpires() {
+    protected void processHeapEviction() {
+        if (evictionPolicy == EvictionPolicy.NONE || evictionHeapThreshold <= 0) {
+            return;
+        }
+        long collections = getCollectionCount();
+        if (collections == heapEvictionCollectionCount) {
+            return;
+        }
+        long used = getHeapUsedAfterCollection();
+        if (used <= Runtime.getRuntime().maxMemory() * evictionHeapThreshold) {
+            return;
+        }
+        heapEvictionCollectionCount = collections;
+        int toEvict = (int) Math.ceil(getActiveSessions() * HEAP_EVICTION_FRACTION);
+        if (toEvict > 0) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("managerBase.evictHeap", getName(),
+                        Long.valueOf(used), Integer.valueOf(toEvict)));
+            }
+            synchronized (evictionLock) {
+                evictSessions(toEvict);
+            }
+        }
+    }
 
-        long timeNow = System.currentTimeMillis();
-        Session sessions[] = findSessions();
-        int expireHere = 0 ;
 
-        if(log.isDebugEnabled())
-            log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.length);
-        for (int i = 0; i < sessions.length; i++) {
-            if (sessions[i]!=null && !sessions[i].isValid()) {
-                expireHere++;
+    /**
+     * Obtain the heap in use immediately after the most recent garbage
+     * collection of each heap memory pool. Unlike the current use, this does
+     * not include garbage that has yet to be collected so it does not trigger
+     * eviction just because a collection is due.
+     *
+     * @return The heap used, in bytes, after the most recent collections
+     */
+    protected long getHeapUsedAfterCollection() {
+        long used = 0;
+        boolean supported = false;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null) {
+                used += usage.getUsed();
+                supported = true;
+            }
+        }
+        if (!supported) {
+            Runtime runtime = Runtime.getRuntime();
+            used = runtime.totalMemory() - runtime.freeMemory();
+        }
+        return used;
+    }
+
+
+    /**
+     * Obtain the total number of garbage collections that have occurred.
+     *
+     * @return The number of collections, summed over all the collectors
+     */
+    protected long getCollectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long collections = gc.getCollectionCount();
+            if (collections > 0) {
+                count += collections;
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Select sessions according to the eviction policy and evict them.
+     *
+     * @param count The number of sessions to evict
+     *
+     * @return The number of sessions selected for eviction
+     */
+    protected int evictSessions(int count) {
+        // Sessions being used by a request are not evicted
+        List<Session> inactive = new ArrayList<>();
+        for (Session session : findSessions()) {
+            if (!(session instanceof StandardSession) ||
+                    ((StandardSession) session).accessCount == null ||
+                    ((StandardSession) session).accessCount.get() == 0) {
+                inactive.add(session);
             }
         }
+        Session[] candidates = inactive.toArray(new Session[0]);
+        int n = candidates.length;
+        if (n == 0 || count <= 0) {
+            return 0;
+        }
+        // Take a snapshot of the keys as they may change while sorting
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = evictionPolicy == EvictionPolicy.OLDEST ?
+                    candidates[i].getCreationTimeInternal() :
+                    candidates[i].getLastAccessedTimeInternal();
+        }
+        List<Session> toEvict = new ArrayList<>(Math.min(count, n));
+        if (count >= n) {
+            toEvict.addAll(Arrays.asList(candidates));
+        } else {
+            long[] sorted = keys.clone();
+            Arrays.sort(sorted);
+            long threshold = sorted[count - 1];
+            for (int i = 0; i < n; i++) {
+                if (keys[i] < threshold) {
+                    toEvict.add(candidates[i]);
+                }
+            }
+            for (int i = 0; i < n && toEvict.size() < count; i++) {
+                if (keys[i] == threshold) {
+                    toEvict.add(candidates[i]);
+                }
+            }
+        }
+        evict(toEvict);
+        evictedSessions.addAndGet(toEvict.size());
+        return toEvict.size();
+    }
+
+
+    /**
+     * Evict the given sessions. This implementation expires them.
+     *
+     * @param sessions The sessions to evict
+     */
+    protected void evict(List<Session> sessions) {
+        for (Session session : sessions) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("managerBase.evict", session.getIdInternal()));
+            }
+            session.expire();
+        }
+    }
+
+    /**
+     * Invalidate all sessions that have expired.
+     */
+    public void processExpires() {
+
+        long timeNow = System.currentTimeMillis();
+        int expireHere = expireSessions(timeNow);
         long timeEnd = System.currentTimeMillis();
         if(log.isDebugEnabled())
              log.debug("End expire sessions " + getName() + " processingTime " + (timeEnd - timeNow) + " expired sessions: " + expireHere);
         processingTime += ( timeEnd - timeNow );
+        updateSweepStatistics(timeEnd - timeNow, expireHere);
+
+    }
 
+
+    /**
+     * Check the sessions that may have expired and expire those that have.
+     * If the expiration index is in use only the sessions whose expiration
+     * time has passed are checked. Otherwise every session is checked.
+     *
+     * @param timeNow The current time in milliseconds since the epoch
+     *
+     * @return The number of sessions that were expired
+     */
+    protected int expireSessions(long timeNow) {
+        int expireHere = 0;
+        SessionExpirationIndex expirationIndex = this.expirationIndex;
+        if (expirationIndex == null) {
+            Session sessions[] = findSessions();
+            if(log.isDebugEnabled())
+                log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.length);
+            for (int i = 0; i < sessions.length; i++) {
+                if (sessions[i]!=null && !sessions[i].isValid()) {
+                    expireHere++;
+                }
+            }
+            lastSweepCheckedSessions = sessions.length;
+        } else {
+            List<Session> candidates = expirationIndex.pollExpired(timeNow);
+            if(log.isDebugEnabled())
+                log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " +
+                        getActiveSessions() + " candidates " + candidates.size());
+            for (Session session : candidates) {
+                // Ignore any session removed since it was added to the index
+                String id = session.getIdInternal();
+                if (id == null || sessions.get(id) != session) {
+                    continue;
+                }
+                if (session.isValid()) {
+                    expirationIndex.schedule(session, timeNow);
+                } else {
+                    expireHere++;
+                }
+            }
+            lastSweepCheckedSessions = candidates.size();
+        }
+        return expireHere;
+    }
+
+
+    /**
+     * Record the statistics for a completed check for expired sessions.
+     *
+     * @param time    The time taken in milliseconds
+     * @param expired The number of sessions expired
+     */
+    protected void updateSweepStatistics(long time, int expired) {
+        sweepCount++;
+        lastSweepTime = time;
+        if (time > maxSweepTime) {
+            maxSweepTime = time;
+        }
+        lastSweepExpiredSessions = expired;
+        if (expired > maxSweepExpiredSessions) {
+            maxSweepExpiredSessions = expired;
+        }
+    }
+
+
+    /**
+     * Update the expiration index, if any, after a change to the session
+     * that may have moved its expiration time earlier, such as a reduction in
+     * the maximum inactive interval. Changes that move the expiration time
+     * later, such as accessing the session, do not require this call.
+     *
+     * @param session The session that has changed
+     */
+    public void rescheduleExpiration(Session session) {
+        SessionExpirationIndex expirationIndex = this.expirationIndex;
+        if (expirationIndex != null && session.getIdInternal() != null &&
+                sessions.get(session.getIdInternal()) == session) {
+            expirationIndex.schedule(session, System.currentTimeMillis());
+        }
     }
 
 
@@ -604,6 +1213,10 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
             sessionExpirationTiming.add(null);
         }
 
+        if (getUseExpirationIndex()) {
+            expirationIndex = new SessionExpirationIndex(EXPIRATION_INDEX_TICK);
+        }
+
         /* Create sessionIdGenerator if not explicitly configured */
         SessionIdGenerator sessionIdGenerator = getSessionIdGenerator();
         if (sessionIdGenerator == null) {
@@ -637,12 +1250,22 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
         if (sessionIdGenerator instanceof Lifecycle) {
             ((Lifecycle) sessionIdGenerator).stop();
         }
+
+        SessionExpirationIndex expirationIndex = this.expirationIndex;
+        if (expirationIndex != null) {
+            this.expirationIndex = null;
+            expirationIndex.clear();
+        }
     }
 
 
     @Override
     public void add(Session session) {
         sessions.put(session.getIdInternal(), session);
+        SessionExpirationIndex expirationIndex = this.expirationIndex;
+        if (expirationIndex != null) {
+            expirationIndex.schedule(session, System.currentTimeMillis());
+        }
         int size = getActiveSessions();
         if( size > maxActive ) {
             synchronized(maxActiveUpdateLock) {
@@ -665,10 +1288,23 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
 
         if ((maxActiveSessions >= 0) &&
                 (getActiveSessions() >= maxActiveSessions)) {
-            rejectedSessions++;
-            throw new TooManyActiveSessionsException(
-                    sm.getString("managerBase.createSession.ise"),
-                    maxActiveSessions);
+            if (evictionPolicy != EvictionPolicy.NONE) {
+                synchronized (evictionLock) {
+                    int excess = getActiveSessions() - maxActiveSessions + 1;
+                    if (excess > 0) {
+                        // Evict more than required so every new session
+                        // does not trigger an eviction
+                        evictSessions(Math.max(excess,
+                                (int) (maxActiveSessions * EVICTION_BATCH_FRACTION)));
+                    }
+                }
+            }
+            if (getActiveSessions() >= maxActiveSessions) {
+                rejectedSessions++;
+                throw new TooManyActiveSessionsException(
+                        sm.getString("managerBase.createSession.ise"),
+                        maxActiveSessions);
+            }
         }
 
         // Recycle or create a Session instance
@@ -706,7 +1342,11 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
         if (id == null) {
             return null;
         }
-        return sessions.get(id);
+        Session session = sessions.get(id);
+        if (session == null) {
+            sessionLookupMisses.incrementAndGet();
+        }
+        return session;
     }
 
 
@@ -742,6 +1382,10 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
         if (session.getIdInternal() != null) {
             sessions.remove(session.getIdInternal());
         }
+        SessionExpirationIndex expirationIndex = this.expirationIndex;
+        if (expirationIndex != null) {
+            expirationIndex.unschedule(session);
+        }
     }
 
 
@@ -1299,4 +1943,27 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
             return duration;
         }
     }
+
+
+    private enum EvictionPolicy {
+        NONE,
+        LRU,
+        OLDEST
+    }
+
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
 }
@@ -0,0 +1,555 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Globals;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Session;
+import org.apache.juli.logging.Log;
+
+/**
+ * Concrete implementation of the <b>Store</b> interface that holds saved
+ * Sessions, in serialized form, in memory allocated outside of the Java heap.
+ * When used with a {@link PersistentManager} configured to swap out idle
+ * Sessions, only the recently used Sessions are held on the Java heap which
+ * reduces the heap required, and the cost of garbage collection, for
+ * applications with large numbers of mostly idle Sessions. The saved Sessions
+ * do not survive a restart.
+ * <p>
+ * Memory is allocated in slabs of {@link #getSlabSize()} bytes. Each slab is
+ * divided into blocks whose sizes are powers of two using a buddy allocator.
+ * Blocks are reused as soon as the Session they hold is removed or replaced
+ * and a free block is merged with its buddy, if that is also free, so the
+ * space can be reused for Sessions of any size.
+ */
+public final class OffHeapStore extends StoreBase {
+
+    // ----------------------------------------------------- Constants
+
+    private static final int MIN_BLOCK_SHIFT = 6;
+    private static final int MIN_BLOCK_SIZE = 1 << MIN_BLOCK_SHIFT;
+
+    /**
+     * Name to register for this Store, used for logging.
+     */
+    private static final String storeName = "offHeapStore";
+
+
+    // ----------------------------------------------------- Instance Variables
+
+    private long maxMemory = 256 * 1024 * 1024;
+
+
+    private int slabSize = 1024 * 1024;
+
+
+    /**
+     * The block holding each saved Session.
+     */
+    private final Map<String,Block> index = new ConcurrentHashMap<>();
+
+
+    /*
+     * The remaining fields are guarded by this Store.
+     */
+    private final List<Slab> slabs = new ArrayList<>();
+
+    /*
+     * The free blocks of each size, identified by slab index and offset. A
+     * handle may be out of date if the block has since been allocated or
+     * merged with its buddy. Slab.free is checked when a handle is removed.
+     */
+    private BlockList[] freeBlocks = null;
+
+    private long memoryReserved = 0;
+
+    private long memoryUsed = 0;
+
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * @return The maximum number of bytes of memory that this Store will
+     *         allocate.
+     */
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+
+    /**
+     * Set the maximum number of bytes of memory that this Store will allocate.
+     * Once this limit is reached, attempts to save further Sessions will fail
+     * and the Sessions will remain on the Java heap.
+     *
+     * @param maxMemory The new limit in bytes
+     */
+    public void setMaxMemory(long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+
+
+    /**
+     * @return The size in bytes of each block of memory allocated by this
+     *         Store.
+     */
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+
+    /**
+     * Set the size in bytes of each block of memory allocated by this Store.
+     * The size is rounded up to a power of two. Sessions that are larger than
+     * this are held in memory allocated for that Session alone.
+     *
+     * @param slabSize The new size in bytes
+     */
+    public void setSlabSize(int slabSize) {
+        this.slabSize = Math.max(MIN_BLOCK_SIZE, Integer.highestOneBit(slabSize - 1) << 1);
+    }
+
+
+    /**
+     * @return The number of bytes of memory allocated by this Store.
+     */
+    public synchronized long getMemoryReserved() {
+        return memoryReserved;
+    }
+
+
+    /**
+     * @return The number of bytes of allocated memory currently used to hold
+     *         Sessions, including the unused space at the end of each block.
+     */
+    public synchronized long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+
+    /**
+     * Return the name for this Store, used for logging.
+     */
+    @Override
+    public String getStoreName() {
+        return storeName;
+    }
+
+
+    /**
+     * Return the number of Sessions present in this Store.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public int getSize() throws IOException {
+        return index.size();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * Remove all of the Sessions in this Store and release the memory that was
+     * allocated to hold them.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized void clear() throws IOException {
+        index.clear();
+        release();
+    }
+
+
+    /**
+     * Return an array containing the session identifiers of all Sessions
+     * currently saved in this Store.  If there are no such Sessions, a
+     * zero-length array is returned.
+     *
+     * @exception IOException if an input/output error occurred
+     */
+    @Override
+    public String[] keys() throws IOException {
+        return index.keySet().toArray(new String[0]);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The time at which each Session expires is recorded when it is saved so
+     * only the Sessions that have expired are returned.
+     */
+    @Override
+    public String[] expiredKeys() throws IOException {
+        long timeNow = System.currentTimeMillis();
+        List<String> list = new ArrayList<>();
+        for (Map.Entry<String,Block> entry : index.entrySet()) {
+            if (entry.getValue().expiryTime <= timeNow) {
+                list.add(entry.getKey());
+            }
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+
+    /**
+     * Load and return the Session associated with the specified session
+     * identifier from this Store, without removing it.  If there is no
+     * such stored Session, return <code>null</code>.
+     *
+     * @param id Session identifier of the session to load
+     *
+     * @exception ClassNotFoundException if a deserialization error occurs
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public Session load(String id) throws ClassNotFoundException, IOException {
+        byte[] data;
+        synchronized (this) {
+            Block block = index.get(id);
+            if (block == null) {
+                return null;
+            }
+            // Copy while holding the lock as the block may be reused once
+            // the lock is released
+            data = new byte[block.length];
+            ByteBuffer buffer = block.buffer.duplicate();
+            buffer.position(block.offset);
+            buffer.get(data);
+        }
+
+        Context context = getManager().getContext();
+        Log contextLog = context.getLogger();
+
+        if (contextLog.isDebugEnabled()) {
+            contextLog.debug(sm.getString(getStoreName() + ".loading", id));
+        }
+
+        ClassLoader oldThreadContextCL = context.bind(Globals.IS_SECURITY_ENABLED, null);
+
+        try (ObjectInputStream ois = getObjectInputStream(new ByteArrayInputStream(data))) {
+            StandardSession session = (StandardSession) manager.createEmptySession();
+            session.readObjectData(ois);
+            session.setManager(manager);
+            return session;
+        } finally {
+            context.unbind(Globals.IS_SECURITY_ENABLED, oldThreadContextCL);
+        }
+    }
+
+
+    /**
+     * Remove the Session with the specified session identifier from
+     * this Store, if present.  If no such Session is present, this method
+     * takes no action.
+     *
+     * @param id Session identifier of the Session to be removed
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized void remove(String id) throws IOException {
+        if (manager.getContext().getLogger().isDebugEnabled()) {
+            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".removing", id));
+        }
+        free(index.remove(id));
+    }
+
+
+    /**
+     * Save the specified Session into this Store.  Any previously saved
+     * information for the associated session identifier is replaced.
+     *
+     * @param session Session to be saved
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public void save(Session session) throws IOException {
+        if (manager.getContext().getLogger().isDebugEnabled()) {
+            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".saving",
+                    session.getIdInternal()));
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = getObjectOutputStream(new BufferedOutputStream(bos))) {
+            ((StandardSession) session).writeObjectData(oos);
+        }
+        byte[] data = bos.toByteArray();
+
+        long expiryTime;
+        if (session.getMaxInactiveInterval() > 0) {
+            expiryTime = session.getThisAccessedTimeInternal() +
+                    session.getMaxInactiveInterval() * 1000L;
+        } else {
+            expiryTime = Long.MAX_VALUE;
+        }
+
+        synchronized (this) {
+            Block block = allocate(data.length, expiryTime);
+            ByteBuffer buffer = block.buffer.duplicate();
+            buffer.position(block.offset);
+            buffer.put(data);
+            free(index.put(session.getIdInternal(), block));
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    private Block allocate(int length, long expiryTime) throws IOException {
+        int size = Math.max(MIN_BLOCK_SIZE, Integer.highestOneBit(length - 1) << 1);
+        if (size > slabSize || size < 0) {
+            // Too large for a slab
+            reserve(length);
+            memoryUsed += length;
+            return new Block(ByteBuffer.allocateDirect(length), -1, 0, length, -1, expiryTime);
+        }
+
+        int sizeClass = Integer.numberOfTrailingZeros(size) - MIN_BLOCK_SHIFT;
+        if (freeBlocks == null) {
+            freeBlocks = new BlockList[Integer.numberOfTrailingZeros(slabSize) - MIN_BLOCK_SHIFT + 1];
+            for (int i = 0; i < freeBlocks.length; i++) {
+                freeBlocks[i] = new BlockList();
+            }
+        }
+
+        // Use the smallest free block that is large enough
+        long handle = -1;
+        int freeClass = sizeClass;
+        while (freeClass < freeBlocks.length) {
+            handle = popFree(freeClass);
+            if (handle >= 0) {
+                break;
+            }
+            freeClass++;
+        }
+        if (handle < 0) {
+            // Reserve first so nothing changes if the limit has been reached
+            reserve(slabSize);
+            slabs.add(new Slab(ByteBuffer.allocateDirect(slabSize), slabSize >> MIN_BLOCK_SHIFT));
+            handle = (long) (slabs.size() - 1) << 32;
+            freeClass = freeBlocks.length - 1;
+        }
+        int slab = (int) (handle >>> 32);
+        int offset = (int) handle;
+
+        // Split the block, freeing the upper half each time
+        while (freeClass > sizeClass) {
+            freeClass--;
+            pushFree(slab, offset + (MIN_BLOCK_SIZE << freeClass), freeClass);
+        }
+
+        memoryUsed += size;
+        return new Block(slabs.get(slab).buffer, slab, offset, length, sizeClass, expiryTime);
+    }
+
+
+    private void reserve(int size) throws IOException {
+        if (memoryReserved + size > maxMemory) {
+            throw new IOException(sm.getString(getStoreName() + ".full",
+                    Long.toString(maxMemory)));
+        }
+        memoryReserved += size;
+    }
+
+
+    private long popFree(int sizeClass) {
+        BlockList list = freeBlocks[sizeClass];
+        long handle;
+        while ((handle = list.pop()) >= 0) {
+            byte[] free = slabs.get((int) (handle >>> 32)).free;
+            int index = ((int) handle) >> MIN_BLOCK_SHIFT;
+            if (free[index] == sizeClass + 1) {
+                free[index] = 0;
+                return handle;
+            }
+            // Out of date
+        }
+        return -1;
+    }
+
+
+    private void pushFree(int slab, int offset, int sizeClass) {
+        slabs.get(slab).free[offset >> MIN_BLOCK_SHIFT] = (byte) (sizeClass + 1);
+        BlockList list = freeBlocks[sizeClass];
+        list.push(((long) slab << 32) | offset);
+        if (list.size > 2 * slabs.size() * (slabSize >> (MIN_BLOCK_SHIFT + sizeClass))) {
+            purgeFree(sizeClass);
+        }
+    }
+
+
+    /*
+     * Removes the out of date and duplicate handles so the list cannot grow
+     * beyond the number of blocks of that size.
+     */
+    private void purgeFree(int sizeClass) {
+        BlockList list = freeBlocks[sizeClass];
+        byte valid = (byte) (sizeClass + 1);
+        int kept = 0;
+        for (int i = 0; i < list.size; i++) {
+            long handle = list.handles[i];
+            byte[] free = slabs.get((int) (handle >>> 32)).free;
+            int index = ((int) handle) >> MIN_BLOCK_SHIFT;
+            if (free[index] == valid) {
+                // Marks the handle as seen
+                free[index] = (byte) -valid;
+                list.handles[kept++] = handle;
+            }
+        }
+        list.size = kept;
+        for (int i = 0; i < kept; i++) {
+            long handle = list.handles[i];
+            slabs.get((int) (handle >>> 32)).free[((int) handle) >> MIN_BLOCK_SHIFT] = valid;
+        }
+    }
+
+
+    private void free(Block block) {
+        if (block == null) {
+            return;
+        }
+        if (block.sizeClass < 0) {
+            // Dedicated buffer is released by the garbage collector
+            memoryReserved -= block.length;
+            memoryUsed -= block.length;
+            return;
+        }
+        memoryUsed -= MIN_BLOCK_SIZE << block.sizeClass;
+
+        // Merge with the buddy of each size while it is also free
+        byte[] free = slabs.get(block.slab).free;
+        int offset = block.offset;
+        int sizeClass = block.sizeClass;
+        while (sizeClass < freeBlocks.length - 1) {
+            int buddy = offset ^ (MIN_BLOCK_SIZE << sizeClass);
+            if (free[buddy >> MIN_BLOCK_SHIFT] != sizeClass + 1) {
+                break;
+            }
+            // The buddy's handle becomes out of date
+            free[buddy >> MIN_BLOCK_SHIFT] = 0;
+            offset = Math.min(offset, buddy);
+            sizeClass++;
+        }
+        pushFree(block.slab, offset, sizeClass);
+    }
+
+
+    private void release() {
+        slabs.clear();
+        freeBlocks = null;
+        memoryReserved = 0;
+        memoryUsed = 0;
+    }
+
+
+    // ------------------------------------------------------ Lifecycle Methods
+
+    /**
+     * Release the memory used by this Store. Saved Sessions are not retained
+     * once the Store has stopped.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that prevents this component from being used
+     */
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        index.clear();
+        release();
+    }
+
+
+    // ---------------------------------------------------------- Inner classes
+
+    private static final class Block {
+
+        private final ByteBuffer buffer;
+        private final int slab;
+        private final int offset;
+        private final int length;
+        private final int sizeClass;
+        private final long expiryTime;
+
+        Block(ByteBuffer buffer, int slab, int offset, int length, int sizeClass,
+                long expiryTime) {
+            this.buffer = buffer;
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+            this.sizeClass = sizeClass;
+            this.expiryTime = expiryTime;
+        }
+    }
+
+
+    private static final class Slab {
+
+        private final ByteBuffer buffer;
+        /*
+         * For each possible block position, one more than the size class of
+         * the free block that starts there or zero if there is none.
+         */
+        private final byte[] free;
+
+        Slab(ByteBuffer buffer, int positions) {
+            this.buffer = buffer;
+            this.free = new byte[positions];
+        }
+    }
+
+
+    /*
+     * Stack of block handles that avoids boxing.
+     */
+    private static final class BlockList {
+
+        private long[] handles = new long[16];
+        private int size = 0;
+
+        void push(long handle) {
+            if (size == handles.length) {
+                handles = Arrays.copyOf(handles, size * 2);
+            }
+            handles[size++] = handle;
+        }
+
+        long pop() {
+            if (size == 0) {
+                return -1;
+            }
+            return handles[--size];
+        }
+    }
+}
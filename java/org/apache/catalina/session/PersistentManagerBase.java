@@ -20,20 +20,36 @@ import java.io.IOException;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.catalina.Lifecycle;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.LifecycleState;
 import org.apache.catalina.Session;
+import org.apache.catalina.SessionIdGenerator;
 import org.apache.catalina.Store;
 import org.apache.catalina.StoreManager;
 import org.apache.catalina.security.SecurityUtil;
+import org.apache.catalina.util.StandardSessionIdGenerator;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
 /**
  * Extends the {@link ManagerBase} class to implement most of the
  * functionality required by a Manager which supports any kind of
@@ -114,6 +130,37 @@ public abstract class PersistentManagerBase extends ManagerBase
         }
     }
 
+    private class PrivilegedStoreSaveAll
+        implements PrivilegedExceptionAction<Void> {
+
+        private List<Session> sessions;
+
+        PrivilegedStoreSaveAll(List<Session> sessions) {
+            this.sessions = sessions;
+        }
+
+        @Override
+        public Void run() throws Exception{
+           ((StoreBase) store).saveAll(sessions);
+           return null;
+        }
+    }
+
+    private class PrivilegedStoreLoadAll
+        implements PrivilegedExceptionAction<Session[]> {
+
+        private String[] ids;
+
+        PrivilegedStoreLoadAll(String[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public Session[] run() throws Exception{
+           return ((StoreBase) store).loadAll(ids);
+        }
+    }
+
     private class PrivilegedStoreKeys
         implements PrivilegedExceptionAction<String[]> {
 
@@ -135,10 +182,23 @@ public abstract class PersistentManagerBase extends ManagerBase
     private static final String name = "PersistentManagerBase";
 
     /**
-     * Key of the note of a session in which the timestamp of last backup is stored.
+     * Key of the note of a session in which the state of the session at the
+     * time of the last backup is stored.
+     */
+    private static final String PERSISTED_STATE =
+            "org.apache.catalina.session.PersistentManagerBase.persistedState";
+
+    /**
+     * The maximum number of sessions a write-behind thread writes to the
+     * Store at once.
+     */
+    private static final int WRITE_BEHIND_MAX_BATCH = 100;
+
+    /**
+     * The maximum number of sessions {@link #load()} reads from the Store at
+     * once.
      */
-    private static final String PERSISTED_LAST_ACCESSED_TIME =
-            "org.apache.catalina.session.PersistentManagerBase.persistedLastAccessedTime";
+    private static final int LOAD_MAX_BATCH = 100;
 
 
     /**
@@ -190,6 +250,75 @@ public abstract class PersistentManagerBase extends ManagerBase
     private final ThreadLocal<Session> sessionToSwapIn = new ThreadLocal<>();
 
 
+    /**
+     * Should idle sessions only be backed up if their attributes have been
+     * modified since the last backup?
+     */
+    private boolean backupModifiedOnly = false;
+
+
+    /**
+     * Should sessions be backed up and swapped out by a pool of threads rather
+     * than by the background thread?
+     */
+    private boolean writeBehind = false;
+
+
+    /**
+     * The number of threads used to write sessions to, and read sessions
+     * ahead from, the Store.
+     */
+    private int writeBehindThreads = 2;
+
+
+    /**
+     * The maximum number of write-behind and read-ahead tasks that may be
+     * queued. When the queue is full, sessions are written by the calling
+     * thread and sessions are not read ahead.
+     */
+    private int writeBehindQueueSize = 10000;
+
+
+    /**
+     * The time, in seconds, to wait for queued writes to complete when the
+     * Manager stops.
+     */
+    private int writeBehindTimeout = 60;
+
+
+    /**
+     * Should a session referenced by a request be loaded from the Store while
+     * the request is being processed, before the application asks for it?
+     */
+    private boolean readAhead = false;
+
+
+    /*
+     * Threads used for write-behind and read-ahead. Only created if one of
+     * those options is enabled.
+     */
+    private volatile ThreadPoolExecutor persistenceExecutor = null;
+
+    /*
+     * Sessions waiting to be backed up by the write-behind threads. A session
+     * is only queued once no matter how many times it is backed up before the
+     * write takes place.
+     */
+    private final Map<String,Session> pendingWrites = new ConcurrentHashMap<>();
+
+    /*
+     * IDs of the sessions being swapped out by the write-behind threads
+     */
+    private final Set<String> pendingSwaps = ConcurrentHashMap.newKeySet();
+
+    /*
+     * Sessions being read ahead from the Store. An entry is removed whenever
+     * the session is written to, or removed from, the Store so a session that
+     * has been read ahead is never older than the copy in the Store.
+     */
+    private final Map<String,Future<Session>> pendingLoads = new ConcurrentHashMap<>();
+
+
     // ------------------------------------------------------------- Properties
 
 
@@ -302,6 +431,142 @@ public abstract class PersistentManagerBase extends ManagerBase
     }
 
 
+    /**
+     * @return {@code true} if idle sessions are only backed up if their
+     *         attributes have been modified since the last backup
+     */
+    public boolean getBackupModifiedOnly() {
+        return backupModifiedOnly;
+    }
+
+
+    /**
+     * Configure whether idle sessions are only backed up if their attributes
+     * have been modified since the last backup. A session that has only been
+     * accessed is still backed up once half of its maximum inactive interval
+     * has passed since the last backup so that the copy in the Store does not
+     * expire.
+     *
+     * @param backupModifiedOnly {@code true} to skip the backup of sessions
+     *        with unmodified attributes
+     */
+    public void setBackupModifiedOnly(boolean backupModifiedOnly) {
+        this.backupModifiedOnly = backupModifiedOnly;
+    }
+
+
+    /**
+     * @return {@code true} if sessions are backed up and swapped out by a pool
+     *         of threads rather than by the background thread
+     */
+    public boolean getWriteBehind() {
+        return writeBehind;
+    }
+
+
+    /**
+     * Configure whether sessions are backed up and swapped out by a pool of
+     * threads rather than by the background thread. Sessions queued to be
+     * backed up more than once before they are written are only written once.
+     *
+     * @param writeBehind {@code true} to write sessions asynchronously
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+
+    /**
+     * @return the number of threads used to write sessions to, and read
+     *         sessions ahead from, the Store
+     */
+    public int getWriteBehindThreads() {
+        return writeBehindThreads;
+    }
+
+
+    /**
+     * Set the number of threads used to write sessions to, and read sessions
+     * ahead from, the Store. Changes take effect when the Manager is next
+     * started.
+     *
+     * @param writeBehindThreads the number of threads
+     */
+    public void setWriteBehindThreads(int writeBehindThreads) {
+        if (writeBehindThreads > 0) {
+            this.writeBehindThreads = writeBehindThreads;
+        }
+    }
+
+
+    /**
+     * @return the maximum number of write-behind and read-ahead tasks that may
+     *         be queued
+     */
+    public int getWriteBehindQueueSize() {
+        return writeBehindQueueSize;
+    }
+
+
+    /**
+     * Set the maximum number of write-behind and read-ahead tasks that may be
+     * queued. When the queue is full, sessions are written by the thread that
+     * would have queued them, which slows the rate at which writes are
+     * requested to the rate at which the Store can accept them. Changes take
+     * effect when the Manager is next started.
+     *
+     * @param writeBehindQueueSize the maximum number of queued tasks
+     */
+    public void setWriteBehindQueueSize(int writeBehindQueueSize) {
+        if (writeBehindQueueSize > 0) {
+            this.writeBehindQueueSize = writeBehindQueueSize;
+        }
+    }
+
+
+    /**
+     * @return the time, in seconds, to wait for queued writes to complete
+     *         when the Manager stops
+     */
+    public int getWriteBehindTimeout() {
+        return writeBehindTimeout;
+    }
+
+
+    /**
+     * Set the time to wait for queued writes to complete when the Manager
+     * stops. Sessions that have not been written by then are written by
+     * {@link #unload()} if {@link #getSaveOnRestart()} is enabled.
+     *
+     * @param writeBehindTimeout the time in seconds
+     */
+    public void setWriteBehindTimeout(int writeBehindTimeout) {
+        this.writeBehindTimeout = writeBehindTimeout;
+    }
+
+
+    /**
+     * @return {@code true} if sessions referenced by a request are loaded from
+     *         the Store while the request is being processed
+     */
+    public boolean getReadAhead() {
+        return readAhead;
+    }
+
+
+    /**
+     * Configure whether a session that is referenced by a request but is not
+     * in memory should be loaded from the Store as soon as the session ID has
+     * been parsed from the request, rather than when the application first
+     * uses the session.
+     *
+     * @param readAhead {@code true} to read sessions ahead
+     */
+    public void setReadAhead(boolean readAhead) {
+        this.readAhead = readAhead;
+    }
+
+
     /**
      * Check, whether a session is loaded in memory
      *
@@ -423,16 +688,8 @@ public abstract class PersistentManagerBase extends ManagerBase
     public void processExpires() {
 
         long timeNow = System.currentTimeMillis();
-        Session sessions[] = findSessions();
-        int expireHere = 0 ;
-        if(log.isDebugEnabled())
-             log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.length);
-        for (int i = 0; i < sessions.length; i++) {
-            if (!sessions[i].isValid()) {
-                expiredSessions.incrementAndGet();
-                expireHere++;
-            }
-        }
+        int expireHere = expireSessions(timeNow);
+        expiredSessions.addAndGet(expireHere);
         processPersistenceChecks();
         if (getStore() instanceof StoreBase) {
             ((StoreBase) getStore()).processExpires();
@@ -442,6 +699,7 @@ public abstract class PersistentManagerBase extends ManagerBase
         if(log.isDebugEnabled())
              log.debug("End expire sessions " + getName() + " processingTime " + (timeEnd - timeNow) + " expired sessions: " + expireHere);
         processingTime += (timeEnd - timeNow);
+        updateSweepStatistics(timeEnd - timeNow, expireHere);
 
     }
 
@@ -456,6 +714,82 @@ public abstract class PersistentManagerBase extends ManagerBase
         processMaxActiveSwaps();
         processMaxIdleBackups();
 
+        // Discard sessions that were read ahead but never requested
+        pendingLoads.values().removeIf(Future::isDone);
+
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If {@link #getReadAhead()} is enabled and the session is not in memory,
+     * the session is loaded from the Store by one of the write-behind threads.
+     * {@link #findSession(String)} uses the loaded session, waiting for the
+     * load to complete if necessary. Since the session ID is provided by the
+     * client, IDs that could not have been generated by this Manager are
+     * ignored, as are all IDs while the write-behind threads are busy.
+     */
+    @Override
+    public void readAhead(String id) {
+        ThreadPoolExecutor executor = persistenceExecutor;
+        if (!readAhead || executor == null || sessions.containsKey(id) ||
+                pendingLoads.containsKey(id)) {
+            return;
+        }
+        if (executor.getQueue().size() >= writeBehindThreads || !isValidSessionId(id)) {
+            return;
+        }
+        FutureTask<Session> task = new FutureTask<Session>(() -> loadSessionFromStore(id)) {
+            @Override
+            protected void done() {
+                // Don't keep track of IDs that were not found in the Store
+                try {
+                    if (get() == null) {
+                        pendingLoads.remove(id, this);
+                    }
+                } catch (InterruptedException | ExecutionException | CancellationException e) {
+                    pendingLoads.remove(id, this);
+                }
+            }
+        };
+        if (pendingLoads.putIfAbsent(id, task) == null) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                pendingLoads.remove(id, task);
+                task.cancel(false);
+            }
+        }
+    }
+
+
+    /*
+     * Check the format of a session ID provided by a client. Only the IDs
+     * generated by the standard generator have a known format.
+     */
+    private boolean isValidSessionId(String id) {
+        int length = id.indexOf('.');
+        if (length < 0) {
+            length = id.length();
+        }
+        if (length == 0 || id.length() > 1024) {
+            return false;
+        }
+        SessionIdGenerator generator = getSessionIdGenerator();
+        if (generator == null || generator.getClass() != StandardSessionIdGenerator.class) {
+            return true;
+        }
+        if (length != generator.getSessionIdLength() * 2) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'A' || c > 'F')) {
+                return false;
+            }
+        }
+        return true;
     }
 
 
@@ -514,6 +848,10 @@ public abstract class PersistentManagerBase extends ManagerBase
      * Note that by default, this method is not called by the MiddleManager
      * class. In order to use it, a subclass must specifically call it,
      * for example in the start() and/or processPersistenceChecks() methods.
+     * <p>
+     * If the Store extends {@link StoreBase} the sessions are read using
+     * {@link StoreBase#loadAll(String[])} so the Store can read them in
+     * batches.
      */
     @Override
     public void load() {
@@ -549,13 +887,56 @@ public abstract class PersistentManagerBase extends ManagerBase
         if (log.isDebugEnabled())
             log.debug(sm.getString("persistentManager.loading", String.valueOf(n)));
 
-        for (int i = 0; i < n; i++)
-            try {
-                swapIn(ids[i]);
-            } catch (IOException e) {
-                log.error(sm.getString("persistentManager.storeLoadError"), e);
+        for (int start = 0; start < n; start += LOAD_MAX_BATCH) {
+            String[] batch = Arrays.copyOfRange(ids, start, Math.min(n, start + LOAD_MAX_BATCH));
+            Map<String,Future<Session>> read = null;
+            if (batch.length > 1 && store instanceof StoreBase) {
+                read = readSessions(batch);
+            }
+            for (String id : batch) {
+                try {
+                    swapIn(id);
+                } catch (IOException e) {
+                    log.error(sm.getString("persistentManager.storeLoadError"), e);
+                }
+                if (read != null) {
+                    // Not used if the session was already in memory
+                    pendingLoads.remove(id, read.get(id));
+                }
             }
+        }
+
+    }
 
+
+    /*
+     * Read a batch of sessions from the Store ahead of swapIn(), which uses
+     * the sessions read in the same way as those read ahead for a request. If
+     * the batch cannot be read, swapIn() reads each session itself so that any
+     * error is handled as usual.
+     */
+    private Map<String,Future<Session>> readSessions(String[] ids) {
+        Session[] loaded;
+        try {
+            if (SecurityUtil.isPackageProtectionEnabled()) {
+                loaded = AccessController.doPrivileged(new PrivilegedStoreLoadAll(ids));
+            } else {
+                loaded = ((StoreBase) store).loadAll(ids);
+            }
+        } catch (PrivilegedActionException | ClassNotFoundException | IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("persistentManager.loadBatchError",
+                        Integer.valueOf(ids.length)), e);
+            }
+            return null;
+        }
+        Map<String,Future<Session>> read = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            Future<Session> future = CompletableFuture.completedFuture(loaded[i]);
+            read.put(ids[i], future);
+            pendingLoads.put(ids[i], future);
+        }
+        return read;
     }
 
 
@@ -582,6 +963,8 @@ public abstract class PersistentManagerBase extends ManagerBase
      * @param id Session's id to be removed
      */
     protected void removeSession(String id){
+        pendingWrites.remove(id);
+        pendingLoads.remove(id);
         try {
             if (SecurityUtil.isPackageProtectionEnabled()) {
                 try {
@@ -711,7 +1094,7 @@ public abstract class PersistentManagerBase extends ManagerBase
                 Session currentSwapInSession = sessionToSwapIn.get();
                 try {
                     if (currentSwapInSession == null || !id.equals(currentSwapInSession.getId())) {
-                        session = loadSessionFromStore(id);
+                        session = loadSession(id);
                         sessionToSwapIn.set(session);
 
                         if (session != null && !session.isValid()) {
@@ -756,6 +1139,20 @@ public abstract class PersistentManagerBase extends ManagerBase
         session.endAccess();
     }
 
+    private Session loadSession(String id) throws IOException {
+        Future<Session> future = pendingLoads.remove(id);
+        if (future != null) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException e) {
+                // Load the session directly so any error is handled as usual
+            }
+        }
+        return loadSessionFromStore(id);
+    }
+
     private Session loadSessionFromStore(String id) throws IOException {
         try {
             if (SecurityUtil.isPackageProtectionEnabled()){
@@ -814,6 +1211,65 @@ public abstract class PersistentManagerBase extends ManagerBase
     }
 
 
+    /**
+     * Remove the provided sessions from the active session list, prepare them
+     * to be serialized, and write them to the Store. Sessions that are
+     * accessed while they are being written are kept in memory. If the
+     * sessions cannot be written, they all remain in memory.
+     *
+     * @param sessions The sessions to write out
+     * @throws IOException an IO error occurred
+     */
+    protected void swapOut(List<Session> sessions) throws IOException {
+
+        if (store == null) {
+            return;
+        }
+
+        List<Session> passivated = new ArrayList<>(sessions.size());
+        List<Long> lastAccessedTimes = new ArrayList<>(sessions.size());
+        for (Session session : sessions) {
+            synchronized (session) {
+                StandardSession standardSession = (StandardSession) session;
+                if (standardSession.accessCount != null &&
+                        standardSession.accessCount.get() > 0) {
+                    // Accessed since it was selected to be swapped out, e.g.
+                    // while a write-behind thread was busy - skip it
+                    continue;
+                }
+                if (session.isValid()) {
+                    ((StandardSession) session).passivate();
+                    passivated.add(session);
+                    lastAccessedTimes.add(Long.valueOf(session.getLastAccessedTimeInternal()));
+                }
+            }
+        }
+
+        try {
+            writeSessions(passivated);
+        } catch (IOException e) {
+            for (Session session : passivated) {
+                ((StandardSession) session).activate();
+            }
+            throw e;
+        }
+
+        for (int i = 0; i < passivated.size(); i++) {
+            StandardSession session = (StandardSession) passivated.get(i);
+            synchronized (session) {
+                if (session.getLastAccessedTimeInternal() != lastAccessedTimes.get(i).longValue() ||
+                        session.accessCount != null && session.accessCount.get() > 0) {
+                    // Session was accessed while it was being written - keep it
+                    session.activate();
+                    continue;
+                }
+                super.remove(session, true);
+                session.recycle();
+            }
+        }
+    }
+
+
     /**
      * Write the provided session to the Store without modifying
      * the copy in memory or triggering passivation events. Does
@@ -845,6 +1301,68 @@ public abstract class PersistentManagerBase extends ManagerBase
         } catch (IOException e) {
             log.error(sm.getString("persistentManager.serializeError", session.getIdInternal(), e));
             throw e;
+        } finally {
+            pendingLoads.remove(session.getIdInternal());
+        }
+
+    }
+
+
+    /**
+     * Write the provided sessions to the Store without modifying the copies in
+     * memory or triggering passivation events. Invalid sessions are skipped.
+     * If the Store extends {@link StoreBase} the sessions are written using
+     * {@link StoreBase#saveAll(List)} so the Store can write them as a single
+     * batch.
+     *
+     * @param sessions The sessions that should be written
+     * @throws IOException an IO error occurred
+     */
+    protected void writeSessions(List<Session> sessions) throws IOException {
+
+        if (store == null) {
+            return;
+        }
+
+        List<Session> valid = new ArrayList<>(sessions.size());
+        for (Session session : sessions) {
+            if (session.isValid()) {
+                valid.add(session);
+            }
+        }
+        if (valid.isEmpty()) {
+            return;
+        }
+        if (valid.size() == 1 || !(store instanceof StoreBase)) {
+            for (Session session : valid) {
+                writeSession(session);
+            }
+            return;
+        }
+
+        try {
+            if (SecurityUtil.isPackageProtectionEnabled()){
+                try{
+                    AccessController.doPrivileged(new PrivilegedStoreSaveAll(valid));
+                }catch(PrivilegedActionException ex){
+                    Exception exception = ex.getException();
+                    if (exception instanceof IOException) {
+                        throw (IOException) exception;
+                    }
+                    log.error(sm.getString("persistentManager.serializeBatchError",
+                            Integer.valueOf(valid.size()), exception));
+                }
+            } else {
+                ((StoreBase) store).saveAll(valid);
+            }
+        } catch (IOException e) {
+            log.error(sm.getString("persistentManager.serializeBatchError",
+                    Integer.valueOf(valid.size()), e));
+            throw e;
+        } finally {
+            for (Session session : valid) {
+                pendingLoads.remove(session.getIdInternal());
+            }
         }
 
     }
@@ -867,6 +1385,17 @@ public abstract class PersistentManagerBase extends ManagerBase
         else if (store instanceof Lifecycle)
             ((Lifecycle)store).start();
 
+        if (store != null && (writeBehind || readAhead)) {
+            TaskThreadFactory tf = new TaskThreadFactory(
+                    getName() + "[" + getContext().getName() + "]-persistence-",
+                    true, Thread.NORM_PRIORITY);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(writeBehindThreads,
+                    writeBehindThreads, 10, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(writeBehindQueueSize), tf);
+            executor.allowCoreThreadTimeOut(true);
+            persistenceExecutor = executor;
+        }
+
         setState(LifecycleState.STARTING);
     }
 
@@ -886,6 +1415,25 @@ public abstract class PersistentManagerBase extends ManagerBase
 
         setState(LifecycleState.STOPPING);
 
+        // Complete any queued writes before the remaining sessions are
+        // unloaded or expired
+        ThreadPoolExecutor executor = persistenceExecutor;
+        if (executor != null) {
+            persistenceExecutor = null;
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(writeBehindTimeout, TimeUnit.SECONDS)) {
+                    log.warn(sm.getString("persistentManager.writeBehindTimeout",
+                            Integer.valueOf(pendingWrites.size() + pendingSwaps.size())));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pendingLoads.clear();
+        }
+        // Anything that could not be written will be written by unload()
+        pendingWrites.clear();
+
         if (getStore() != null && saveOnRestart) {
             unload();
         } else {
@@ -920,13 +1468,14 @@ public abstract class PersistentManagerBase extends ManagerBase
             return;
 
         Session sessions[] = findSessions();
+        List<Session> toSwap = new ArrayList<>();
 
         // Swap out all sessions idle longer than maxIdleSwap
         if (maxIdleSwap >= 0) {
             for (int i = 0; i < sessions.length; i++) {
                 StandardSession session = (StandardSession) sessions[i];
                 synchronized (session) {
-                    if (!session.isValid())
+                    if (!session.isValid() || pendingSwaps.contains(session.getIdInternal()))
                         continue;
                     int timeIdle = (int) (session.getIdleTimeInternal() / 1000L);
                     if (timeIdle >= maxIdleSwap && timeIdle >= minIdleSwap) {
@@ -940,16 +1489,14 @@ public abstract class PersistentManagerBase extends ManagerBase
                                 ("persistentManager.swapMaxIdle",
                                  session.getIdInternal(),
                                  Integer.valueOf(timeIdle)));
-                        try {
-                            swapOut(session);
-                        } catch (IOException e) {
-                            // This is logged in writeSession()
-                        }
+                        toSwap.add(session);
                     }
                 }
             }
         }
 
+        swapOutAll(toSwap);
+
     }
 
 
@@ -964,10 +1511,11 @@ public abstract class PersistentManagerBase extends ManagerBase
 
         Session sessions[] = findSessions();
 
-        // FIXME: Smarter algorithm (LRU)
         int limit = (int) (getMaxActiveSessions() * 0.9);
 
-        if (limit >= sessions.length)
+        // Sessions that are already being swapped out will leave shortly
+        int active = sessions.length - pendingSwaps.size();
+        if (limit >= active)
             return;
 
         if(log.isDebugEnabled())
@@ -975,11 +1523,25 @@ public abstract class PersistentManagerBase extends ManagerBase
                 ("persistentManager.tooManyActive",
                  Integer.valueOf(sessions.length)));
 
-        int toswap = sessions.length - limit;
+        int toswap = active - limit;
+        List<Session> toSwap = new ArrayList<>(toswap);
+
+        // Swap out the least recently used sessions first. The access times
+        // are copied as they may change while sorting.
+        long[] accessed = new long[sessions.length];
+        Integer[] order = new Integer[sessions.length];
+        for (int i = 0; i < sessions.length; i++) {
+            accessed[i] = sessions[i].getThisAccessedTimeInternal();
+            order[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(order, (i1, i2) -> Long.compare(accessed[i1.intValue()], accessed[i2.intValue()]));
 
         for (int i = 0; i < sessions.length && toswap > 0; i++) {
-            StandardSession session =  (StandardSession) sessions[i];
+            StandardSession session =  (StandardSession) sessions[order[i].intValue()];
             synchronized (session) {
+                if (pendingSwaps.contains(session.getIdInternal())) {
+                    continue;
+                }
                 int timeIdle = (int) (session.getIdleTimeInternal() / 1000L);
                 if (timeIdle >= minIdleSwap) {
                     if (session.accessCount != null &&
@@ -992,16 +1554,14 @@ public abstract class PersistentManagerBase extends ManagerBase
                             ("persistentManager.swapTooManyActive",
                              session.getIdInternal(),
                              Integer.valueOf(timeIdle)));
-                    try {
-                        swapOut(session);
-                    } catch (IOException e) {
-                        // This is logged in writeSession()
-                    }
+                    toSwap.add(session);
                     toswap--;
                 }
             }
         }
 
+        swapOutAll(toSwap);
+
     }
 
 
@@ -1014,6 +1574,8 @@ public abstract class PersistentManagerBase extends ManagerBase
             return;
 
         Session sessions[] = findSessions();
+        List<Session> toBackup = new ArrayList<>();
+        List<PersistedState> states = new ArrayList<>();
 
         // Back up all sessions idle longer than maxIdleBackup
         if (maxIdleBackup >= 0) {
@@ -1022,11 +1584,9 @@ public abstract class PersistentManagerBase extends ManagerBase
                 synchronized (session) {
                     if (!session.isValid())
                         continue;
-                    long lastAccessedTime = session.getLastAccessedTimeInternal();
-                    Long persistedLastAccessedTime =
-                            (Long) session.getNote(PERSISTED_LAST_ACCESSED_TIME);
-                    if (persistedLastAccessedTime != null &&
-                            lastAccessedTime == persistedLastAccessedTime.longValue())
+                    PersistedState state = new PersistedState(session);
+                    PersistedState persisted = (PersistedState) session.getNote(PERSISTED_STATE);
+                    if (persisted != null && !isModified(session, state, persisted))
                         continue;
                     int timeIdle = (int) (session.getIdleTimeInternal() / 1000L);
                     if (timeIdle >= maxIdleBackup) {
@@ -1035,19 +1595,200 @@ public abstract class PersistentManagerBase extends ManagerBase
                                 ("persistentManager.backupMaxIdle",
                                 session.getIdInternal(),
                                 Integer.valueOf(timeIdle)));
+                        toBackup.add(session);
+                        states.add(state);
+                    }
+                }
+            }
+        }
 
-                        try {
-                            writeSession(session);
-                        } catch (IOException e) {
-                            // This is logged in writeSession()
-                        }
-                        session.setNote(PERSISTED_LAST_ACCESSED_TIME,
-                                Long.valueOf(lastAccessedTime));
+        if (toBackup.isEmpty()) {
+            return;
+        }
+        if (getWriteBehindExecutor() != null) {
+            for (Session session : toBackup) {
+                writeBehind(session);
+            }
+            return;
+        }
+        try {
+            writeSessions(toBackup);
+        } catch (IOException e) {
+            // This is logged in writeSessions(). The sessions will be backed
+            // up on the next attempt.
+            return;
+        }
+        for (int i = 0; i < toBackup.size(); i++) {
+            toBackup.get(i).setNote(PERSISTED_STATE, states.get(i));
+        }
+
+    }
+
+
+    /*
+     * Has the session changed enough since it was last backed up that it needs
+     * to be backed up again?
+     */
+    private boolean isModified(Session session, PersistedState current,
+            PersistedState persisted) {
+        if (current.lastAccessedTime == persisted.lastAccessedTime) {
+            return false;
+        }
+        if (!backupModifiedOnly || current.attributesVersion != persisted.attributesVersion) {
+            return true;
+        }
+        // Only accessed. Refresh the stored copy before it could expire.
+        long maxInactiveInterval = session.getMaxInactiveInterval() * 1000L;
+        return maxInactiveInterval > 0 &&
+                current.lastAccessedTime - persisted.lastAccessedTime >= maxInactiveInterval / 2;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The sessions are swapped out to the Store rather than expired. The
+     * sessions are written by the calling thread, even if write-behind is
+     * enabled, so that they have been removed from memory when this method
+     * returns.
+     */
+    @Override
+    protected void evict(List<Session> sessions) {
+        if (store == null) {
+            super.evict(sessions);
+            return;
+        }
+        try {
+            swapOut(sessions);
+        } catch (IOException e) {
+            // This is logged in writeSession() or writeSessions()
+        }
+    }
+
+
+    private void swapOutAll(List<Session> sessions) {
+        if (sessions.isEmpty()) {
+            return;
+        }
+        ThreadPoolExecutor executor = getWriteBehindExecutor();
+        if (executor != null) {
+            List<String> ids = new ArrayList<>(sessions.size());
+            for (Session session : sessions) {
+                String id = session.getIdInternal();
+                ids.add(id);
+                // The swap will write the session
+                pendingWrites.remove(id);
+            }
+            pendingSwaps.addAll(ids);
+            try {
+                executor.execute(() -> {
+                    try {
+                        swapOut(sessions);
+                    } catch (IOException e) {
+                        // This is logged in writeSession() or writeSessions()
+                    } finally {
+                        pendingSwaps.removeAll(ids);
                     }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                pendingSwaps.removeAll(ids);
+            }
+        }
+        try {
+            swapOut(sessions);
+        } catch (IOException e) {
+            // This is logged in writeSession() or writeSessions()
+        }
+    }
+
+
+    /**
+     * Queue the session to be backed up by one of the write-behind threads. If
+     * the session is already queued it will not be queued again.
+     *
+     * @param session The session to back up
+     */
+    protected void writeBehind(Session session) {
+        ThreadPoolExecutor executor = getWriteBehindExecutor();
+        if (executor != null) {
+            if (pendingWrites.put(session.getIdInternal(), session) != null) {
+                // Already queued. The queued write will use the current state.
+                return;
+            }
+            try {
+                executor.execute(this::processPendingWrites);
+                return;
+            } catch (RejectedExecutionException e) {
+                pendingWrites.remove(session.getIdInternal());
+            }
+        }
+        PersistedState state = new PersistedState(session);
+        try {
+            writeSession(session);
+            session.setNote(PERSISTED_STATE, state);
+        } catch (IOException e) {
+            // This is logged in writeSession()
+        }
+    }
+
+
+    private ThreadPoolExecutor getWriteBehindExecutor() {
+        return writeBehind ? persistenceExecutor : null;
+    }
+
+
+    /*
+     * Write a batch of the queued sessions. One task is queued for each
+     * session so that there is always a task to write any queued session.
+     */
+    private void processPendingWrites() {
+        List<Session> batch = new ArrayList<>();
+        for (String id : pendingWrites.keySet()) {
+            Session session = pendingWrites.remove(id);
+            if (session != null) {
+                batch.add(session);
+                if (batch.size() == WRITE_BEHIND_MAX_BATCH) {
+                    break;
                 }
             }
         }
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<PersistedState> states = new ArrayList<>(batch.size());
+        for (Session session : batch) {
+            states.add(new PersistedState(session));
+        }
+        try {
+            writeSessions(batch);
+        } catch (IOException e) {
+            // This is logged in writeSessions(). The sessions will be backed
+            // up on the next attempt.
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).setNote(PERSISTED_STATE, states.get(i));
+        }
+    }
 
+
+    /*
+     * The state of a session captured before it is written to the Store.
+     */
+    private static final class PersistedState {
+
+        private final long lastAccessedTime;
+        private final long attributesVersion;
+
+        private PersistedState(Session session) {
+            lastAccessedTime = session.getLastAccessedTimeInternal();
+            if (session instanceof StandardSession) {
+                attributesVersion = ((StandardSession) session).getAttributesVersion();
+            } else {
+                attributesVersion = -1;
+            }
+        }
     }
 
 }
@@ -0,0 +1,866 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Globals;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Session;
+import org.apache.juli.logging.Log;
+
+/**
+ * Concrete implementation of the <b>Store</b> interface that saves Sessions in
+ * an external key-value server that uses the Redis serialization protocol
+ * (RESP). Sessions saved by this Store survive the restart of the Tomcat
+ * instance that saved them. A {@link PersistentManager} continues to use the
+ * copy of a Session that it holds in memory and does not check whether the
+ * copy in the server has been replaced, so requests for a Session must be
+ * routed to the instance that holds it (sticky sessions). The server must not
+ * be shared by instances that may receive requests for the same Session.
+ * <p>
+ * A small number of connections are shared by all threads. Commands from
+ * several threads are written to a connection without waiting for the
+ * replies to earlier commands and a dedicated thread per connection reads the
+ * replies, so several Sessions may be saved or loaded in a single round trip.
+ * Each Session is saved with a time to live based on its maximum inactive
+ * interval so the server removes Sessions once they have expired. Session
+ * listeners are therefore not notified of the expiration of Sessions that
+ * expire while they are held only in the server.
+ */
+public final class RedisStore extends StoreBase {
+
+    // ----------------------------------------------------- Constants
+
+    /**
+     * Name to register for this Store, used for logging.
+     */
+    private static final String storeName = "redisStore";
+
+    private static final byte[] CRLF = new byte[] { '\r', '\n' };
+
+    private static final String[] NO_KEYS = new String[0];
+
+    /**
+     * The number of keys the server is asked to examine per SCAN command.
+     */
+    private static final String SCAN_COUNT = "1000";
+
+
+    // ----------------------------------------------------- Instance Variables
+
+    private String host = "localhost";
+
+    private int port = 6379;
+
+    private String password = null;
+
+    private int database = 0;
+
+    private int connections = 2;
+
+    private int timeout = 5000;
+
+    private String keyPrefix = "tomcat:session:";
+
+    /**
+     * The prefix of the keys of the Sessions of the associated Context.
+     */
+    private volatile String contextKeyPrefix = null;
+
+    private volatile Connection[] pool = null;
+
+    private final AtomicInteger nextConnection = new AtomicInteger();
+
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * @return The host name of the server.
+     */
+    public String getHost() {
+        return host;
+    }
+
+
+    /**
+     * Set the host name of the server.
+     *
+     * @param host The host name
+     */
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+
+    /**
+     * @return The port of the server.
+     */
+    public int getPort() {
+        return port;
+    }
+
+
+    /**
+     * Set the port of the server.
+     *
+     * @param port The port
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+
+    /**
+     * @return The password used to authenticate with the server or
+     *         <code>null</code> if no authentication is performed.
+     */
+    public String getPassword() {
+        return password;
+    }
+
+
+    /**
+     * Set the password used to authenticate with the server.
+     *
+     * @param password The password or <code>null</code> for no authentication
+     */
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+
+    /**
+     * @return The index of the database on the server in which Sessions are
+     *         saved.
+     */
+    public int getDatabase() {
+        return database;
+    }
+
+
+    /**
+     * Set the index of the database on the server in which Sessions are
+     * saved.
+     *
+     * @param database The database index
+     */
+    public void setDatabase(int database) {
+        this.database = database;
+    }
+
+
+    /**
+     * @return The number of connections to the server shared by all threads.
+     */
+    public int getConnections() {
+        return connections;
+    }
+
+
+    /**
+     * Set the number of connections to the server shared by all threads.
+     * Changes take effect when the Store is next started.
+     *
+     * @param connections The number of connections
+     */
+    public void setConnections(int connections) {
+        this.connections = connections;
+    }
+
+
+    /**
+     * @return The time in milliseconds to wait to connect to the server and
+     *         for a reply to a command.
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+
+    /**
+     * Set the time in milliseconds to wait to connect to the server and for a
+     * reply to a command.
+     *
+     * @param timeout The timeout in milliseconds
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+
+    /**
+     * @return The prefix added to the keys under which Sessions are saved.
+     */
+    public String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+
+    /**
+     * Set the prefix added to the keys under which Sessions are saved. The
+     * name of the Context is added to the prefix so several web applications
+     * may share a server.
+     *
+     * @param keyPrefix The prefix
+     */
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+
+
+    /**
+     * Return the name for this Store, used for logging.
+     */
+    @Override
+    public String getStoreName() {
+        return storeName;
+    }
+
+
+    /**
+     * Return the number of Sessions present in this Store.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public int getSize() throws IOException {
+        return keys().length;
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * Remove all of the Sessions of the associated Context from this Store.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public void clear() throws IOException {
+        String[] keys = keys();
+        if (keys.length == 0) {
+            return;
+        }
+        String[] args = new String[keys.length + 1];
+        args[0] = "DEL";
+        for (int i = 0; i < keys.length; i++) {
+            args[i + 1] = key(keys[i]);
+        }
+        execute(command(args));
+    }
+
+
+    /**
+     * Return an array containing the session identifiers of all Sessions
+     * currently saved in this Store.  If there are no such Sessions, a
+     * zero-length array is returned.
+     * <p>
+     * The keys are obtained with a series of SCAN commands, rather than a
+     * single KEYS command, so that the server is not blocked while it
+     * examines every key it holds.
+     *
+     * @exception IOException if an input/output error occurred
+     */
+    @Override
+    public String[] keys() throws IOException {
+        String prefix = getContextKeyPrefix();
+        String pattern = escapePattern(prefix) + "*";
+        // SCAN may return a key more than once
+        Set<String> keys = new LinkedHashSet<>();
+        String cursor = "0";
+        do {
+            Object reply = execute(command("SCAN", cursor, "MATCH", pattern, "COUNT", SCAN_COUNT));
+            if (!(reply instanceof Object[]) || ((Object[]) reply).length != 2) {
+                return NO_KEYS;
+            }
+            Object[] values = (Object[]) reply;
+            cursor = new String((byte[]) values[0], StandardCharsets.UTF_8);
+            if (values[1] instanceof Object[]) {
+                for (Object value : (Object[]) values[1]) {
+                    keys.add(new String((byte[]) value, StandardCharsets.UTF_8).substring(
+                            prefix.length()));
+                }
+            }
+        } while (!cursor.equals("0"));
+        return keys.toArray(new String[0]);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The server removes Sessions once their time to live has passed so there
+     * are never any expired Sessions to return.
+     */
+    @Override
+    public String[] expiredKeys() throws IOException {
+        return NO_KEYS;
+    }
+
+
+    /**
+     * Load and return the Session associated with the specified session
+     * identifier from this Store, without removing it.  If there is no
+     * such stored Session, return <code>null</code>.
+     *
+     * @param id Session identifier of the session to load
+     *
+     * @exception ClassNotFoundException if a deserialization error occurs
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public Session load(String id) throws ClassNotFoundException, IOException {
+        return deserialize(id, (byte[]) execute(command("GET", key(id))));
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The requests for all of the Sessions are sent before waiting for any of
+     * the replies.
+     */
+    @Override
+    public Session[] loadAll(String[] ids) throws ClassNotFoundException, IOException {
+        List<byte[][]> commands = new ArrayList<>(ids.length);
+        for (String id : ids) {
+            commands.add(command("GET", key(id)));
+        }
+        List<CompletableFuture<Object>> replies = getConnection().send(commands);
+        Session[] sessions = new Session[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            sessions[i] = deserialize(ids[i], (byte[]) await(replies.get(i)));
+        }
+        return sessions;
+    }
+
+
+    /**
+     * Remove the Session with the specified session identifier from
+     * this Store, if present.  If no such Session is present, this method
+     * takes no action.
+     *
+     * @param id Session identifier of the Session to be removed
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public void remove(String id) throws IOException {
+        if (manager.getContext().getLogger().isDebugEnabled()) {
+            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".removing", id));
+        }
+        execute(command("DEL", key(id)));
+    }
+
+
+    /**
+     * Save the specified Session into this Store.  Any previously saved
+     * information for the associated session identifier is replaced.
+     *
+     * @param session Session to be saved
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public void save(Session session) throws IOException {
+        execute(saveCommand(session));
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The Sessions are sent to the server before waiting for any of the
+     * replies.
+     */
+    @Override
+    public void saveAll(List<Session> sessions) throws IOException {
+        List<byte[][]> commands = new ArrayList<>(sessions.size());
+        for (Session session : sessions) {
+            commands.add(saveCommand(session));
+        }
+        List<CompletableFuture<Object>> replies = getConnection().send(commands);
+        for (CompletableFuture<Object> reply : replies) {
+            await(reply);
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    private byte[][] saveCommand(Session session) throws IOException {
+        String id = session.getIdInternal();
+        if (manager.getContext().getLogger().isDebugEnabled()) {
+            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".saving", id));
+        }
+
+        long ttl = -1;
+        if (session.getMaxInactiveInterval() > 0) {
+            ttl = session.getThisAccessedTimeInternal() +
+                    session.getMaxInactiveInterval() * 1000L - System.currentTimeMillis();
+            if (ttl <= 0) {
+                // Already expired
+                return command("DEL", key(id));
+            }
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = getObjectOutputStream(new BufferedOutputStream(bos))) {
+            ((StandardSession) session).writeObjectData(oos);
+        }
+
+        byte[] key = key(id).getBytes(StandardCharsets.UTF_8);
+        if (ttl > 0) {
+            return new byte[][] { bytes("SET"), key, bos.toByteArray(), bytes("PX"),
+                    bytes(Long.toString(ttl)) };
+        } else {
+            return new byte[][] { bytes("SET"), key, bos.toByteArray() };
+        }
+    }
+
+
+    private Session deserialize(String id, byte[] data) throws ClassNotFoundException, IOException {
+        if (data == null) {
+            return null;
+        }
+
+        Context context = getManager().getContext();
+        Log contextLog = context.getLogger();
+
+        if (contextLog.isDebugEnabled()) {
+            contextLog.debug(sm.getString(getStoreName() + ".loading", id));
+        }
+
+        ClassLoader oldThreadContextCL = context.bind(Globals.IS_SECURITY_ENABLED, null);
+
+        try (ObjectInputStream ois = getObjectInputStream(new ByteArrayInputStream(data))) {
+            StandardSession session = (StandardSession) manager.createEmptySession();
+            session.readObjectData(ois);
+            session.setManager(manager);
+            return session;
+        } finally {
+            context.unbind(Globals.IS_SECURITY_ENABLED, oldThreadContextCL);
+        }
+    }
+
+
+    private String getContextKeyPrefix() {
+        String result = contextKeyPrefix;
+        if (result == null) {
+            result = keyPrefix + manager.getContext().getName() + ":";
+            contextKeyPrefix = result;
+        }
+        return result;
+    }
+
+
+    private String key(String id) {
+        return getContextKeyPrefix() + id;
+    }
+
+
+    private static String escapePattern(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    private static byte[][] command(String... args) {
+        byte[][] result = new byte[args.length][];
+        for (int i = 0; i < args.length; i++) {
+            result[i] = bytes(args[i]);
+        }
+        return result;
+    }
+
+
+    private Object execute(byte[][] command) throws IOException {
+        List<byte[][]> commands = new ArrayList<>(1);
+        commands.add(command);
+        return await(getConnection().send(commands).get(0));
+    }
+
+
+    private Object await(CompletableFuture<Object> reply) throws IOException {
+        try {
+            return reply.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } catch (TimeoutException e) {
+            throw new IOException(sm.getString(getStoreName() + ".timeout",
+                    Integer.valueOf(timeout)), e);
+        }
+    }
+
+
+    private Connection getConnection() throws IOException {
+        Connection[] pool = this.pool;
+        if (pool == null) {
+            throw new IOException(sm.getString(getStoreName() + ".notStarted"));
+        }
+        return pool[(nextConnection.getAndIncrement() & Integer.MAX_VALUE) % pool.length];
+    }
+
+
+    // ------------------------------------------------------ Lifecycle Methods
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        contextKeyPrefix = null;
+        Connection[] pool = new Connection[Math.max(connections, 1)];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = new Connection();
+        }
+        this.pool = pool;
+        super.startInternal();
+    }
+
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        Connection[] pool = this.pool;
+        this.pool = null;
+        if (pool != null) {
+            for (Connection connection : pool) {
+                connection.close();
+            }
+        }
+    }
+
+
+    // ---------------------------------------------------------- Inner classes
+
+    /*
+     * A connection that is re-established the next time it is used if it
+     * fails.
+     */
+    private final class Connection {
+
+        /*
+         * Guarded by this Connection.
+         */
+        private Link link = null;
+
+        private synchronized List<CompletableFuture<Object>> send(List<byte[][]> commands)
+                throws IOException {
+            if (link == null) {
+                link = connect();
+            }
+            Link link = this.link;
+            ByteBuffer buffer = encode(commands);
+            List<CompletableFuture<Object>> replies = new ArrayList<>(commands.size());
+            for (int i = 0; i < commands.size(); i++) {
+                CompletableFuture<Object> reply = new CompletableFuture<>();
+                link.pending.add(reply);
+                replies.add(reply);
+            }
+            try {
+                while (buffer.hasRemaining()) {
+                    link.channel.write(buffer);
+                }
+            } catch (IOException e) {
+                close(link, e);
+                throw e;
+            }
+            return replies;
+        }
+
+        private Link connect() throws IOException {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.socket().connect(new InetSocketAddress(host, port), timeout);
+                channel.socket().setTcpNoDelay(true);
+            } catch (IOException e) {
+                channel.close();
+                throw new IOException(sm.getString(getStoreName() + ".connectFailed", host,
+                        Integer.valueOf(port)), e);
+            }
+            Link link = new Link(channel);
+            Thread reader = new Thread(() -> read(link),
+                    "RedisStore-" + host + ":" + port + "-reader");
+            reader.setDaemon(true);
+            reader.setContextClassLoader(RedisStore.class.getClassLoader());
+            reader.start();
+
+            List<byte[][]> commands = new ArrayList<>(2);
+            if (password != null) {
+                commands.add(command("AUTH", password));
+            }
+            if (database != 0) {
+                commands.add(command("SELECT", Integer.toString(database)));
+            }
+            if (!commands.isEmpty()) {
+                this.link = link;
+                try {
+                    for (CompletableFuture<Object> reply : send(commands)) {
+                        await(reply);
+                    }
+                } catch (IOException e) {
+                    close(link, e);
+                    throw e;
+                }
+            }
+            return link;
+        }
+
+        private void read(Link link) {
+            RespReader reader = new RespReader(link.channel);
+            try {
+                while (true) {
+                    Object reply = reader.read();
+                    CompletableFuture<Object> future = link.pending.poll();
+                    if (future == null) {
+                        throw new IOException(sm.getString(getStoreName() + ".unexpectedReply"));
+                    }
+                    if (reply instanceof ErrorReply) {
+                        future.completeExceptionally(new IOException(sm.getString(
+                                getStoreName() + ".error", ((ErrorReply) reply).message)));
+                    } else {
+                        future.complete(reply);
+                    }
+                }
+            } catch (IOException e) {
+                close(link, e);
+            }
+        }
+
+        private void close(Link link, IOException e) {
+            try {
+                link.channel.close();
+            } catch (IOException ioe) {
+                // Ignore
+            }
+            // Fail the pending replies before obtaining the lock as the thread
+            // holding the lock may be waiting for one of them
+            CompletableFuture<Object> future;
+            while ((future = link.pending.poll()) != null) {
+                future.completeExceptionally(e);
+            }
+            synchronized (this) {
+                if (this.link == link) {
+                    this.link = null;
+                }
+            }
+        }
+
+        private void close() {
+            Link link;
+            synchronized (this) {
+                link = this.link;
+            }
+            if (link != null) {
+                close(link, new IOException(sm.getString(getStoreName() + ".closed")));
+            }
+        }
+    }
+
+
+    /*
+     * A single connection to the server and the replies expected on it.
+     */
+    private static final class Link {
+
+        private final SocketChannel channel;
+        private final Queue<CompletableFuture<Object>> pending = new ConcurrentLinkedQueue<>();
+
+        private Link(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+
+    private static ByteBuffer encode(List<byte[][]> commands) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        for (byte[][] command : commands) {
+            writeLine(bos, '*', command.length);
+            for (byte[] arg : command) {
+                writeLine(bos, '$', arg.length);
+                bos.write(arg, 0, arg.length);
+                bos.write(CRLF, 0, CRLF.length);
+            }
+        }
+        return ByteBuffer.wrap(bos.toByteArray());
+    }
+
+
+    private static void writeLine(ByteArrayOutputStream bos, char type, int value) {
+        bos.write(type);
+        byte[] digits = bytes(Integer.toString(value));
+        bos.write(digits, 0, digits.length);
+        bos.write(CRLF, 0, CRLF.length);
+    }
+
+
+    private static final class ErrorReply {
+
+        private final String message;
+
+        private ErrorReply(String message) {
+            this.message = message;
+        }
+    }
+
+
+    /*
+     * Reads replies. Simple strings are returned as String, errors as
+     * ErrorReply, integers as Long, bulk strings as byte[] and arrays as
+     * Object[]. Null bulk strings and arrays are returned as null.
+     */
+    private static final class RespReader {
+
+        private final SocketChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+        private RespReader(SocketChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        private Object read() throws IOException {
+            byte type = nextByte();
+            String line = readLine();
+            switch (type) {
+                case '+':
+                    return line;
+                case '-':
+                    return new ErrorReply(line);
+                case ':':
+                    return Long.valueOf(parseLong(line));
+                case '$': {
+                    int length = (int) parseLong(line);
+                    if (length < 0) {
+                        return null;
+                    }
+                    byte[] data = new byte[length];
+                    readFully(data);
+                    if (nextByte() != '\r' || nextByte() != '\n') {
+                        throw new IOException(sm.getString("redisStore.invalidReply"));
+                    }
+                    return data;
+                }
+                case '*': {
+                    int length = (int) parseLong(line);
+                    if (length < 0) {
+                        return null;
+                    }
+                    Object[] values = new Object[length];
+                    for (int i = 0; i < length; i++) {
+                        values[i] = read();
+                    }
+                    return values;
+                }
+                default:
+                    throw new IOException(sm.getString("redisStore.invalidReply"));
+            }
+        }
+
+        private long parseLong(String line) throws IOException {
+            try {
+                return Long.parseLong(line);
+            } catch (NumberFormatException e) {
+                throw new IOException(sm.getString("redisStore.invalidReply"), e);
+            }
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                byte b = nextByte();
+                if (b == '\r') {
+                    if (nextByte() != '\n') {
+                        throw new IOException(sm.getString("redisStore.invalidReply"));
+                    }
+                    return sb.toString();
+                }
+                sb.append((char) (b & 0xFF));
+            }
+        }
+
+        private void readFully(byte[] data) throws IOException {
+            int offset = 0;
+            while (offset < data.length) {
+                fill();
+                int len = Math.min(buffer.remaining(), data.length - offset);
+                buffer.get(data, offset, len);
+                offset += len;
+            }
+        }
+
+        private byte nextByte() throws IOException {
+            fill();
+            return buffer.get();
+        }
+
+        private void fill() throws IOException {
+            if (buffer.hasRemaining()) {
+                return;
+            }
+            buffer.clear();
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read == 0);
+            buffer.flip();
+            if (read < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
@@ -0,0 +1,950 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import javax.servlet.ServletContext;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Globals;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Session;
+import org.apache.juli.logging.Log;
+import org.apache.tomcat.util.buf.ByteBufferUtils;
+
+/**
+ * Concrete implementation of the <b>Store</b> interface that appends saved
+ * Sessions to a log made up of memory mapped segment files in a configured
+ * directory. The location of the most recent copy of each Session is held in
+ * memory so the Store never needs to list the directory. Segments that
+ * contain mostly out of date copies are compacted by the background
+ * processing thread and the log is replayed when the Store starts so that
+ * Sessions survive a restart. Records that were only partially written when
+ * the JVM stopped are detected by a checksum and ignored.
+ */
+public final class SegmentedFileStore extends StoreBase {
+
+    // ----------------------------------------------------- Constants
+
+    private static final String SEGMENT_PREFIX = "sessions-";
+    private static final String SEGMENT_EXT = ".seg";
+
+    private static final byte TYPE_SAVE = 1;
+    private static final byte TYPE_REMOVE = 2;
+
+    /*
+     * Record length and checksum
+     */
+    private static final int HEADER_LENGTH = 8;
+
+    /**
+     * Name to register for this Store, used for logging.
+     */
+    private static final String storeName = "segmentedFileStore";
+
+    /*
+     * MappedByteBuffer.force(int, int) was added in Java 13. Earlier versions
+     * have to force the whole segment.
+     */
+    private static final Method forceRangeMethod;
+
+    static {
+        Method m = null;
+        try {
+            m = MappedByteBuffer.class.getMethod("force", int.class, int.class);
+        } catch (NoSuchMethodException e) {
+            // Java 12 or earlier
+        }
+        forceRangeMethod = m;
+    }
+
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * The pathname of the directory in which Sessions are stored.
+     * This may be an absolute pathname, or a relative path that is
+     * resolved against the temporary work directory for this application.
+     */
+    private String directory = ".";
+
+
+    /**
+     * A File representing the directory in which Sessions are stored.
+     */
+    private File directoryFile = null;
+
+
+    private int segmentSize = 64 * 1024 * 1024;
+
+
+    private double compactionRatio = 0.5;
+
+
+    private boolean syncOnSave = false;
+
+
+    /**
+     * The location of the current copy of each saved Session.
+     */
+    private final Map<String,Location> index = new ConcurrentHashMap<>();
+
+
+    /**
+     * All segments, sorted by sequence number. Guarded by this Store.
+     */
+    private final TreeMap<Long,Segment> segments = new TreeMap<>();
+
+
+    /**
+     * The segment to which records are appended. Guarded by this Store.
+     */
+    private Segment active = null;
+
+    /**
+     * Only one segment is compacted at a time.
+     */
+    private final Object compactionLock = new Object();
+
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * @return The directory path for this Store.
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+
+    /**
+     * Set the directory path for this Store.
+     *
+     * @param path The new directory path
+     */
+    public void setDirectory(String path) {
+        String oldDirectory = this.directory;
+        this.directory = path;
+        this.directoryFile = null;
+        support.firePropertyChange("directory", oldDirectory, this.directory);
+    }
+
+
+    /**
+     * @return The size in bytes of each segment file.
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+
+    /**
+     * Set the size of each segment file. A Session that is larger than this
+     * is written to a segment of its own.
+     *
+     * @param segmentSize The new size in bytes
+     */
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+
+    /**
+     * @return The fraction of a segment that must contain current Session
+     *         data for the segment not to be compacted.
+     */
+    public double getCompactionRatio() {
+        return compactionRatio;
+    }
+
+
+    /**
+     * Set the fraction of a segment that must contain current Session data
+     * for the segment not to be compacted. Segments where a smaller fraction
+     * of the data is current have the current data copied to the end of the
+     * log and are then deleted.
+     *
+     * @param compactionRatio The new ratio, between 0 and 1
+     */
+    public void setCompactionRatio(double compactionRatio) {
+        this.compactionRatio = compactionRatio;
+    }
+
+
+    /**
+     * @return {@code true} if each save is written to the storage device
+     *         before the save completes.
+     */
+    public boolean getSyncOnSave() {
+        return syncOnSave;
+    }
+
+
+    /**
+     * Should each save be written to the storage device before the save
+     * completes? If not, the operating system writes the data in the
+     * background and saves that are made shortly before a system (rather
+     * than a JVM) failure may be lost.
+     *
+     * @param syncOnSave {@code true} to write each save to the storage device
+     */
+    public void setSyncOnSave(boolean syncOnSave) {
+        this.syncOnSave = syncOnSave;
+    }
+
+
+    /**
+     * Return the name for this Store, used for logging.
+     */
+    @Override
+    public String getStoreName() {
+        return storeName;
+    }
+
+
+    /**
+     * Return the number of Sessions present in this Store.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public int getSize() throws IOException {
+        return index.size();
+    }
+
+
+    /**
+     * @return The number of segment files currently used by this Store.
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * Remove all of the Sessions in this Store.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized void clear() throws IOException {
+        index.clear();
+        for (Segment segment : segments.values()) {
+            deleteSegment(segment);
+        }
+        segments.clear();
+        active = null;
+    }
+
+
+    /**
+     * Return an array containing the session identifiers of all Sessions
+     * currently saved in this Store.  If there are no such Sessions, a
+     * zero-length array is returned.
+     *
+     * @exception IOException if an input/output error occurred
+     */
+    @Override
+    public String[] keys() throws IOException {
+        return index.keySet().toArray(new String[0]);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The time at which each Session expires is recorded when it is saved so
+     * only the Sessions that have expired are returned.
+     */
+    @Override
+    public String[] expiredKeys() throws IOException {
+        long timeNow = System.currentTimeMillis();
+        List<String> list = new ArrayList<>();
+        for (Map.Entry<String,Location> entry : index.entrySet()) {
+            if (entry.getValue().expiryTime <= timeNow) {
+                list.add(entry.getKey());
+            }
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+
+    /**
+     * Load and return the Session associated with the specified session
+     * identifier from this Store, without removing it.  If there is no
+     * such stored Session, return <code>null</code>.
+     *
+     * @param id Session identifier of the session to load
+     *
+     * @exception ClassNotFoundException if a deserialization error occurs
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public Session load(String id) throws ClassNotFoundException, IOException {
+        Location location;
+        byte[] record;
+        do {
+            location = index.get(id);
+            if (location == null) {
+                return null;
+            }
+            // A null record means the segment has been compacted and the
+            // index now points at the new copy
+            record = location.segment.read(location.offset, location.length);
+        } while (record == null);
+
+        Context context = getManager().getContext();
+        Log contextLog = context.getLogger();
+
+        if (contextLog.isDebugEnabled()) {
+            contextLog.debug(sm.getString(getStoreName() + ".loading", id,
+                    location.segment.file.getAbsolutePath()));
+        }
+
+        int dataOffset = HEADER_LENGTH + dataOffset(record);
+
+        ClassLoader oldThreadContextCL = context.bind(Globals.IS_SECURITY_ENABLED, null);
+
+        try (ObjectInputStream ois = getObjectInputStream(new ByteArrayInputStream(
+                record, dataOffset, record.length - dataOffset))) {
+            StandardSession session = (StandardSession) manager.createEmptySession();
+            session.readObjectData(ois);
+            session.setManager(manager);
+            return session;
+        } finally {
+            context.unbind(Globals.IS_SECURITY_ENABLED, oldThreadContextCL);
+        }
+    }
+
+
+    /**
+     * Remove the Session with the specified session identifier from
+     * this Store, if present.  If no such Session is present, this method
+     * takes no action.
+     *
+     * @param id Session identifier of the Session to be removed
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized void remove(String id) throws IOException {
+        if (!index.containsKey(id)) {
+            return;
+        }
+        if (manager.getContext().getLogger().isDebugEnabled()) {
+            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".removing",
+                    id, directory()));
+        }
+        append(createRecord(TYPE_REMOVE, id, 0, null));
+        release(index.remove(id));
+        if (syncOnSave) {
+            active.sync();
+        }
+    }
+
+
+    /**
+     * Save the specified Session into this Store.  Any previously saved
+     * information for the associated session identifier is replaced.
+     *
+     * @param session Session to be saved
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public void save(Session session) throws IOException {
+        byte[] record = serialize(session);
+        synchronized (this) {
+            write(session.getIdInternal(), record);
+            if (syncOnSave) {
+                active.sync();
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The Sessions are appended to the log together.
+     */
+    @Override
+    public void saveAll(List<Session> sessions) throws IOException {
+        List<byte[]> records = new ArrayList<>(sessions.size());
+        for (Session session : sessions) {
+            records.add(serialize(session));
+        }
+        synchronized (this) {
+            Segment first = active;
+            for (int i = 0; i < records.size(); i++) {
+                write(sessions.get(i).getIdInternal(), records.get(i));
+            }
+            if (syncOnSave) {
+                for (Segment segment : segments.tailMap(
+                        Long.valueOf(first == null ? 0 : first.sequence)).values()) {
+                    segment.sync();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Called by our background reaper thread to remove expired Sessions and
+     * then compact any segments that contain mostly out of date data.
+     */
+    @Override
+    public void processExpires() {
+        super.processExpires();
+        if (!getState().isAvailable()) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            manager.getContext().getLogger().error(sm.getString(
+                    getStoreName() + ".compactFailed"), e);
+        }
+    }
+
+
+    /**
+     * Compact any segment, other than the one currently being written, where
+     * the fraction of the segment that contains current data is less than
+     * {@link #getCompactionRatio()}.
+     *
+     * @throws IOException if an error occurs copying the data
+     */
+    public void compact() throws IOException {
+        List<Segment> candidates = new ArrayList<>();
+        synchronized (this) {
+            for (Segment segment : segments.values()) {
+                if (segment != active &&
+                        segment.liveBytes < segment.position * compactionRatio) {
+                    candidates.add(segment);
+                }
+            }
+        }
+        synchronized (compactionLock) {
+            for (Segment segment : candidates) {
+                compact(segment);
+            }
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    /*
+     * Copies the current records, and any removals that may still hide an
+     * older record, to the end of the log and then deletes the segment. The
+     * records are read without holding the Store lock. The Store lock is only
+     * held to append the records that are still required and swap the index
+     * entries to the new copies.
+     */
+    private void compact(Segment segment) throws IOException {
+        boolean oldest;
+        synchronized (this) {
+            if (segments.get(Long.valueOf(segment.sequence)) != segment) {
+                return;
+            }
+            oldest = segments.firstKey().longValue() == segment.sequence;
+        }
+
+        List<byte[]> records = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        Lock readLock = segment.lock.readLock();
+        readLock.lock();
+        try {
+            if (segment.closed) {
+                return;
+            }
+            int offset = 0;
+            while (offset < segment.position) {
+                int length = HEADER_LENGTH + segment.buffer.getInt(offset);
+                byte[] record = segment.read(offset, length);
+                String id = readId(record);
+                if (record[HEADER_LENGTH] == TYPE_SAVE) {
+                    if (isCurrent(index.get(id), segment, offset)) {
+                        records.add(record);
+                        offsets.add(Integer.valueOf(offset));
+                    }
+                } else if (!oldest && !index.containsKey(id)) {
+                    records.add(record);
+                    offsets.add(null);
+                }
+                offset += length;
+            }
+        } finally {
+            readLock.unlock();
+        }
+
+        int copied = 0;
+        synchronized (this) {
+            if (segments.get(Long.valueOf(segment.sequence)) != segment) {
+                return;
+            }
+            for (int i = 0; i < records.size(); i++) {
+                byte[] record = records.get(i);
+                Integer offset = offsets.get(i);
+                String id = readId(record);
+                if (offset != null) {
+                    // The Session may have been saved or removed since the
+                    // segment was read
+                    Location location = index.get(id);
+                    if (isCurrent(location, segment, offset.intValue())) {
+                        Location moved = append(record);
+                        index.put(id, new Location(moved.segment, moved.offset, record.length,
+                                location.expiryTime));
+                        moved.segment.liveBytes += record.length;
+                        copied++;
+                    }
+                } else if (!index.containsKey(id)) {
+                    append(record);
+                }
+            }
+            segments.remove(Long.valueOf(segment.sequence));
+            deleteSegment(segment);
+        }
+        if (manager.getContext().getLogger().isDebugEnabled()) {
+            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".compacted",
+                    segment.file.getAbsolutePath(), Integer.toString(copied)));
+        }
+    }
+
+
+    private static boolean isCurrent(Location location, Segment segment, int offset) {
+        return location != null && location.segment == segment && location.offset == offset;
+    }
+
+
+    private byte[] serialize(Session session) throws IOException {
+        if (manager.getContext().getLogger().isDebugEnabled()) {
+            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".saving",
+                    session.getIdInternal(), directory()));
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = getObjectOutputStream(new BufferedOutputStream(bos))) {
+            ((StandardSession) session).writeObjectData(oos);
+        }
+        long expiryTime;
+        if (session.getMaxInactiveInterval() > 0) {
+            expiryTime = session.getThisAccessedTimeInternal() +
+                    session.getMaxInactiveInterval() * 1000L;
+        } else {
+            expiryTime = Long.MAX_VALUE;
+        }
+        return createRecord(TYPE_SAVE, session.getIdInternal(), expiryTime, bos.toByteArray());
+    }
+
+
+    /*
+     * Record format:
+     * int   length of the record excluding this header
+     * int   CRC32 of the record excluding this header
+     * byte  type
+     * long  expiry time
+     * UTF   session ID
+     * byte* session data
+     */
+    private static byte[] createRecord(byte type, String id, long expiryTime, byte[] data)
+            throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt(0);
+        dos.writeInt(0);
+        dos.writeByte(type);
+        dos.writeLong(expiryTime);
+        dos.writeUTF(id);
+        if (data != null) {
+            dos.write(data);
+        }
+        dos.flush();
+        byte[] record = bos.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER_LENGTH, record.length - HEADER_LENGTH);
+        ByteBuffer header = ByteBuffer.wrap(record);
+        header.putInt(record.length - HEADER_LENGTH);
+        header.putInt((int) crc.getValue());
+        return record;
+    }
+
+
+    private static long readExpiryTime(byte[] record) {
+        return ByteBuffer.wrap(record).getLong(HEADER_LENGTH + 1);
+    }
+
+
+    private static String readId(byte[] record) {
+        int idLength = ((record[HEADER_LENGTH + 9] & 0xFF) << 8) | (record[HEADER_LENGTH + 10] & 0xFF);
+        // Session IDs are ASCII
+        return new String(record, HEADER_LENGTH + 11, idLength, StandardCharsets.UTF_8);
+    }
+
+
+    /*
+     * Offset of the session data from the end of the header.
+     */
+    private static int dataOffset(byte[] record) {
+        int idLength = ((record[HEADER_LENGTH + 9] & 0xFF) << 8) | (record[HEADER_LENGTH + 10] & 0xFF);
+        return 11 + idLength;
+    }
+
+
+    private static boolean isValid(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER_LENGTH, record.length - HEADER_LENGTH);
+        return ByteBuffer.wrap(record).getInt(4) == (int) crc.getValue();
+    }
+
+
+    private void write(String id, byte[] record) throws IOException {
+        Location appended = append(record);
+        Location location = new Location(appended.segment, appended.offset, record.length,
+                readExpiryTime(record));
+        location.segment.liveBytes += record.length;
+        release(index.put(id, location));
+    }
+
+
+    private void release(Location location) {
+        if (location != null) {
+            location.segment.liveBytes -= location.length;
+        }
+    }
+
+
+    /*
+     * Appends the record to the active segment, starting a new segment if
+     * required, and returns where it was written.
+     */
+    private Location append(byte[] record) throws IOException {
+        if (active == null || active.capacity - active.position < record.length) {
+            long sequence = segments.isEmpty() ? 1 : segments.lastKey().longValue() + 1;
+            active = new Segment(sequence, new File(directory(), segmentName(sequence)),
+                    Math.max(segmentSize, record.length));
+            segments.put(Long.valueOf(sequence), active);
+        }
+        int offset = active.position;
+        ByteBuffer buffer = active.buffer.duplicate();
+        buffer.position(offset);
+        buffer.put(record);
+        active.position += record.length;
+        return new Location(active, offset, record.length, 0);
+    }
+
+
+    private void deleteSegment(Segment segment) {
+        // The file cannot be deleted on some platforms while it is mapped
+        segment.close();
+        if (!segment.file.delete() && segment.file.exists()) {
+            manager.getContext().getLogger().warn(sm.getString(
+                    getStoreName() + ".deleteSegmentFailed", segment.file.getAbsolutePath()));
+        }
+    }
+
+
+    private static String segmentName(long sequence) {
+        return String.format("%s%016d%s", SEGMENT_PREFIX, Long.valueOf(sequence), SEGMENT_EXT);
+    }
+
+
+    /*
+     * Rebuild the index by replaying every segment in order.
+     */
+    private synchronized void recover() throws IOException {
+        index.clear();
+        segments.clear();
+        active = null;
+
+        File[] files = directory().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_EXT)) {
+                    try {
+                        long sequence = Long.parseLong(name.substring(
+                                SEGMENT_PREFIX.length(), name.length() - SEGMENT_EXT.length()));
+                        segments.put(Long.valueOf(sequence), new Segment(sequence, file, -1));
+                    } catch (NumberFormatException e) {
+                        // Not a segment
+                    }
+                }
+            }
+        }
+
+        for (Segment segment : segments.values()) {
+            replay(segment);
+            active = segment;
+        }
+
+        if (manager.getContext().getLogger().isDebugEnabled()) {
+            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".recovered",
+                    Integer.toString(index.size()), Integer.toString(segments.size())));
+        }
+    }
+
+
+    private void replay(Segment segment) {
+        int offset = 0;
+        boolean corrupt = false;
+        while (segment.capacity - offset >= HEADER_LENGTH) {
+            int length = segment.buffer.getInt(offset);
+            if (length == 0) {
+                break;
+            }
+            if (length < 11 || length > segment.capacity - offset - HEADER_LENGTH) {
+                corrupt = true;
+                break;
+            }
+            byte[] record = segment.read(offset, HEADER_LENGTH + length);
+            if (!isValid(record)) {
+                corrupt = true;
+                break;
+            }
+            String id = readId(record);
+            if (record[HEADER_LENGTH] == TYPE_SAVE) {
+                Location location = new Location(segment, offset, record.length,
+                        readExpiryTime(record));
+                segment.liveBytes += record.length;
+                release(index.put(id, location));
+            } else {
+                release(index.remove(id));
+            }
+            offset += record.length;
+        }
+        segment.position = offset;
+        segment.synced = offset;
+        if (corrupt) {
+            manager.getContext().getLogger().warn(sm.getString(getStoreName() + ".corrupt",
+                    segment.file.getAbsolutePath(), Integer.toString(offset)));
+            // Remove the partial record so it cannot be mistaken for a
+            // complete record once new records have been appended
+            for (int i = offset; i < segment.capacity; i++) {
+                segment.buffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+
+    /**
+     * Return a File object representing the pathname to our
+     * session persistence directory, if any.  The directory will be
+     * created if it does not already exist.
+     */
+    private File directory() throws IOException {
+        if (this.directoryFile != null) {
+            // NOTE:  Race condition is harmless, so do not synchronize
+            return this.directoryFile;
+        }
+        File file = new File(this.directory);
+        if (!file.isAbsolute()) {
+            Context context = manager.getContext();
+            ServletContext servletContext = context.getServletContext();
+            File work = (File) servletContext.getAttribute(ServletContext.TEMPDIR);
+            file = new File(work, this.directory);
+        }
+        if (!file.exists() || !file.isDirectory()) {
+            if (!file.delete() && file.exists()) {
+                throw new IOException(sm.getString("fileStore.deleteFailed", file));
+            }
+            if (!file.mkdirs() && !file.isDirectory()) {
+                throw new IOException(sm.getString("fileStore.createFailed", file));
+            }
+        }
+        this.directoryFile = file;
+        return file;
+    }
+
+
+    // ------------------------------------------------------ Lifecycle Methods
+
+    /**
+     * Open the segments and rebuild the index of saved Sessions.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that prevents this component from being used
+     */
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        try {
+            recover();
+        } catch (IOException e) {
+            throw new LifecycleException(e);
+        }
+        super.startInternal();
+    }
+
+
+    /**
+     * Write any outstanding data and release the segments.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that prevents this component from being used
+     */
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        for (Segment segment : segments.values()) {
+            segment.sync();
+            segment.close();
+        }
+        index.clear();
+        segments.clear();
+        active = null;
+    }
+
+
+    // ---------------------------------------------------------- Inner classes
+
+    private static final class Segment {
+
+        private final long sequence;
+        private final File file;
+        private final int capacity;
+        private final MappedByteBuffer buffer;
+        // Guarded by the Store
+        private int position = 0;
+        private int liveBytes = 0;
+        // The end of the data that has been forced to the file
+        private int synced = 0;
+        // Prevents the buffer being unmapped while it is read
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        // Guarded by lock
+        private boolean closed = false;
+
+        /*
+         * A capacity of -1 opens an existing segment.
+         */
+        Segment(long sequence, File file, int capacity) throws IOException {
+            this.sequence = sequence;
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                    FileChannel channel = raf.getChannel()) {
+                if (capacity < 0) {
+                    capacity = (int) Math.min(Integer.MAX_VALUE, channel.size());
+                } else {
+                    raf.setLength(capacity);
+                }
+                this.capacity = capacity;
+                // The mapping remains valid once the channel is closed
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+        }
+
+        /*
+         * Returns null if the segment has been closed.
+         */
+        byte[] read(int offset, int length) {
+            Lock readLock = lock.readLock();
+            readLock.lock();
+            try {
+                if (closed) {
+                    return null;
+                }
+                byte[] result = new byte[length];
+                ByteBuffer dup = buffer.duplicate();
+                dup.position(offset);
+                dup.get(result);
+                return result;
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        /*
+         * Forces the data written since the last call to the file. Must be
+         * called with the Store lock held.
+         */
+        void sync() {
+            if (synced >= position) {
+                return;
+            }
+            boolean done = false;
+            if (forceRangeMethod != null) {
+                try {
+                    forceRangeMethod.invoke(buffer, Integer.valueOf(synced),
+                            Integer.valueOf(position - synced));
+                    done = true;
+                } catch (ReflectiveOperationException e) {
+                    // Fall back to forcing the whole segment
+                }
+            }
+            if (!done) {
+                buffer.force();
+            }
+            synced = position;
+        }
+
+        /*
+         * Unmaps the segment. Any later read returns null.
+         */
+        void close() {
+            Lock writeLock = lock.writeLock();
+            writeLock.lock();
+            try {
+                if (!closed) {
+                    closed = true;
+                    ByteBufferUtils.cleanDirectBuffer(buffer);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+
+    private static final class Location {
+
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private final long expiryTime;
+
+        Location(Segment segment, int offset, int length, long expiryTime) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
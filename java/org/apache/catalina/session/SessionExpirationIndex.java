@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.catalina.Session;
+
+/**
+ * Index of sessions by the time at which they may next expire, grouped into
+ * buckets of a fixed duration. The index allows the manager to check only
+ * those sessions that may have expired rather than every session.
+ * <p>
+ * The index is updated lazily. Accessing a session only ever moves its
+ * expiration time later so access does not update the index. Instead, when a
+ * bucket becomes due each session in it is checked and any session that is
+ * still valid is re-inserted based on its current expiration time. Changes
+ * that can move the expiration time earlier, such as reducing the maximum
+ * inactive interval, must re-schedule the session.
+ */
+final class SessionExpirationIndex {
+
+    private final long tickMillis;
+
+    private final ConcurrentNavigableMap<Long,Bucket> buckets = new ConcurrentSkipListMap<>();
+
+
+    SessionExpirationIndex(long tickMillis) {
+        this.tickMillis = tickMillis;
+    }
+
+
+    /**
+     * Add the session to the index, removing it from its current position if
+     * necessary. Sessions that never expire due to inactivity are not added.
+     *
+     * @param session The session to add
+     * @param timeNow The current time in milliseconds since the epoch
+     */
+    void schedule(Session session, long timeNow) {
+        unschedule(session);
+
+        long expirationTime = getExpirationTime(session, timeNow);
+        if (expirationTime < 0) {
+            return;
+        }
+        if (expirationTime <= timeNow) {
+            // Still valid but past the expiration time, e.g. a request is in
+            // progress. Check again in the next bucket.
+            expirationTime = timeNow + tickMillis;
+        }
+        // Round up so a bucket is only due once all its sessions may expire
+        Long tick = Long.valueOf((expirationTime + tickMillis - 1) / tickMillis);
+
+        while (true) {
+            Bucket bucket = buckets.get(tick);
+            if (bucket == null) {
+                Bucket newBucket = new Bucket();
+                bucket = buckets.putIfAbsent(tick, newBucket);
+                if (bucket == null) {
+                    bucket = newBucket;
+                }
+            }
+            synchronized (bucket) {
+                // A closed bucket has been removed from the map by
+                // pollExpired() so a new bucket will be created
+                if (!bucket.closed) {
+                    bucket.sessions.add(session);
+                    if (session instanceof StandardSession) {
+                        ((StandardSession) session).expirationBucket = bucket;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Remove the session from the index. Only instances of
+     * {@link StandardSession} record their position in the index. Other
+     * sessions remain in the index until their bucket becomes due.
+     *
+     * @param session The session to remove
+     */
+    void unschedule(Session session) {
+        if (session instanceof StandardSession) {
+            StandardSession standardSession = (StandardSession) session;
+            Bucket bucket = standardSession.expirationBucket;
+            if (bucket != null) {
+                synchronized (bucket) {
+                    bucket.sessions.remove(session);
+                    if (standardSession.expirationBucket == bucket) {
+                        standardSession.expirationBucket = null;
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Remove and return all the sessions in buckets that are due at the given
+     * time. The caller is responsible for checking each session and
+     * re-scheduling any session that is still valid.
+     *
+     * @param timeNow The current time in milliseconds since the epoch
+     *
+     * @return The sessions that may have expired
+     */
+    synchronized List<Session> pollExpired(long timeNow) {
+        List<Session> result = new ArrayList<>();
+        Map<Long,Bucket> due = buckets.headMap(Long.valueOf(timeNow / tickMillis), true);
+        for (Map.Entry<Long,Bucket> entry : due.entrySet()) {
+            Bucket bucket = entry.getValue();
+            buckets.remove(entry.getKey());
+            synchronized (bucket) {
+                bucket.closed = true;
+                for (Session session : bucket.sessions) {
+                    if (session instanceof StandardSession) {
+                        StandardSession standardSession = (StandardSession) session;
+                        if (standardSession.expirationBucket == bucket) {
+                            standardSession.expirationBucket = null;
+                        }
+                    }
+                    result.add(session);
+                }
+                bucket.sessions.clear();
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * @return The number of sessions in the index. This is an expensive
+     *         operation and is intended for testing and monitoring only.
+     */
+    int size() {
+        int size = 0;
+        for (Bucket bucket : buckets.values()) {
+            synchronized (bucket) {
+                size += bucket.sessions.size();
+            }
+        }
+        return size;
+    }
+
+
+    void clear() {
+        for (Bucket bucket : buckets.values()) {
+            synchronized (bucket) {
+                bucket.closed = true;
+                for (Session session : bucket.sessions) {
+                    if (session instanceof StandardSession) {
+                        ((StandardSession) session).expirationBucket = null;
+                    }
+                }
+                bucket.sessions.clear();
+            }
+        }
+        buckets.clear();
+    }
+
+
+    private static long getExpirationTime(Session session, long timeNow) {
+        if (session instanceof StandardSession) {
+            return ((StandardSession) session).getExpirationTimeInternal();
+        }
+        int maxInactiveInterval = session.getMaxInactiveInterval();
+        if (maxInactiveInterval <= 0) {
+            return -1;
+        }
+        return timeNow - session.getIdleTimeInternal() + maxInactiveInterval * 1000L;
+    }
+
+
+    static final class Bucket {
+        private final Set<Session> sessions = new HashSet<>();
+        private boolean closed = false;
+    }
+}
@@ -206,9 +206,12 @@ public class StandardManager extends ManagerBase {
 
             // Load the previously unloaded active sessions
             synchronized (sessions) {
-                try (ObjectInputStream ois = new CustomObjectInputStream(bis, classLoader, logger,
-                        getSessionAttributeValueClassNamePattern(),
-                        getWarnOnSessionAttributeFilterFailure())) {
+                final ClassLoader cl = classLoader;
+                final Log l = logger;
+                try (ObjectInputStream ois = getSessionObjectInputStream(bis,
+                        is -> new CustomObjectInputStream(is, cl, l,
+                                getSessionAttributeValueClassNamePattern(),
+                                getWarnOnSessionAttributeFilterFailure()))) {
                     Integer count = (Integer) ois.readObject();
                     int n = count.intValue();
                     if (log.isDebugEnabled())
@@ -218,6 +221,7 @@ public class StandardManager extends ManagerBase {
                         session.readObjectData(ois);
                         session.setManager(this);
                         sessions.put(session.getIdInternal(), session);
+                        rescheduleExpiration(session);
                         session.activate();
                         if (!session.isValidInternal()) {
                             // If session is already invalid,
@@ -300,7 +304,7 @@ public class StandardManager extends ManagerBase {
 
         try (FileOutputStream fos = new FileOutputStream(file.getAbsolutePath());
                 BufferedOutputStream bos = new BufferedOutputStream(fos);
-                ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+                ObjectOutputStream oos = getSessionObjectOutputStream(bos)) {
 
             synchronized (sessions) {
                 if (log.isDebugEnabled()) {
@@ -29,6 +29,7 @@ import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -37,7 +38,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpSession;
@@ -208,6 +211,33 @@ public class StandardSession implements HttpSession, Session, Serializable {
     protected volatile int maxInactiveInterval = -1;
 
 
+    /**
+     * The bucket, if any, of the manager's expiration index that currently
+     * holds this session.
+     */
+    transient volatile SessionExpirationIndex.Bucket expirationBucket = null;
+
+
+    /**
+     * Incremented each time an attribute is added, replaced, removed or
+     * marked as modified. Components that persist or replicate the session
+     * may compare this with the value when the session was last written to
+     * determine if the attributes may have changed.
+     */
+    protected transient volatile long attributesVersion = 0;
+
+    private static final AtomicLongFieldUpdater<StandardSession> attributesVersionUpdater =
+            AtomicLongFieldUpdater.newUpdater(StandardSession.class, "attributesVersion");
+
+
+    /**
+     * The sets, one per caller of {@link #startAttributeAccessTracking()},
+     * to which the names of the attributes that are read or written are
+     * added, or <code>null</code> if attribute access is not being tracked.
+     */
+    protected transient volatile List<Set<String>> attributeAccessTrackers = null;
+
+
     /**
      * Flag indicating whether this session is new or not.
      */
@@ -573,6 +603,42 @@ public class StandardSession implements HttpSession, Session, Serializable {
     @Override
     public void setMaxInactiveInterval(int interval) {
         this.maxInactiveInterval = interval;
+        expirationTimeChanged();
+    }
+
+
+    /**
+     * Inform the Manager that the expiration time has changed, e.g. because
+     * the maximum inactive interval has changed, so the time at which the
+     * session is checked for expiration can be updated. Sub-classes that set
+     * {@link #maxInactiveInterval} directly or that otherwise change the
+     * expiration time should call this method.
+     */
+    protected void expirationTimeChanged() {
+        if (id != null && manager instanceof ManagerBase) {
+            ((ManagerBase) manager).rescheduleExpiration(this);
+        }
+    }
+
+
+    /**
+     * Return the time at which this session will expire if it is not accessed
+     * again.
+     *
+     * @return the expiration time in milliseconds since the epoch or -1 if
+     *         the session never expires due to inactivity
+     */
+    protected long getExpirationTimeInternal() {
+        if (maxInactiveInterval <= 0) {
+            return -1;
+        }
+        long lastAccess;
+        if (LAST_ACCESS_AT_START) {
+            lastAccess = lastAccessedTime;
+        } else {
+            lastAccess = thisAccessedTime;
+        }
+        return lastAccess + maxInactiveInterval * 1000L;
     }
 
 
@@ -952,6 +1018,89 @@ public class StandardSession implements HttpSession, Session, Serializable {
     }
 
 
+    /**
+     * @return the number of times an attribute has been added, replaced,
+     *         removed or marked as modified while this session has been in
+     *         memory.
+     */
+    public long getAttributesVersion() {
+        return attributesVersion;
+    }
+
+
+    /**
+     * Record that the value of an attribute has been modified without the
+     * attribute being set again, for example because a mutable object stored
+     * as an attribute has been changed. The session will be treated as
+     * modified when it is next persisted or replicated.
+     *
+     * @param name The name of the modified attribute
+     */
+    public void markAttributeDirty(String name) {
+        if (name != null && attributes.containsKey(name)) {
+            attributesVersionUpdater.incrementAndGet(this);
+        }
+    }
+
+
+    /**
+     * Start tracking the names of the attributes that are read or written.
+     * Each caller, typically a single request, is given its own set of names
+     * so that stopping tracking for one caller does not discard the names
+     * that another caller, such as a concurrent request for the same session,
+     * has yet to process. Access by any caller is added to every set.
+     *
+     * @return The set to which the names of the attributes read or written
+     *         will be added until tracking is stopped
+     */
+    public Set<String> startAttributeAccessTracking() {
+        Set<String> names = ConcurrentHashMap.newKeySet();
+        synchronized (this) {
+            if (attributeAccessTrackers == null) {
+                attributeAccessTrackers = new CopyOnWriteArrayList<>();
+            }
+            attributeAccessTrackers.add(names);
+        }
+        return names;
+    }
+
+
+    /**
+     * Stop tracking attribute access for the given set of names and obtain
+     * the attributes that were read or written while it was tracked.
+     * Attributes that have since been removed are not included. Obtaining the
+     * attributes via this method does not itself count as reading them.
+     *
+     * @param names The set returned by {@link #startAttributeAccessTracking()}
+     *
+     * @return The current values of the attributes, keyed by name
+     */
+    public Map<String,Object> stopAttributeAccessTracking(Set<String> names) {
+        List<Set<String>> trackers = attributeAccessTrackers;
+        if (trackers != null) {
+            trackers.remove(names);
+        }
+        Map<String,Object> result = new HashMap<>();
+        for (String name : names) {
+            Object value = attributes.get(name);
+            if (value != null) {
+                result.put(name, value);
+            }
+        }
+        return result;
+    }
+
+
+    private void attributeAccessed(String name) {
+        List<Set<String>> trackers = attributeAccessTrackers;
+        if (trackers != null) {
+            for (Set<String> names : trackers) {
+                names.add(name);
+            }
+        }
+    }
+
+
     /**
      * Release all object references, and initialize instance variables, in
      * preparation for reuse of this object.
@@ -972,6 +1121,7 @@ public class StandardSession implements HttpSession, Session, Serializable {
         isNew = false;
         isValid = false;
         manager = null;
+        attributeAccessTrackers = null;
 
     }
 
@@ -1146,6 +1296,8 @@ public class StandardSession implements HttpSession, Session, Serializable {
 
         if (name == null) return null;
 
+        attributeAccessed(name);
+
         return attributes.get(name);
     }
 
@@ -1439,6 +1591,8 @@ public class StandardSession implements HttpSession, Session, Serializable {
 
         // Replace or add this attribute
         Object unbound = attributes.put(name, value);
+        attributesVersionUpdater.incrementAndGet(this);
+        attributeAccessed(name);
 
         // Call the valueUnbound() method if necessary
         if (notify && unbound instanceof HttpSessionBindingListener) {
@@ -1771,6 +1925,9 @@ public class StandardSession implements HttpSession, Session, Serializable {
 
         // Remove this attribute from our collection
         Object value = attributes.remove(name);
+        if (value != null) {
+            attributesVersionUpdater.incrementAndGet(this);
+        }
 
         // Do we need to do valueUnbound() and attributeRemoved() notification?
         if (!notify || (value == null)) {
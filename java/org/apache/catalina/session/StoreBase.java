@@ -23,10 +23,14 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.List;
 
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.LifecycleState;
 import org.apache.catalina.Manager;
+import org.apache.catalina.Session;
 import org.apache.catalina.Store;
 import org.apache.catalina.util.CustomObjectInputStream;
 import org.apache.catalina.util.LifecycleBase;
@@ -129,6 +133,45 @@ public abstract class StoreBase extends LifecycleBase implements Store {
         return keys();
     }
 
+    /**
+     * Save the given sessions to the Store. The default implementation calls
+     * {@link #save(Session)} for each session in turn.
+     * Stores that can save several sessions more efficiently than one at a
+     * time should override this method.
+     *
+     * @param sessions The sessions to save
+     *
+     * @exception IOException if an input/output error occurs. Some of the
+     *            sessions may have been saved.
+     */
+    public void saveAll(List<Session> sessions) throws IOException {
+        for (Session session : sessions) {
+            save(session);
+        }
+    }
+
+    /**
+     * Load the sessions with the given session identifiers from the Store.
+     * The default implementation calls {@link #load(String)} for each
+     * identifier in turn. Stores that can load several sessions more
+     * efficiently than one at a time should override this method.
+     *
+     * @param ids The session identifiers of the sessions to load
+     *
+     * @return The sessions in the same order as the identifiers, with
+     *         <code>null</code> for any session that is not present
+     *
+     * @exception ClassNotFoundException if a deserialization error occurs
+     * @exception IOException if an input/output error occurs
+     */
+    public Session[] loadAll(String[] ids) throws ClassNotFoundException, IOException {
+        Session[] sessions = new Session[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            sessions[i] = load(ids[i]);
+        }
+        return sessions;
+    }
+
     /**
      * Called by our background reaper thread to check if Sessions
      * saved in our store are subject of being expired. If so expire
@@ -217,19 +260,38 @@ public abstract class StoreBase extends LifecycleBase implements Store {
     protected ObjectInputStream getObjectInputStream(InputStream is) throws IOException {
         BufferedInputStream bis = new BufferedInputStream(is);
 
-        CustomObjectInputStream ois;
         ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 
         if (manager instanceof ManagerBase) {
             ManagerBase managerBase = (ManagerBase) manager;
-            ois = new CustomObjectInputStream(bis, classLoader, manager.getContext().getLogger(),
-                    managerBase.getSessionAttributeValueClassNamePattern(),
-                    managerBase.getWarnOnSessionAttributeFilterFailure());
+            return managerBase.getSessionObjectInputStream(bis,
+                    javaIs -> new CustomObjectInputStream(javaIs, classLoader,
+                            manager.getContext().getLogger(),
+                            managerBase.getSessionAttributeValueClassNamePattern(),
+                            managerBase.getWarnOnSessionAttributeFilterFailure()));
         } else {
-            ois = new CustomObjectInputStream(bis, classLoader);
+            return new CustomObjectInputStream(bis, classLoader);
         }
+    }
 
-        return ois;
+
+    /**
+     * Create the object output stream to use to write a session to the store.
+     *
+     * @param os The output stream provided by the sub-class to which the data
+     *           for a session will be written
+     *
+     * @return An appropriately configured ObjectOutputStream to which the
+     *         session should be written.
+     *
+     * @throws IOException if a problem occurs creating the ObjectOutputStream
+     */
+    protected ObjectOutputStream getObjectOutputStream(OutputStream os) throws IOException {
+        if (manager instanceof ManagerBase) {
+            return ((ManagerBase) manager).getSessionObjectOutputStream(os);
+        } else {
+            return new ObjectOutputStream(os);
+        }
     }
 
 
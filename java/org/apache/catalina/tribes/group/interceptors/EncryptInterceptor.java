@@ -111,13 +111,11 @@ public class EncryptInterceptor extends ChannelInterceptorBase implements Encryp
     public void sendMessage(Member[] destination, ChannelMessage msg, InterceptorPayload payload)
             throws ChannelException {
         try {
-            byte[] data = msg.getMessage().getBytes();
-
-            // See #encrypt(byte[]) for an explanation of the return value
-            byte[][] bytes = encryptionManager.encrypt(data);
-
             XByteBuffer xbb = msg.getMessage();
 
+            // See #encrypt(byte[], int, int) for an explanation of the return value
+            byte[][] bytes = encryptionManager.encrypt(xbb.getBytesDirect(), 0, xbb.getLength());
+
             // Completely replace the message
             xbb.clear();
             xbb.append(bytes[0], 0, bytes[0].length);
@@ -134,12 +132,10 @@ public class EncryptInterceptor extends ChannelInterceptorBase implements Encryp
     @Override
     public void messageReceived(ChannelMessage msg) {
         try {
-            byte[] data = msg.getMessage().getBytes();
-
-            data = encryptionManager.decrypt(data);
-
             XByteBuffer xbb = msg.getMessage();
 
+            byte[] data = encryptionManager.decrypt(xbb.getBytesDirect(), 0, xbb.getLength());
+
             // Completely replace the message with the decrypted one
             xbb.clear();
             xbb.append(data, 0, data.length);
@@ -480,13 +476,15 @@ public class EncryptInterceptor extends ChannelInterceptorBase implements Encryp
          * concatenated one to reduce the number of byte buffers created
          * and copied during the whole operation -- including message re-building.
          *
-         * @param bytes The data to encrypt.
+         * @param bytes The array containing the data to encrypt.
+         * @param offset The offset of the data in the array.
+         * @param length The length of the data.
          *
          * @return The IV in [0] and the encrypted data in [1].
          *
          * @throws GeneralSecurityException If the input data cannot be encrypted.
          */
-        private byte[][] encrypt(byte[] bytes) throws GeneralSecurityException {
+        private byte[][] encrypt(byte[] bytes, int offset, int length) throws GeneralSecurityException {
             Cipher cipher = null;
 
             // Always use a random IV For cipher setup.
@@ -501,7 +499,7 @@ public class EncryptInterceptor extends ChannelInterceptorBase implements Encryp
                 // Prepend the IV to the beginning of the encrypted data
                 byte[][] data = new byte[2][];
                 data[0] = iv;
-                data[1] = cipher.doFinal(bytes);
+                data[1] = cipher.doFinal(bytes, offset, length);
 
                 return data;
             } finally {
@@ -513,17 +511,19 @@ public class EncryptInterceptor extends ChannelInterceptorBase implements Encryp
         /**
          * Decrypts the input <code>bytes</code>.
          *
-         * @param bytes The data to decrypt.
+         * @param bytes The array containing the data to decrypt.
+         * @param offset The offset of the data in the array.
+         * @param length The length of the data.
          *
          * @return The decrypted data.
          *
          * @throws GeneralSecurityException If the input data cannot be decrypted.
          */
-        private byte[] decrypt(byte[] bytes) throws GeneralSecurityException {
+        private byte[] decrypt(byte[] bytes, int offset, int length) throws GeneralSecurityException {
             Cipher cipher = null;
 
             int ivSize = getIVSize();
-            AlgorithmParameterSpec IV = generateIV(bytes, 0, ivSize);
+            AlgorithmParameterSpec IV = generateIV(bytes, offset, ivSize);
 
             try {
                 cipher = getCipher();
@@ -531,7 +531,7 @@ public class EncryptInterceptor extends ChannelInterceptorBase implements Encryp
                 cipher.init(Cipher.DECRYPT_MODE, getSecretKey(), IV);
 
                 // Decrypt remainder of the message.
-                return cipher.doFinal(bytes, ivSize, bytes.length - ivSize);
+                return cipher.doFinal(bytes, offset + ivSize, length - ivSize);
             } finally {
                 if(null != cipher)
                     returnCipher(cipher);
@@ -20,6 +20,7 @@ package org.apache.catalina.tribes.group.interceptors;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
 
 import org.apache.catalina.tribes.ChannelException;
 import org.apache.catalina.tribes.ChannelMessage;
@@ -41,6 +42,10 @@ import org.apache.juli.logging.LogFactory;
  * FragmentationInterceptor.expire=&lt;milliseconds&gt; - how long do we keep the fragments in memory and wait for the rest to arrive <b>default=60,000ms -&gt; 60seconds</b>
  * This setting is useful to avoid OutOfMemoryErrors<br>
  * FragmentationInterceptor.maxSize=&lt;max message size&gt; - message size in bytes <b>default=1024*100 (around a tenth of a MB)</b><br>
+ * FragmentationInterceptor.maxConcurrentFragments=&lt;number of fragments&gt; - how many fragments of large messages
+ * may be sent at the same time, which leaves the remaining senders of a pooled sender free for the messages that are
+ * not fragmented. Those never wait here, but this does not give them priority over the fragments already being sent
+ * <b>default=-1 (unlimited)</b><br>
  * @version 1.0
  */
 public class FragmentationInterceptor extends ChannelInterceptorBase implements FragmentationInterceptorMBean {
@@ -50,6 +55,8 @@ public class FragmentationInterceptor extends ChannelInterceptorBase implements
     protected final HashMap<FragKey, FragCollection> fragpieces = new HashMap<>();
     private int maxSize = 1024*100;
     private long expire = 1000 * 60; //one minute expiration
+    private int maxConcurrentFragments = -1;
+    private volatile Semaphore fragmentPermits = null;
     protected final boolean deepclone = true;
 
 
@@ -98,44 +105,82 @@ public class FragmentationInterceptor extends ChannelInterceptorBase implements
     public void defrag(ChannelMessage msg ) {
         FragKey key = new FragKey(msg.getUniqueId());
         FragCollection coll = getFragCollection(key,msg);
-        coll.addMessage((ChannelMessage)msg.deepclone());
-
-        if ( coll.complete() ) {
-            removeFragCollection(key);
-            ChannelMessage complete = coll.assemble();
+        ChannelMessage complete = null;
+        // Fragments of the same message may be received by different threads
+        synchronized (coll) {
+            coll.addMessage((ChannelMessage)msg.clone());
+            if ( coll.complete() ) {
+                removeFragCollection(key);
+                complete = coll.assemble();
+            }
+        }
+        if ( complete != null ) {
             super.messageReceived(complete);
-
         }
     }
 
     public void frag(Member[] destination, ChannelMessage msg, InterceptorPayload payload) throws ChannelException {
-        int size = msg.getMessage().getLength();
+        XByteBuffer data = msg.getMessage();
+        int size = data.getLength();
 
         int count = ((size / maxSize )+(size%maxSize==0?0:1));
-        ChannelMessage[] messages = new ChannelMessage[count];
+        // Detach the payload so that cloning the message does not copy it
+        // once per fragment
+        ChannelMessage template;
+        msg.setMessage(null);
+        try {
+            template = (ChannelMessage)msg.clone();
+        } finally {
+            msg.setMessage(data);
+        }
         int remaining = size;
         for ( int i=0; i<count; i++ ) {
-            ChannelMessage tmp = (ChannelMessage)msg.clone();
             int offset = (i*maxSize);
             int length = Math.min(remaining,maxSize);
-            tmp.getMessage().clear();
-            tmp.getMessage().append(msg.getMessage().getBytesDirect(),offset,length);
+            ChannelMessage tmp = (ChannelMessage)template.clone();
+            //the fragment data, msg nr, total nr and frag flag
+            tmp.setMessage(new XByteBuffer(length+9,false));
+            tmp.getMessage().append(data.getBytesDirect(),offset,length);
             //add the msg nr
-            //tmp.getMessage().append(XByteBuffer.toBytes(i),0,4);
             tmp.getMessage().append(i);
             //add the total nr of messages
-            //tmp.getMessage().append(XByteBuffer.toBytes(count),0,4);
             tmp.getMessage().append(count);
             //add true as the frag flag
-            //byte[] flag = XByteBuffer.toBytes(true);
-            //tmp.getMessage().append(flag,0,flag.length);
             tmp.getMessage().append(true);
-            messages[i] = tmp;
             remaining -= length;
+            sendFragment(destination, tmp, payload);
+        }
+    }
 
+    /**
+     * Sends a single fragment. When the number of concurrent fragments is
+     * limited, the fragments of messages that are sent at the same time take
+     * turns in the order they are queued. This only bounds the number of
+     * senders used by fragments; messages are not otherwise prioritized or
+     * interleaved on a connection.
+     *
+     * @param destination The destination members
+     * @param fragment    The fragment to send
+     * @param payload     The payload of the original message
+     * @throws ChannelException Error sending the fragment
+     */
+    protected void sendFragment(Member[] destination, ChannelMessage fragment, InterceptorPayload payload)
+            throws ChannelException {
+        Semaphore permits = fragmentPermits;
+        if (permits == null) {
+            super.sendMessage(destination, fragment, payload);
+            return;
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ChannelException(sm.getString("fragmentationInterceptor.send.interrupted"), e);
         }
-        for ( int i=0; i<messages.length; i++ ) {
-            super.sendMessage(destination,messages[i],payload);
+        try {
+            super.sendMessage(destination, fragment, payload);
+        } finally {
+            permits.release();
         }
     }
 
@@ -177,6 +222,22 @@ public class FragmentationInterceptor extends ChannelInterceptorBase implements
         this.expire = expire;
     }
 
+    @Override
+    public int getMaxConcurrentFragments() {
+        return maxConcurrentFragments;
+    }
+
+    @Override
+    public void setMaxConcurrentFragments(int maxConcurrentFragments) {
+        this.maxConcurrentFragments = maxConcurrentFragments;
+        if (maxConcurrentFragments > 0) {
+            // Fair, so that waiting messages take turns
+            fragmentPermits = new Semaphore(maxConcurrentFragments, true);
+        } else {
+            fragmentPermits = null;
+        }
+    }
+
     public static class FragCollection {
         private final long received = System.currentTimeMillis();
         private final ChannelMessage msg;
@@ -26,4 +26,8 @@ public interface FragmentationInterceptorMBean {
     public void setMaxSize(int maxSize);
 
     public void setExpire(long expire);
+
+    public int getMaxConcurrentFragments();
+
+    public void setMaxConcurrentFragments(int maxConcurrentFragments);
 }
\ No newline at end of file
@@ -17,25 +17,36 @@
 
 package org.apache.catalina.tribes.group.interceptors;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
 import org.apache.catalina.tribes.ChannelException;
 import org.apache.catalina.tribes.ChannelMessage;
 import org.apache.catalina.tribes.Member;
 import org.apache.catalina.tribes.group.ChannelInterceptorBase;
 import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.io.XByteBuffer;
 import org.apache.catalina.tribes.util.StringManager;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 
 
 /**
+ * Compresses messages using the GZIP format. Messages that are not larger
+ * than {@link #getCompressionMinSize()} or that are sent with one of the
+ * {@link #getNoCompressionOptions()} flags are sent uncompressed. When
+ * {@link #getMinCompressionRatio()} is set, the ratio achieved is sampled
+ * and compression is suspended for a number of messages while the messages
+ * do not compress well enough to be worth the CPU time.
+ *
  * @version 1.0
  */
 public class GzipInterceptor extends ChannelInterceptorBase implements GzipInterceptorMBean {
@@ -46,10 +57,36 @@ public class GzipInterceptor extends ChannelInterceptorBase implements GzipInter
     public static final int DEFAULT_BUFFER_SIZE = 2048;
     public static final int DEFAULT_OPTION_COMPRESSION_ENABLE = 0x0100;
 
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final byte[] GZIP_HEADER = new byte[] {
+            (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    // Deflater and Inflater hold native memory that is expensive to allocate.
+    // The pools are shared by every channel so only enough are kept for each
+    // processor to compress and decompress at once, the others are ended.
+    static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    static final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    static final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
     private int compressionMinSize = 0;
+    private int noCompressionOptions = 0;
+    private double minCompressionRatio = 0;
+    private int sampleSize = 100;
+    private int suspendedMessages = 1000;
     private volatile boolean statsEnabled = false;
     private int interval = 0;
 
+    // Sampling of the compression ratio
+    private final Object sampleLock = new Object();
+    private long sampleUncompressedSize = 0;
+    private long sampleCompressedSize = 0;
+    private int sampleCount = 0;
+    private final AtomicInteger suspendedRemaining = new AtomicInteger();
+
     // Stats
     private final AtomicInteger count = new AtomicInteger();
     private final AtomicInteger countCompressedTX = new AtomicInteger();
@@ -62,6 +99,9 @@ public class GzipInterceptor extends ChannelInterceptorBase implements GzipInter
     private final AtomicLong sizeRX = new AtomicLong();
     private final AtomicLong compressedSizeRX = new AtomicLong();
     private final AtomicLong uncompressedSizeRX = new AtomicLong();
+    private final AtomicLong compressionTime = new AtomicLong();
+    private final AtomicLong decompressionTime = new AtomicLong();
+    private final AtomicInteger countSuspended = new AtomicInteger();
 
 
     public GzipInterceptor() {
@@ -73,26 +113,31 @@ public class GzipInterceptor extends ChannelInterceptorBase implements GzipInter
     public void sendMessage(Member[] destination, ChannelMessage msg, InterceptorPayload payload)
             throws ChannelException {
         try {
-            byte[] data = msg.getMessage().getBytes();
+            XByteBuffer data = msg.getMessage();
             if (statsEnabled) {
-                sizeTX.addAndGet(data.length);
+                sizeTX.addAndGet(data.getLength());
             }
 
-            if (data.length > compressionMinSize) {
-                data = compress(data);
+            if (shouldCompress(msg)) {
+                long start = statsEnabled ? System.nanoTime() : 0;
+                int uncompressedSize = data.getLength();
+                // Compressed straight from the message buffer into the buffer
+                // that replaces it
+                data = compress(data.getBytesDirect(), 0, data.getLength());
+                msg.setMessage(data);
                 // Set the flag that indicates that the message is compressed
                 msg.setOptions(msg.getOptions() | getOptionFlag());
                 if (statsEnabled) {
+                    compressionTime.addAndGet(System.nanoTime() - start);
                     countCompressedTX.incrementAndGet();
-                    compressedSizeTX.addAndGet(data.length);
+                    compressedSizeTX.addAndGet(data.getLength());
                 }
+                sample(uncompressedSize, data.getLength());
             } else if (statsEnabled){
                 countUncompressedTX.incrementAndGet();
-                uncompressedSizeTX.addAndGet(data.length);
+                uncompressedSizeTX.addAndGet(data.getLength());
             }
 
-            msg.getMessage().trim(msg.getMessage().getLength());
-            msg.getMessage().append(data,0,data.length);
             super.sendMessage(destination, msg, payload);
 
             int currentCount = count.incrementAndGet();
@@ -109,25 +154,28 @@ public class GzipInterceptor extends ChannelInterceptorBase implements GzipInter
     @Override
     public void messageReceived(ChannelMessage msg) {
         try {
-            byte[] data = msg.getMessage().getBytes();
+            XByteBuffer data = msg.getMessage();
             if ((msg.getOptions() & getOptionFlag()) > 0) {
                 if (statsEnabled) {
                     countCompressedRX.incrementAndGet();
-                    compressedSizeRX.addAndGet(data.length);
+                    compressedSizeRX.addAndGet(data.getLength());
                 }
                 // Message was compressed
-                data = decompress(data);
+                long start = statsEnabled ? System.nanoTime() : 0;
+                data = decompress(data.getBytesDirect(), 0, data.getLength());
+                msg.setMessage(data);
+                if (statsEnabled) {
+                    decompressionTime.addAndGet(System.nanoTime() - start);
+                }
             } else if (statsEnabled) {
                 countUncompressedRX.incrementAndGet();
-                uncompressedSizeRX.addAndGet(data.length);
+                uncompressedSizeRX.addAndGet(data.getLength());
             }
 
             if (statsEnabled) {
-                sizeRX.addAndGet(data.length);
+                sizeRX.addAndGet(data.getLength());
             }
 
-            msg.getMessage().trim(msg.getMessage().getLength());
-            msg.getMessage().append(data,0,data.length);
             super.messageReceived(msg);
 
             int currentCount = count.incrementAndGet();
@@ -140,13 +188,93 @@ public class GzipInterceptor extends ChannelInterceptorBase implements GzipInter
     }
 
 
+    /**
+     * @param msg The message to be sent
+     * @return {@code true} if the message should be compressed
+     */
+    protected boolean shouldCompress(ChannelMessage msg) {
+        if (msg.getMessage().getLength() <= compressionMinSize ||
+                (msg.getOptions() & noCompressionOptions) != 0) {
+            return false;
+        }
+        if (suspendedRemaining.get() > 0 && suspendedRemaining.getAndDecrement() > 0) {
+            return false;
+        }
+        return true;
+    }
+
+
+    /*
+     * Adds a compressed message to the current sample and, once the sample is
+     * complete, suspends compression if the ratio is too low.
+     */
+    private void sample(int uncompressedSize, int compressedSize) {
+        if (minCompressionRatio <= 0) {
+            return;
+        }
+        synchronized (sampleLock) {
+            sampleUncompressedSize += uncompressedSize;
+            sampleCompressedSize += compressedSize;
+            if (++sampleCount < sampleSize) {
+                return;
+            }
+            double ratio = (double) sampleUncompressedSize / sampleCompressedSize;
+            sampleUncompressedSize = 0;
+            sampleCompressedSize = 0;
+            sampleCount = 0;
+            if (ratio < minCompressionRatio) {
+                suspendedRemaining.set(suspendedMessages);
+                countSuspended.incrementAndGet();
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("gzipInterceptor.suspended", Double.toString(ratio),
+                            Integer.toString(suspendedMessages)));
+                }
+            }
+        }
+    }
+
+
     public static byte[] compress(byte[] data) throws IOException {
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
-        GZIPOutputStream gout = new GZIPOutputStream(bout);
-        gout.write(data);
-        gout.flush();
-        gout.close();
-        return bout.toByteArray();
+        return compress(data, 0, data.length).getBytes();
+    }
+
+
+    /**
+     * @param data   The array containing the data to compress
+     * @param offset The offset of the data in the array
+     * @param length The length of the data
+     * @return       A new buffer containing the compressed data
+     * @throws IOException Compression error
+     */
+    public static XByteBuffer compress(byte[] data, int offset, int length) throws IOException {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        try {
+            XByteBuffer result = new XByteBuffer(Math.max(length / 2, DEFAULT_BUFFER_SIZE), false);
+            result.append(GZIP_HEADER, 0, GZIP_HEADER.length);
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (result.getLength() == result.getCapacity()) {
+                    result.expand(result.getCapacity() + 1);
+                }
+                int written = deflater.deflate(result.getBytesDirect(), result.getLength(),
+                        result.getCapacity() - result.getLength());
+                result.setLength(result.getLength() + written);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, offset, length);
+            appendIntLE(result, (int) crc.getValue());
+            appendIntLE(result, length);
+            return result;
+        } finally {
+            deflater.reset();
+            if (!deflaters.offer(deflater)) {
+                deflater.end();
+            }
+        }
     }
 
 
@@ -156,17 +284,103 @@ public class GzipInterceptor extends ChannelInterceptorBase implements GzipInter
      * @throws IOException Compression error
      */
     public static byte[] decompress(byte[] data) throws IOException {
-        ByteArrayOutputStream bout =
-            new ByteArrayOutputStream(DEFAULT_BUFFER_SIZE);
-        ByteArrayInputStream bin = new ByteArrayInputStream(data);
-        GZIPInputStream gin = new GZIPInputStream(bin);
-        byte[] tmp = new byte[DEFAULT_BUFFER_SIZE];
-        int length = gin.read(tmp);
-        while (length > -1) {
-            bout.write(tmp, 0, length);
-            length = gin.read(tmp);
+        return decompress(data, 0, data.length).getBytes();
+    }
+
+
+    /**
+     * @param data   The array containing the data to decompress
+     * @param offset The offset of the data in the array
+     * @param length The length of the data
+     * @return       A new buffer containing the decompressed data
+     * @throws IOException Compression error
+     */
+    public static XByteBuffer decompress(byte[] data, int offset, int length) throws IOException {
+        int end = offset + length;
+        int pos = skipHeader(data, offset, end);
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            XByteBuffer result = new XByteBuffer(Math.max(length * 2, DEFAULT_BUFFER_SIZE), false);
+            inflater.setInput(data, pos, end - pos);
+            // Inflate straight into the result buffer, growing it as needed
+            while (!inflater.finished()) {
+                if (result.getLength() == result.getCapacity()) {
+                    result.expand(result.getCapacity() + 1);
+                }
+                int read = inflater.inflate(result.getBytesDirect(), result.getLength(),
+                        result.getCapacity() - result.getLength());
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ZipException(sm.getString("gzipInterceptor.truncated"));
+                }
+                result.setLength(result.getLength() + read);
+            }
+            pos = end - inflater.getRemaining();
+            if (end - pos < 8) {
+                throw new ZipException(sm.getString("gzipInterceptor.truncated"));
+            }
+            CRC32 crc = new CRC32();
+            crc.update(result.getBytesDirect(), 0, result.getLength());
+            if (readIntLE(data, pos) != (int) crc.getValue() ||
+                    readIntLE(data, pos + 4) != result.getLength()) {
+                throw new ZipException(sm.getString("gzipInterceptor.corrupt"));
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.reset();
+            if (!inflaters.offer(inflater)) {
+                inflater.end();
+            }
         }
-        return bout.toByteArray();
+    }
+
+
+    /*
+     * Skips the GZIP header, returning the position of the compressed data.
+     */
+    private static int skipHeader(byte[] data, int pos, int end) throws IOException {
+        if (end - pos < GZIP_HEADER.length || (data[pos] & 0xff | (data[pos + 1] & 0xff) << 8) != GZIP_MAGIC ||
+                data[pos + 2] != Deflater.DEFLATED) {
+            throw new ZipException(sm.getString("gzipInterceptor.corrupt"));
+        }
+        int flags = data[pos + 3] & 0xff;
+        pos += GZIP_HEADER.length;
+        if ((flags & FEXTRA) != 0 && pos + 2 <= end) {
+            pos += 2 + (data[pos] & 0xff | (data[pos + 1] & 0xff) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            while (pos < end && data[pos++] != 0) {
+                // Skip the file name
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (pos < end && data[pos++] != 0) {
+                // Skip the comment
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            pos += 2;
+        }
+        if (pos > end) {
+            throw new ZipException(sm.getString("gzipInterceptor.truncated"));
+        }
+        return pos;
+    }
+
+
+    private static void appendIntLE(XByteBuffer buffer, int value) {
+        byte[] b = new byte[] { (byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24) };
+        buffer.append(b, 0, b.length);
+    }
+
+
+    private static int readIntLE(byte[] data, int pos) {
+        return (data[pos] & 0xff) | (data[pos + 1] & 0xff) << 8 | (data[pos + 2] & 0xff) << 16 |
+                (data[pos + 3] & 0xff) << 24;
     }
 
 
@@ -178,7 +392,9 @@ public class GzipInterceptor extends ChannelInterceptorBase implements GzipInter
                 Long.valueOf(getSizeTX()), Long.valueOf(getCompressedSizeTX()),
                 Long.valueOf(getUncompressedSizeTX()),
                 Long.valueOf(getSizeRX()), Long.valueOf(getCompressedSizeRX()),
-                Long.valueOf(getUncompressedSizeRX())));
+                Long.valueOf(getUncompressedSizeRX()), Long.valueOf(getBytesSavedTX()),
+                Long.valueOf(getCompressionTime()), Long.valueOf(getDecompressionTime()),
+                Integer.valueOf(getCountSuspended())));
     }
 
 
@@ -194,6 +410,54 @@ public class GzipInterceptor extends ChannelInterceptorBase implements GzipInter
     }
 
 
+    @Override
+    public int getNoCompressionOptions() {
+        return noCompressionOptions;
+    }
+
+
+    @Override
+    public void setNoCompressionOptions(int noCompressionOptions) {
+        this.noCompressionOptions = noCompressionOptions;
+    }
+
+
+    @Override
+    public double getMinCompressionRatio() {
+        return minCompressionRatio;
+    }
+
+
+    @Override
+    public void setMinCompressionRatio(double minCompressionRatio) {
+        this.minCompressionRatio = minCompressionRatio;
+    }
+
+
+    @Override
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+
+    @Override
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = sampleSize;
+    }
+
+
+    @Override
+    public int getSuspendedMessages() {
+        return suspendedMessages;
+    }
+
+
+    @Override
+    public void setSuspendedMessages(int suspendedMessages) {
+        this.suspendedMessages = suspendedMessages;
+    }
+
+
     @Override
     public boolean getStatsEnabled() {
         return statsEnabled;
@@ -284,6 +548,31 @@ public class GzipInterceptor extends ChannelInterceptorBase implements GzipInter
     }
 
 
+    @Override
+    public long getBytesSavedTX() {
+        // The original size of the compressed messages less their compressed size
+        return sizeTX.get() - uncompressedSizeTX.get() - compressedSizeTX.get();
+    }
+
+
+    @Override
+    public long getCompressionTime() {
+        return compressionTime.get() / 1000000;
+    }
+
+
+    @Override
+    public long getDecompressionTime() {
+        return decompressionTime.get() / 1000000;
+    }
+
+
+    @Override
+    public int getCountSuspended() {
+        return countSuspended.get();
+    }
+
+
     @Override
     public void reset() {
         count.set(0);
@@ -297,5 +586,8 @@ public class GzipInterceptor extends ChannelInterceptorBase implements GzipInter
         sizeRX.set(0);
         compressedSizeRX.set(0);
         uncompressedSizeRX.set(0);
+        compressionTime.set(0);
+        decompressionTime.set(0);
+        countSuspended.set(0);
     }
 }
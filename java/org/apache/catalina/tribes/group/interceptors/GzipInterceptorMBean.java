@@ -35,6 +35,60 @@ public interface GzipInterceptorMBean {
      */
     public void setCompressionMinSize(int compressionMinSize);
 
+    /**
+     * @return the option flags for which messages are never compressed
+     */
+    public int getNoCompressionOptions();
+    /**
+     * Set the option flags for which messages are never compressed. Messages
+     * sent with any of these flags set are sent uncompressed. A value of zero
+     * means no messages are excluded.
+     *
+     * @param noCompressionOptions The new option flags
+     */
+    public void setNoCompressionOptions(int noCompressionOptions);
+
+    /**
+     * @return the minimum ratio of uncompressed to compressed size for
+     *         compression to remain enabled
+     */
+    public double getMinCompressionRatio();
+    /**
+     * Set the minimum ratio of uncompressed to compressed size for compression
+     * to remain enabled. The ratio is measured over samples of compressed
+     * messages and, if it is lower, compression is suspended for a number of
+     * messages. A value of zero or less means compression is never suspended.
+     *
+     * @param minCompressionRatio The new minimum ratio
+     */
+    public void setMinCompressionRatio(double minCompressionRatio);
+
+    /**
+     * @return the number of compressed messages over which the compression
+     *         ratio is measured
+     */
+    public int getSampleSize();
+    /**
+     * Set the number of compressed messages over which the compression ratio
+     * is measured.
+     *
+     * @param sampleSize The new sample size
+     */
+    public void setSampleSize(int sampleSize);
+
+    /**
+     * @return the number of messages sent uncompressed when compression is
+     *         suspended
+     */
+    public int getSuspendedMessages();
+    /**
+     * Set the number of messages sent uncompressed when compression is
+     * suspended, after which the compression ratio is measured again.
+     *
+     * @param suspendedMessages The new number of messages
+     */
+    public void setSuspendedMessages(int suspendedMessages);
+
     /**
      * @return {@code true} if the interceptor is configured to collect
      *         statistics, otherwise {@code false}
@@ -74,6 +128,23 @@ public interface GzipInterceptorMBean {
     public long getSizeRX();
     public long getCompressedSizeRX();
     public long getUncompressedSizeRX();
+    /**
+     * @return the number of bytes saved by compressing sent messages
+     */
+    public long getBytesSavedTX();
+    /**
+     * @return the time in milliseconds spent compressing sent messages
+     */
+    public long getCompressionTime();
+    /**
+     * @return the time in milliseconds spent decompressing received messages
+     */
+    public long getDecompressionTime();
+    /**
+     * @return the number of times compression was suspended because of a low
+     *         compression ratio
+     */
+    public int getCountSuspended();
     public void reset();
     public void report();
 }
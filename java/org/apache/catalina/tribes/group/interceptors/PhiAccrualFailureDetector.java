@@ -0,0 +1,422 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.catalina.tribes.util.StringManager;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * A failure detector that, rather than using fixed timeouts, learns the
+ * distribution of the intervals between the pings received from each member
+ * and calculates the suspicion level <i>phi</i> of the member from the time
+ * since anything was last received from it. A phi of 1 means a 10% chance
+ * that suspecting the member is a mistake, a phi of 2 a 1% chance, and so
+ * on. When phi exceeds the threshold the member is removed from the members
+ * reported by the channel and the members disappeared event is sent
+ * upwards, and when the member is heard from again it is added back.
+ * <p>
+ * As the interceptors above no longer see a suspected member, they no longer
+ * ping it. This interceptor pings the suspected members itself, at the mean
+ * interval of the pings it received from each, so that two members that
+ * suspect each other, for example after a long garbage collection pause,
+ * hear from each other again and recover.
+ * <p>
+ * The pings are sent by the {@link TcpPingInterceptor}, which must be placed
+ * before this interceptor in the channel so that the pings pass through it.
+ * How quickly a failed member is detected depends on the ping interval, for
+ * example a 100 ms interval allows failed members to be detected within a
+ * few hundred milliseconds. The acceptable heartbeat pause allows for the
+ * pauses of a member, for example for garbage collection, that should not
+ * cause it to be suspected.
+ */
+public class PhiAccrualFailureDetector extends ChannelInterceptorBase
+        implements PhiAccrualFailureDetectorMBean {
+
+    private static final Log log = LogFactory.getLog(PhiAccrualFailureDetector.class);
+    protected static final StringManager sm = StringManager.getManager(PhiAccrualFailureDetector.class);
+
+    protected double threshold = 8.0;
+    protected int maxSampleSize = 200;
+    protected long minStdDeviation = 100;
+    protected long acceptableHeartbeatPause = 0;
+    protected long firstHeartbeatEstimate = 1000;
+    protected long checkInterval = 100;
+
+    protected final Map<Member,HeartbeatHistory> histories = new ConcurrentHashMap<>();
+    protected final Set<Member> suspects = ConcurrentHashMap.newKeySet();
+    protected final Map<Member,Long> lastProbes = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> checkFuture = null;
+
+
+    @Override
+    public void messageReceived(ChannelMessage msg) {
+        Member member = msg.getAddress();
+        if (member != null) {
+            HeartbeatHistory history = histories.get(member);
+            if (history != null) {
+                long now = System.currentTimeMillis();
+                if (isPing(msg)) {
+                    history.heartbeat(now);
+                } else {
+                    history.seen(now);
+                }
+                if (suspects.remove(member)) {
+                    lastProbes.remove(member);
+                    if (log.isInfoEnabled()) {
+                        log.info(sm.getString("phiAccrualFailureDetector.unsuspect", member));
+                    }
+                    super.memberAdded(member);
+                }
+            }
+        }
+        super.messageReceived(msg);
+    }
+
+
+    @Override
+    public void memberAdded(Member member) {
+        histories.computeIfAbsent(member,
+                m -> new HeartbeatHistory(maxSampleSize, firstHeartbeatEstimate, System.currentTimeMillis()));
+        suspects.remove(member);
+        lastProbes.remove(member);
+        super.memberAdded(member);
+    }
+
+
+    @Override
+    public void memberDisappeared(Member member) {
+        histories.remove(member);
+        lastProbes.remove(member);
+        if (!suspects.remove(member)) {
+            super.memberDisappeared(member);
+        }
+        // else the event was already sent when the member was suspected
+    }
+
+
+    @Override
+    public boolean hasMembers() {
+        return getMembers().length > 0;
+    }
+
+
+    @Override
+    public Member[] getMembers() {
+        Member[] members = super.getMembers();
+        if (suspects.isEmpty()) {
+            return members;
+        }
+        List<Member> result = new ArrayList<>(members.length);
+        for (Member member : members) {
+            if (!suspects.contains(member)) {
+                result.add(member);
+            }
+        }
+        return result.toArray(new Member[0]);
+    }
+
+
+    @Override
+    public Member getMember(Member mbr) {
+        if (suspects.contains(mbr)) {
+            return null;
+        }
+        return super.getMember(mbr);
+    }
+
+
+    @Override
+    public synchronized void start(int svc) throws ChannelException {
+        super.start(svc);
+        if (checkFuture == null && getChannel() != null) {
+            checkFuture = getChannel().getUtilityExecutor().scheduleWithFixedDelay(
+                    this::checkMembers, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    @Override
+    public synchronized void stop(int svc) throws ChannelException {
+        if (checkFuture != null) {
+            checkFuture.cancel(false);
+            checkFuture = null;
+        }
+        super.stop(svc);
+    }
+
+
+    /**
+     * Suspects the members whose phi exceeds the threshold and pings the
+     * suspected members.
+     */
+    public void checkMembers() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Member,HeartbeatHistory> entry : histories.entrySet()) {
+            Member member = entry.getKey();
+            HeartbeatHistory history = entry.getValue();
+            double phi = history.phi(now, minStdDeviation, acceptableHeartbeatPause);
+            if (phi > threshold && suspects.add(member)) {
+                if (log.isInfoEnabled()) {
+                    log.info(sm.getString("phiAccrualFailureDetector.suspect", member, Double.toString(phi)));
+                }
+                super.memberDisappeared(member);
+            }
+            if (suspects.contains(member)) {
+                Long lastProbe = lastProbes.get(member);
+                if (lastProbe == null || now - lastProbe.longValue() >= history.meanInterval()) {
+                    lastProbes.put(member, Long.valueOf(now));
+                    sendProbe(member);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Sends a ping to a suspected member, which the interceptors above no
+     * longer ping.
+     * @param member The suspected member
+     */
+    protected void sendProbe(Member member) {
+        ChannelData data = new ChannelData(true);
+        data.setAddress(getLocalMember(false));
+        data.setTimestamp(System.currentTimeMillis());
+        data.setOptions(getOptionFlag() | Channel.SEND_OPTIONS_ASYNCHRONOUS);
+        data.setMessage(new XByteBuffer(TcpPingInterceptor.TCP_PING_DATA, false));
+        try {
+            super.sendMessage(new Member[] { member }, data, null);
+        } catch (ChannelException | RuntimeException e) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("phiAccrualFailureDetector.probeFailed", member), e);
+            }
+        }
+    }
+
+
+    /**
+     * @param member The member
+     * @return the current suspicion level of the member or zero if the member
+     *         is not known
+     */
+    public double getPhi(Member member) {
+        HeartbeatHistory history = histories.get(member);
+        if (history == null) {
+            return 0;
+        }
+        return history.phi(System.currentTimeMillis(), minStdDeviation, acceptableHeartbeatPause);
+    }
+
+
+    @Override
+    public String[] getSuspicionLevels() {
+        List<String> result = new ArrayList<>();
+        for (Member member : histories.keySet()) {
+            result.add(member.getName() + "=" + getPhi(member));
+        }
+        return result.toArray(new String[0]);
+    }
+
+
+    @Override
+    public int getSuspectCount() {
+        return suspects.size();
+    }
+
+
+    /**
+     * @param msg The received message
+     * @return {@code true} if the message is a ping, either from the
+     *         {@link TcpPingInterceptor} or, when it uses the
+     *         {@link TcpFailureDetector} to check the members, from the
+     *         failure detector
+     */
+    protected boolean isPing(ChannelMessage msg) {
+        XByteBuffer data = msg.getMessage();
+        if (data.getLength() != TcpPingInterceptor.TCP_PING_DATA.length) {
+            return false;
+        }
+        byte[] bytes = data.getBytes();
+        return Arrays.equals(TcpPingInterceptor.TCP_PING_DATA, bytes) ||
+                Arrays.equals(TcpFailureDetector.TCP_FAIL_DETECT, bytes);
+    }
+
+
+    @Override
+    public double getThreshold() {
+        return threshold;
+    }
+
+
+    @Override
+    public void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+
+    @Override
+    public int getMaxSampleSize() {
+        return maxSampleSize;
+    }
+
+
+    @Override
+    public void setMaxSampleSize(int maxSampleSize) {
+        this.maxSampleSize = maxSampleSize;
+    }
+
+
+    @Override
+    public long getMinStdDeviation() {
+        return minStdDeviation;
+    }
+
+
+    @Override
+    public void setMinStdDeviation(long minStdDeviation) {
+        this.minStdDeviation = minStdDeviation;
+    }
+
+
+    @Override
+    public long getAcceptableHeartbeatPause() {
+        return acceptableHeartbeatPause;
+    }
+
+
+    @Override
+    public void setAcceptableHeartbeatPause(long acceptableHeartbeatPause) {
+        this.acceptableHeartbeatPause = acceptableHeartbeatPause;
+    }
+
+
+    @Override
+    public long getFirstHeartbeatEstimate() {
+        return firstHeartbeatEstimate;
+    }
+
+
+    @Override
+    public void setFirstHeartbeatEstimate(long firstHeartbeatEstimate) {
+        this.firstHeartbeatEstimate = firstHeartbeatEstimate;
+    }
+
+
+    @Override
+    public long getCheckInterval() {
+        return checkInterval;
+    }
+
+
+    @Override
+    public void setCheckInterval(long checkInterval) {
+        this.checkInterval = checkInterval;
+    }
+
+
+    /**
+     * The intervals between the pings received from a member, kept in a fixed
+     * size window together with their running sum and sum of squares.
+     */
+    protected static class HeartbeatHistory {
+
+        private final long[] intervals;
+        private int count = 0;
+        private int index = 0;
+        private double sum = 0;
+        private double sumOfSquares = 0;
+        private long lastHeartbeat = -1;
+        private long lastSeen;
+
+        public HeartbeatHistory(int maxSampleSize, long firstHeartbeatEstimate, long now) {
+            intervals = new long[maxSampleSize];
+            lastSeen = now;
+            // Seed the distribution so that phi is meaningful from the start
+            long stdDeviation = firstHeartbeatEstimate / 4;
+            add(firstHeartbeatEstimate - stdDeviation);
+            add(firstHeartbeatEstimate + stdDeviation);
+        }
+
+        public synchronized void heartbeat(long now) {
+            if (lastHeartbeat >= 0) {
+                add(now - lastHeartbeat);
+            }
+            lastHeartbeat = now;
+            lastSeen = now;
+        }
+
+        public synchronized void seen(long now) {
+            lastSeen = now;
+        }
+
+        public synchronized double meanInterval() {
+            return sum / count;
+        }
+
+        private void add(long interval) {
+            if (count == intervals.length) {
+                long oldest = intervals[index];
+                sum -= oldest;
+                sumOfSquares -= (double) oldest * oldest;
+            } else {
+                count++;
+            }
+            intervals[index] = interval;
+            index = (index + 1) % intervals.length;
+            sum += interval;
+            sumOfSquares += (double) interval * interval;
+        }
+
+        public synchronized double phi(long now, long minStdDeviation, long acceptableHeartbeatPause) {
+            double mean = sum / count;
+            double variance = Math.max(sumOfSquares / count - mean * mean, 0);
+            double stdDeviation = Math.max(Math.sqrt(variance), minStdDeviation);
+            return phi(now - lastSeen, mean + acceptableHeartbeatPause, stdDeviation);
+        }
+
+        /*
+         * The logistic approximation of the cumulative normal distribution,
+         * expressed as -log10 of the probability that a heartbeat arrives
+         * later than the elapsed time.
+         */
+        static double phi(long elapsed, double mean, double stdDeviation) {
+            double y = (elapsed - mean) / stdDeviation;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            if (elapsed > mean) {
+                return -Math.log10(e / (1.0 + e));
+            } else {
+                return -Math.log10(1.0 - 1.0 / (1.0 + e));
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+public interface PhiAccrualFailureDetectorMBean {
+
+    // Attributes
+    public double getThreshold();
+
+    public void setThreshold(double threshold);
+
+    public int getMaxSampleSize();
+
+    public void setMaxSampleSize(int maxSampleSize);
+
+    public long getMinStdDeviation();
+
+    public void setMinStdDeviation(long minStdDeviation);
+
+    public long getAcceptableHeartbeatPause();
+
+    public void setAcceptableHeartbeatPause(long acceptableHeartbeatPause);
+
+    public long getFirstHeartbeatEstimate();
+
+    public void setFirstHeartbeatEstimate(long firstHeartbeatEstimate);
+
+    public long getCheckInterval();
+
+    public void setCheckInterval(long checkInterval);
+
+    // Stats
+    public String[] getSuspicionLevels();
+
+    public int getSuspectCount();
+}
@@ -254,8 +254,18 @@ public class ChannelData implements ChannelMessage {
     }
 
     public static ChannelData getDataFromPackage(byte[] b)  {
+        return getDataFromPackage(b, 0);
+    }
+
+    /**
+     * Deserializes a ChannelData object from a byte array, copying only the
+     * message data.
+     * @param b The array containing the serialized data
+     * @param offset The offset of the serialized data in the array
+     * @return ChannelData
+     */
+    public static ChannelData getDataFromPackage(byte[] b, int offset)  {
         ChannelData data = new ChannelData(false);
-        int offset = 0;
         data.setOptions(XByteBuffer.toInt(b,offset));
         offset += 4; //options
         data.setTimestamp(XByteBuffer.toLong(b,offset));
@@ -264,18 +274,14 @@ public class ChannelData implements ChannelMessage {
         offset += 4; //uniqueId length
         System.arraycopy(b,offset,data.uniqueId,0,data.uniqueId.length);
         offset += data.uniqueId.length; //uniqueId data
-        byte[] addr = new byte[XByteBuffer.toInt(b,offset)];
+        int addrlen = XByteBuffer.toInt(b,offset);
         offset += 4; //addr length
-        System.arraycopy(b,offset,addr,0,addr.length);
-        data.setAddress(MemberImpl.getMember(addr));
-        offset += addr.length; //addr data
+        data.setAddress(MemberImpl.getMember(b,offset,addrlen));
+        offset += addrlen; //addr data
         int xsize = XByteBuffer.toInt(b,offset);
-        //data.message = new XByteBuffer(new byte[xsize],false);
-        data.message = BufferPool.getBufferPool().getBuffer(xsize,false);
         offset += 4; //message length
-        System.arraycopy(b,offset,data.message.getBytesDirect(),0,xsize);
+        data.message = BufferPool.getBufferPool().getBuffer(xsize,false);
         data.message.append(b,offset,xsize);
-        offset += xsize; //message data
         return data;
     }
 
@@ -310,7 +316,8 @@ public class ChannelData implements ChannelMessage {
             throw new AssertionError();
         }
         if (this.message != null) {
-            clone.message = new XByteBuffer(this.message.getBytesDirect(),false);
+            clone.message = new XByteBuffer(this.message.getLength(),false);
+            clone.message.append(this.message.getBytesDirect(),0,this.message.getLength());
         }
         return clone;
     }
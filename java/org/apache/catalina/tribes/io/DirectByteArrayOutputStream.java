@@ -30,7 +30,14 @@ public class DirectByteArrayOutputStream extends OutputStream {
     private final XByteBuffer buffer;
 
     public DirectByteArrayOutputStream(int size) {
-        buffer = new XByteBuffer(size,false);
+        this(new XByteBuffer(size,false));
+    }
+
+    /**
+     * @param buffer The buffer the written bytes are appended to
+     */
+    public DirectByteArrayOutputStream(XByteBuffer buffer) {
+        this.buffer = buffer;
     }
 
     /**
@@ -46,6 +53,11 @@ public class DirectByteArrayOutputStream extends OutputStream {
         buffer.append((byte)b);
     }
 
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        buffer.append(b, off, len);
+    }
+
     public int size() {
         return buffer.getLength();
     }
@@ -327,11 +327,42 @@ public class XByteBuffer implements Serializable {
     }
 
     public ChannelData extractPackage(boolean clearFromBuffer) {
-        XByteBuffer xbuf = extractDataPackage(clearFromBuffer);
-        ChannelData cdata = ChannelData.getDataFromPackage(xbuf);
+        int psize = countPackages(true);
+        if (psize == 0) {
+            throw new java.lang.IllegalStateException(sm.getString("xByteBuffer.no.package"));
+        }
+        int size = toInt(buf, START_DATA.length);
+        // Only the message data is copied out of this buffer
+        ChannelData cdata = ChannelData.getDataFromPackage(buf, START_DATA.length + 4);
+        if (clearFromBuffer) {
+            int totalsize = START_DATA.length + 4 + size + END_DATA.length;
+            bufSize = bufSize - totalsize;
+            System.arraycopy(buf, totalsize, buf, 0, bufSize);
+        }
         return cdata;
     }
 
+    /**
+     * Extracts all the complete packages in the buffer and removes them from
+     * the buffer, moving any remaining data to the start of the buffer once.
+     * @return the packages, in the order they were received
+     */
+    public ChannelData[] extractPackages() {
+        int cnt = countPackages();
+        ChannelData[] result = new ChannelData[cnt];
+        int start = 0;
+        for (int i = 0; i < cnt; i++) {
+            int size = toInt(buf, start + START_DATA.length);
+            result[i] = ChannelData.getDataFromPackage(buf, start + START_DATA.length + 4);
+            start += START_DATA.length + 4 + size + END_DATA.length;
+        }
+        if (start > 0) {
+            bufSize = bufSize - start;
+            System.arraycopy(buf, start, buf, 0, bufSize);
+        }
+        return result;
+    }
+
     /**
      * Creates a complete data package
      * @param cdata - the message data to be contained within the package
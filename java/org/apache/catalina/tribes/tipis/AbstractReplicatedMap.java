@@ -189,6 +189,18 @@ public abstract class AbstractReplicatedMap<K,V>
 
     }
 
+    /**
+     * Creates a new map without initializing it. Sub-classes that need to
+     * configure themselves before the state transfer takes place must call
+     * {@link #init(MapOwner, Channel, String, long, int, ClassLoader[], boolean)}
+     * once they are configured.
+     * @param initialCapacity int - the size of this map, see HashMap
+     * @param loadFactor float - load factor, see HashMap
+     */
+    protected AbstractReplicatedMap(int initialCapacity, float loadFactor) {
+        innerMap = new ConcurrentHashMap<>(initialCapacity, loadFactor, 15);
+    }
+
     /**
      * Helper methods, wraps a single member in an array
      * @param m Member
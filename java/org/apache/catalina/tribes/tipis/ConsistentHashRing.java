@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.tipis;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.catalina.tribes.Member;
+
+/**
+ * An immutable consistent hash ring of members. Each member is placed on the
+ * ring at a number of pseudo-random points (virtual nodes) derived from its
+ * host, port and unique id so that every node in the cluster builds the same
+ * ring from the same set of members. A key is owned by the members found by
+ * walking the ring clockwise from the hash of the key. Adding or removing a
+ * member only changes the owners of the keys that hash next to the points of
+ * that member.
+ * <p>
+ * Keys are hashed using {@link Object#hashCode()} so they must have a hash
+ * code that is the same in every JVM, as {@link String} does.
+ */
+final class ConsistentHashRing {
+
+    private final Set<Member> members;
+    private final long[] points;
+    private final Member[] owners;
+
+
+    ConsistentHashRing(Member[] members, int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException(
+                    AbstractReplicatedMap.sm.getString("consistentHashRing.virtualNodes", Integer.valueOf(virtualNodes)));
+        }
+        this.members = new HashSet<>(Arrays.asList(members));
+        int size = this.members.size() * virtualNodes;
+        long[] hashes = new long[size];
+        Member[] nodes = new Member[size];
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE is required to support MD5
+            throw new IllegalStateException(e);
+        }
+        int i = 0;
+        for (Member member : this.members) {
+            for (int v = 0; v < virtualNodes; v++) {
+                md5.update(member.getHost());
+                update(md5, member.getPort());
+                md5.update(member.getUniqueId());
+                update(md5, v);
+                byte[] digest = md5.digest();
+                long hash = 0;
+                for (int j = 0; j < 8; j++) {
+                    hash = (hash << 8) | (digest[j] & 0xFF);
+                }
+                hashes[i] = hash;
+                nodes[i] = member;
+                i++;
+            }
+        }
+
+        // Sort the points, keeping the owners aligned
+        Integer[] order = new Integer[size];
+        for (int j = 0; j < size; j++) {
+            order[j] = Integer.valueOf(j);
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a.intValue()], hashes[b.intValue()]));
+        points = new long[size];
+        owners = new Member[size];
+        for (int j = 0; j < size; j++) {
+            points[j] = hashes[order[j].intValue()];
+            owners[j] = nodes[order[j].intValue()];
+        }
+    }
+
+
+    /**
+     * @param members The members to compare with
+     * @return <code>true</code> if this ring contains exactly the given
+     *         members
+     */
+    boolean hasMembers(Member[] members) {
+        if (members.length != this.members.size()) {
+            return false;
+        }
+        for (Member member : members) {
+            if (!this.members.contains(member)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Find the members that own the given key.
+     *
+     * @param key     The key
+     * @param count   The maximum number of members to return
+     * @param exclude A member to skip, usually the local member, or
+     *                <code>null</code>
+     * @return the first <code>count</code> distinct members, other than
+     *         <code>exclude</code>, found walking the ring clockwise from the
+     *         hash of the key, in ring order
+     */
+    Member[] getMembers(Object key, int count, Member exclude) {
+        List<Member> result = new ArrayList<>(count);
+        if (points.length == 0 || count < 1) {
+            return new Member[0];
+        }
+        int start = Arrays.binarySearch(points, hash(key));
+        if (start < 0) {
+            start = -start - 1;
+        }
+        for (int i = 0; i < points.length && result.size() < count; i++) {
+            Member member = owners[(start + i) % points.length];
+            if (!member.equals(exclude) && !result.contains(member)) {
+                result.add(member);
+            }
+        }
+        return result.toArray(new Member[0]);
+    }
+
+
+    /*
+     * Spread the 32-bit hash code of the key over the full range of the ring
+     * (MurmurHash3 64-bit finaliser).
+     */
+    static long hash(Object key) {
+        long h = key.hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+
+    private static void update(MessageDigest md, int value) {
+        md.update((byte) (value >>> 24));
+        md.update((byte) (value >>> 16));
+        md.update((byte) (value >>> 8));
+        md.update((byte) value);
+    }
+}
@@ -16,12 +16,19 @@
  */
 package org.apache.catalina.tribes.tipis;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.catalina.tribes.Channel;
 import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelException.FaultyMember;
 import org.apache.catalina.tribes.Member;
 import org.apache.catalina.tribes.UniqueId;
+import org.apache.catalina.tribes.group.Response;
+import org.apache.catalina.tribes.group.RpcChannel;
 import org.apache.catalina.tribes.util.Arrays;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -59,6 +66,13 @@ import org.apache.juli.logging.LogFactory;
  *
  * <br><br><b>REMEMBER TO CALL</b> <code>breakdown()</code> or <code>finalize()</code> when you are done with the map to
  * avoid memory leaks.<br><br>
+ * By default backup nodes are selected on a round robin basis and every other node holds a proxy entry
+ * pointing at the primary and backup nodes of each key. When consistent hashing is enabled the backup
+ * nodes of a key are the first <code>backupCount</code> members found on a {@link ConsistentHashRing} of
+ * the map members, no proxies are created and a node that does not hold a key retrieves it from the
+ * members that own it on the ring. When a member joins or leaves, only the keys whose backup nodes
+ * change on the ring are relocated. A key that could not be retrieved is not looked up again for
+ * {@link #RETRIEVE_MISS_TIMEOUT} milliseconds. All nodes must use the same settings.<br><br>
  * TODO implement periodic sync/transfer thread
  *
  * @param <K> The type of Key
@@ -69,6 +83,41 @@ public class LazyReplicatedMap<K,V> extends AbstractReplicatedMap<K,V> {
     // Lazy init to support serialization
     private transient volatile Log log;
 
+    /**
+     * Should backup nodes be selected using a consistent hash ring rather
+     * than round robin?
+     */
+    private transient volatile boolean consistentHashing = false;
+
+    /**
+     * The number of backup nodes for each key when using consistent hashing.
+     */
+    private transient volatile int backupCount = 1;
+
+    /**
+     * The number of points each member has on the consistent hash ring.
+     */
+    private transient volatile int virtualNodes = 100;
+
+    private transient volatile ConsistentHashRing hashRing;
+
+    /**
+     * The time, in milliseconds, for which a key that could not be retrieved
+     * from the ring is not looked up again.
+     */
+    public static final long RETRIEVE_MISS_TIMEOUT = 1000;
+
+    /**
+     * The maximum number of keys that could not be retrieved to remember.
+     */
+    private static final int RETRIEVE_MISS_MAX = 10000;
+
+    /**
+     * The keys that could not be retrieved from the ring and the time at
+     * which each lookup failed. Lazy init to support serialization.
+     */
+    private transient volatile ConcurrentHashMap<Object,Long> retrieveMisses;
+
 
 //------------------------------------------------------------------------------
 //              CONSTRUCTORS / DESTRUCTORS
@@ -126,6 +175,29 @@ public class LazyReplicatedMap<K,V> extends AbstractReplicatedMap<K,V> {
                 AbstractReplicatedMap.DEFAULT_LOAD_FACTOR,Channel.SEND_OPTIONS_DEFAULT, cls, terminate);
     }
 
+    /**
+     * Creates a new map. The consistent hashing settings are applied before
+     * the state transfer takes place.
+     * @param owner The map owner
+     * @param channel The channel to use for communication
+     * @param timeout long - timeout for RPC messages
+     * @param mapContextName String - unique name for this map, to allow multiple maps per channel
+     * @param cls Class loaders
+     * @param terminate boolean - Flag for whether to terminate this map that failed to start.
+     * @param consistentHashing boolean - Should backup nodes be selected using a consistent hash ring?
+     * @param backupCount int - the number of backup nodes for each key when using consistent hashing
+     * @param virtualNodes int - the number of points each member has on the consistent hash ring
+     */
+    public LazyReplicatedMap(MapOwner owner, Channel channel, long timeout, String mapContextName,
+            ClassLoader[] cls, boolean terminate, boolean consistentHashing, int backupCount,
+            int virtualNodes) {
+        super(AbstractReplicatedMap.DEFAULT_INITIAL_CAPACITY, AbstractReplicatedMap.DEFAULT_LOAD_FACTOR);
+        this.consistentHashing = consistentHashing;
+        setBackupCount(backupCount);
+        setVirtualNodes(virtualNodes);
+        init(owner, channel, mapContextName, timeout, Channel.SEND_OPTIONS_DEFAULT, cls, terminate);
+    }
+
 
 //------------------------------------------------------------------------------
 //              METHODS TO OVERRIDE
@@ -151,6 +223,7 @@ public class LazyReplicatedMap<K,V> extends AbstractReplicatedMap<K,V> {
     protected Member[] publishEntryInfo(Object key, Object value) throws ChannelException {
         Log log = getLog();
         if  (! (key instanceof Serializable && value instanceof Serializable)  ) return new Member[0];
+        if (consistentHashing) return publishToRing(key, value);
         Member[] members = getMapMembers();
         int firstIdx = getNextBackupIndex();
         int nextIdx = firstIdx;
@@ -210,6 +283,377 @@ public class LazyReplicatedMap<K,V> extends AbstractReplicatedMap<K,V> {
     }
 
 
+    /**
+     * Publishes a key and value to the backup nodes that own the key on the
+     * consistent hash ring. No proxies are published.
+     */
+    private Member[] publishToRing(Object key, Object value) {
+        Member local = channel.getLocalMember(false);
+        Member[] backup = getHashRing().getMembers(key, backupCount, local);
+        if (backup.length == 0) return backup;
+        MapMessage msg = new MapMessage(getMapContextName(), MapMessage.MSG_BACKUP, false,
+                (Serializable) key, (Serializable) value, null, local, backup);
+        try {
+            if (getLog().isTraceEnabled())
+                getLog().trace("Publishing backup data:"+msg+" to: "+Arrays.toNameString(backup));
+            getChannel().send(backup, msg, getChannelSendOptions());
+        } catch (ChannelException x) {
+            FaultyMember[] faulty = x.getFaultyMembers();
+            Member[] failed = new Member[faulty.length];
+            for (int i = 0; i < faulty.length; i++) {
+                failed[i] = faulty[i].getMember();
+            }
+            getLog().error(sm.getString("lazyReplicatedMap.unableReplicate.backup", key,
+                    Arrays.toNameString(failed), x.getMessage()), x);
+            backup = excludeFromSet(failed, backup);
+        }
+        return backup;
+    }
+
+
+    /**
+     * Makes the local node the primary node for an entry it holds a backup of
+     * or has just retrieved.
+     */
+    private void makePrimary(MapEntry<K,V> entry) throws ChannelException {
+        entry.setPrimary(channel.getLocalMember(false));
+        entry.setBackup(false);
+        entry.setProxy(false);
+        entry.setCopy(false);
+        if (entry.getValue() instanceof ReplicatedMapEntry) {
+            ((ReplicatedMapEntry) entry.getValue()).setOwner(getMapOwner());
+        }
+        if (getMapOwner() != null) getMapOwner().objectMadePrimary(entry.getKey(), entry.getValue());
+    }
+
+
+    /**
+     * Publishes a primary entry to its current backup nodes on the ring and
+     * tells the nodes that held the entry before, and no longer should, to
+     * remove it.
+     *
+     * @param entry    The entry to relocate
+     * @param previous The primary and backup nodes that held the entry
+     *                 before
+     */
+    private void relocate(MapEntry<K,V> entry, Member[] previous) throws ChannelException {
+        Member local = channel.getLocalMember(false);
+        Member[] backup = publishEntryInfo(entry.getKey(), entry.getValue());
+        entry.setBackupNodes(backup);
+        List<Member> stale = new ArrayList<>();
+        for (Member member : previous) {
+            if (member != null && !member.equals(local) && !inSet(member, backup) &&
+                    !stale.contains(member) && isMapMember(member)) {
+                stale.add(member);
+            }
+        }
+        if (stale.size() > 0) {
+            try {
+                MapMessage msg = new MapMessage(getMapContextName(), MapMessage.MSG_REMOVE, false,
+                        (Serializable) entry.getKey(), null, null, null, null);
+                getChannel().send(stale.toArray(new Member[0]), msg, getChannelSendOptions());
+            } catch (ChannelException x) {
+                getLog().error(sm.getString("abstractReplicatedMap.unable.remove"), x);
+            }
+        }
+    }
+
+
+    /**
+     * Retrieves an entry this node does not hold from the members that own
+     * the key on the ring. The primary node's copy is preferred.
+     */
+    private MapMessage retrieve(Object key)
+            throws ChannelException, IOException, ClassNotFoundException {
+        Member[] owners = getHashRing().getMembers(key, backupCount + 1, channel.getLocalMember(false));
+        if (owners.length == 0) return null;
+        MapMessage msg = new MapMessage(getMapContextName(), MapMessage.MSG_RETRIEVE_BACKUP, false,
+                (Serializable) key, null, null, null, null);
+        Response[] resp = getRpcChannel().send(owners, msg, RpcChannel.ALL_REPLY,
+                getChannelSendOptions(), getRpcTimeout());
+        MapMessage result = null;
+        if (resp == null) return null;
+        for (Response response : resp) {
+            MapMessage reply = (MapMessage) response.getMessage();
+            if (reply == null) continue;
+            reply.deserialize(getExternalLoaders());
+            if (reply.getValue() == null) continue;
+            if (result == null || response.getSource().equals(reply.getPrimary())) {
+                result = reply;
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * @return <code>true</code> if the key could not be retrieved from the
+     *         ring less than {@link #RETRIEVE_MISS_TIMEOUT} milliseconds ago
+     */
+    boolean isRetrieveMiss(Object key) {
+        ConcurrentHashMap<Object,Long> misses = retrieveMisses;
+        if (misses == null) return false;
+        Long time = misses.get(key);
+        if (time == null) return false;
+        if (System.currentTimeMillis() - time.longValue() < RETRIEVE_MISS_TIMEOUT) return true;
+        misses.remove(key, time);
+        return false;
+    }
+
+
+    private void addRetrieveMiss(Object key) {
+        ConcurrentHashMap<Object,Long> misses = retrieveMisses;
+        if (misses == null) {
+            synchronized (this) {
+                misses = retrieveMisses;
+                if (misses == null) {
+                    misses = new ConcurrentHashMap<>();
+                    retrieveMisses = misses;
+                }
+            }
+        }
+        if (misses.size() >= RETRIEVE_MISS_MAX) misses.clear();
+        misses.put(key, Long.valueOf(System.currentTimeMillis()));
+    }
+
+
+    private Member[] getEntryMembers(MapEntry<K,V> entry) {
+        Member[] backup = entry.getBackupNodes();
+        int count = backup == null ? 0 : backup.length;
+        Member[] result = new Member[count + 1];
+        result[0] = entry.getPrimary();
+        if (count > 0) System.arraycopy(backup, 0, result, 1, count);
+        return result;
+    }
+
+
+    private boolean isMapMember(Member member) {
+        synchronized (mapMembers) {
+            return mapMembers.containsKey(member);
+        }
+    }
+
+
+    /**
+     * @return the consistent hash ring for the current map members and the
+     *         local member, rebuilt if the membership has changed
+     */
+    ConsistentHashRing getHashRing() {
+        Member[] members = getMapMembers();
+        Member[] all = new Member[members.length + 1];
+        System.arraycopy(members, 0, all, 0, members.length);
+        all[members.length] = channel.getLocalMember(false);
+        ConsistentHashRing ring = hashRing;
+        if (ring == null || !ring.hasMembers(all)) {
+            ring = new ConsistentHashRing(all, virtualNodes);
+            hashRing = ring;
+        }
+        return ring;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+        if (!consistentHashing) return super.get(key);
+        MapEntry<K,V> entry = innerMap.get(key);
+        if (entry != null && entry.isPrimary()) return entry.getValue();
+        if (!(key instanceof Serializable)) return null;
+        try {
+            Member[] previous;
+            if (entry == null) {
+                if (isRetrieveMiss(key)) return null;
+                MapMessage msg = retrieve(key);
+                if (msg == null) {
+                    addRetrieveMiss(key);
+                    return null;
+                }
+                MapEntry<K,V> retrieved = new MapEntry<>((K) key, (V) msg.getValue());
+                entry = innerMap.putIfAbsent(retrieved.getKey(), retrieved);
+                if (entry != null && entry.isPrimary()) return entry.getValue();
+                if (entry == null) entry = retrieved;
+                previous = new Member[msg.getBackupNodes() == null ? 1 : msg.getBackupNodes().length + 1];
+                previous[0] = msg.getPrimary();
+                if (previous.length > 1) {
+                    System.arraycopy(msg.getBackupNodes(), 0, previous, 1, previous.length - 1);
+                }
+            } else {
+                previous = getEntryMembers(entry);
+            }
+            makePrimary(entry);
+            relocate(entry, previous);
+        } catch (RuntimeException | ChannelException | ClassNotFoundException | IOException x) {
+            getLog().error(sm.getString("abstractReplicatedMap.unable.get"), x);
+            return null;
+        }
+        return entry.getValue();
+    }
+
+
+    @Override
+    public V remove(Object key, boolean notify) {
+        if (!consistentHashing) return super.remove(key, notify);
+        MapEntry<K,V> entry = innerMap.remove(key);
+        if (notify && key instanceof Serializable) {
+            Member local = channel.getLocalMember(false);
+            Member[] dest;
+            if (entry != null) {
+                List<Member> list = new ArrayList<>();
+                for (Member member : getEntryMembers(entry)) {
+                    if (member != null && !member.equals(local) && isMapMember(member)) {
+                        list.add(member);
+                    }
+                }
+                dest = list.toArray(new Member[0]);
+            } else {
+                dest = getHashRing().getMembers(key, backupCount + 1, local);
+            }
+            try {
+                if (dest.length > 0) {
+                    MapMessage msg = new MapMessage(getMapContextName(), MapMessage.MSG_REMOVE, false,
+                            (Serializable) key, null, null, null, null);
+                    getChannel().send(dest, msg, getChannelSendOptions());
+                }
+            } catch (ChannelException x) {
+                getLog().error(sm.getString("abstractReplicatedMap.unable.remove"), x);
+            }
+        }
+        return entry != null ? entry.getValue() : null;
+    }
+
+
+    @Override
+    public Serializable replyRequest(Serializable msg, Member sender) {
+        if (consistentHashing && msg instanceof MapMessage) {
+            MapMessage mapmsg = (MapMessage) msg;
+            if (mapmsg.getMsgType() == MapMessage.MSG_RETRIEVE_BACKUP) {
+                // Always reply so that the requester does not wait for the
+                // members that do not hold the key
+                MapEntry<K,V> entry = innerMap.get(mapmsg.getKey());
+                if (entry == null || !entry.isSerializable()) {
+                    return new MapMessage(getMapContextName(), MapMessage.MSG_RETRIEVE_BACKUP, false,
+                            mapmsg.getKey(), null, null, null, null);
+                }
+                return new MapMessage(getMapContextName(), MapMessage.MSG_RETRIEVE_BACKUP, false,
+                        (Serializable) entry.getKey(), (Serializable) entry.getValue(), null,
+                        entry.getPrimary(), entry.getBackupNodes());
+            }
+            if (mapmsg.getMsgType() == MapMessage.MSG_STATE) {
+                // Keys are located using the ring so there are no proxies to
+                // transfer
+                mapmsg.setValue(new ArrayList<MapMessage>());
+                return mapmsg;
+            }
+        }
+        return super.replyRequest(msg, sender);
+    }
+
+
+    @Override
+    public void mapMemberAdded(Member member) {
+        int before = getMapMembers().length;
+        super.mapMemberAdded(member);
+        if (!consistentHashing || getMapMembers().length <= before) return;
+        // Move the keys whose backup nodes have changed on the new ring
+        Member local = channel.getLocalMember(false);
+        synchronized (stateMutex) {
+            for (MapEntry<K,V> entry : innerMap.values()) {
+                if (!entry.isPrimary() || !entry.isSerializable()) continue;
+                Member[] backup = getHashRing().getMembers(entry.getKey(), backupCount, local);
+                Member[] current = entry.getBackupNodes();
+                if (current != null && current.length == backup.length &&
+                        excludeFromSet(current, backup).length == 0) continue;
+                try {
+                    relocate(entry, getEntryMembers(entry));
+                } catch (ChannelException x) {
+                    getLog().error(sm.getString("abstractReplicatedMap.unableSelect.backup"), x);
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public void memberDisappeared(Member member) {
+        if (!consistentHashing) {
+            super.memberDisappeared(member);
+            return;
+        }
+        synchronized (mapMembers) {
+            if (mapMembers.remove(member) == null) {
+                if (getLog().isDebugEnabled())
+                    getLog().debug("Member["+member+"] disappeared, but was not present in the map.");
+                return;
+            }
+        }
+        if (getLog().isInfoEnabled())
+            getLog().info(sm.getString("abstractReplicatedMap.member.disappeared", member));
+        long start = System.currentTimeMillis();
+        Member local = channel.getLocalMember(false);
+        for (MapEntry<K,V> entry : innerMap.values()) {
+            try {
+                if (entry.isPrimary()) {
+                    if (inSet(member, entry.getBackupNodes())) {
+                        relocate(entry, getEntryMembers(entry));
+                    }
+                } else if (member.equals(entry.getPrimary())) {
+                    // The first surviving backup node, in ring order, becomes
+                    // the primary node
+                    Member successor = null;
+                    Member[] backup = entry.getBackupNodes();
+                    for (int i = 0; backup != null && i < backup.length && successor == null; i++) {
+                        if (backup[i].equals(local) || isMapMember(backup[i])) {
+                            successor = backup[i];
+                        }
+                    }
+                    if (successor == null || successor.equals(local)) {
+                        Member[] previous = getEntryMembers(entry);
+                        makePrimary(entry);
+                        relocate(entry, previous);
+                    } else {
+                        entry.setPrimary(successor);
+                    }
+                }
+            } catch (ChannelException x) {
+                getLog().error(sm.getString("abstractReplicatedMap.unable.relocate", entry.getKey()), x);
+            }
+        }
+        long complete = System.currentTimeMillis() - start;
+        if (getLog().isInfoEnabled())
+            getLog().info(sm.getString("abstractReplicatedMap.relocate.complete", Long.toString(complete)));
+    }
+
+
+    public boolean isConsistentHashing() {
+        return consistentHashing;
+    }
+
+    public int getBackupCount() {
+        return backupCount;
+    }
+
+    public void setBackupCount(int backupCount) {
+        if (backupCount < 1) {
+            throw new IllegalArgumentException(
+                    sm.getString("lazyReplicatedMap.backupCount", Integer.valueOf(backupCount)));
+        }
+        this.backupCount = backupCount;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public void setVirtualNodes(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException(
+                    sm.getString("consistentHashRing.virtualNodes", Integer.valueOf(virtualNodes)));
+        }
+        this.virtualNodes = virtualNodes;
+        this.hashRing = null;
+    }
+
+
     private Log getLog() {
         if (log == null) {
             synchronized (this) {
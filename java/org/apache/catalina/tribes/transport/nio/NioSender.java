@@ -227,10 +227,11 @@ public class NioSender extends AbstractSender {
         } else {
             readbuf.clear();
         }
-        if ( writebuf == null ) {
-            writebuf = getWriteBuffer();
-        } else {
+        if ( writebuf != null ) {
             writebuf.clear();
+        } else if (getDirectBuffer()) {
+            // Heap messages are wrapped rather than copied, see setMessage
+            writebuf = getWriteBuffer();
         }
 
         if (isUdpBased()) {
@@ -356,18 +357,19 @@ public class NioSender extends AbstractSender {
                 current = data;
                 remaining = length;
                 ackbuf.clear();
-                if (writebuf != null) {
-                    writebuf.clear();
+                if (getDirectBuffer()) {
+                    if (writebuf == null || !writebuf.isDirect() || writebuf.capacity() < length) {
+                        writebuf = getBuffer(length);
+                    } else {
+                        writebuf.clear();
+                    }
+                    writebuf.put(data,offset,length);
+                    writebuf.flip();
                 } else {
-                    writebuf = getBuffer(length);
-                }
-                if (writebuf.capacity() < length) {
-                    writebuf = getBuffer(length);
+                    // The data is not modified while it is written so the
+                    // senders to each member can share it without a copy
+                    writebuf = ByteBuffer.wrap(data,offset,length);
                 }
-
-                // TODO use ByteBuffer.wrap to avoid copying the data.
-                writebuf.put(data,offset,length);
-                writebuf.flip();
                 if (isConnected()) {
                     if (isUdpBased())
                         dataChannel.register(getSelector(), SelectionKey.OP_WRITE, this);
@@ -19,6 +19,7 @@ package org.apache.catalina.util;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -54,6 +55,17 @@ public abstract class SessionIdGeneratorBase extends LifecycleBase
 
     private String secureRandomProvider = null;
 
+    /**
+     * Random number generators used when {@link #perThreadRandom} is enabled.
+     * Replaced when this generator is stopped so that any instances still
+     * referenced by threads are not re-used.
+     */
+    private volatile ThreadLocal<RandomBlock> threadRandoms = new ThreadLocal<>();
+
+    private boolean perThreadRandom = false;
+
+    private int randomBlockSize = 4096;
+
 
     /** Node identifier when in a cluster. Defaults to the empty string. */
     private String jvmRoute = "";
@@ -145,6 +157,53 @@ public abstract class SessionIdGeneratorBase extends LifecycleBase
     }
 
 
+    /**
+     * @return {@code true} if each thread uses its own random number generator
+     *         to create session IDs
+     */
+    public boolean getPerThreadRandom() {
+        return perThreadRandom;
+    }
+
+
+    /**
+     * Configure whether each thread uses its own random number generator,
+     * rather than taking one from a shared pool, to create session IDs. Each
+     * generator is created with the configured class, algorithm and provider
+     * and random bytes are generated in blocks of {@link #getRandomBlockSize()}
+     * bytes. This removes contention between threads when many sessions are
+     * created concurrently at the cost of one random number generator and one
+     * block of random bytes per thread.
+     *
+     * @param perThreadRandom {@code true} to use a random number generator per
+     *        thread
+     */
+    public void setPerThreadRandom(boolean perThreadRandom) {
+        this.perThreadRandom = perThreadRandom;
+    }
+
+
+    /**
+     * @return the number of random bytes each per thread random number
+     *         generator generates at once
+     */
+    public int getRandomBlockSize() {
+        return randomBlockSize;
+    }
+
+
+    /**
+     * Specify the number of random bytes each per thread random number
+     * generator generates at once. Only used if {@link #getPerThreadRandom()}
+     * is {@code true}.
+     *
+     * @param randomBlockSize The number of bytes
+     */
+    public void setRandomBlockSize(int randomBlockSize) {
+        this.randomBlockSize = randomBlockSize;
+    }
+
+
     /**
      * Return the node identifier associated with this node which will be
      * included in the generated session ID.
@@ -198,6 +257,17 @@ public abstract class SessionIdGeneratorBase extends LifecycleBase
 
     protected void getRandomBytes(byte bytes[]) {
 
+        if (perThreadRandom) {
+            ThreadLocal<RandomBlock> threadRandoms = this.threadRandoms;
+            RandomBlock block = threadRandoms.get();
+            if (block == null) {
+                block = new RandomBlock(createSecureRandom(), Math.max(randomBlockSize, 1));
+                threadRandoms.set(block);
+            }
+            block.nextBytes(bytes);
+            return;
+        }
+
         SecureRandom random = randoms.poll();
         if (random == null) {
             random = createSecureRandom();
@@ -296,6 +366,7 @@ public abstract class SessionIdGeneratorBase extends LifecycleBase
     protected void stopInternal() throws LifecycleException {
         setState(LifecycleState.STOPPING);
         randoms.clear();
+        threadRandoms = new ThreadLocal<>();
     }
 
 
@@ -303,4 +374,38 @@ public abstract class SessionIdGeneratorBase extends LifecycleBase
     protected void destroyInternal() throws LifecycleException {
         // NO-OP
     }
+
+
+    /*
+     * A random number generator used by a single thread and the block of
+     * random bytes it generated that have not yet been used.
+     */
+    private static final class RandomBlock {
+
+        private final SecureRandom random;
+        private final byte[] block;
+        private int pos;
+
+        private RandomBlock(SecureRandom random, int size) {
+            this.random = random;
+            this.block = new byte[size];
+            this.pos = size;
+        }
+
+        private void nextBytes(byte[] bytes) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (pos == block.length) {
+                    random.nextBytes(block);
+                    pos = 0;
+                }
+                int len = Math.min(bytes.length - offset, block.length - pos);
+                System.arraycopy(block, pos, bytes, offset, len);
+                // Don't keep a copy of bytes that have been used
+                Arrays.fill(block, pos, pos + len, (byte) 0);
+                pos += len;
+                offset += len;
+            }
+        }
+    }
 }
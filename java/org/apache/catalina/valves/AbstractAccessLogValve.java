@@ -30,6 +30,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.servlet.RequestDispatcher;
@@ -48,6 +49,7 @@ import org.apache.catalina.connector.Response;
 import org.apache.catalina.util.TLSUtil;
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.RequestInfo;
+import org.apache.coyote.RequestPhase;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
@@ -1324,6 +1326,28 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
         }
     }
 
+    /**
+     * write time spent in a request processing phase in micros - %{xxx}P
+     */
+    protected static class PhaseTimeElement implements AccessLogElement {
+        private final RequestPhase phase;
+
+        public PhaseTimeElement(RequestPhase phase) {
+            this.phase = phase;
+        }
+
+        @Override
+        public void addElement(CharArrayWriter buf, Date date, Request request,
+                Response response, long time) {
+            long phaseTime = request.getCoyoteRequest().getPhaseTime(phase);
+            if (phaseTime < 0) {
+                buf.append('-');
+            } else {
+                buf.append(Long.toString(TimeUnit.NANOSECONDS.toMicros(phaseTime)));
+            }
+        }
+    }
+
     /**
      * write Query string (prepended with a '?' if it exists) - %q
      */
@@ -1670,6 +1694,12 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
             return new SessionAttributeElement(name);
         case 't':
             return new DateAndTimeElement(name);
+        case 'P':
+            RequestPhase phase = RequestPhase.fromDisplayName(name);
+            if (phase == null) {
+                return new StringElement("???");
+            }
+            return new PhaseTimeElement(phase);
         default:
             return new StringElement("???");
         }
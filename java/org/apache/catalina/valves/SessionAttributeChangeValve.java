@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletException;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.session.StandardSession;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.security.ConcurrentMessageDigest;
+
+/**
+ * Detects session attributes that have been modified in place, i.e. without
+ * the attribute being set again, and marks them as modified so that they are
+ * persisted and replicated. At the end of each request the attributes that the
+ * request read are hashed and the hash is compared with the hash recorded at
+ * the end of the previous request that read them. Each request tracks the
+ * attributes it reads separately. Values of immutable types, such as Strings
+ * and boxed primitives, cannot be modified in place and are not hashed.
+ * <p>
+ * Hashing an attribute requires it to be serialized so this Valve should only
+ * be used with applications that modify attributes without setting them again
+ * and that do not call {@link StandardSession#markAttributeDirty(String)}. The
+ * first time a session is seen after it has been created or loaded, all of its
+ * attributes that are not of an immutable type are treated as modified. When used with clustering, this Valve
+ * must be configured on the Context so that it runs before the session is
+ * replicated.
+ */
+public class SessionAttributeChangeValve extends ValveBase {
+
+    private static final Log log = LogFactory.getLog(SessionAttributeChangeValve.class);
+
+    private static final String HASHES_NOTE =
+            "org.apache.catalina.valves.SessionAttributeChangeValve.hashes";
+
+    private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<>(Arrays.asList(
+            String.class, Boolean.class, Character.class, Byte.class, Short.class,
+            Integer.class, Long.class, Float.class, Double.class, BigInteger.class,
+            BigDecimal.class, Class.class));
+
+
+    public SessionAttributeChangeValve() {
+        super(true);
+    }
+
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+        // Each request tracks the attributes it accesses separately so that
+        // concurrent requests for the same session do not miss each other's
+        // changes
+        StandardSession tracked = null;
+        Set<String> accessed = null;
+        Session initial = request.getSessionInternal(false);
+        if (initial instanceof StandardSession && initial.isValid()) {
+            tracked = (StandardSession) initial;
+            accessed = tracked.startAttributeAccessTracking();
+        }
+        try {
+            getNext().invoke(request, response);
+        } finally {
+            Map<String,Object> values = null;
+            if (tracked != null) {
+                values = tracked.stopAttributeAccessTracking(accessed);
+            }
+            Session session = request.getSessionInternal(false);
+            if (session instanceof StandardSession && session.isValid()) {
+                try {
+                    checkAttributes((StandardSession) session,
+                            session == tracked ? values : null);
+                } catch (IllegalStateException e) {
+                    // Session invalidated concurrently. Nothing to check.
+                }
+            }
+        }
+    }
+
+
+    /*
+     * If the session was not available at the start of the request, the
+     * attributes it accessed are not known so all of them are checked.
+     */
+    private void checkAttributes(StandardSession session, Map<String,Object> accessed) {
+        @SuppressWarnings("unchecked")
+        Map<String,byte[]> hashes = (Map<String,byte[]>) session.getNote(HASHES_NOTE);
+        if (hashes == null) {
+            hashes = new ConcurrentHashMap<>();
+            Enumeration<String> names = session.getAttributeNames();
+            while (names.hasMoreElements()) {
+                String name = names.nextElement();
+                Object value = session.getAttribute(name);
+                if (isImmutable(value)) {
+                    continue;
+                }
+                byte[] hash = hash(name, value);
+                if (hash != null) {
+                    hashes.put(name, hash);
+                }
+                if (!session.isNew()) {
+                    // Modifications made before now can't be detected
+                    session.markAttributeDirty(name);
+                }
+            }
+            session.setNote(HASHES_NOTE, hashes);
+            return;
+        }
+
+        if (accessed == null) {
+            accessed = new HashMap<>();
+            Enumeration<String> names = session.getAttributeNames();
+            while (names.hasMoreElements()) {
+                String name = names.nextElement();
+                Object value = session.getAttribute(name);
+                if (value != null) {
+                    accessed.put(name, value);
+                }
+            }
+        }
+        hashes.keySet().retainAll(Collections.list(session.getAttributeNames()));
+        for (Map.Entry<String,Object> entry : accessed.entrySet()) {
+            String name = entry.getKey();
+            Object value = entry.getValue();
+            if (isImmutable(value)) {
+                // Can't be modified in place
+                hashes.remove(name);
+                continue;
+            }
+            byte[] hash = hash(name, value);
+            if (hash == null) {
+                hashes.remove(name);
+                continue;
+            }
+            byte[] previous = hashes.put(name, hash);
+            if (previous != null && !Arrays.equals(previous, hash)) {
+                session.markAttributeDirty(name);
+            }
+        }
+    }
+
+
+    /*
+     * Values of these types can only be changed by setting the attribute
+     * again so there is no need to serialize them.
+     */
+    private static boolean isImmutable(Object value) {
+        return value == null || value instanceof Enum<?> ||
+                IMMUTABLE_TYPES.contains(value.getClass());
+    }
+
+
+    private static byte[] hash(String name, Object value) {
+        if (value == null) {
+            return null;
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(value);
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("sessionAttributeChangeValve.hashFail", name), e);
+            }
+            return null;
+        }
+        return ConcurrentMessageDigest.digestMD5(bos.toByteArray());
+    }
+}
@@ -111,12 +111,12 @@ public abstract class AbstractProcessorLight implements Processor {
         synchronized (dispatches) {
             // Synchronized as the generation of the iterator and the clearing
             // of dispatches needs to be an atomic operation.
-            result = dispatches.iterator();
-            if (result.hasNext()) {
-                dispatches.clear();
-            } else {
-                result = null;
+            if (dispatches.isEmpty()) {
+                // Avoid creating an iterator for the common case
+                return null;
             }
+            result = dispatches.iterator();
+            dispatches.clear();
         }
         return result;
     }
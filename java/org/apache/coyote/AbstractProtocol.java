@@ -192,6 +192,17 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
     }
 
 
+    /**
+     * Should the time spent in each {@link RequestPhase} be recorded for the
+     * requests processed by this protocol? The default is <code>false</code>.
+     */
+    private boolean phaseTiming = false;
+    public boolean getPhaseTiming() { return phaseTiming; }
+    public void setPhaseTiming(boolean phaseTiming) {
+        this.phaseTiming = phaseTiming;
+    }
+
+
     @Override
     public boolean isAprRequired() {
         return false;
@@ -1021,7 +1032,9 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
                 // processors
                 if (!processor.isUpgrade()) {
                     recycledProcessors.push(processor);
-                    getLog().debug("Pushed Processor [" + processor + "]");
+                    if (getLog().isDebugEnabled()) {
+                        getLog().debug("Pushed Processor [" + processor + "]");
+                    }
                 }
             }
         }
@@ -19,6 +19,7 @@ package org.apache.coyote;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -154,8 +155,18 @@ public final class Request {
     private long bytesRead=0;
     // Time of the request - useful to avoid repeated calls to System.currentTime
     private long startTime = -1;
+    // Value of System.nanoTime() at the start of the request, for durations
+    private long startTimeNanos = 0;
     private int available = 0;
 
+    // Phase timing. Times are in nanoseconds and only recorded if enabled.
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+    private boolean phaseTiming = false;
+    private long phaseTimingStart = NOT_STARTED;
+    private final long[] phaseStarts = new long[RequestPhase.values().length];
+    private final long[] phaseTimes = new long[RequestPhase.values().length];
+    private int phasesTimed = 0;
+
     private final RequestInfo reqProcessorMX=new RequestInfo(this);
 
     private boolean sendfile = true;
@@ -567,8 +578,111 @@ public final class Request {
         return startTime;
     }
 
+    /**
+     * Set the start time of the request. The value of
+     * {@link System#nanoTime()} is captured at the same time so that the
+     * duration of the request can be measured with sub-millisecond
+     * resolution.
+     *
+     * @param startTime The start time in milliseconds since the epoch
+     */
     public void setStartTime(long startTime) {
         this.startTime = startTime;
+        this.startTimeNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the value of {@link System#nanoTime()} when the start time of
+     *         the request was set. Only meaningful if
+     *         {@link #getStartTime()} is not negative.
+     */
+    public long getStartTimeNanos() {
+        return startTimeNanos;
+    }
+
+    // -------------------- Phase timing --------------------
+
+    public boolean getPhaseTiming() {
+        return phaseTiming;
+    }
+
+    /**
+     * Enable or disable the timing of the {@link RequestPhase}s of this
+     * request. Should only be changed between requests.
+     *
+     * @param phaseTiming <code>true</code> to record the time spent in each
+     *                    phase
+     */
+    public void setPhaseTiming(boolean phaseTiming) {
+        this.phaseTiming = phaseTiming;
+        resetPhaseTimes();
+    }
+
+    /**
+     * Mark the start of a phase. The first phase started for a request also
+     * marks the start of the request for the purposes of phase timing. This is
+     * a NO-OP if phase timing is not enabled.
+     *
+     * @param phase The phase that is starting
+     */
+    public void phaseStart(RequestPhase phase) {
+        if (phaseTiming) {
+            long now = System.nanoTime();
+            phaseStarts[phase.ordinal()] = now;
+            if (phaseTimingStart == NOT_STARTED) {
+                phaseTimingStart = now;
+            }
+        }
+    }
+
+    /**
+     * Mark the end of a phase and add the time since the matching call to
+     * {@link #phaseStart(RequestPhase)} to the total time for the phase. This
+     * is a NO-OP if phase timing is not enabled or the phase was not started.
+     *
+     * @param phase The phase that is ending
+     */
+    public void phaseEnd(RequestPhase phase) {
+        if (phaseTiming) {
+            int index = phase.ordinal();
+            long start = phaseStarts[index];
+            if (start != NOT_STARTED) {
+                phaseTimes[index] += System.nanoTime() - start;
+                phaseStarts[index] = NOT_STARTED;
+                phasesTimed |= 1 << index;
+            }
+        }
+    }
+
+    /**
+     * @param phase The phase of interest
+     *
+     * @return the total time in nanoseconds spent in the given phase by this
+     *         request or -1 if phase timing is disabled or the phase has not
+     *         been completed for this request
+     */
+    public long getPhaseTime(RequestPhase phase) {
+        int index = phase.ordinal();
+        if ((phasesTimed & (1 << index)) == 0) {
+            return -1;
+        }
+        return phaseTimes[index];
+    }
+
+    /**
+     * @return the value of {@link System#nanoTime()} when the first phase of
+     *         this request started or {@link Long#MIN_VALUE} if phase timing
+     *         is disabled or no phase has started
+     */
+    public long getPhaseTimingStart() {
+        return phaseTimingStart;
+    }
+
+    private void resetPhaseTimes() {
+        phaseTimingStart = NOT_STARTED;
+        Arrays.fill(phaseStarts, NOT_STARTED);
+        Arrays.fill(phaseTimes, 0);
+        phasesTimed = 0;
     }
 
     // -------------------- Per-Request "notes" --------------------
@@ -647,6 +761,10 @@ public final class Request {
         allDataReadEventSent.set(false);
 
         startTime = -1;
+        startTimeNanos = 0;
+        if (phaseTiming) {
+            resetPhaseTimes();
+        }
     }
 
     // -------------------- Info  --------------------
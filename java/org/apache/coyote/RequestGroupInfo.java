@@ -18,7 +18,9 @@ package org.apache.coyote;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.tomcat.util.collections.LatencyHistogram;
 import org.apache.tomcat.util.modeler.BaseModelMBean;
 
 /** This can be moved to top level ( eventually with a better name ).
@@ -33,6 +35,10 @@ public class RequestGroupInfo extends BaseModelMBean {
     private int deadErrorCount = 0;
     private long deadBytesReceived = 0;
     private long deadBytesSent = 0;
+    private final long[] deadPhaseTimes = new long[RequestPhase.values().length];
+    private int deadPhaseTimedRequestCount = 0;
+    // Processing times in microseconds
+    private final LatencyHistogram latencyHistogram = new LatencyHistogram();
 
     public synchronized void addRequestProcessor( RequestInfo rp ) {
         processors.add( rp );
@@ -47,6 +53,10 @@ public class RequestGroupInfo extends BaseModelMBean {
             deadErrorCount += rp.getErrorCount();
             deadBytesReceived += rp.getBytesReceived();
             deadBytesSent += rp.getBytesSent();
+            for (RequestPhase phase : RequestPhase.values()) {
+                deadPhaseTimes[phase.ordinal()] += rp.getPhaseTime(phase);
+            }
+            deadPhaseTimedRequestCount += rp.getPhaseTimedRequestCount();
 
             processors.remove( rp );
         }
@@ -145,6 +155,129 @@ public class RequestGroupInfo extends BaseModelMBean {
         }
     }
 
+    /**
+     * @param phase The phase of interest
+     *
+     * @return the total time in nanoseconds spent in the given phase by the
+     *         requests processed with phase timing enabled
+     */
+    public synchronized long getPhaseTime(RequestPhase phase) {
+        long time = deadPhaseTimes[phase.ordinal()];
+        for (RequestInfo rp : processors) {
+            time += rp.getPhaseTime(phase);
+        }
+        return time;
+    }
+
+    /**
+     * @param phase The display name of the phase of interest
+     *
+     * @return the total time in milliseconds spent in the given phase by the
+     *         requests processed with phase timing enabled or -1 if the phase
+     *         is not recognised
+     */
+    public long getPhaseProcessingTime(String phase) {
+        RequestPhase requestPhase = RequestPhase.fromDisplayName(phase);
+        if (requestPhase == null) {
+            return -1;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(getPhaseTime(requestPhase));
+    }
+
+    public synchronized int getPhaseTimedRequestCount() {
+        int count = deadPhaseTimedRequestCount;
+        for (RequestInfo rp : processors) {
+            count += rp.getPhaseTimedRequestCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return the mean time in microseconds spent in each phase by the
+     *         requests processed with phase timing enabled
+     */
+    public synchronized String getPhaseTimeSummary() {
+        int count = getPhaseTimedRequestCount();
+        StringBuilder sb = new StringBuilder();
+        for (RequestPhase phase : RequestPhase.values()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(phase.getDisplayName());
+            sb.append('=');
+            if (count == 0) {
+                sb.append('0');
+            } else {
+                sb.append(TimeUnit.NANOSECONDS.toMicros(getPhaseTime(phase) / count));
+            }
+        }
+        return sb.toString();
+    }
+
+    public synchronized void resetPhaseTimes() {
+        for (RequestPhase phase : RequestPhase.values()) {
+            deadPhaseTimes[phase.ordinal()] = 0;
+            for (RequestInfo rp : processors) {
+                rp.setPhaseTime(phase, 0);
+            }
+        }
+        deadPhaseTimedRequestCount = 0;
+        for (RequestInfo rp : processors) {
+            rp.setPhaseTimedRequestCount(0);
+        }
+    }
+
+    /**
+     * @return the histogram of the processing times, in microseconds, of the
+     *         requests processed by the processors in this group
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+
+    public long getLatencyP50() {
+        return getLatencyPercentile(50);
+    }
+
+    public long getLatencyP90() {
+        return getLatencyPercentile(90);
+    }
+
+    public long getLatencyP99() {
+        return getLatencyPercentile(99);
+    }
+
+    public long getLatencyP999() {
+        return getLatencyPercentile(99.9);
+    }
+
+    /**
+     * @param percentile The percentile, between 0 and 100
+     *
+     * @return the processing time, in microseconds, at the given percentile
+     *         of the requests processed by the processors in this group
+     */
+    public long getLatencyPercentile(double percentile) {
+        return getLatencyHistogram().getSnapshot().getValueAtPercentile(percentile);
+    }
+
+    public String getLatencySummary() {
+        return getLatencyHistogram().getSnapshot().toString();
+    }
+
+    /**
+     * @return a summary of the processing times, in microseconds, of the
+     *         requests processed by the processors in this group since the
+     *         previous call to this method
+     */
+    public String getLatencyIntervalSummary() {
+        return getLatencyHistogram().getIntervalSnapshot().toString();
+    }
+
+    public void resetLatencyHistogram() {
+        getLatencyHistogram().reset();
+    }
+
     public void resetCounters() {
         this.setBytesReceived(0);
         this.setBytesSent(0);
@@ -152,5 +285,7 @@ public class RequestGroupInfo extends BaseModelMBean {
         this.setProcessingTime(0);
         this.setMaxTime(0);
         this.setErrorCount(0);
+        latencyHistogram.reset();
+        resetPhaseTimes();
     }
 }
@@ -17,6 +17,8 @@
 
 package org.apache.coyote;
 
+import java.util.concurrent.TimeUnit;
+
 import javax.management.ObjectName;
 
 
@@ -152,6 +154,12 @@ public class RequestInfo  {
     //the time of the last request
     private long lastRequestProcessingTime = 0;
 
+    private static final RequestPhase[] PHASES = RequestPhase.values();
+    // Total time in nanoseconds spent in each phase by requests with phase
+    // timing enabled
+    private final long[] phaseTimes = new long[PHASES.length];
+    private int phaseTimedRequestCount;
+
 
     /** Called by the processor before recycling the request. It'll collect
      * statistic information.
@@ -172,6 +180,24 @@ public class RequestInfo  {
             maxTime=time;
             maxRequestUri=req.requestURI().toString();
         }
+        long timeMicros;
+        if (t0 < 0) {
+            timeMicros = time * 1000;
+        } else {
+            timeMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - req.getStartTimeNanos());
+        }
+        if (req.getPhaseTimingStart() != Long.MIN_VALUE) {
+            phaseTimedRequestCount++;
+            for (RequestPhase phase : PHASES) {
+                long phaseTime = req.getPhaseTime(phase);
+                if (phaseTime > 0) {
+                    phaseTimes[phase.ordinal()] += phaseTime;
+                }
+            }
+        }
+        if (global != null) {
+            global.getLatencyHistogram().record(timeMicros);
+        }
     }
 
     public int getStage() {
@@ -261,4 +287,26 @@ public class RequestInfo  {
     public void setLastRequestProcessingTime(long lastRequestProcessingTime) {
         this.lastRequestProcessingTime = lastRequestProcessingTime;
     }
+
+    /**
+     * @param phase The phase of interest
+     *
+     * @return the total time in nanoseconds spent in the given phase by the
+     *         requests processed with phase timing enabled
+     */
+    public long getPhaseTime(RequestPhase phase) {
+        return phaseTimes[phase.ordinal()];
+    }
+
+    public void setPhaseTime(RequestPhase phase, long phaseTime) {
+        phaseTimes[phase.ordinal()] = phaseTime;
+    }
+
+    public int getPhaseTimedRequestCount() {
+        return phaseTimedRequestCount;
+    }
+
+    public void setPhaseTimedRequestCount(int phaseTimedRequestCount) {
+        this.phaseTimedRequestCount = phaseTimedRequestCount;
+    }
 }
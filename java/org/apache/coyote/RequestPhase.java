@@ -0,0 +1,113 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote;
+
+import java.util.Locale;
+
+/**
+ * The phases of request processing that are timed when phase timing is
+ * enabled for a connector. The time spent in each phase is accumulated on the
+ * {@link Request} so a phase that is entered more than once (e.g. session
+ * lookup or an asynchronous dispatch to a servlet) reports the total time.
+ * Phases may be nested and the time reported for a phase includes the time
+ * spent in any nested phase.
+ */
+public enum RequestPhase {
+
+    /**
+     * Reading and parsing the request line and headers, from the arrival of
+     * the first byte of the request until the request has been prepared for
+     * the container.
+     */
+    PARSE,
+
+    /**
+     * Conversion and normalization of the request URI and mapping of the
+     * request to a host, context and wrapper.
+     */
+    MAP,
+
+    /**
+     * Processing of the request by the host, from the host's basic valve
+     * selecting the context until the context has finished with the request,
+     * including the context's pipeline and any error page processing.
+     */
+    HOST,
+
+    /**
+     * Authentication of the request by the context's authenticator.
+     */
+    AUTHENTICATE,
+
+    /**
+     * Processing of the request by the context's basic valve, including the
+     * wrapper's pipeline.
+     */
+    CONTEXT,
+
+    /**
+     * Looking up (and, where necessary, creating) the session for the
+     * request.
+     */
+    SESSION,
+
+    /**
+     * Execution of the filter chain, including the target servlet.
+     */
+    FILTER_CHAIN,
+
+    /**
+     * Execution of the target servlet's service method.
+     */
+    SERVLET,
+
+    /**
+     * Completing the request and flushing and committing the response after
+     * the container has finished processing the request.
+     */
+    FINISH;
+
+
+    private final String displayName = name().toLowerCase(Locale.ENGLISH).replace('_', '-');
+
+
+    /**
+     * @return the name used to refer to this phase in configuration, e.g.
+     *         access log patterns
+     */
+    public String getDisplayName() {
+        return displayName;
+    }
+
+
+    /**
+     * Obtain the phase with the given display name.
+     *
+     * @param displayName The display name of the phase (case insensitive)
+     *
+     * @return The phase or <code>null</code> if there is no phase with the
+     *         given name
+     */
+    public static RequestPhase fromDisplayName(String displayName) {
+        for (RequestPhase phase : values()) {
+            if (phase.displayName.equalsIgnoreCase(displayName)) {
+                return phase;
+            }
+        }
+        return null;
+    }
+}
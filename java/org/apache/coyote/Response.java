@@ -120,6 +120,13 @@ public final class Response {
     long contentLength = -1;
     private Locale locale = DEFAULT_LOCALE;
 
+    // The most recently generated content type header value including the
+    // charset. Retained across recycling as most responses for a given
+    // processor use the same combination of content type and charset.
+    private String cachedContentType = null;
+    private String cachedContentTypeNoCharset = null;
+    private String cachedCharacterEncoding = null;
+
     // General informations
     private long contentWritten = 0;
     private long commitTime = -1;
@@ -563,7 +570,15 @@ public final class Response {
 
         if (ret != null
             && charset != null) {
+            if (ret.equals(cachedContentTypeNoCharset) &&
+                    characterEncoding != null &&
+                    characterEncoding.equals(cachedCharacterEncoding)) {
+                return cachedContentType;
+            }
+            cachedContentTypeNoCharset = ret;
+            cachedCharacterEncoding = characterEncoding;
             ret = ret + ";charset=" + characterEncoding;
+            cachedContentType = ret;
         }
 
         return ret;
@@ -35,6 +35,7 @@ import org.apache.coyote.ErrorState;
 import org.apache.coyote.InputBuffer;
 import org.apache.coyote.OutputBuffer;
 import org.apache.coyote.RequestInfo;
+import org.apache.coyote.RequestPhase;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
@@ -248,6 +249,7 @@ public class AjpProcessor extends AbstractProcessor {
         this.outputMaxChunkSize = packetSize - Constants.SEND_HEAD_LEN;
 
         request.setInputBuffer(new SocketInputBuffer());
+        request.setPhaseTiming(protocol.getPhaseTiming());
 
         requestHeaderMessage = new AjpMessage(packetSize);
         responseMessage = new AjpMessage(packetSize);
@@ -355,6 +357,7 @@ public class AjpProcessor extends AbstractProcessor {
                 }
                 keptAlive = true;
                 request.setStartTime(System.currentTimeMillis());
+                request.phaseStart(RequestPhase.PARSE);
             } catch (IOException e) {
                 setErrorState(ErrorState.CLOSE_CONNECTION_NOW, e);
                 break;
@@ -379,6 +382,7 @@ public class AjpProcessor extends AbstractProcessor {
                     setErrorState(ErrorState.CLOSE_CLEAN, t);
                 }
             }
+            request.phaseEnd(RequestPhase.PARSE);
 
             if (getErrorState().isIoAllowed() && !cping && protocol.isPaused()) {
                 // 503 - Service unavailable
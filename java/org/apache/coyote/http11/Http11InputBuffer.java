@@ -24,6 +24,7 @@ import java.util.Arrays;
 
 import org.apache.coyote.InputBuffer;
 import org.apache.coyote.Request;
+import org.apache.coyote.RequestPhase;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.buf.MessageBytes;
@@ -375,6 +376,7 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
                 // just skipping blank lines)
                 if (request.getStartTime() < 0) {
                     request.setStartTime(System.currentTimeMillis());
+                    request.phaseStart(RequestPhase.PARSE);
                 }
                 chr = byteBuffer.get();
             } while ((chr == Constants.CR) || (chr == Constants.LF));
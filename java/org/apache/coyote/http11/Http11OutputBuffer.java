@@ -18,6 +18,7 @@ package org.apache.coyote.http11;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 import org.apache.coyote.ActionCode;
@@ -375,6 +376,14 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
      * @param mb data to be written
      */
     private void write(MessageBytes mb) {
+        if (mb.getType() == MessageBytes.T_STR &&
+                mb.getByteChunk().getCharset() == StandardCharsets.ISO_8859_1) {
+            // Common case for header values set by the container and the
+            // application. Write the String directly rather than converting it
+            // to bytes first.
+            write(mb.getString());
+            return;
+        }
         if (mb.getType() != MessageBytes.T_BYTES) {
             mb.toBytes();
             ByteChunk bc = mb.getByteChunk();
@@ -398,6 +407,38 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
     }
 
 
+    /**
+     * This method will write the specified String to the output stream using
+     * ISO-8859-1, applying the same filtering and replacement as
+     * {@link #write(MessageBytes)} does for non-byte values: CTLs (excluding
+     * TAB) are written as a space and characters that cannot be represented in
+     * ISO-8859-1 are written as '?'.
+     *
+     * @param s data to be written
+     */
+    private void write(String s) {
+        if (s == null) {
+            return;
+        }
+        int len = s.length();
+        checkLengthBeforeWrite(len);
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c > 255) {
+                if (Character.isHighSurrogate(c) && i + 1 < len &&
+                        Character.isLowSurrogate(s.charAt(i + 1))) {
+                    // A single replacement for the pair
+                    i++;
+                }
+                c = '?';
+            } else if ((c <= 31 && c != 9) || c == 127) {
+                c = ' ';
+            }
+            headerBuffer.put((byte) c);
+        }
+    }
+
+
     /**
      * This method will write the contents of the specified byte chunk to the
      * output stream, without filtering. This method is meant to be used to
@@ -31,6 +31,7 @@ import org.apache.coyote.Adapter;
 import org.apache.coyote.ErrorState;
 import org.apache.coyote.Request;
 import org.apache.coyote.RequestInfo;
+import org.apache.coyote.RequestPhase;
 import org.apache.coyote.UpgradeProtocol;
 import org.apache.coyote.UpgradeToken;
 import org.apache.coyote.http11.filters.BufferedInputFilter;
@@ -155,6 +156,7 @@ public class Http11Processor extends AbstractProcessor {
         inputBuffer = new Http11InputBuffer(request, protocol.getMaxHttpHeaderSize(),
                 protocol.getRejectIllegalHeaderName(), httpParser);
         request.setInputBuffer(inputBuffer);
+        request.setPhaseTiming(protocol.getPhaseTiming());
 
         outputBuffer = new Http11OutputBuffer(response, protocol.getMaxHttpHeaderSize());
         response.setOutputBuffer(outputBuffer);
@@ -392,6 +394,7 @@ public class Http11Processor extends AbstractProcessor {
                     setErrorState(ErrorState.CLOSE_CLEAN, t);
                 }
             }
+            request.phaseEnd(RequestPhase.PARSE);
 
             int maxKeepAliveRequests = protocol.getMaxKeepAliveRequests();
             if (maxKeepAliveRequests == 1) {
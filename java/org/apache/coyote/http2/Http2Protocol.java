@@ -74,6 +74,7 @@ public class Http2Protocol implements UpgradeProtocol {
     private int maxTrailerSize = Constants.DEFAULT_MAX_TRAILER_SIZE;
     private boolean initiatePingDisabled = false;
     private boolean useSendfile = true;
+    private boolean phaseTiming = false;
     // Compression
     private final CompressionConfig compressionConfig = new CompressionConfig();
 
@@ -205,6 +206,16 @@ public class Http2Protocol implements UpgradeProtocol {
     }
 
 
+    public boolean getPhaseTiming() {
+        return phaseTiming;
+    }
+
+
+    public void setPhaseTiming(boolean phaseTiming) {
+        this.phaseTiming = phaseTiming;
+    }
+
+
     public void setAllowedTrailerHeaders(String commaSeparatedHeaders) {
         // Jump through some hoops so we don't end up with an empty set while
         // doing updates.
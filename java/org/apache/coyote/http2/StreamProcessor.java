@@ -26,6 +26,7 @@ import org.apache.coyote.Adapter;
 import org.apache.coyote.ContainerThreadMarker;
 import org.apache.coyote.ErrorState;
 import org.apache.coyote.Request;
+import org.apache.coyote.RequestPhase;
 import org.apache.coyote.Response;
 import org.apache.coyote.http11.filters.GzipOutputFilter;
 import org.apache.juli.logging.Log;
@@ -352,6 +353,7 @@ class StreamProcessor extends AbstractProcessor {
     @Override
     public final SocketState service(SocketWrapperBase<?> socket) throws IOException {
         try {
+            request.phaseEnd(RequestPhase.PARSE);
             adapter.service(request, response);
         } catch (Exception e) {
             if (log.isDebugEnabled()) {
@@ -53,6 +53,15 @@ public class B2CConverter {
                         alias.toLowerCase(Locale.ENGLISH), charset);
             }
         }
+        // Also add the canonical names as-is (e.g. "UTF-8") so the most
+        // commonly used names can be looked up without first converting them
+        // to lower case.
+        for (Charset charset: Charset.availableCharsets().values()) {
+            String name = charset.name();
+            if (encodingToCharsetCache.get(name.toLowerCase(Locale.ENGLISH)) == charset) {
+                encodingToCharsetCache.putIfAbsent(name, charset);
+            }
+        }
     }
 
 
@@ -68,10 +77,15 @@ public class B2CConverter {
      */
     public static Charset getCharset(String enc) throws UnsupportedEncodingException {
 
+        Charset charset = encodingToCharsetCache.get(enc);
+        if (charset != null) {
+            return charset;
+        }
+
         // Encoding names should all be ASCII
         String lowerCaseEnc = enc.toLowerCase(Locale.ENGLISH);
 
-        Charset charset = encodingToCharsetCache.get(lowerCaseEnc);
+        charset = encodingToCharsetCache.get(lowerCaseEnc);
 
         if (charset == null) {
             // Pre-population of the cache means this must be invalid
@@ -589,6 +589,15 @@ public final class ByteChunk extends AbstractChunk {
         if (charset == null) {
             charset = DEFAULT_CHARSET;
         }
+        // ISO-8859-1 maps every byte to the char with the same value as does
+        // any ASCII compatible charset for bytes in the range 0 to 127. The
+        // String constructor only copies the required range for ISO-8859-1 so
+        // use it for the common case of ASCII parameters, header values etc.
+        if (charset == StandardCharsets.ISO_8859_1 ||
+                (charset == StandardCharsets.UTF_8 || charset == StandardCharsets.US_ASCII) &&
+                isAscii(buff, start, end)) {
+            return new String(buff, start, end - start, StandardCharsets.ISO_8859_1);
+        }
         // new String(byte[], int, int, Charset) takes a defensive copy of the
         // entire byte array. This is expensive if only a small subset of the
         // bytes will be used. The code below is from Apache Harmony.
@@ -597,6 +606,16 @@ public final class ByteChunk extends AbstractChunk {
     }
 
 
+    private static boolean isAscii(byte[] buff, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buff[i] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
     public long getLong() {
         return Ascii.parseLong(buff, start, end - start);
     }
@@ -66,6 +66,12 @@ public class Utf8Decoder extends CharsetDecoder {
     };
     private static final int lowerEncodingLimit[] = {-1, 0x80, 0x800, 0x10000};
 
+    // Runs of ASCII at least this long are decoded with asciiDecoder
+    private static final int ASCII_RUN_THRESHOLD = 16;
+
+    // Only ever used with endOfInput == false so it never needs to be reset
+    private final CharsetDecoder asciiDecoder = StandardCharsets.US_ASCII.newDecoder();
+
 
     public Utf8Decoder() {
         super(StandardCharsets.UTF_8, 1.0f, 1.0f);
@@ -157,6 +163,31 @@ public class Utf8Decoder extends CharsetDecoder {
         // if someone would change the limit in process,
         // he would face consequences
         for (; inIndex < inIndexLimit && outRemaining > 0; inIndex++) {
+            if (bArr[inIndex] >= 0) {
+                // Short runs of ASCII are copied directly. Longer runs are
+                // passed to the JRE's US-ASCII decoder which is significantly
+                // faster for large blocks.
+                int asciiLimit = inIndex +
+                        Math.min(Math.min(inIndexLimit - inIndex, outRemaining), ASCII_RUN_THRESHOLD);
+                int asciiStart = inIndex;
+                while (inIndex < asciiLimit && bArr[inIndex] >= 0) {
+                    cArr[outIndex++] = (char) bArr[inIndex++];
+                }
+                outRemaining -= inIndex - asciiStart;
+                if (inIndex - asciiStart == ASCII_RUN_THRESHOLD && inIndex < inIndexLimit &&
+                        outRemaining > 0 && bArr[inIndex] >= 0) {
+                    in.position(inIndex - in.arrayOffset());
+                    out.position(outIndex - out.arrayOffset());
+                    // Stops at the first non-ASCII byte
+                    asciiDecoder.decode(in, out, false);
+                    inIndex = in.position() + in.arrayOffset();
+                    outIndex = out.position() + out.arrayOffset();
+                    outRemaining = out.remaining();
+                }
+                if (inIndex == inIndexLimit || outRemaining == 0) {
+                    break;
+                }
+            }
             int jchar = bArr[inIndex];
             if (jchar < 0) {
                 jchar = jchar & 0x7F;
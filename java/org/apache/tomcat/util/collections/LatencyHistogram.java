@@ -0,0 +1,346 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free histogram of non-negative values (typically latencies in
+ * microseconds) using a log-linear bucket layout similar to HdrHistogram.
+ * Values below <code>2^precisionBits</code> are counted exactly. Above that,
+ * each power of two is split into <code>2^(precisionBits - 1)</code> linear
+ * buckets so the relative error of any reported value is bounded by
+ * <code>2^-(precisionBits - 1)</code>.
+ * <p>
+ * Recording is spread over a number of stripes selected by thread ID so that
+ * concurrent request threads rarely update the same counters. Stripes are
+ * allocated on first use which keeps the footprint of rarely used histograms
+ * (e.g. for JSPs that are seldom requested) small.
+ * <p>
+ * Snapshots are not atomic with respect to concurrent recording. Values
+ * recorded while a snapshot is taken may or may not be included.
+ */
+public class LatencyHistogram {
+
+    private static final int DEFAULT_PRECISION_BITS = 5;
+    // Approximately 71 minutes when recording microseconds
+    private static final long DEFAULT_HIGHEST_TRACKABLE_VALUE = (1L << 32) - 1;
+    private static final int MAX_DEFAULT_STRIPES = 8;
+
+    private final int precisionBits;
+    private final int halfCountMagnitude;
+    private final long highestTrackableValue;
+    private final int bucketCount;
+    // Per stripe layout: the buckets followed by the sum, min and max slots
+    private final int sumIndex;
+    private final int minIndex;
+    private final int maxIndex;
+    private final int stripeMask;
+    private final AtomicReferenceArray<AtomicLongArray> stripes;
+
+    private Snapshot intervalStart = null;
+
+
+    /**
+     * Create a histogram with the default precision (relative error of at
+     * most 6.25%), a highest trackable value of <code>2^32 - 1</code> and a
+     * stripe count based on the number of available processors.
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_PRECISION_BITS, DEFAULT_HIGHEST_TRACKABLE_VALUE,
+                Math.min(MAX_DEFAULT_STRIPES, Runtime.getRuntime().availableProcessors()));
+    }
+
+
+    /**
+     * Create a histogram.
+     *
+     * @param precisionBits         The number of bits of precision to retain
+     *                              for each recorded value. Must be between 2
+     *                              and 16.
+     * @param highestTrackableValue Values larger than this are recorded as
+     *                              this value
+     * @param stripes               The number of stripes to use. Rounded up to
+     *                              the next power of two.
+     */
+    public LatencyHistogram(int precisionBits, long highestTrackableValue, int stripes) {
+        if (precisionBits < 2 || precisionBits > 16) {
+            throw new IllegalArgumentException(
+                    "precisionBits [" + precisionBits + "] must be between 2 and 16");
+        }
+        if (highestTrackableValue < 1) {
+            throw new IllegalArgumentException(
+                    "highestTrackableValue [" + highestTrackableValue + "] must be positive");
+        }
+        this.precisionBits = precisionBits;
+        this.halfCountMagnitude = precisionBits - 1;
+        this.highestTrackableValue = highestTrackableValue;
+        this.bucketCount = bucketIndex(highestTrackableValue) + 1;
+        this.sumIndex = bucketCount;
+        this.minIndex = bucketCount + 1;
+        this.maxIndex = bucketCount + 2;
+        int stripeCount = 1;
+        while (stripeCount < stripes) {
+            stripeCount <<= 1;
+        }
+        this.stripeMask = stripeCount - 1;
+        this.stripes = new AtomicReferenceArray<>(stripeCount);
+    }
+
+
+    /**
+     * Record a single value.
+     *
+     * @param value The value to record. Negative values are recorded as zero
+     *              and values larger than the highest trackable value are
+     *              recorded as the highest trackable value.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > highestTrackableValue) {
+            value = highestTrackableValue;
+        }
+        AtomicLongArray stripe = getStripe();
+        stripe.incrementAndGet(bucketIndex(value));
+        stripe.addAndGet(sumIndex, value);
+        long current = stripe.get(minIndex);
+        while (value < current && !stripe.compareAndSet(minIndex, current, value)) {
+            current = stripe.get(minIndex);
+        }
+        current = stripe.get(maxIndex);
+        while (value > current && !stripe.compareAndSet(maxIndex, current, value)) {
+            current = stripe.get(maxIndex);
+        }
+    }
+
+
+    /**
+     * Obtain a snapshot of all the values recorded since this histogram was
+     * created or last reset.
+     *
+     * @return The snapshot
+     */
+    public Snapshot getSnapshot() {
+        long[] counts = new long[bucketCount];
+        long sum = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < stripes.length(); i++) {
+            AtomicLongArray stripe = stripes.get(i);
+            if (stripe == null) {
+                continue;
+            }
+            for (int j = 0; j < bucketCount; j++) {
+                counts[j] += stripe.get(j);
+            }
+            sum += stripe.get(sumIndex);
+            min = Math.min(min, stripe.get(minIndex));
+            max = Math.max(max, stripe.get(maxIndex));
+        }
+        return new Snapshot(this, counts, sum, min, max);
+    }
+
+
+    /**
+     * Obtain a snapshot of the values recorded since the previous call to this
+     * method or, for the first call, since this histogram was created or last
+     * reset. The minimum and maximum of an interval snapshot are derived from
+     * the bucket boundaries and are therefore subject to the same precision as
+     * the percentiles.
+     *
+     * @return The snapshot for the current interval
+     */
+    public synchronized Snapshot getIntervalSnapshot() {
+        Snapshot current = getSnapshot();
+        Snapshot start = intervalStart;
+        intervalStart = current;
+        if (start == null) {
+            return current;
+        }
+        long[] counts = new long[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            counts[i] = Math.max(0, current.counts[i] - start.counts[i]);
+        }
+        return new Snapshot(this, counts, current.sum - start.sum, -1, -1);
+    }
+
+
+    /**
+     * Discard all recorded values. Values recorded concurrently with a reset
+     * may or may not be discarded.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < stripes.length(); i++) {
+            stripes.set(i, null);
+        }
+        intervalStart = null;
+    }
+
+
+    public int getPrecisionBits() {
+        return precisionBits;
+    }
+
+
+    public long getHighestTrackableValue() {
+        return highestTrackableValue;
+    }
+
+
+    private AtomicLongArray getStripe() {
+        int index = (int) Thread.currentThread().getId() & stripeMask;
+        AtomicLongArray stripe = stripes.get(index);
+        if (stripe == null) {
+            AtomicLongArray newStripe = new AtomicLongArray(bucketCount + 3);
+            newStripe.set(minIndex, Long.MAX_VALUE);
+            if (stripes.compareAndSet(index, null, newStripe)) {
+                stripe = newStripe;
+            } else {
+                stripe = stripes.get(index);
+            }
+        }
+        return stripe;
+    }
+
+
+    private int bucketIndex(long value) {
+        int magnitude = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - halfCountMagnitude);
+        return (magnitude << halfCountMagnitude) + (int) (value >>> magnitude);
+    }
+
+
+    private long lowestEquivalentValue(int index) {
+        int magnitude = Math.max(0, (index >> halfCountMagnitude) - 1);
+        return ((long) index - (magnitude << halfCountMagnitude)) << magnitude;
+    }
+
+
+    private long highestEquivalentValue(int index) {
+        int magnitude = Math.max(0, (index >> halfCountMagnitude) - 1);
+        return Math.min(highestTrackableValue, lowestEquivalentValue(index) + (1L << magnitude) - 1);
+    }
+
+
+    /**
+     * An immutable view of the values recorded by a histogram.
+     */
+    public static final class Snapshot {
+
+        private final LatencyHistogram histogram;
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        private Snapshot(LatencyHistogram histogram, long[] counts, long sum, long min,
+                long max) {
+            this.histogram = histogram;
+            this.counts = counts;
+            long total = 0;
+            int first = -1;
+            int last = -1;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    total += counts[i];
+                    if (first == -1) {
+                        first = i;
+                    }
+                    last = i;
+                }
+            }
+            this.count = total;
+            this.sum = sum;
+            if (total == 0) {
+                this.min = 0;
+                this.max = 0;
+            } else {
+                // Concurrent recording may mean min / max have yet to be
+                // updated for a value that has already been counted
+                this.min = (min < 0 || min == Long.MAX_VALUE) ?
+                        histogram.lowestEquivalentValue(first) : min;
+                this.max = (max <= 0) ? histogram.highestEquivalentValue(last) : max;
+            }
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            if (count == 0) {
+                return 0;
+            }
+            return (double) sum / count;
+        }
+
+        /**
+         * Obtain the value at the given percentile. The value returned is the
+         * highest value that is equivalent (within the precision of the
+         * histogram) to the recorded value at that percentile, capped at the
+         * maximum recorded value.
+         *
+         * @param percentile The percentile, between 0 and 100
+         *
+         * @return The value at the given percentile or zero if no values have
+         *         been recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            double p = Math.min(100.0, Math.max(0.0, percentile));
+            long target = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.max(min, Math.min(max, histogram.highestEquivalentValue(i)));
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("count=").append(count);
+            sb.append(", mean=").append(String.format("%.1f", Double.valueOf(getMean())));
+            sb.append(", min=").append(min);
+            sb.append(", p50=").append(getValueAtPercentile(50));
+            sb.append(", p90=").append(getValueAtPercentile(90));
+            sb.append(", p99=").append(getValueAtPercentile(99));
+            sb.append(", p99.9=").append(getValueAtPercentile(99.9));
+            sb.append(", max=").append(max);
+            return sb.toString();
+        }
+    }
+}
@@ -29,6 +29,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.charset.UnsupportedCharsetException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
@@ -888,6 +889,38 @@ public class TestRequest extends TomcatBaseTest {
     }
 
 
+    @Test
+    public void testLocaleCacheAcrossRecycle() {
+        org.apache.coyote.Request coyoteRequest = new org.apache.coyote.Request();
+        Request req = new Request(null);
+        req.setCoyoteRequest(coyoteRequest);
+
+        coyoteRequest.getMimeHeaders().addValue("accept-language").setString("fr;q=0.5, en-gb");
+        Assert.assertEquals(Arrays.asList(Locale.forLanguageTag("en-gb"), Locale.FRENCH),
+                Collections.list(req.getLocales()));
+
+        // Same header - cached result
+        req.recycle();
+        coyoteRequest.recycle();
+        coyoteRequest.getMimeHeaders().addValue("accept-language").setString("fr;q=0.5, en-gb");
+        Assert.assertEquals(Arrays.asList(Locale.forLanguageTag("en-gb"), Locale.FRENCH),
+                Collections.list(req.getLocales()));
+
+        // Different header
+        req.recycle();
+        coyoteRequest.recycle();
+        coyoteRequest.getMimeHeaders().addValue("accept-language").setString("de");
+        Assert.assertEquals(Locale.GERMAN, req.getLocale());
+
+        // No header
+        req.recycle();
+        coyoteRequest.recycle();
+        Assert.assertEquals(Locale.getDefault(), req.getLocale());
+        Assert.assertEquals(Collections.singletonList(Locale.getDefault()),
+                Collections.list(req.getLocales()));
+    }
+
+
     @Test
     @Ignore("Used to check performance of different parsing approaches")
     public void localeParsePerformance() throws Exception {
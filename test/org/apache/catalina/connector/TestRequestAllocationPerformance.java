@@ -0,0 +1,196 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+/**
+ * Measures the bytes allocated by the container threads to process a simple
+ * GET request over a keep-alive connection. The test fails if the steady state
+ * allocation per request exceeds the budget so regressions in the recycling of
+ * the request and response objects are caught early.
+ */
+public class TestRequestAllocationPerformance extends TomcatBaseTest {
+
+    private static final int WARM_UP = 5000;
+    private static final int ITERATIONS = 10000;
+
+    /*
+     * The budget is deliberately generous compared to the typical measured
+     * value (which is logged) so that differences between JVMs do not cause
+     * false failures. It should be reduced if allocations are removed from
+     * the request processing path.
+     */
+    private static final long BYTES_PER_REQUEST_BUDGET = 2048;
+
+    private static final String BODY = "OK";
+
+
+    @Test
+    public void testSimpleGet() throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("Per-thread allocation counting not supported",
+                threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationMXBean =
+                (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue("Per-thread allocation counting not enabled",
+                allocationMXBean.isThreadAllocatedMemorySupported() &&
+                allocationMXBean.isThreadAllocatedMemoryEnabled());
+
+        Tomcat tomcat = getTomcatInstance();
+        // Unlimited keep-alive so every request uses the same connection
+        Assert.assertTrue(tomcat.getConnector().setProperty("maxKeepAliveRequests", "-1"));
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "simple", new SimpleServlet());
+        ctx.addServletMappingDecoded("/", "simple");
+
+        tomcat.start();
+
+        byte[] request = ("GET /test?a=b HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Accept-Language: en-GB,en;q=0.5\r\n" +
+                "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+        try (Socket socket = new Socket("localhost", getPort())) {
+            OutputStream os = socket.getOutputStream();
+            InputStream is = socket.getInputStream();
+
+            byte[] buffer = new byte[8192];
+            for (int i = 0; i < WARM_UP; i++) {
+                doRequest(os, is, request, buffer);
+            }
+
+            Map<Long,Long> before = getContainerThreadAllocations(allocationMXBean);
+            for (int i = 0; i < ITERATIONS; i++) {
+                doRequest(os, is, request, buffer);
+            }
+            Map<Long,Long> after = getContainerThreadAllocations(allocationMXBean);
+
+            long allocated = 0;
+            for (Map.Entry<Long,Long> entry : after.entrySet()) {
+                Long start = before.get(entry.getKey());
+                allocated += entry.getValue().longValue() -
+                        (start == null ? 0 : start.longValue());
+            }
+            long perRequest = allocated / ITERATIONS;
+
+            log.info("Allocated [" + perRequest + "] bytes per request");
+            Assert.assertTrue("Allocated [" + perRequest + "] bytes per request, budget is [" +
+                    BYTES_PER_REQUEST_BUDGET + "]", perRequest <= BYTES_PER_REQUEST_BUDGET);
+        }
+    }
+
+
+    private static void doRequest(OutputStream os, InputStream is, byte[] request,
+            byte[] buffer) throws IOException {
+        os.write(request);
+        os.flush();
+
+        // Read the response headers and then the fixed length body
+        int read = 0;
+        int headerEnd = -1;
+        while (headerEnd == -1) {
+            int n = is.read(buffer, read, buffer.length - read);
+            if (n < 0) {
+                Assert.fail("Connection closed");
+            }
+            read += n;
+            headerEnd = indexOfHeaderEnd(buffer, read);
+        }
+        int total = headerEnd + BODY.length();
+        while (read < total) {
+            int n = is.read(buffer, read, buffer.length - read);
+            if (n < 0) {
+                Assert.fail("Connection closed");
+            }
+            read += n;
+        }
+        Assert.assertEquals(total, read);
+    }
+
+
+    private static int indexOfHeaderEnd(byte[] buffer, int len) {
+        for (int i = 3; i < len; i++) {
+            if (buffer[i] == '\n' && buffer[i - 1] == '\r' && buffer[i - 2] == '\n' &&
+                    buffer[i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+
+    private static Map<Long,Long> getContainerThreadAllocations(
+            com.sun.management.ThreadMXBean allocationMXBean) {
+        Map<Long,Long> result = new HashMap<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            // Container threads for the test connector, including the
+            // acceptor and poller threads
+            if (name.startsWith("http-")) {
+                long allocated = allocationMXBean.getThreadAllocatedBytes(thread.getId());
+                if (allocated >= 0) {
+                    result.put(Long.valueOf(thread.getId()), Long.valueOf(allocated));
+                }
+            }
+        }
+        return result;
+    }
+
+
+    private static class SimpleServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            // Touch the commonly used parts of the request
+            req.getParameter("a");
+            req.getLocale();
+            req.getCookies();
+            req.getAttribute("org.apache.catalina.ASYNC_SUPPORTED");
+            resp.setContentType("text/plain");
+            resp.setCharacterEncoding("UTF-8");
+            resp.setContentLength(BODY.length());
+            resp.getWriter().print(BODY);
+        }
+    }
+}
@@ -17,16 +17,22 @@
 package org.apache.catalina.connector;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import org.apache.catalina.startup.LoggingBaseTest;
+import org.apache.coyote.http11.HttpOutputBuffer;
 import org.apache.tomcat.unittest.TesterRequest;
 
 public class TestResponsePerformance extends LoggingBaseTest {
 
     private static final int ITERATIONS = 100000;
+    private static final int WRITE_ITERATIONS = 10000000;
+    private static final String HTML_ROW =
+            "<tr><td class=\"name\">Item</td><td class=\"value\">12345</td></tr>\n";
 
     @Test
     public void testToAbsolutePerformance() throws Exception {
@@ -80,4 +86,100 @@ public class TestResponsePerformance extends LoggingBaseTest {
         }
         return System.currentTimeMillis() - start;
     }
+
+
+    @Test
+    public void testWriterPerformanceUtf8() throws Exception {
+        Assert.assertTrue(doTestWriterPerformance("UTF-8"));
+    }
+
+
+    @Test
+    public void testWriterPerformanceIso88591() throws Exception {
+        // Not asserted. With compact Strings (Java 9 onwards),
+        // String.getBytes() for ISO-8859-1 is a simple array copy so the two
+        // approaches take a similar amount of time.
+        doTestWriterPerformance("ISO-8859-1");
+    }
+
+
+    private boolean doTestWriterPerformance(String encoding) throws Exception {
+        org.apache.coyote.Response coyoteResponse = new org.apache.coyote.Response();
+        coyoteResponse.setCharacterEncoding(encoding);
+        coyoteResponse.setOutputBuffer(new DiscardingOutputBuffer());
+        OutputBuffer ob = new OutputBuffer(OutputBuffer.DEFAULT_BUFFER_SIZE);
+        ob.setResponse(coyoteResponse);
+        ob.checkConverter();
+        Charset charset = coyoteResponse.getCharset();
+
+        // Warm up
+        doWriter(ob);
+        doBytes(ob, charset);
+
+        // To allow for timing differences between runs, a "best of n" approach
+        // is taken for this test
+        final int bestOf = 5;
+        final int winTarget = (bestOf + 1) / 2;
+        int writerWin = 0;
+        int count = 0;
+
+        while (count < bestOf && writerWin < winTarget) {
+            long writer = doWriter(ob);
+            long bytes = doBytes(ob, charset);
+            log.info(encoding + ": Current Writer: " + writer + "ms, Using String.getBytes(): " +
+                    bytes + "ms");
+            if (writer < bytes) {
+                writerWin++;
+            }
+            count++;
+        }
+        return writerWin == winTarget;
+    }
+
+
+    private long doWriter(OutputBuffer ob) throws Exception {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < WRITE_ITERATIONS; i++) {
+            ob.write(HTML_ROW);
+        }
+        ob.flush();
+        return System.currentTimeMillis() - start;
+    }
+
+
+    private long doBytes(OutputBuffer ob, Charset charset) throws Exception {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < WRITE_ITERATIONS; i++) {
+            byte[] b = HTML_ROW.getBytes(charset);
+            ob.write(b, 0, b.length);
+        }
+        ob.flush();
+        return System.currentTimeMillis() - start;
+    }
+
+
+    private static class DiscardingOutputBuffer implements HttpOutputBuffer {
+
+        @Override
+        public int doWrite(ByteBuffer chunk) {
+            int len = chunk.remaining();
+            chunk.position(chunk.limit());
+            return len;
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return 0;
+        }
+
+        @Override
+        public void end() {
+            // NO-OP
+        }
+
+        @Override
+        public void flush() {
+            // NO-OP
+        }
+    }
 }
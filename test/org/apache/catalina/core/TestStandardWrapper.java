@@ -457,6 +457,33 @@ public class TestStandardWrapper extends TomcatBaseTest {
         }
     }
 
+    @Test
+    public void testLatencyHistogram() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        StandardContext ctx = (StandardContext) tomcat.addContext("", null);
+
+        StandardWrapper wrapper = (StandardWrapper) Tomcat.addServlet(
+                ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/", "hello");
+
+        tomcat.start();
+
+        for (int i = 0; i < 5; i++) {
+            ByteChunk bc = getUrl("http://localhost:" + getPort() + "/");
+            Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, bc.toString());
+        }
+
+        Assert.assertEquals(5, wrapper.getLatencyHistogram().getSnapshot().getCount());
+        Assert.assertEquals(5, ctx.getLatencyHistogram().getSnapshot().getCount());
+        Assert.assertTrue(wrapper.getLatencyP99() >= wrapper.getLatencyP50());
+
+        wrapper.resetLatencyHistogram();
+        Assert.assertEquals(0, wrapper.getLatencyHistogram().getSnapshot().getCount());
+    }
+
+
     @Test
     public void testBug51445AddChild() throws Exception {
 
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.deploy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.tomcat.util.buf.HexUtils;
+
+public class TestFileChunkAssembler {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    private File dir;
+
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("chunks").toFile();
+    }
+
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            Assert.assertTrue(f.delete());
+        }
+        Assert.assertTrue(dir.delete());
+    }
+
+
+    @Test
+    public void testIncrementalTransfer() throws Exception {
+        Random random = new Random(42);
+        byte[] v1 = new byte[1024 * 1024];
+        random.nextBytes(v1);
+        // Insert bytes in the middle, shifting everything after them
+        byte[] v2 = new byte[v1.length + 100];
+        System.arraycopy(v1, 0, v2, 0, 500000);
+        System.arraycopy(v1, 500000, v2, 500100, v1.length - 500000);
+        File previous = write("v1.war", v1);
+        File next = write("v2.war", v2);
+
+        ChunkedFile chunked = ChunkedFile.getInstance(next, CHUNK_SIZE);
+        Assert.assertEquals(v2.length, chunked.getLength());
+        for (int i = 0; i < chunked.getChunkCount(); i++) {
+            Assert.assertTrue(chunked.getChunkLength(i) <= CHUNK_SIZE * 4);
+        }
+
+        FileManifestMessage manifest = new FileManifestMessage(null, "v2.war", "/v", chunked);
+        FileChunkAssembler assembler = new FileChunkAssembler(new File(dir, "received.war"), manifest);
+        int[] missing = assembler.reuse(previous);
+        // Only the chunks around the insertion are needed
+        Assert.assertTrue(missing.length > 0);
+        Assert.assertTrue(missing.length <= 3);
+
+        // Send them in reverse order
+        for (int i = missing.length - 1; i >= 0; i--) {
+            FileChunkMessage msg = new FileChunkMessage(null, "v2.war", "/v",
+                    chunked.getFileHash(), missing[i], chunked.readChunk(missing[i]));
+            Assert.assertEquals(Boolean.valueOf(i == 0), Boolean.valueOf(assembler.writeChunk(msg)));
+        }
+        Assert.assertTrue(assembler.verify());
+        Assert.assertArrayEquals(v2, Files.readAllBytes(assembler.getFile().toPath()));
+    }
+
+
+    @Test
+    public void testDuplicateAndCorruptChunks() throws Exception {
+        Random random = new Random(42);
+        byte[] block = new byte[64 * 1024];
+        random.nextBytes(block);
+        byte[] data = new byte[block.length * 3];
+        for (int i = 0; i < 3; i++) {
+            System.arraycopy(block, 0, data, i * block.length, block.length);
+        }
+        ChunkedFile chunked = ChunkedFile.getInstance(write("dup.war", data), CHUNK_SIZE);
+        Set<String> distinct = new HashSet<>();
+        for (byte[] hash : chunked.getChunkHashes()) {
+            distinct.add(HexUtils.toHexString(hash));
+        }
+
+        FileManifestMessage manifest = new FileManifestMessage(null, "dup.war", "/dup", chunked);
+        FileChunkAssembler assembler = new FileChunkAssembler(new File(dir, "received.war"), manifest);
+        int[] missing = assembler.reuse(new File(dir, "missing.war"));
+        // Repeated content is only requested once
+        Assert.assertEquals(distinct.size(), missing.length);
+        Assert.assertTrue(missing.length < chunked.getChunkCount());
+
+        byte[] corrupt = chunked.readChunk(missing[0]);
+        corrupt[0]++;
+        try {
+            assembler.writeChunk(new FileChunkMessage(null, "dup.war", "/dup",
+                    chunked.getFileHash(), missing[0], corrupt));
+            Assert.fail();
+        } catch (IOException expected) {
+            // Expected
+        }
+
+        for (int index : missing) {
+            assembler.writeChunk(new FileChunkMessage(null, "dup.war", "/dup",
+                    chunked.getFileHash(), index, chunked.readChunk(index)));
+        }
+        Assert.assertTrue(assembler.isComplete());
+        Assert.assertTrue(assembler.verify());
+        Assert.assertTrue(Arrays.equals(data, Files.readAllBytes(assembler.getFile().toPath())));
+    }
+
+
+    private File write(String name, byte[] data) throws IOException {
+        File f = new File(dir, name);
+        Files.write(f.toPath(), data);
+        return f;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Session;
+import org.apache.catalina.ha.CatalinaCluster;
+import org.apache.catalina.ha.ClusterMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.membership.MemberImpl;
+import org.apache.tomcat.unittest.TesterContext;
+import org.apache.tomcat.unittest.TesterHost;
+import org.easymock.EasyMock;
+
+public class TestDeltaManagerStateTransfer {
+
+    private static final int SESSIONS = 500;
+    private static final int[] NO_DROP = new int[0];
+
+    private final Map<Member,DeltaManager> nodes = new ConcurrentHashMap<>();
+    private final List<DeltaManager> managers = new ArrayList<>();
+    private final AtomicInteger sessionRequests = new AtomicInteger();
+    private Member memberA;
+    private Member memberB;
+    private Member memberC;
+    private DeltaManager managerA;
+    private DeltaManager managerB;
+
+
+    @Before
+    public void setUp() throws Exception {
+        memberA = new MemberImpl("localhost", 4001, 0);
+        memberB = new MemberImpl("localhost", 4002, 0);
+        memberC = new MemberImpl("localhost", 4003, 0);
+        managerA = createManager(memberA, NO_DROP, memberB);
+        managerB = createManager(memberB, NO_DROP, memberA);
+        managerA.setSendAllSessionsSize(20);
+        managerB.setSendAllSessionsSize(20);
+        managerA.start();
+        managerB.start();
+        // DeltaManager replicates every session to every node
+        for (int i = 0; i < SESSIONS; i++) {
+            createSession(managerA, "s" + i);
+            createSession(managerB, "s" + i);
+        }
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        for (DeltaManager manager : managers) {
+            manager.stop();
+        }
+    }
+
+
+    @Test
+    public void testParallelTransfer() throws Exception {
+        DeltaManager managerC = createManager(memberC, NO_DROP, memberA, memberB);
+        managerC.setParallelStateTransfer(true);
+        managerC.setStateTransferWindow(2);
+        managerC.start();
+
+        Assert.assertTrue(managerC.getStateTransfered());
+        Assert.assertEquals(SESSIONS, managerC.getActiveSessions());
+        Assert.assertEquals(SESSIONS, managerC.getSessionCounter());
+        for (int i = 0; i < SESSIONS; i++) {
+            Session session = managerC.findSession("s" + i);
+            Assert.assertEquals("s" + i, session.getSession().getAttribute("attr"));
+        }
+        // Each member sent its own half in blocks
+        Assert.assertTrue(managerC.getCounterReceive_EVT_ALL_SESSION_DATA() >= SESSIONS / 20);
+    }
+
+
+    @Test
+    public void testLazyTransferFetchesMissingSessions() throws Exception {
+        // B never answers the partition request
+        DeltaManager managerC = createManager(memberC,
+                new int[] { SessionMessage.EVT_GET_SESSION_PARTITION }, memberA, memberB);
+        managerC.setParallelStateTransfer(true);
+        managerC.setLazyStateTransfer(true);
+        managerC.setStateTransferTimeout(1);
+        long start = System.currentTimeMillis();
+        managerC.start();
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+        Assert.assertFalse(managerC.getStateTransfered());
+
+        String fromA = null;
+        String fromB = null;
+        for (int i = 0; i < SESSIONS && (fromA == null || fromB == null); i++) {
+            if (DeltaManager.getSessionPartition("s" + i, 2) == 0) {
+                fromA = "s" + i;
+            } else {
+                fromB = "s" + i;
+            }
+        }
+        // Not yet transferred from B so fetched on demand
+        Session session = managerC.findSession(fromB);
+        Assert.assertNotNull(session);
+        Assert.assertEquals(fromB, session.getSession().getAttribute("attr"));
+        Assert.assertNotNull(managerC.findSession(fromA));
+
+        // Once the transfer times out nothing more is fetched
+        Thread.sleep(1100);
+        managerC.backgroundProcess();
+        Assert.assertFalse(managerC.getStateTransfered());
+        for (int i = 0; i < SESSIONS; i++) {
+            String id = "s" + i;
+            if (DeltaManager.getSessionPartition(id, 2) == 1 && !id.equals(fromB)) {
+                Assert.assertNull(managerC.findSession(id));
+                break;
+            }
+        }
+    }
+
+
+    @Test
+    public void testLazyTransferDoesNotFetchMissesAgain() throws Exception {
+        DeltaManager managerC = createManager(memberC,
+                new int[] { SessionMessage.EVT_GET_SESSION_PARTITION }, memberA, memberB);
+        managerC.setParallelStateTransfer(true);
+        managerC.setLazyStateTransfer(true);
+        managerC.start();
+
+        String missing = getSessionIdInPartition("missing", 1);
+        Assert.assertNull(managerC.findSession(missing));
+        Assert.assertEquals(1, sessionRequests.get());
+        Assert.assertNull(managerC.findSession(missing));
+        Assert.assertEquals(1, sessionRequests.get());
+    }
+
+
+    @Test
+    public void testLazyTransferStopsFetchingFromSlowMember() throws Exception {
+        // B answers neither the partition request nor the session requests
+        DeltaManager managerC = createManager(memberC, new int[] {
+                SessionMessage.EVT_GET_SESSION_PARTITION, SessionMessage.EVT_GET_SESSION },
+                memberA, memberB);
+        managerC.setParallelStateTransfer(true);
+        managerC.setLazyStateTransfer(true);
+        managerC.start();
+
+        String first = getSessionIdInPartition("s", 1);
+        Assert.assertNull(managerC.findSession(first));
+        Assert.assertEquals(1, sessionRequests.get());
+
+        // B did not reply in time so the next request does not wait for it
+        String second = getSessionIdInPartition("t", 1);
+        long start = System.currentTimeMillis();
+        Assert.assertNull(managerC.findSession(second));
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+        Assert.assertEquals(1, sessionRequests.get());
+    }
+
+
+    /*
+     * Returns the first id of the form prefix + n in the given one of two
+     * partitions.
+     */
+    private static String getSessionIdInPartition(String prefix, int partition) {
+        for (int i = 0; ; i++) {
+            String id = prefix + i;
+            if (DeltaManager.getSessionPartition(id, 2) == partition) {
+                return id;
+            }
+        }
+    }
+
+
+    /*
+     * Messages sent by the manager are delivered directly to the manager of
+     * the destination member, apart from the given event types which are
+     * dropped when sent to the last member.
+     */
+    private DeltaManager createManager(Member local, int[] dropEventTypes, Member... members) {
+        DeltaManager manager = new DeltaManager();
+        Context context = new TesterContext();
+        context.setName("/test");
+        context.setParent(new TesterHost());
+        manager.setContext(context);
+        manager.setName("test");
+
+        CatalinaCluster cluster = EasyMock.createNiceMock(CatalinaCluster.class);
+        EasyMock.expect(cluster.getMembers()).andStubReturn(members);
+        EasyMock.expect(cluster.getLocalMember()).andStubReturn(local);
+        cluster.send(EasyMock.anyObject(ClusterMessage.class), EasyMock.anyObject(Member.class),
+                EasyMock.anyInt());
+        EasyMock.expectLastCall().andStubAnswer(() -> {
+            deliver(local, EasyMock.getCurrentArguments(), dropEventTypes, members);
+            return null;
+        });
+        cluster.send(EasyMock.anyObject(ClusterMessage.class), EasyMock.anyObject(Member.class));
+        EasyMock.expectLastCall().andStubAnswer(() -> {
+            deliver(local, EasyMock.getCurrentArguments(), dropEventTypes, members);
+            return null;
+        });
+        EasyMock.replay(cluster);
+        manager.setCluster(cluster);
+
+        nodes.put(local, manager);
+        managers.add(manager);
+        return manager;
+    }
+
+
+    private void deliver(Member from, Object[] args, int[] dropEventTypes, Member[] members) {
+        SessionMessage msg = (SessionMessage) args[0];
+        Member dest = (Member) args[1];
+        if (msg.getEventType() == SessionMessage.EVT_GET_SESSION) {
+            sessionRequests.incrementAndGet();
+        }
+        for (int dropEventType : dropEventTypes) {
+            if (msg.getEventType() == dropEventType && dest.equals(members[members.length - 1])) {
+                return;
+            }
+        }
+        DeltaManager target = nodes.get(dest);
+        if (target != null) {
+            msg.setAddress(from);
+            target.messageDataReceived(msg);
+        }
+    }
+
+
+    private static void createSession(DeltaManager manager, String id) {
+        Session session = manager.createSession(id, false);
+        session.getSession().setAttribute("attr", id);
+    }
+}
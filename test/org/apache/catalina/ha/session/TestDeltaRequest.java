@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.SessionEvent;
+import org.apache.catalina.session.JavaSessionSerializer;
+import org.apache.catalina.tribes.membership.MemberImpl;
+import org.apache.tomcat.unittest.TesterContext;
+import org.apache.tomcat.unittest.TesterHost;
+
+public class TestDeltaRequest {
+
+    @Test
+    public void testActionsCoalesced() throws Exception {
+        DeltaRequest request = new DeltaRequest("s1", false);
+        for (int i = 0; i < 20; i++) {
+            request.setAttribute("a", Integer.valueOf(i));
+        }
+        request.setAttribute("b", "x");
+        request.removeAttribute("b");
+        request.setMaxInactiveInterval(10);
+        request.setMaxInactiveInterval(20);
+        Assert.assertEquals(3, request.getSize());
+
+        DeltaRequest recordAll = new DeltaRequest("s1", true);
+        for (int i = 0; i < 20; i++) {
+            recordAll.setAttribute("a", Integer.valueOf(i));
+        }
+        Assert.assertEquals(20, recordAll.getSize());
+    }
+
+
+    @Test
+    public void testListenersNotCoalesced() throws Exception {
+        DeltaRequest request = new DeltaRequest("s1", false);
+        TesterListener l1 = new TesterListener();
+        TesterListener l2 = new TesterListener();
+        request.addSessionListener(l1);
+        request.addSessionListener(l2);
+        Assert.assertEquals(2, request.getSize());
+        request.removeSessionListener(l1);
+        Assert.assertEquals(2, request.getSize());
+    }
+
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        doTestRoundTrip(false);
+    }
+
+
+    @Test
+    public void testRoundTripCompact() throws Exception {
+        doTestRoundTrip(true);
+    }
+
+
+    private void doTestRoundTrip(boolean compact) throws Exception {
+        DeltaManager manager = createManager();
+        DeltaSession source = (DeltaSession) manager.createSession("s1", false);
+        source.setAttribute("a", "value");
+        source.setMaxInactiveInterval(1234);
+        source.setNew(false);
+        source.setAuthType("FORM");
+        source.setAttribute("removed", "value");
+        source.removeAttribute("removed");
+
+        DeltaSession target = new DeltaSession(manager);
+        target.setValid(true);
+        target.setId("s1", false);
+        target.setAttribute("removed", "old", false, false);
+        target.setAuthType("BASIC", false);
+        target.resetDeltaRequest();
+
+        byte[] data = source.getDeltaRequest().serialize(new JavaSessionSerializer(), compact);
+        DeltaRequest received = new DeltaRequest();
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            received.readExternal(ois);
+        }
+        Assert.assertEquals("s1", received.getSessionId());
+        Assert.assertEquals(source.getDeltaRequest().getSize(), received.getSize());
+        received.execute(target, false);
+
+        Assert.assertEquals("value", target.getAttribute("a"));
+        Assert.assertNull(target.getAttribute("removed"));
+        Assert.assertEquals(1234, target.getMaxInactiveInterval());
+        Assert.assertFalse(target.isNew());
+        Assert.assertEquals("FORM", target.getAuthType());
+    }
+
+
+    @Test
+    public void testCompactEncodingOptional() throws Exception {
+        DeltaManager manager = createManager();
+        DeltaSession session = (DeltaSession) manager.createSession("s1", false);
+        session.setMaxInactiveInterval(1234);
+        session.setNew(false);
+        session.setAuthType("FORM");
+        DeltaRequest request = session.getDeltaRequest();
+
+        // The encoding every version can read is used by default
+        Assert.assertFalse(manager.isCompactDeltaRequests());
+        byte[] data = manager.serializeDeltaRequest(session, request);
+        Assert.assertArrayEquals(request.serialize(new JavaSessionSerializer(), false), data);
+
+        manager.setCompactDeltaRequests(true);
+        byte[] compact = manager.serializeDeltaRequest(session, request);
+        Assert.assertArrayEquals(request.serialize(new JavaSessionSerializer(), true), compact);
+        Assert.assertTrue(compact.length < data.length);
+    }
+
+
+    @Test
+    public void testReadPreviousEncoding() throws Exception {
+        // A delta request written by a node using the previous encoding
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeUTF("s1");
+            oos.writeBoolean(true);
+            oos.writeInt(2);
+            oos.writeInt(DeltaRequest.TYPE_ATTRIBUTE);
+            oos.writeInt(DeltaRequest.ACTION_SET);
+            oos.writeUTF("a");
+            oos.writeBoolean(true);
+            oos.writeObject("value");
+            oos.writeInt(DeltaRequest.TYPE_MAXINTERVAL);
+            oos.writeInt(DeltaRequest.ACTION_SET);
+            oos.writeUTF(DeltaRequest.NAME_MAXINTERVAL);
+            oos.writeBoolean(true);
+            oos.writeObject(Integer.valueOf(1234));
+        }
+        DeltaRequest received = new DeltaRequest();
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+            received.readExternal(ois);
+        }
+        Assert.assertEquals("s1", received.getSessionId());
+        Assert.assertEquals(2, received.getSize());
+
+        DeltaSession target = new DeltaSession(createManager());
+        target.setValid(true);
+        target.setId("s1", false);
+        received.execute(target, false);
+        Assert.assertEquals("value", target.getAttribute("a"));
+        Assert.assertEquals(1234, target.getMaxInactiveInterval());
+    }
+
+
+    @Test
+    public void testMaxDeltaRequestSize() throws Exception {
+        DeltaManager manager = createManager();
+        manager.setRecordAllActions(true);
+        DeltaManager backup = createManager();
+        DeltaSession session = (DeltaSession) manager.createSession("s1", false);
+        backup.createSession("s1", false).getSession().setAttribute("stale", "x");
+
+        // Below the limit
+        manager.setMaxDeltaRequestSize(10000);
+        session.setAttribute("a", "small");
+        SessionMessage msg = (SessionMessage) manager.requestCompleted("s1");
+        Assert.assertEquals(SessionMessage.EVT_SESSION_DELTA, msg.getEventType());
+
+        // Many updates of one attribute are larger than the session
+        manager.setMaxDeltaRequestSize(200);
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            value.append("0123456789");
+            session.setAttribute("a", value.toString());
+        }
+        int deltaSize = session.getDeltaRequest().serialize().length;
+        msg = (SessionMessage) manager.requestCompleted("s1");
+        Assert.assertEquals(SessionMessage.EVT_SESSION_DATA, msg.getEventType());
+        Assert.assertTrue(msg.getSession().length < deltaSize);
+        Assert.assertEquals(1, manager.getCounterSend_EVT_SESSION_DATA());
+        Assert.assertEquals(0, session.getDeltaRequest().getSize());
+
+        msg.setAddress(new MemberImpl("localhost", 4001, 0));
+        backup.messageDataReceived(msg);
+        Assert.assertEquals(1, backup.getCounterReceive_EVT_SESSION_DATA());
+        DeltaSession replica = (DeltaSession) backup.findSession("s1");
+        Assert.assertEquals(value.toString(), replica.getAttribute("a"));
+        Assert.assertNull(replica.getAttribute("stale"));
+        Assert.assertFalse(replica.isPrimarySession());
+        Assert.assertEquals(1, backup.getActiveSessions());
+    }
+
+
+    private static DeltaManager createManager() {
+        DeltaManager manager = new DeltaManager();
+        Context context = new TesterContext();
+        context.setName("/test");
+        context.setParent(new TesterHost());
+        manager.setContext(context);
+        manager.setName("test");
+        return manager;
+    }
+
+
+    private static class TesterListener implements ReplicatedSessionListener {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void sessionEvent(SessionEvent event) {
+            // NO-OP
+        }
+    }
+}
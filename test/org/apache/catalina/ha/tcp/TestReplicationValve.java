@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.ha.tcp;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.ha.CatalinaCluster;
+import org.apache.catalina.ha.ClusterListener;
+import org.apache.catalina.ha.ClusterManager;
+import org.apache.catalina.ha.ClusterMessage;
+import org.apache.catalina.ha.session.SessionMessage;
+import org.apache.catalina.ha.session.SessionMessageImpl;
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.membership.MemberImpl;
+import org.apache.tomcat.unittest.TesterContext;
+import org.easymock.EasyMock;
+
+public class TestReplicationValve {
+
+    private final List<ClusterMessage> sent = Collections.synchronizedList(new ArrayList<ClusterMessage>());
+    private final AtomicInteger channelSends = new AtomicInteger();
+    private volatile int lastSendOptions;
+    private final CountDownLatch sendAllowed = new CountDownLatch(1);
+
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        ReplicationValve valve = createValve(false);
+        int threadCount = 8;
+        int perThread = 50;
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            String prefix = "t" + t + "-";
+            threads[t] = new Thread(() -> {
+                ClusterManager manager = createManager();
+                for (int i = 0; i < perThread; i++) {
+                    valve.send(manager, prefix + i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        valve.stop();
+
+        Assert.assertEquals(threadCount * perThread, sent.size());
+        Assert.assertTrue(channelSends.get() < threadCount * perThread);
+        Assert.assertEquals(channelSends.get(), valve.getNrOfGroupCommits());
+        // The messages of each request thread keep their order
+        int[] next = new int[threadCount];
+        for (ClusterMessage msg : sent) {
+            String id = ((SessionMessage) msg).getSessionID();
+            int t = Integer.parseInt(id.substring(1, id.indexOf('-')));
+            Assert.assertEquals("t" + t + "-" + next[t], id);
+            next[t]++;
+        }
+        Assert.assertEquals(Channel.SEND_OPTIONS_DEFAULT, lastSendOptions);
+    }
+
+
+    @Test
+    public void testWaitForAck() throws Exception {
+        ReplicationValve valve = createValve(true);
+        valve.send(createManager(), "s1");
+        // Sent by the time the request thread returns
+        Assert.assertEquals(1, sent.size());
+        Assert.assertEquals(Channel.SEND_OPTIONS_USE_ACK | Channel.SEND_OPTIONS_SYNCHRONIZED_ACK,
+                lastSendOptions);
+
+        Future<Void> future = valve.sendGroupCommit(createMessage("s2"));
+        future.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(2, sent.size());
+        valve.stop();
+    }
+
+
+    @Test
+    public void testQueueFullBlocksRequest() throws Exception {
+        ReplicationValve valve = createValve(false, 2, true);
+        ClusterManager manager = createManager();
+        Thread request = new Thread(() -> {
+            for (int i = 0; i < 6; i++) {
+                valve.send(manager, "s" + i);
+            }
+        });
+        request.start();
+
+        // The group commit thread is stuck sending so the queue fills up and
+        // the request waits
+        request.join(500);
+        Assert.assertTrue(request.isAlive());
+        Assert.assertEquals(0, sent.size());
+
+        sendAllowed.countDown();
+        request.join(10000);
+        Assert.assertFalse(request.isAlive());
+        valve.stop();
+        Assert.assertEquals(6, sent.size());
+        for (int i = 0; i < 6; i++) {
+            Assert.assertEquals("s" + i, ((SessionMessage) sent.get(i)).getSessionID());
+        }
+    }
+
+
+    @Test
+    public void testBatchReceived() throws Exception {
+        SimpleTcpCluster cluster = new SimpleTcpCluster();
+        List<ClusterMessage> received = new ArrayList<>();
+        cluster.addClusterListener(new ClusterListener() {
+            @Override
+            public void messageReceived(ClusterMessage msg) {
+                received.add(msg);
+            }
+
+            @Override
+            public boolean accept(ClusterMessage msg) {
+                return true;
+            }
+        });
+        List<ClusterMessage> messages = new ArrayList<>();
+        messages.add(createMessage("s1"));
+        messages.add(createMessage("s2"));
+        Member sender = new MemberImpl("localhost", 4001, 0);
+        cluster.messageReceived(new ClusterMessageBatch(messages), sender);
+
+        Assert.assertEquals(messages, received);
+        Assert.assertEquals(sender, received.get(0).getAddress());
+        Assert.assertEquals(sender, received.get(1).getAddress());
+    }
+
+
+    private ReplicationValve createValve(boolean waitForAck) throws Exception {
+        return createValve(waitForAck, 1000, false);
+    }
+
+
+    /*
+     * If blockSend is set, the channel does not send anything until
+     * sendAllowed is counted down.
+     */
+    private ReplicationValve createValve(boolean waitForAck, int queueSize, boolean blockSend)
+            throws Exception {
+        Member[] members = new Member[] { new MemberImpl("localhost", 4001, 0) };
+        Channel channel = EasyMock.createNiceMock(Channel.class);
+        EasyMock.expect(channel.send(EasyMock.aryEq(members), EasyMock.anyObject(Serializable.class),
+                EasyMock.anyInt())).andStubAnswer(() -> {
+                    if (blockSend) {
+                        sendAllowed.await();
+                    }
+                    Object msg = EasyMock.getCurrentArguments()[1];
+                    if (msg instanceof ClusterMessageBatch) {
+                        Collections.addAll(sent, ((ClusterMessageBatch) msg).getMessages());
+                    } else {
+                        sent.add((ClusterMessage) msg);
+                    }
+                    channelSends.incrementAndGet();
+                    lastSendOptions = ((Integer) EasyMock.getCurrentArguments()[2]).intValue();
+                    return null;
+                });
+        CatalinaCluster cluster = EasyMock.createNiceMock(CatalinaCluster.class);
+        EasyMock.expect(cluster.getMembers()).andStubReturn(members);
+        EasyMock.expect(cluster.getChannel()).andStubReturn(channel);
+        EasyMock.replay(channel, cluster);
+
+        ReplicationValve valve = new ReplicationValve();
+        valve.setCluster(cluster);
+        valve.setContainer(new TesterContext());
+        valve.setGroupCommit(true);
+        valve.setGroupCommitWindow(5);
+        valve.setGroupCommitWaitForAck(waitForAck);
+        valve.setGroupCommitQueueSize(queueSize);
+        valve.start();
+        return valve;
+    }
+
+
+    private static ClusterManager createManager() {
+        ClusterManager manager = EasyMock.createNiceMock(ClusterManager.class);
+        EasyMock.expect(manager.requestCompleted(EasyMock.anyString())).andStubAnswer(
+                () -> createMessage((String) EasyMock.getCurrentArguments()[0]));
+        EasyMock.replay(manager);
+        return manager;
+    }
+
+
+    private static ClusterMessage createMessage(String sessionId) {
+        return new SessionMessageImpl("test", SessionMessage.EVT_SESSION_DELTA, new byte[0],
+                sessionId, sessionId);
+    }
+}
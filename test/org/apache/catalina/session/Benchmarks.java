@@ -31,6 +31,7 @@ import org.apache.catalina.LifecycleException;
 import org.apache.catalina.Session;
 import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.util.StandardSessionIdGenerator;
 
 /**
  * Named Benchmarks so it is not automatically executed as part of the unit
@@ -238,6 +239,55 @@ public class Benchmarks {
     }
 
 
+    /*
+     * Session IDs generated per second by 64 threads using the shared pool of
+     * SecureRandom instances and using a SecureRandom instance per thread.
+     */
+    @Test
+    public void testSessionIdGeneratorPerThreadRandom() throws Exception {
+        doTestSessionIdGeneratorPerThreadRandom(false, 64, 100000);
+        doTestSessionIdGeneratorPerThreadRandom(true, 64, 100000);
+        doTestSessionIdGeneratorPerThreadRandom(false, 64, 100000);
+        doTestSessionIdGeneratorPerThreadRandom(true, 64, 100000);
+    }
+
+
+    private void doTestSessionIdGeneratorPerThreadRandom(boolean perThreadRandom,
+            int threadCount, int iterCount) throws Exception {
+
+        StandardSessionIdGenerator generator = new StandardSessionIdGenerator();
+        generator.setPerThreadRandom(perThreadRandom);
+        generator.start();
+
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < iterCount; j++) {
+                    generator.generateSessionId();
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].join();
+        }
+        long end = System.nanoTime();
+        generator.stop();
+
+        StringBuilder result = new StringBuilder();
+        result.append(perThreadRandom ? "Per thread " : "Pooled     ");
+        result.append("Threads: ");
+        result.append(threadCount);
+        result.append(", IDs/s: ");
+        result.append((long) threadCount * iterCount * 1000000000L / (end - start));
+        System.out.println(result.toString());
+    }
+
+
     /*
      * SecureRandom vs. reading /dev/urandom. Very different performance noted
      * on some platforms.
@@ -0,0 +1,310 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.io.WriteAbortedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.core.StandardContext;
+
+public class TestCompactSessionSerializer {
+
+    private static final StandardManager TEST_MANAGER;
+
+    static {
+        TEST_MANAGER = new StandardManager();
+        TEST_MANAGER.setContext(new StandardContext());
+        TEST_MANAGER.setCompactSessionSerialization(true);
+    }
+
+
+    @Test
+    public void testRoundTripValues() throws Exception {
+        Object[] values = new Object[] { null, "", "value", Boolean.TRUE, Boolean.FALSE,
+                Byte.valueOf((byte) -3), Short.valueOf((short) 300), Character.valueOf('\u20ac'),
+                Integer.valueOf(0), Integer.valueOf(-1), Integer.valueOf(Integer.MIN_VALUE),
+                Integer.valueOf(Integer.MAX_VALUE), Long.valueOf(System.currentTimeMillis()),
+                Long.valueOf(Long.MIN_VALUE), Long.valueOf(Long.MAX_VALUE),
+                Float.valueOf(1.5f), Double.valueOf(Double.NaN), "value" };
+
+        byte[] data = write(values);
+        Object[] result = read(data, values.length);
+
+        Assert.assertArrayEquals(values, result);
+    }
+
+
+    @Test
+    public void testRoundTripPrimitives() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new CompactSessionSerializer().getObjectOutputStream(bos)) {
+            oos.writeBoolean(true);
+            oos.writeInt(42);
+            oos.writeLong(-42L);
+            oos.writeUTF("id");
+        }
+        try (ObjectInputStream ois = TEST_MANAGER.getSessionObjectInputStream(
+                new ByteArrayInputStream(bos.toByteArray()), ObjectInputStream::new)) {
+            Assert.assertTrue(ois.readBoolean());
+            Assert.assertEquals(42, ois.readInt());
+            Assert.assertEquals(-42L, ois.readLong());
+            Assert.assertEquals("id", ois.readUTF());
+        }
+    }
+
+
+    @Test
+    public void testRepeatedStrings() throws Exception {
+        String value = "a-string-that-is-repeated";
+        byte[] once = write(new Object[] { value });
+        byte[] twice = write(new Object[] { value, new String(value) });
+
+        // The second copy should be written as a short reference
+        Assert.assertTrue(twice.length - once.length < 3);
+        Object[] result = read(twice, 2);
+        Assert.assertEquals(value, result[0]);
+        Assert.assertSame(result[0], result[1]);
+    }
+
+
+    @Test
+    public void testLongString() throws Exception {
+        char[] chars = new char[70000];
+        Arrays.fill(chars, '\u00e9');
+        // Unpaired surrogate
+        chars[100] = '\ud800';
+        String value = new String(chars);
+
+        Object[] result = read(write(new Object[] { value, value }), 2);
+
+        Assert.assertEquals(value, result[0]);
+        Assert.assertEquals(value, result[1]);
+    }
+
+
+    @Test
+    public void testJavaSerializedValues() throws Exception {
+        List<String> list = new ArrayList<>();
+        list.add("one");
+        Date date = new Date();
+        Object[] values = new Object[] { list, "between", date, list, Integer.valueOf(1), new Date(0) };
+
+        Object[] result = read(write(values), values.length);
+
+        Assert.assertEquals(list, result[0]);
+        Assert.assertEquals("between", result[1]);
+        Assert.assertEquals(date, result[2]);
+        // Shared references are preserved across values
+        Assert.assertSame(result[0], result[3]);
+        Assert.assertEquals(Integer.valueOf(1), result[4]);
+        Assert.assertEquals(new Date(0), result[5]);
+    }
+
+
+    @Test
+    public void testLargeJavaSerializedValue() throws Exception {
+        byte[] value = new byte[100000];
+        Arrays.fill(value, (byte) 'x');
+
+        Object[] result = read(write(new Object[] { value }), 1);
+
+        Assert.assertArrayEquals(value, (byte[]) result[0]);
+    }
+
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testNegativeLength() throws Exception {
+        // TAG_LONG_STRING followed by a length of -1
+        read(new byte[] { 0x5E, (byte) 0xC5, 1, 3, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01 }, 1);
+    }
+
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testOversizedLength() throws Exception {
+        // TAG_JAVA followed by a length of 2^32
+        read(new byte[] { 0x5E, (byte) 0xC5, 1, 13, (byte) 0x80, (byte) 0x80, (byte) 0x80,
+                (byte) 0x80, 0x10 }, 1);
+    }
+
+
+    @Test(expected = EOFException.class)
+    public void testTruncatedValue() throws Exception {
+        // TAG_JAVA followed by a length of 2^30 and no data
+        read(new byte[] { 0x5E, (byte) 0xC5, 1, 13, (byte) 0x80, (byte) 0x80, (byte) 0x80,
+                (byte) 0x80, 0x04, 0x01, 0x02 }, 1);
+    }
+
+
+    @Test
+    public void testDefaultSerializer() {
+        StandardManager manager = new StandardManager();
+        Assert.assertFalse(manager.getCompactSessionSerialization());
+        Assert.assertTrue(manager.getSessionSerializer() instanceof JavaSessionSerializer);
+        manager.setCompactSessionSerialization(true);
+        Assert.assertTrue(manager.getSessionSerializer() instanceof CompactSessionSerializer);
+        manager.setCompactSessionSerialization(false);
+        Assert.assertTrue(manager.getSessionSerializer() instanceof JavaSessionSerializer);
+    }
+
+
+    @Test
+    public void testNonSerializableValue() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new CompactSessionSerializer().getObjectOutputStream(bos)) {
+            oos.writeObject("before");
+            try {
+                oos.writeObject(new NonSerializable());
+                Assert.fail();
+            } catch (IOException expected) {
+                // Expected
+            }
+            oos.writeObject(new Date(0));
+        }
+
+        try (ObjectInputStream ois = TEST_MANAGER.getSessionObjectInputStream(
+                new ByteArrayInputStream(bos.toByteArray()), ObjectInputStream::new)) {
+            Assert.assertEquals("before", ois.readObject());
+            try {
+                ois.readObject();
+                Assert.fail();
+            } catch (WriteAbortedException expected) {
+                // Expected
+            }
+            Assert.assertEquals(new Date(0), ois.readObject());
+        }
+    }
+
+
+    @Test
+    public void testSessionRoundTrip() throws Exception {
+        StandardSession s1 = createSession();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = TEST_MANAGER.getSessionObjectOutputStream(bos)) {
+            s1.writeObjectData(oos);
+        }
+
+        StandardSession s2 = new StandardSession(TEST_MANAGER);
+        try (ObjectInputStream ois = TEST_MANAGER.getSessionObjectInputStream(
+                new ByteArrayInputStream(bos.toByteArray()), ObjectInputStream::new)) {
+            s2.readObjectData(ois);
+        }
+
+        Assert.assertEquals(s1.getIdInternal(), s2.getIdInternal());
+        Assert.assertEquals(s1.getCreationTimeInternal(), s2.getCreationTimeInternal());
+        Assert.assertEquals(s1.getMaxInactiveInterval(), s2.getMaxInactiveInterval());
+        Assert.assertEquals("value01", s2.getAttribute("attr01"));
+        Assert.assertEquals(Integer.valueOf(42), s2.getAttribute("attr02"));
+        Assert.assertEquals(new Date(0), s2.getAttribute("attr03"));
+        Assert.assertNull(s2.getAttribute("attr04"));
+    }
+
+
+    @Test
+    public void testSmallerThanJavaSerialization() throws Exception {
+        StandardSession s1 = createSession();
+
+        ByteArrayOutputStream compact = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new CompactSessionSerializer().getObjectOutputStream(compact)) {
+            s1.writeObjectData(oos);
+        }
+        ByteArrayOutputStream java = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new JavaSessionSerializer().getObjectOutputStream(java)) {
+            s1.writeObjectData(oos);
+        }
+
+        Assert.assertTrue(compact.size() < java.size());
+    }
+
+
+    @Test
+    public void testReadJavaSerialization() throws Exception {
+        // Data written with Java serialization is always readable
+        StandardSession s1 = createSession();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            s1.writeObjectData(oos);
+        }
+
+        StandardSession s2 = new StandardSession(TEST_MANAGER);
+        try (ObjectInputStream ois = TEST_MANAGER.getSessionObjectInputStream(
+                new ByteArrayInputStream(bos.toByteArray()), ObjectInputStream::new)) {
+            Assert.assertFalse(ois.getClass().getName().startsWith(
+                    CompactSessionSerializer.class.getName()));
+            s2.readObjectData(ois);
+        }
+
+        Assert.assertEquals(s1.getIdInternal(), s2.getIdInternal());
+        Assert.assertEquals("value01", s2.getAttribute("attr01"));
+    }
+
+
+    private static StandardSession createSession() {
+        StandardSession session = new StandardSession(TEST_MANAGER);
+        session.setValid(true);
+        session.setId("0123456789ABCDEF0123456789ABCDEF", false);
+        session.setCreationTime(System.currentTimeMillis());
+        session.setMaxInactiveInterval(1800);
+        session.setAttribute("attr01", "value01");
+        session.setAttribute("attr02", Integer.valueOf(42));
+        session.setAttribute("attr03", new Date(0));
+        session.setAttribute("attr04", new NonSerializable());
+        return session;
+    }
+
+
+    private static byte[] write(Object[] values) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new CompactSessionSerializer().getObjectOutputStream(bos)) {
+            for (Object value : values) {
+                oos.writeObject(value);
+            }
+        }
+        return bos.toByteArray();
+    }
+
+
+    private static Object[] read(byte[] data, int count) throws IOException, ClassNotFoundException {
+        Object[] result = new Object[count];
+        try (ObjectInputStream ois = TEST_MANAGER.getSessionObjectInputStream(
+                new ByteArrayInputStream(data), ObjectInputStream::new)) {
+            for (int i = 0; i < count; i++) {
+                result[i] = ois.readObject();
+            }
+        }
+        return result;
+    }
+
+
+    private static class NonSerializable {
+    }
+}
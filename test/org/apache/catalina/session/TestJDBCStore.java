@@ -0,0 +1,575 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Session;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+public class TestJDBCStore extends TomcatBaseTest {
+
+    private PersistentManager manager;
+    private JDBCStore store;
+
+
+    @Before
+    public void resetDatabase() {
+        TesterDatabase.reset();
+    }
+
+
+    @Test
+    public void testSaveLoadRemove() throws Exception {
+        start(false);
+        doTestSaveLoadRemove();
+    }
+
+
+    @Test
+    public void testSaveLoadRemoveConcurrentAccess() throws Exception {
+        start(true);
+        doTestSaveLoadRemove();
+        Assert.assertEquals(0, TesterDatabase.openConnections.get());
+    }
+
+
+    private void doTestSaveLoadRemove() throws Exception {
+        Session session = createSession("value1");
+        store.save(session);
+        Assert.assertEquals(1, store.getSize());
+        Assert.assertArrayEquals(new String[] { session.getId() }, store.keys());
+
+        // Saving again replaces the existing row
+        ((StandardSession) session).setAttribute("attr", "value2");
+        store.save(session);
+        Assert.assertEquals(1, store.getSize());
+
+        Session loaded = store.load(session.getId());
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals("value2", ((StandardSession) loaded).getAttribute("attr"));
+
+        store.remove(session.getId());
+        Assert.assertEquals(0, store.getSize());
+        Assert.assertNull(store.load(session.getId()));
+    }
+
+
+    @Test
+    public void testUpsert() throws Exception {
+        start(false);
+        store.setUpsert(true);
+
+        Session session = createSession("value1");
+        store.save(session);
+        Assert.assertEquals(1, TesterDatabase.inserts.get());
+        Assert.assertEquals(0, TesterDatabase.deletes.get());
+
+        ((StandardSession) session).setAttribute("attr", "value2");
+        store.save(session);
+        Assert.assertEquals(1, TesterDatabase.inserts.get());
+        Assert.assertEquals(0, TesterDatabase.deletes.get());
+        Assert.assertEquals(2, TesterDatabase.updates.get());
+        Assert.assertEquals(1, store.getSize());
+        Assert.assertEquals("value2",
+                ((StandardSession) store.load(session.getId())).getAttribute("attr"));
+    }
+
+
+    @Test
+    public void testSaveAllBatches() throws Exception {
+        start(false);
+        store.setBatchSize(3);
+        store.setUpsert(true);
+
+        List<Session> sessions = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            sessions.add(createSession("value" + i));
+        }
+        store.save(sessions.get(0));
+        TesterDatabase.reset(false);
+
+        store.saveAll(sessions);
+
+        Assert.assertEquals(7, store.getSize());
+        // An update batch and an insert batch for each of the three batches
+        Assert.assertEquals(6, TesterDatabase.batches.get());
+        Assert.assertEquals(3, TesterDatabase.commits.get());
+        Assert.assertEquals(6, TesterDatabase.inserts.get());
+        Assert.assertEquals(7, TesterDatabase.updates.get());
+    }
+
+
+    @Test
+    public void testSaveAllFailure() throws Exception {
+        start(false);
+        TesterDatabase.failInserts = true;
+
+        List<Session> sessions = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            sessions.add(createSession("value" + i));
+        }
+        try {
+            store.saveAll(sessions);
+            Assert.fail("IOException expected");
+        } catch (IOException expected) {
+            // Expected
+        }
+        Assert.assertEquals(1, TesterDatabase.rollbacks.get());
+        Assert.assertEquals(0, TesterDatabase.commits.get());
+    }
+
+
+    @Test
+    public void testDuplicateKeyRetriesUpdate() throws Exception {
+        start(true);
+        store.setUpsert(true);
+        TesterDatabase.concurrentInsert = true;
+
+        Session session = createSession("value1");
+        store.save(session);
+
+        Assert.assertEquals(1, TesterDatabase.rollbacks.get());
+        Assert.assertEquals(1, TesterDatabase.commits.get());
+        Assert.assertEquals(0, TesterDatabase.inserts.get());
+        Assert.assertEquals(2, TesterDatabase.updates.get());
+        Assert.assertEquals("value1",
+                ((StandardSession) store.load(session.getId())).getAttribute("attr"));
+        Assert.assertEquals(0, TesterDatabase.openConnections.get());
+    }
+
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        start(true);
+
+        int threadCount = 8;
+        Thread[] threads = new Thread[threadCount];
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 20; j++) {
+                        Session session = createSession("value" + j);
+                        store.save(session);
+                        Session loaded = store.load(session.getId());
+                        Assert.assertEquals("value" + j,
+                                ((StandardSession) loaded).getAttribute("attr"));
+                    }
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(Collections.emptyList(), errors);
+        Assert.assertEquals(threadCount * 20, store.getSize());
+        Assert.assertEquals(0, TesterDatabase.openConnections.get());
+    }
+
+
+    @Test
+    public void testBackupUsesBatch() throws Exception {
+        start(false);
+        manager.setMaxIdleBackup(0);
+
+        for (int i = 0; i < 5; i++) {
+            manager.createSession(null);
+        }
+        TesterDatabase.reset(false);
+
+        manager.processPersistenceChecks();
+
+        Assert.assertEquals(5, store.getSize());
+        // One delete batch and one insert batch
+        Assert.assertEquals(2, TesterDatabase.batches.get());
+
+        // Unchanged sessions are not backed up again
+        manager.processPersistenceChecks();
+        Assert.assertEquals(2, TesterDatabase.batches.get());
+    }
+
+
+    @Test
+    public void testSwapOutUsesBatch() throws Exception {
+        start(false);
+        manager.setMaxIdleSwap(0);
+
+        for (int i = 0; i < 5; i++) {
+            manager.createSession(null);
+        }
+        TesterDatabase.reset(false);
+
+        manager.processPersistenceChecks();
+
+        Assert.assertEquals(5, store.getSize());
+        Assert.assertEquals(0, manager.getActiveSessions());
+        Assert.assertEquals(2, TesterDatabase.batches.get());
+    }
+
+
+    private void start(boolean concurrentAccess) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        manager = new PersistentManager();
+        store = new JDBCStore();
+        if (concurrentAccess) {
+            store.setConcurrentAccess(true);
+            store.setDataSourceName("jdbc/sessions");
+            store.dataSource = TesterDatabase.createDataSource();
+        } else {
+            store.setDriverName(TesterDriver.class.getName());
+            store.setConnectionURL("jdbc:tester");
+        }
+        manager.setStore(store);
+        ctx.setManager(manager);
+        tomcat.start();
+    }
+
+
+    private Session createSession(String value) {
+        StandardSession session = (StandardSession) manager.createEmptySession();
+        session.setNew(true);
+        session.setValid(true);
+        session.setCreationTime(System.currentTimeMillis());
+        session.setMaxInactiveInterval(1800);
+        session.setId(manager.getSessionIdGenerator().generateSessionId(), false);
+        session.setAttribute("attr", value);
+        return session;
+    }
+
+
+    /*
+     * Minimal in-memory implementation of the JDBC operations used by
+     * JDBCStore. Statements are identified by the start of their SQL.
+     */
+    private static final class TesterDatabase {
+
+        private static final Map<String,Object[]> rows = new ConcurrentHashMap<>();
+
+        private static final AtomicInteger inserts = new AtomicInteger();
+        private static final AtomicInteger updates = new AtomicInteger();
+        private static final AtomicInteger deletes = new AtomicInteger();
+        private static final AtomicInteger batches = new AtomicInteger();
+        private static final AtomicInteger commits = new AtomicInteger();
+        private static final AtomicInteger rollbacks = new AtomicInteger();
+        private static final AtomicInteger openConnections = new AtomicInteger();
+        private static volatile boolean failInserts = false;
+        private static volatile boolean concurrentInsert = false;
+
+        static void reset() {
+            reset(true);
+        }
+
+        static void reset(boolean clearRows) {
+            if (clearRows) {
+                rows.clear();
+            }
+            inserts.set(0);
+            updates.set(0);
+            deletes.set(0);
+            batches.set(0);
+            commits.set(0);
+            rollbacks.set(0);
+            failInserts = false;
+            concurrentInsert = false;
+        }
+
+        static DataSource createDataSource() {
+            return (DataSource) Proxy.newProxyInstance(TestJDBCStore.class.getClassLoader(),
+                    new Class<?>[] { DataSource.class }, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if (method.getName().equals("getConnection")) {
+                                return createConnection();
+                            }
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+
+        static Connection createConnection() {
+            openConnections.incrementAndGet();
+            boolean[] state = new boolean[] { true, false };
+            return (Connection) Proxy.newProxyInstance(TestJDBCStore.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            switch (method.getName()) {
+                                case "prepareStatement":
+                                    return createStatement((String) args[0]);
+                                case "getAutoCommit":
+                                    return Boolean.valueOf(state[0]);
+                                case "setAutoCommit":
+                                    state[0] = ((Boolean) args[0]).booleanValue();
+                                    return null;
+                                case "commit":
+                                    commits.incrementAndGet();
+                                    return null;
+                                case "rollback":
+                                    rollbacks.incrementAndGet();
+                                    return null;
+                                case "isClosed":
+                                    return Boolean.valueOf(state[1]);
+                                case "close":
+                                    if (!state[1]) {
+                                        state[1] = true;
+                                        openConnections.decrementAndGet();
+                                    }
+                                    return null;
+                                default:
+                                    throw new UnsupportedOperationException(method.getName());
+                            }
+                        }
+                    });
+        }
+
+        static PreparedStatement createStatement(String sql) {
+            Map<Integer,Object> params = new HashMap<>();
+            List<Map<Integer,Object>> batch = new ArrayList<>();
+            return (PreparedStatement) Proxy.newProxyInstance(TestJDBCStore.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args)
+                                throws Exception {
+                            String name = method.getName();
+                            if (name.startsWith("set")) {
+                                Object value = args[1];
+                                if (value instanceof InputStream) {
+                                    value = readAll((InputStream) value);
+                                }
+                                params.put((Integer) args[0], value);
+                                return null;
+                            }
+                            switch (name) {
+                                case "addBatch":
+                                    batch.add(new HashMap<>(params));
+                                    params.clear();
+                                    return null;
+                                case "executeBatch":
+                                    batches.incrementAndGet();
+                                    int[] counts = new int[batch.size()];
+                                    for (int i = 0; i < counts.length; i++) {
+                                        counts[i] = executeUpdate(sql, batch.get(i));
+                                    }
+                                    batch.clear();
+                                    return counts;
+                                case "execute":
+                                    executeUpdate(sql, params);
+                                    return Boolean.FALSE;
+                                case "executeUpdate":
+                                    return Integer.valueOf(executeUpdate(sql, params));
+                                case "executeQuery":
+                                    return executeQuery(sql, params);
+                                case "close":
+                                    return null;
+                                default:
+                                    throw new UnsupportedOperationException(name);
+                            }
+                        }
+                    });
+        }
+
+        static int executeUpdate(String sql, Map<Integer,Object> params) throws SQLException {
+            if (sql.startsWith("INSERT")) {
+                if (failInserts) {
+                    throw new SQLException("Insert failed");
+                }
+                String key = key(params.get(Integer.valueOf(2)), params.get(Integer.valueOf(1)));
+                if (concurrentInsert) {
+                    // Another node inserted the row after the update found
+                    // no row
+                    concurrentInsert = false;
+                    rows.put(key, new Object[] { params.get(Integer.valueOf(1)), new byte[0] });
+                }
+                if (rows.containsKey(key)) {
+                    throw new SQLIntegrityConstraintViolationException("Duplicate key");
+                }
+                inserts.incrementAndGet();
+                rows.put(key(params.get(Integer.valueOf(2)), params.get(Integer.valueOf(1))),
+                        new Object[] { params.get(Integer.valueOf(1)), params.get(Integer.valueOf(3)) });
+                return 1;
+            } else if (sql.startsWith("UPDATE")) {
+                updates.incrementAndGet();
+                Object[] row = rows.get(
+                        key(params.get(Integer.valueOf(6)), params.get(Integer.valueOf(5))));
+                if (row == null) {
+                    return 0;
+                }
+                row[1] = params.get(Integer.valueOf(1));
+                return 1;
+            } else if (sql.startsWith("DELETE") && sql.contains(" = ?  AND ")) {
+                deletes.incrementAndGet();
+                return rows.remove(key(params.get(Integer.valueOf(2)),
+                        params.get(Integer.valueOf(1)))) == null ? 0 : 1;
+            } else if (sql.startsWith("DELETE")) {
+                String prefix = params.get(Integer.valueOf(1)) + "#";
+                int count = 0;
+                for (String key : new ArrayList<>(rows.keySet())) {
+                    if (key.startsWith(prefix)) {
+                        rows.remove(key);
+                        count++;
+                    }
+                }
+                return count;
+            }
+            throw new UnsupportedOperationException(sql);
+        }
+
+        static ResultSet executeQuery(String sql, Map<Integer,Object> params) {
+            List<Object[]> results = new ArrayList<>();
+            if (sql.startsWith("SELECT COUNT")) {
+                results.add(new Object[] { Integer.valueOf(
+                        selectApp(params.get(Integer.valueOf(1))).size()) });
+            } else if (sql.contains(", ")) {
+                Object[] row = rows.get(
+                        key(params.get(Integer.valueOf(2)), params.get(Integer.valueOf(1))));
+                if (row != null) {
+                    results.add(row);
+                }
+            } else {
+                for (Object[] row : selectApp(params.get(Integer.valueOf(1)))) {
+                    results.add(new Object[] { row[0] });
+                }
+            }
+            int[] position = new int[] { -1 };
+            return (ResultSet) Proxy.newProxyInstance(TestJDBCStore.class.getClassLoader(),
+                    new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            Object[] row = position[0] < 0 || position[0] >= results.size() ?
+                                    null : results.get(position[0]);
+                            switch (method.getName()) {
+                                case "next":
+                                    return Boolean.valueOf(++position[0] < results.size());
+                                case "getString":
+                                    return row[((Integer) args[0]).intValue() - 1];
+                                case "getInt":
+                                    return row[((Integer) args[0]).intValue() - 1];
+                                case "getBinaryStream":
+                                    return new ByteArrayInputStream(
+                                            (byte[]) row[((Integer) args[0]).intValue() - 1]);
+                                case "close":
+                                    return null;
+                                default:
+                                    throw new UnsupportedOperationException(method.getName());
+                            }
+                        }
+                    });
+        }
+
+        private static byte[] readAll(InputStream is) throws IOException {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                bos.write(buf, 0, n);
+            }
+            return bos.toByteArray();
+        }
+
+        private static List<Object[]> selectApp(Object app) {
+            List<Object[]> result = new ArrayList<>();
+            String prefix = app + "#";
+            for (Map.Entry<String,Object[]> entry : rows.entrySet()) {
+                if (entry.getKey().startsWith(prefix)) {
+                    result.add(entry.getValue());
+                }
+            }
+            return result;
+        }
+
+        private static String key(Object app, Object id) {
+            return app + "#" + id;
+        }
+    }
+
+
+    public static final class TesterDriver implements Driver {
+
+        @Override
+        public Connection connect(String url, Properties info) {
+            return TesterDatabase.createConnection();
+        }
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:tester");
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.tomcat.unittest.TesterContext;
+import org.apache.tomcat.unittest.TesterHost;
+
+public class TestManagerBase {
+
+    @Test(expected = TooManyActiveSessionsException.class)
+    public void testNoEviction() throws Exception {
+        StandardManager manager = createManager(2);
+        manager.createSession(null);
+        manager.createSession(null);
+        manager.createSession(null);
+    }
+
+
+    @Test
+    public void testEvictLru() throws Exception {
+        StandardManager manager = createManager(2);
+        manager.setEvictionPolicy("lru");
+        long now = System.currentTimeMillis();
+        StandardSession older = createSession(manager, now - 2000, now);
+        StandardSession newer = createSession(manager, now - 1000, now - 1000);
+
+        manager.createSession(null);
+        Assert.assertEquals(2, manager.getActiveSessions());
+        Assert.assertEquals(1, manager.getEvictedSessions());
+        Assert.assertTrue(older.isValid());
+        Assert.assertFalse(newer.isValid());
+    }
+
+
+    @Test
+    public void testEvictOldest() throws Exception {
+        StandardManager manager = createManager(2);
+        manager.setEvictionPolicy("oldest");
+        long now = System.currentTimeMillis();
+        StandardSession older = createSession(manager, now - 2000, now);
+        StandardSession newer = createSession(manager, now - 1000, now - 1000);
+
+        manager.createSession(null);
+        Assert.assertEquals(2, manager.getActiveSessions());
+        Assert.assertFalse(older.isValid());
+        Assert.assertTrue(newer.isValid());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidEvictionPolicy() {
+        new StandardManager().setEvictionPolicy("random");
+    }
+
+
+    @Test
+    public void testMetrics() throws Exception {
+        StandardManager manager = createManager(-1);
+        StandardSession session = (StandardSession) manager.createSession(null);
+        Assert.assertEquals(0, manager.getSessionAverageAttributeSize());
+        session.setAttribute("attr", "value");
+        Assert.assertTrue(manager.getSessionAverageAttributeSize() > 0);
+
+        // Failures to serialize an attribute are ignored
+        session.setAttribute("failing", new Failing());
+        Assert.assertTrue(manager.getSessionAverageAttributeSize() > 0);
+
+        Assert.assertSame(session, manager.findSession(session.getId()));
+        Assert.assertNull(manager.findSession("missing"));
+        Assert.assertEquals(1, manager.getSessionLookupMisses());
+    }
+
+
+    @Test
+    public void testSessionInUseNotEvicted() throws Exception {
+        StandardManager manager = createManager(-1);
+        manager.setEvictionPolicy("lru");
+        long now = System.currentTimeMillis();
+        StandardSession inUse = createSession(manager, now - 2000, now - 2000);
+        StandardSession idle = createSession(manager, now - 1000, now - 1000);
+        inUse.accessCount = new AtomicInteger(1);
+
+        Assert.assertEquals(1, manager.evictSessions(1));
+        Assert.assertTrue(inUse.isValid());
+        Assert.assertFalse(idle.isValid());
+    }
+
+
+    @Test
+    public void testHeapEvictionOncePerCollection() throws Exception {
+        long[] collections = new long[1];
+        StandardManager manager = new StandardManager() {
+            @Override
+            protected long getHeapUsedAfterCollection() {
+                return Runtime.getRuntime().maxMemory();
+            }
+
+            @Override
+            protected long getCollectionCount() {
+                return collections[0];
+            }
+        };
+        startManager(manager, -1);
+        manager.setEvictionPolicy("lru");
+        manager.setEvictionHeapThreshold(0.9);
+        for (int i = 0; i < 20; i++) {
+            manager.createSession(null);
+        }
+
+        manager.backgroundProcess();
+        Assert.assertEquals(2, manager.getEvictedSessions());
+        // The heap use is not known again until the next collection
+        manager.backgroundProcess();
+        manager.backgroundProcess();
+        Assert.assertEquals(2, manager.getEvictedSessions());
+
+        collections[0]++;
+        manager.backgroundProcess();
+        Assert.assertEquals(4, manager.getEvictedSessions());
+    }
+
+
+    @Test
+    public void testHeapUsedAfterCollection() {
+        // Zero if there has not been a collection yet
+        long used = new StandardManager().getHeapUsedAfterCollection();
+        Assert.assertTrue(used >= 0);
+        Assert.assertTrue(used <= Runtime.getRuntime().maxMemory());
+    }
+
+
+    private static StandardManager createManager(int maxActiveSessions) throws Exception {
+        StandardManager manager = new StandardManager();
+        startManager(manager, maxActiveSessions);
+        return manager;
+    }
+
+
+    private static void startManager(StandardManager manager, int maxActiveSessions) throws Exception {
+        manager.setPathname(null);
+        manager.setMaxActiveSessions(maxActiveSessions);
+        Host host = new TesterHost();
+        Context context = new TesterContext();
+        context.setParent(host);
+        manager.setContext(context);
+        manager.start();
+    }
+
+
+    private static StandardSession createSession(StandardManager manager, long creationTime,
+            long lastAccessedTime) {
+        StandardSession session = (StandardSession) manager.createSession(null);
+        session.setCreationTime(creationTime);
+        session.lastAccessedTime = lastAccessedTime;
+        return session;
+    }
+
+
+    private static class Failing implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private void writeObject(ObjectOutputStream out) {
+            throw new IllegalStateException();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Session;
+
+public class TestOffHeapStore {
+
+    @Test
+    public void testSaveLoadRemove() throws Exception {
+        OffHeapStore store = createStore();
+        store.save(TesterStoreSupport.createSession(store, "s1", "value1"));
+        store.save(TesterStoreSupport.createSession(store, "s2", "value2"));
+        store.save(TesterStoreSupport.createSession(store, "s1", "value1b"));
+
+        Assert.assertEquals(2, store.getSize());
+        String[] keys = store.keys();
+        Arrays.sort(keys);
+        Assert.assertArrayEquals(new String[] { "s1", "s2" }, keys);
+        Assert.assertEquals("value1b", store.load("s1").getSession().getAttribute("attr"));
+        Assert.assertEquals("value2", store.load("s2").getSession().getAttribute("attr"));
+
+        store.remove("s1");
+        store.remove("s2");
+        Assert.assertNull(store.load("s1"));
+        Assert.assertEquals(0, store.getSize());
+        Assert.assertEquals(0, store.getMemoryUsed());
+    }
+
+
+    @Test
+    public void testBlocksReused() throws Exception {
+        OffHeapStore store = createStore();
+        store.setSlabSize(4096);
+        for (int i = 0; i < 1000; i++) {
+            store.save(TesterStoreSupport.createSession(store, "s" + (i % 10), "value" + i));
+        }
+        // Ten sessions fit in a single slab
+        Assert.assertEquals(4096, store.getMemoryReserved());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals("value" + (990 + i),
+                    store.load("s" + i).getSession().getAttribute("attr"));
+        }
+    }
+
+
+    @Test
+    public void testLargeSession() throws Exception {
+        OffHeapStore store = createStore();
+        store.setSlabSize(4096);
+        char[] chars = new char[10000];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+        store.save(TesterStoreSupport.createSession(store, "large", value));
+        store.save(TesterStoreSupport.createSession(store, "small", "value"));
+
+        Assert.assertEquals(value, store.load("large").getSession().getAttribute("attr"));
+        Assert.assertEquals("value", store.load("small").getSession().getAttribute("attr"));
+
+        store.remove("large");
+        Assert.assertEquals(4096, store.getMemoryReserved());
+    }
+
+
+    @Test
+    public void testMaxMemory() throws Exception {
+        OffHeapStore store = createStore();
+        store.setSlabSize(4096);
+        store.setMaxMemory(4096);
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+        store.save(TesterStoreSupport.createSession(store, "s1", value));
+        store.save(TesterStoreSupport.createSession(store, "s2", value));
+        try {
+            store.save(TesterStoreSupport.createSession(store, "s3", value));
+            Assert.fail();
+        } catch (IOException expected) {
+            // Expected
+        }
+        Assert.assertEquals(2, store.getSize());
+
+        // Space is available again once a session is removed
+        store.remove("s1");
+        store.save(TesterStoreSupport.createSession(store, "s3", value));
+        Assert.assertEquals(2, store.getSize());
+    }
+
+
+    @Test
+    public void testFillToMaxMemory() throws Exception {
+        OffHeapStore store = createStore();
+        store.setSlabSize(4096);
+        store.setMaxMemory(4 * 4096);
+        List<String> values = new ArrayList<>();
+        try {
+            for (int i = 0; ; i++) {
+                // Sessions of several different block sizes
+                char[] chars = new char[(i % 7) * 150];
+                Arrays.fill(chars, (char) ('a' + i % 26));
+                String value = new String(chars);
+                store.save(TesterStoreSupport.createSession(store, "s" + i, value));
+                values.add(value);
+            }
+        } catch (IOException expected) {
+            // Expected
+        }
+        Assert.assertEquals(4 * 4096, store.getMemoryReserved());
+        Assert.assertEquals(values.size(), store.getSize());
+
+        // Smaller sessions still fit in the remaining space
+        store.save(TesterStoreSupport.createSession(store, "small", ""));
+
+        for (int i = 0; i < values.size(); i++) {
+            Assert.assertEquals(values.get(i),
+                    store.load("s" + i).getSession().getAttribute("attr"));
+        }
+        Assert.assertEquals("", store.load("small").getSession().getAttribute("attr"));
+    }
+
+
+    @Test
+    public void testFreeBlocksMerged() throws Exception {
+        OffHeapStore store = createStore();
+        store.setSlabSize(4096);
+        store.setMaxMemory(4096);
+        int count = 0;
+        try {
+            while (true) {
+                store.save(TesterStoreSupport.createSession(store, "s" + count, "value"));
+                count++;
+            }
+        } catch (IOException expected) {
+            // Expected
+        }
+        for (int i = 0; i < count; i++) {
+            store.remove("s" + i);
+        }
+        Assert.assertEquals(0, store.getMemoryUsed());
+
+        // Only fits if the small free blocks have been merged
+        char[] chars = new char[2500];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+        store.save(TesterStoreSupport.createSession(store, "large", value));
+        Assert.assertEquals(value, store.load("large").getSession().getAttribute("attr"));
+        Assert.assertEquals(4096, store.getMemoryUsed());
+    }
+
+
+    @Test
+    public void testExpiredKeys() throws Exception {
+        OffHeapStore store = createStore();
+        StandardSession expired = TesterStoreSupport.createSession(store, "expired", "value");
+        expired.setCreationTime(System.currentTimeMillis() - 10000);
+        expired.setMaxInactiveInterval(1);
+        store.save(expired);
+        store.save(TesterStoreSupport.createSession(store, "current", "value"));
+
+        Assert.assertArrayEquals(new String[] { "expired" }, store.expiredKeys());
+    }
+
+
+    @Test
+    public void testSwapOut() throws Exception {
+        OffHeapStore store = createStore();
+        PersistentManager manager = (PersistentManager) store.getManager();
+        manager.setMaxActiveSessions(2);
+        manager.setMinIdleSwap(0);
+        manager.start();
+
+        Session[] sessions = new Session[2];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = manager.createSession(null);
+            sessions[i].getSession().setAttribute("attr", Integer.valueOf(i));
+        }
+        String id = sessions[0].getId();
+        sessions[0].setCreationTime(System.currentTimeMillis() - 10000);
+
+        // The least recently used session is moved off the heap
+        manager.processPersistenceChecks();
+        Assert.assertEquals(1, manager.getActiveSessions());
+        Assert.assertArrayEquals(new String[] { id }, store.keys());
+
+        Session session = manager.findSession(id);
+        Assert.assertEquals(Integer.valueOf(0), session.getSession().getAttribute("attr"));
+        manager.stop();
+    }
+
+
+    private static OffHeapStore createStore() throws Exception {
+        OffHeapStore store = new OffHeapStore();
+        TesterStoreSupport.createManager(store);
+        return store;
+    }
+}
@@ -16,6 +16,14 @@
  */
 package org.apache.catalina.session;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.HttpServletRequest;
@@ -71,6 +79,283 @@ public class TestPersistentManager {
         Assert.assertEquals(3, manager.getActiveSessionsFull());
     }
 
+    @Test
+    public void testWriteBehindCoalescesWrites() throws Exception {
+        CountDownLatch saveStarted = new CountDownLatch(1);
+        CountDownLatch blockSave = new CountDownLatch(1);
+        TesterStore store = new TesterStore() {
+            @Override
+            public void save(Session session) throws IOException {
+                saveStarted.countDown();
+                try {
+                    blockSave.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                super.save(session);
+            }
+        };
+        PersistentManager manager = createManager(store);
+        manager.setWriteBehind(true);
+        manager.setWriteBehindThreads(1);
+        manager.setMaxIdleBackup(0);
+        manager.start();
+
+        // The first write blocks the only write-behind thread
+        Session s0 = manager.createSession(null);
+        manager.processPersistenceChecks();
+        Assert.assertTrue(saveStarted.await(10, TimeUnit.SECONDS));
+
+        // Repeated back ups of the same sessions are queued once. The session
+        // being written is queued again as it has not yet been written.
+        Session s1 = manager.createSession(null);
+        manager.processPersistenceChecks();
+        manager.processPersistenceChecks();
+        manager.processPersistenceChecks();
+        Assert.assertEquals(0, store.getSavedIds().size());
+
+        blockSave.countDown();
+        waitForSavedIds(store, 3);
+
+        Assert.assertEquals(2, Collections.frequency(store.getSavedIds(), s0.getId()));
+        Assert.assertEquals(1, Collections.frequency(store.getSavedIds(), s1.getId()));
+
+        // Written sessions are not written again until they are used
+        manager.processPersistenceChecks();
+        Thread.sleep(200);
+        Assert.assertEquals(3, store.getSavedIds().size());
+    }
+
+    @Test
+    public void testWriteBehindSwapOut() throws Exception {
+        TesterStore store = new TesterStore();
+        PersistentManager manager = createManager(store);
+        manager.setWriteBehind(true);
+        manager.setMaxIdleSwap(0);
+        manager.start();
+
+        String id = manager.createSession(null).getId();
+        manager.processPersistenceChecks();
+        waitForSavedIds(store, 1);
+        for (int i = 0; i < 100 && manager.getActiveSessions() > 0; i++) {
+            Thread.sleep(50);
+        }
+
+        Assert.assertEquals(0, manager.getActiveSessions());
+        Assert.assertNotNull(store.load(id));
+    }
+
+    @Test
+    public void testReadAhead() throws Exception {
+        AtomicInteger loadCount = new AtomicInteger();
+        TesterStore store = new TesterStore() {
+            @Override
+            public Session load(String id) throws ClassNotFoundException, IOException {
+                loadCount.incrementAndGet();
+                return super.load(id);
+            }
+        };
+        PersistentManager manager = createManager(store);
+        manager.setReadAhead(true);
+        manager.start();
+
+        Session session = manager.createSession(null);
+        String id = session.getId();
+        manager.writeSession(session);
+        manager.removeSuper(session);
+        Assert.assertEquals(0, manager.getActiveSessions());
+
+        manager.readAhead(id);
+        Session found = manager.findSession(id);
+        Assert.assertNotNull(found);
+        Assert.assertEquals(1, loadCount.get());
+
+        // Already in memory so nothing to read ahead
+        manager.readAhead(id);
+        Assert.assertNotNull(manager.findSession(id));
+        Assert.assertEquals(1, loadCount.get());
+    }
+
+    @Test
+    public void testReadAheadDiscardedOnWrite() throws Exception {
+        PersistentManager manager = createManager(new TesterStore());
+        manager.setReadAhead(true);
+        manager.start();
+
+        StandardSession session = (StandardSession) manager.createSession(null);
+        String id = session.getId();
+        manager.removeSuper(session);
+
+        // Nothing in the Store when the session is read ahead
+        manager.readAhead(id);
+        // Writing the session discards the session read ahead
+        manager.writeSession(session);
+
+        Assert.assertSame(session, manager.findSession(id));
+    }
+
+    @Test
+    public void testReadAheadIgnoresInvalidIds() throws Exception {
+        AtomicInteger loadCount = new AtomicInteger();
+        TesterStore store = new TesterStore() {
+            @Override
+            public Session load(String id) throws ClassNotFoundException, IOException {
+                loadCount.incrementAndGet();
+                return super.load(id);
+            }
+        };
+        PersistentManager manager = createManager(store);
+        manager.setReadAhead(true);
+        manager.start();
+
+        manager.readAhead("forged");
+        manager.readAhead("0123456789ABCDEF0123456789ABCDEFXX");
+        manager.readAhead("");
+        Thread.sleep(200);
+        Assert.assertEquals(0, loadCount.get());
+    }
+
+    @Test
+    public void testSwapOutSkipsAccessedSessions() throws Exception {
+        TesterStore store = new TesterStore();
+        PersistentManager manager = createManager(store);
+        manager.start();
+
+        StandardSession session = (StandardSession) manager.createSession(null);
+        // In use by a request since it was selected to be swapped out
+        session.accessCount = new AtomicInteger(1);
+
+        manager.swapOut(Collections.<Session>singletonList(session));
+
+        Assert.assertEquals(1, manager.getActiveSessions());
+        Assert.assertTrue(session.isValid());
+        Assert.assertEquals(0, store.getSavedIds().size());
+    }
+
+    @Test
+    public void testBackupModifiedOnly() throws Exception {
+        TesterStore store = new TesterStore();
+        PersistentManager manager = createManager(store);
+        manager.setBackupModifiedOnly(true);
+        manager.setMaxIdleBackup(0);
+        manager.start();
+
+        StandardSession session = (StandardSession) manager.createSession(null);
+        manager.processPersistenceChecks();
+        Assert.assertEquals(1, store.getSavedIds().size());
+
+        // Accessed but not modified
+        accessSession(session);
+        manager.processPersistenceChecks();
+        Assert.assertEquals(1, store.getSavedIds().size());
+
+        session.setAttribute("attr", "value");
+        accessSession(session);
+        manager.processPersistenceChecks();
+        Assert.assertEquals(2, store.getSavedIds().size());
+
+        session.markAttributeDirty("attr");
+        accessSession(session);
+        manager.processPersistenceChecks();
+        Assert.assertEquals(3, store.getSavedIds().size());
+    }
+
+    private static void accessSession(Session session) throws InterruptedException {
+        long lastAccessedTime = session.getLastAccessedTimeInternal();
+        while (lastAccessedTime == System.currentTimeMillis()) {
+            Thread.sleep(1);
+        }
+        session.access();
+        session.endAccess();
+    }
+
+    @Test
+    public void testEvictionSwapsOut() throws Exception {
+        TesterStore store = new TesterStore();
+        PersistentManager manager = createManager(store);
+        manager.setMaxActiveSessions(1);
+        manager.setEvictionPolicy("lru");
+        manager.start();
+
+        String id = manager.createSession(null).getId();
+        manager.createSession(null);
+        Assert.assertEquals(1, manager.getActiveSessions());
+        Assert.assertEquals(1, manager.getEvictedSessions());
+        Assert.assertNotNull(store.load(id));
+    }
+
+    @Test
+    public void testLoadInBatches() throws Exception {
+        Map<String,Session> stored = new ConcurrentHashMap<>();
+        List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+        StoreBase store = new StoreBase() {
+            @Override
+            public int getSize() {
+                return stored.size();
+            }
+
+            @Override
+            public String[] keys() {
+                return stored.keySet().toArray(new String[0]);
+            }
+
+            @Override
+            public Session load(String id) {
+                return stored.get(id);
+            }
+
+            @Override
+            public Session[] loadAll(String[] ids) throws ClassNotFoundException, IOException {
+                batches.add(Integer.valueOf(ids.length));
+                return super.loadAll(ids);
+            }
+
+            @Override
+            public void remove(String id) {
+                stored.remove(id);
+            }
+
+            @Override
+            public void clear() {
+                stored.clear();
+            }
+
+            @Override
+            public void save(Session session) {
+                stored.put(session.getIdInternal(), session);
+            }
+        };
+        PersistentManager manager = createManager(store);
+        manager.start();
+        for (int i = 0; i < 150; i++) {
+            store.save(TesterStoreSupport.createSession(store, "s" + i, "value" + i));
+        }
+
+        manager.load();
+        Assert.assertEquals(150, manager.getActiveSessions());
+        Assert.assertEquals(2, batches.size());
+        Assert.assertEquals(150, batches.get(0).intValue() + batches.get(1).intValue());
+    }
+
+    private static PersistentManager createManager(Store store) {
+        PersistentManager manager = new PersistentManager();
+        manager.setStore(store);
+
+        Host host = new TesterHost();
+        Context context = new TesterContext();
+        context.setParent(host);
+
+        manager.setContext(context);
+        return manager;
+    }
+
+    private static void waitForSavedIds(TesterStore store, int count) throws InterruptedException {
+        for (int i = 0; i < 100 && store.getSavedIds().size() < count; i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(count, store.getSavedIds().size());
+    }
+
     @Test
     public void testBug62175() throws Exception {
         PersistentManager manager = new PersistentManager();
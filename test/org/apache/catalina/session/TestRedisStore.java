@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.Session;
+
+public class TestRedisStore {
+
+    private TesterRedisServer server;
+
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TesterRedisServer("secret");
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+
+    @Test
+    public void testSaveLoadRemove() throws Exception {
+        RedisStore store = startStore("/test");
+        store.save(TesterStoreSupport.createSession(store, "s1", "value1"));
+        store.save(TesterStoreSupport.createSession(store, "s2", "value2"));
+        store.save(TesterStoreSupport.createSession(store, "s1", "value1b"));
+
+        Assert.assertEquals(2, store.getSize());
+        String[] keys = store.keys();
+        Arrays.sort(keys);
+        Assert.assertArrayEquals(new String[] { "s1", "s2" }, keys);
+        Assert.assertEquals("value1b", store.load("s1").getSession().getAttribute("attr"));
+        Assert.assertTrue(server.containsKey("tomcat:session:/test:s1"));
+
+        store.remove("s1");
+        Assert.assertNull(store.load("s1"));
+        Assert.assertEquals(1, store.getSize());
+
+        store.clear();
+        Assert.assertEquals(0, store.getSize());
+        store.stop();
+    }
+
+
+    @Test
+    public void testContextsSeparated() throws Exception {
+        RedisStore store1 = startStore("/test1");
+        RedisStore store2 = startStore("/test2");
+        store1.save(TesterStoreSupport.createSession(store1, "s1", "value1"));
+
+        Assert.assertEquals(1, store1.getSize());
+        Assert.assertEquals(0, store2.getSize());
+        Assert.assertNull(store2.load("s1"));
+        store1.stop();
+        store2.stop();
+    }
+
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        RedisStore store = startStore("/test");
+        StandardSession session = TesterStoreSupport.createSession(store, "s1", "value1");
+        session.setCreationTime(System.currentTimeMillis() - 800);
+        session.setMaxInactiveInterval(1);
+        store.save(session);
+
+        long ttl = server.getLastTtl();
+        Assert.assertTrue(ttl > 0 && ttl <= 200);
+        Thread.sleep(ttl + 100);
+        Assert.assertNull(store.load("s1"));
+
+        // Never expires
+        session = TesterStoreSupport.createSession(store, "s2", "value2");
+        session.setMaxInactiveInterval(-1);
+        store.save(session);
+        Assert.assertEquals(-1, server.getLastTtl());
+
+        // Already expired
+        session = TesterStoreSupport.createSession(store, "s3", "value3");
+        session.setCreationTime(System.currentTimeMillis() - 2000);
+        session.setMaxInactiveInterval(1);
+        store.save(session);
+        Assert.assertNull(store.load("s3"));
+        Assert.assertEquals(0, store.expiredKeys().length);
+        store.stop();
+    }
+
+
+    @Test
+    public void testBatches() throws Exception {
+        RedisStore store = startStore("/test");
+        List<Session> sessions = new ArrayList<>();
+        String[] ids = new String[101];
+        for (int i = 0; i < 100; i++) {
+            ids[i] = "s" + i;
+            sessions.add(TesterStoreSupport.createSession(store, ids[i], "value" + i));
+        }
+        ids[100] = "missing";
+        store.saveAll(sessions);
+
+        Session[] loaded = store.loadAll(ids);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("value" + i, loaded[i].getSession().getAttribute("attr"));
+        }
+        Assert.assertNull(loaded[100]);
+        store.stop();
+
+        // The Manager loads the sessions in batches
+        RedisStore other = createStore("/test");
+        PersistentManager manager = (PersistentManager) other.getManager();
+        manager.start();
+        manager.load();
+        Assert.assertEquals(100, manager.getActiveSessions());
+        Assert.assertEquals("value7",
+                manager.findSession("s7").getSession().getAttribute("attr"));
+        manager.stop();
+    }
+
+
+    @Test
+    public void testKeysScanned() throws Exception {
+        RedisStore store = startStore("/test");
+        RedisStore other = startStore("/other");
+        List<Session> sessions = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            sessions.add(TesterStoreSupport.createSession(store, "s" + i, "value"));
+        }
+        store.saveAll(sessions);
+        other.save(TesterStoreSupport.createSession(other, "o1", "value"));
+
+        String[] keys = store.keys();
+        Assert.assertEquals(2500, keys.length);
+        Assert.assertEquals(2500, new HashSet<>(Arrays.asList(keys)).size());
+        // More than one SCAN is required
+        Assert.assertTrue(server.getScanCount() > 1);
+        Assert.assertArrayEquals(new String[] { "o1" }, other.keys());
+        store.stop();
+        other.stop();
+    }
+
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        RedisStore store = startStore("/test");
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            int n = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        String id = "t" + n + "-" + i;
+                        store.save(TesterStoreSupport.createSession(store, id, id));
+                        Assert.assertEquals(id, store.load(id).getSession().getAttribute("attr"));
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(400, store.getSize());
+        // Connections are shared by all threads
+        Assert.assertEquals(2, server.getConnectionCount());
+        store.stop();
+    }
+
+
+    @Test
+    public void testReconnect() throws Exception {
+        RedisStore store = startStore("/test");
+        store.save(TesterStoreSupport.createSession(store, "s1", "value1"));
+        server.disconnectClients();
+
+        // Each connection fails once and is then re-established
+        for (int i = 0; i < 4; i++) {
+            try {
+                store.load("s1");
+            } catch (IOException expected) {
+                // Expected
+            }
+        }
+        Assert.assertEquals("value1", store.load("s1").getSession().getAttribute("attr"));
+        store.stop();
+    }
+
+
+    @Test(expected = IOException.class)
+    public void testWrongPassword() throws Exception {
+        RedisStore store = createStore("/test");
+        store.setPassword("wrong");
+        store.start();
+        store.load("s1");
+    }
+
+
+    private RedisStore startStore(String contextName) throws Exception {
+        RedisStore store = createStore(contextName);
+        store.start();
+        return store;
+    }
+
+
+    private RedisStore createStore(String contextName) {
+        RedisStore store = new RedisStore();
+        store.setHost("localhost");
+        store.setPort(server.getPort());
+        store.setPassword("secret");
+        store.setDatabase(1);
+
+        TesterStoreSupport.createManager(store, contextName);
+
+        return store;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.startup.LoggingBaseTest;
+
+public class TestSegmentedFileStore extends LoggingBaseTest {
+
+    private File dir;
+
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        dir = Files.createTempDirectory(getTemporaryDirectory().toPath(), "segments").toFile();
+    }
+
+
+    @Test
+    public void testSaveLoadRemove() throws Exception {
+        SegmentedFileStore store = startStore(1024 * 1024);
+        store.save(TesterStoreSupport.createSession(store, "s1", "value1"));
+        store.save(TesterStoreSupport.createSession(store, "s2", "value2"));
+        store.save(TesterStoreSupport.createSession(store, "s1", "value1b"));
+
+        Assert.assertEquals(2, store.getSize());
+        String[] keys = store.keys();
+        Arrays.sort(keys);
+        Assert.assertArrayEquals(new String[] { "s1", "s2" }, keys);
+        Assert.assertEquals("value1b", store.load("s1").getSession().getAttribute("attr"));
+
+        store.remove("s2");
+        Assert.assertNull(store.load("s2"));
+        Assert.assertEquals(1, store.getSize());
+
+        store.clear();
+        Assert.assertEquals(0, store.getSize());
+        Assert.assertEquals(0, store.getSegmentCount());
+        store.stop();
+    }
+
+
+    @Test
+    public void testRestart() throws Exception {
+        SegmentedFileStore store = startStore(1024 * 1024);
+        store.save(TesterStoreSupport.createSession(store, "s1", "value1"));
+        store.save(TesterStoreSupport.createSession(store, "s2", "value2"));
+        store.save(TesterStoreSupport.createSession(store, "s2", "value2b"));
+        store.save(TesterStoreSupport.createSession(store, "s3", "value3"));
+        store.remove("s3");
+        store.stop();
+
+        store = startStore(1024 * 1024);
+        Assert.assertEquals(2, store.getSize());
+        Assert.assertEquals("value1", store.load("s1").getSession().getAttribute("attr"));
+        Assert.assertEquals("value2b", store.load("s2").getSession().getAttribute("attr"));
+        Assert.assertNull(store.load("s3"));
+
+        // Appends continue after the recovered records
+        store.save(TesterStoreSupport.createSession(store, "s4", "value4"));
+        store.stop();
+        store = startStore(1024 * 1024);
+        Assert.assertEquals(3, store.getSize());
+        Assert.assertEquals("value4", store.load("s4").getSession().getAttribute("attr"));
+        store.stop();
+    }
+
+
+    @Test
+    public void testCompaction() throws Exception {
+        SegmentedFileStore store = startStore(1024);
+        store.save(TesterStoreSupport.createSession(store, "removed", "value"));
+        store.save(TesterStoreSupport.createSession(store, "kept", "value"));
+        for (int i = 0; i < 100; i++) {
+            store.save(TesterStoreSupport.createSession(store, "s1", "value" + i));
+            if (i == 50) {
+                store.remove("removed");
+            }
+        }
+        int before = store.getSegmentCount();
+        Assert.assertTrue(before > 2);
+
+        store.compact();
+        Assert.assertTrue(store.getSegmentCount() < before);
+        Assert.assertEquals("value99", store.load("s1").getSession().getAttribute("attr"));
+        Assert.assertEquals("value", store.load("kept").getSession().getAttribute("attr"));
+        Assert.assertNull(store.load("removed"));
+        store.stop();
+
+        // A removed session must not be recovered from a segment that has not
+        // been compacted
+        store = startStore(1024);
+        Assert.assertEquals(2, store.getSize());
+        Assert.assertEquals("value99", store.load("s1").getSession().getAttribute("attr"));
+        Assert.assertNull(store.load("removed"));
+        store.stop();
+    }
+
+
+    @Test
+    public void testPartialRecord() throws Exception {
+        SegmentedFileStore store = startStore(1024 * 1024);
+        store.save(TesterStoreSupport.createSession(store, "s1", "value1"));
+        store.save(TesterStoreSupport.createSession(store, "s2", "value2"));
+        store.stop();
+
+        // Damage the end of the last record
+        File[] files = dir.listFiles();
+        Assert.assertEquals(1, files.length);
+        long end;
+        try (RandomAccessFile raf = new RandomAccessFile(files[0], "rw")) {
+            int length = raf.readInt();
+            raf.seek(8 + length);
+            int length2 = raf.readInt();
+            end = 8 + length + 8 + length2;
+            raf.seek(end - 1);
+            int b = raf.readByte();
+            raf.seek(end - 1);
+            raf.writeByte(b ^ 0xFF);
+        }
+
+        store = startStore(1024 * 1024);
+        Assert.assertEquals(1, store.getSize());
+        Assert.assertNotNull(store.load("s1"));
+        Assert.assertNull(store.load("s2"));
+
+        store.save(TesterStoreSupport.createSession(store, "s3", "value3"));
+        store.stop();
+        store = startStore(1024 * 1024);
+        Assert.assertEquals(2, store.getSize());
+        Assert.assertEquals("value3", store.load("s3").getSession().getAttribute("attr"));
+        store.stop();
+    }
+
+
+    @Test
+    public void testExpiredKeys() throws Exception {
+        SegmentedFileStore store = startStore(1024 * 1024);
+        StandardSession expired = TesterStoreSupport.createSession(store, "expired", "value");
+        expired.setCreationTime(System.currentTimeMillis() - 10000);
+        expired.setMaxInactiveInterval(1);
+        store.save(expired);
+        store.save(TesterStoreSupport.createSession(store, "current", "value"));
+
+        Assert.assertArrayEquals(new String[] { "expired" }, store.expiredKeys());
+
+        store.processExpires();
+        Assert.assertArrayEquals(new String[] { "current" }, store.keys());
+        store.stop();
+    }
+
+
+    @Test
+    public void testSyncOnSave() throws Exception {
+        SegmentedFileStore store = startStore(1024);
+        store.setSyncOnSave(true);
+        for (int i = 0; i < 20; i++) {
+            store.save(TesterStoreSupport.createSession(store, "s" + i, "value" + i));
+        }
+        store.remove("s0");
+        store.stop();
+
+        store = startStore(1024);
+        Assert.assertEquals(19, store.getSize());
+        Assert.assertEquals("value19", store.load("s19").getSession().getAttribute("attr"));
+        store.stop();
+    }
+
+
+    @Test
+    public void testLoadDuringCompaction() throws Exception {
+        final SegmentedFileStore store = startStore(1024);
+        store.save(TesterStoreSupport.createSession(store, "kept", "value"));
+        for (int i = 0; i < 100; i++) {
+            store.save(TesterStoreSupport.createSession(store, "s1", "value" + i));
+        }
+
+        final AtomicBoolean failed = new AtomicBoolean();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread loader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (!done.get()) {
+                        Session session = store.load("kept");
+                        if (session == null ||
+                                !"value".equals(session.getSession().getAttribute("attr"))) {
+                            failed.set(true);
+                        }
+                    }
+                } catch (Exception e) {
+                    failed.set(true);
+                }
+            }
+        };
+        loader.start();
+        for (int i = 0; i < 10; i++) {
+            store.save(TesterStoreSupport.createSession(store, "s1", "value" + i));
+            store.compact();
+        }
+        done.set(true);
+        loader.join();
+
+        Assert.assertFalse(failed.get());
+        Assert.assertEquals("value", store.load("kept").getSession().getAttribute("attr"));
+        store.stop();
+    }
+
+
+    private SegmentedFileStore startStore(int segmentSize) throws Exception {
+        SegmentedFileStore store = new SegmentedFileStore();
+        store.setDirectory(dir.getAbsolutePath());
+        store.setSegmentSize(segmentSize);
+
+        TesterStoreSupport.createManager(store);
+
+        store.start();
+        return store;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Session;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+public class TestSessionExpirationIndex extends TomcatBaseTest {
+
+    private static final long TICK = 1000;
+    private static final long START = 1000000 * TICK;
+
+
+    @Test
+    public void testPollExpired() {
+        SessionExpirationIndex index = new SessionExpirationIndex(TICK);
+        StandardSession s1 = createSession(START, 60);
+        StandardSession s2 = createSession(START, 120);
+        index.schedule(s1, START);
+        index.schedule(s2, START);
+        Assert.assertEquals(2, index.size());
+
+        Assert.assertTrue(index.pollExpired(START + 59 * TICK).isEmpty());
+
+        List<Session> expired = index.pollExpired(START + 60 * TICK);
+        Assert.assertEquals(1, expired.size());
+        Assert.assertSame(s1, expired.get(0));
+        Assert.assertNull(s1.expirationBucket);
+
+        expired = index.pollExpired(START + 200 * TICK);
+        Assert.assertEquals(1, expired.size());
+        Assert.assertSame(s2, expired.get(0));
+        Assert.assertEquals(0, index.size());
+    }
+
+
+    @Test
+    public void testNeverExpires() {
+        SessionExpirationIndex index = new SessionExpirationIndex(TICK);
+        StandardSession s1 = createSession(START, -1);
+        index.schedule(s1, START);
+        Assert.assertEquals(0, index.size());
+    }
+
+
+    @Test
+    public void testReschedule() {
+        SessionExpirationIndex index = new SessionExpirationIndex(TICK);
+        StandardSession s1 = createSession(START, 60);
+        index.schedule(s1, START);
+
+        s1.setMaxInactiveInterval(10);
+        index.schedule(s1, START);
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals(1, index.pollExpired(START + 10 * TICK).size());
+        Assert.assertEquals(0, index.size());
+    }
+
+
+    @Test
+    public void testUnschedule() {
+        SessionExpirationIndex index = new SessionExpirationIndex(TICK);
+        StandardSession s1 = createSession(START, 60);
+        index.schedule(s1, START);
+        index.unschedule(s1);
+        Assert.assertEquals(0, index.size());
+        Assert.assertNull(s1.expirationBucket);
+        Assert.assertTrue(index.pollExpired(START + 60 * TICK).isEmpty());
+    }
+
+
+    @Test
+    public void testPastExpirationTime() {
+        // A session that is still valid after its expiration time, e.g.
+        // because a request is in progress, is checked again later
+        SessionExpirationIndex index = new SessionExpirationIndex(TICK);
+        StandardSession s1 = createSession(START, 60);
+        index.schedule(s1, START + 100 * TICK);
+        Assert.assertTrue(index.pollExpired(START + 100 * TICK).isEmpty());
+        Assert.assertEquals(1, index.pollExpired(START + 101 * TICK).size());
+    }
+
+
+    @Test
+    public void testManagerExpiresOnlyCandidates() throws Exception {
+        ManagerBase manager = startManager();
+
+        for (int i = 0; i < 100; i++) {
+            manager.createSession(null);
+        }
+        Session s1 = manager.createSession(null);
+        s1.setMaxInactiveInterval(1);
+        Session s2 = manager.createSession(null);
+        s2.setMaxInactiveInterval(1);
+        // Invalidated sessions are removed from the index
+        Session s3 = manager.createSession(null);
+        s3.setMaxInactiveInterval(1);
+        s3.expire();
+
+        Thread.sleep(2 * TICK + 100);
+        manager.processExpires();
+
+        Assert.assertEquals(100, manager.getActiveSessions());
+        Assert.assertEquals(2, manager.getLastSweepCheckedSessions());
+        Assert.assertEquals(2, manager.getLastSweepExpiredSessions());
+        Assert.assertEquals(1, manager.getSweepCount());
+        Assert.assertFalse(s1.isValid());
+        Assert.assertFalse(s2.isValid());
+    }
+
+
+    @Test
+    public void testManagerAccessDefersExpiration() throws Exception {
+        ManagerBase manager = startManager();
+
+        Session s1 = manager.createSession(null);
+        s1.setMaxInactiveInterval(2);
+
+        Thread.sleep(TICK + 500);
+        s1.access();
+        s1.endAccess();
+
+        // Original expiration time has passed but the session was accessed so
+        // it is checked and re-scheduled
+        Thread.sleep(TICK + 500);
+        manager.processExpires();
+        Assert.assertEquals(1, manager.getLastSweepCheckedSessions());
+        Assert.assertEquals(0, manager.getLastSweepExpiredSessions());
+        Assert.assertTrue(s1.isValid());
+
+        Thread.sleep(2 * TICK);
+        manager.processExpires();
+        Assert.assertEquals(1, manager.getLastSweepExpiredSessions());
+        Assert.assertFalse(s1.isValid());
+        Assert.assertEquals(0, manager.getActiveSessions());
+    }
+
+
+    @Test
+    public void testManagerWithoutIndex() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("", null);
+        StandardManager manager = new StandardManager();
+        manager.setUseExpirationIndex(false);
+        ctx.setManager(manager);
+        tomcat.start();
+
+        for (int i = 0; i < 10; i++) {
+            manager.createSession(null);
+        }
+        manager.processExpires();
+        Assert.assertEquals(10, manager.getLastSweepCheckedSessions());
+        Assert.assertEquals(0, manager.getLastSweepExpiredSessions());
+    }
+
+
+    private ManagerBase startManager() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        tomcat.start();
+        return (ManagerBase) ctx.getManager();
+    }
+
+
+    private static StandardSession createSession(long creationTime, int maxInactiveInterval) {
+        StandardSession session = new StandardSession(null);
+        session.setValid(true);
+        session.setCreationTime(creationTime);
+        session.setMaxInactiveInterval(maxInactiveInterval);
+        return session;
+    }
+}
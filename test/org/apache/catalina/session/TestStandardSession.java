@@ -24,6 +24,7 @@ import java.io.ObjectOutputStream;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -118,6 +119,57 @@ public class TestStandardSession {
     }
 
 
+    @Test
+    public void testAttributesVersion() {
+        StandardSession s1 = new StandardSession(TEST_MANAGER);
+        s1.setValid(true);
+        long version = s1.getAttributesVersion();
+
+        s1.setAttribute("attr01", "value01");
+        Assert.assertEquals(++version, s1.getAttributesVersion());
+        s1.setAttribute("attr01", "value02");
+        Assert.assertEquals(++version, s1.getAttributesVersion());
+        s1.getAttribute("attr01");
+        Assert.assertEquals(version, s1.getAttributesVersion());
+        s1.markAttributeDirty("attr01");
+        Assert.assertEquals(++version, s1.getAttributesVersion());
+        // Not present so not modified
+        s1.markAttributeDirty("attr02");
+        s1.removeAttribute("attr02");
+        Assert.assertEquals(version, s1.getAttributesVersion());
+        s1.removeAttribute("attr01");
+        Assert.assertEquals(++version, s1.getAttributesVersion());
+    }
+
+
+    @Test
+    public void testTrackAttributeAccess() {
+        StandardSession s1 = new StandardSession(TEST_MANAGER);
+        s1.setValid(true);
+        s1.setAttribute("attr01", "value01");
+        s1.setAttribute("attr02", "value02");
+
+        Set<String> first = s1.startAttributeAccessTracking();
+        s1.getAttribute("attr01");
+        Set<String> second = s1.startAttributeAccessTracking();
+        s1.setAttribute("attr03", "value03");
+        s1.getAttribute("attr04");
+
+        Map<String,Object> accessed = s1.stopAttributeAccessTracking(second);
+        Assert.assertEquals(1, accessed.size());
+        Assert.assertEquals("value03", accessed.get("attr03"));
+
+        // Stopping one tracker does not affect the other
+        s1.getAttribute("attr02");
+        accessed = s1.stopAttributeAccessTracking(first);
+        Assert.assertEquals(3, accessed.size());
+        Assert.assertEquals("value01", accessed.get("attr01"));
+        Assert.assertEquals("value02", accessed.get("attr02"));
+        Assert.assertEquals("value03", accessed.get("attr03"));
+        Assert.assertTrue(s1.attributeAccessTrackers.isEmpty());
+    }
+
+
     private StandardSession serializeThenDeserialize(StandardSession source)
             throws IOException, ClassNotFoundException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * A minimal in-process server that understands the subset of the Redis
+ * serialization protocol used by {@link RedisStore}.
+ */
+class TesterRedisServer {
+
+    private final ServerSocket serverSocket;
+    private final Map<String,Entry> data = new ConcurrentHashMap<>();
+    private final List<Socket> clients = new CopyOnWriteArrayList<>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final String password;
+    private final AtomicInteger scanCount = new AtomicInteger();
+    private volatile long lastTtl = -1;
+
+    TesterRedisServer(String password) throws IOException {
+        this.password = password;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "TesterRedisServer-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    int getScanCount() {
+        return scanCount.get();
+    }
+
+    long getLastTtl() {
+        return lastTtl;
+    }
+
+    boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    void disconnectClients() throws IOException {
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+
+    void stop() throws IOException {
+        serverSocket.close();
+        disconnectClients();
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                connectionCount.incrementAndGet();
+                clients.add(socket);
+                Thread handler = new Thread(() -> handle(socket), "TesterRedisServer-handler");
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } catch (IOException e) {
+            // Stopped
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (InputStream is = new BufferedInputStream(socket.getInputStream());
+                OutputStream os = new BufferedOutputStream(socket.getOutputStream())) {
+            boolean authenticated = password == null;
+            while (true) {
+                List<byte[]> command = readCommand(is);
+                String name = string(command.get(0)).toUpperCase();
+                if (!authenticated && !name.equals("AUTH")) {
+                    writeError(os, "NOAUTH Authentication required.");
+                } else {
+                    switch (name) {
+                        case "AUTH":
+                            authenticated = password != null && password.equals(string(command.get(1)));
+                            if (authenticated) {
+                                writeSimple(os, "OK");
+                            } else {
+                                writeError(os, "WRONGPASS invalid password");
+                            }
+                            break;
+                        case "SELECT":
+                        case "PING":
+                            writeSimple(os, "OK");
+                            break;
+                        case "GET": {
+                            Entry entry = get(string(command.get(1)));
+                            writeBulk(os, entry == null ? null : entry.value);
+                            break;
+                        }
+                        case "SET": {
+                            long expiry = Long.MAX_VALUE;
+                            if (command.size() == 5 && string(command.get(3)).equalsIgnoreCase("PX")) {
+                                long ttl = Long.parseLong(string(command.get(4)));
+                                lastTtl = ttl;
+                                expiry = System.currentTimeMillis() + ttl;
+                            } else {
+                                lastTtl = -1;
+                            }
+                            data.put(string(command.get(1)), new Entry(command.get(2), expiry));
+                            writeSimple(os, "OK");
+                            break;
+                        }
+                        case "DEL": {
+                            int count = 0;
+                            for (int i = 1; i < command.size(); i++) {
+                                if (data.remove(string(command.get(i))) != null) {
+                                    count++;
+                                }
+                            }
+                            writeLine(os, ':', Integer.toString(count));
+                            break;
+                        }
+                        case "SCAN": {
+                            // The cursor is the index into the sorted keys
+                            int cursor = Integer.parseInt(string(command.get(1)));
+                            Pattern pattern = toRegex(string(command.get(3)));
+                            int count = Integer.parseInt(string(command.get(5)));
+                            List<String> all = new ArrayList<>(data.keySet());
+                            Collections.sort(all);
+                            List<String> keys = new ArrayList<>();
+                            int end = Math.min(all.size(), cursor + count);
+                            for (String key : all.subList(Math.min(cursor, end), end)) {
+                                if (pattern.matcher(key).matches() && get(key) != null) {
+                                    keys.add(key);
+                                }
+                            }
+                            scanCount.incrementAndGet();
+                            writeLine(os, '*', "2");
+                            writeBulk(os, Integer.toString(end == all.size() ? 0 : end).getBytes(
+                                    StandardCharsets.UTF_8));
+                            writeLine(os, '*', Integer.toString(keys.size()));
+                            for (String key : keys) {
+                                writeBulk(os, key.getBytes(StandardCharsets.UTF_8));
+                            }
+                            break;
+                        }
+                        default:
+                            writeError(os, "ERR unknown command '" + name + "'");
+                    }
+                }
+                if (is.available() == 0) {
+                    os.flush();
+                }
+            }
+        } catch (IOException e) {
+            // Client disconnected
+        } finally {
+            clients.remove(socket);
+        }
+    }
+
+    private Entry get(String key) {
+        Entry entry = data.get(key);
+        if (entry != null && entry.expiry <= System.currentTimeMillis()) {
+            data.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private static Pattern toRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '\\') {
+                sb.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+            } else if (c == '*') {
+                sb.append(".*");
+            } else {
+                sb.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(sb.toString(), Pattern.DOTALL);
+    }
+
+    private static List<byte[]> readCommand(InputStream is) throws IOException {
+        if (read(is) != '*') {
+            throw new IOException("Expected an array");
+        }
+        int count = Integer.parseInt(readLine(is));
+        List<byte[]> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (read(is) != '$') {
+                throw new IOException("Expected a bulk string");
+            }
+            byte[] arg = new byte[Integer.parseInt(readLine(is))];
+            int offset = 0;
+            while (offset < arg.length) {
+                int n = is.read(arg, offset, arg.length - offset);
+                if (n < 0) {
+                    throw new EOFException();
+                }
+                offset += n;
+            }
+            readLine(is);
+            result.add(arg);
+        }
+        return result;
+    }
+
+    private static int read(InputStream is) throws IOException {
+        int b = is.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private static String readLine(InputStream is) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = read(is)) != '\r') {
+            sb.append((char) b);
+        }
+        read(is);
+        return sb.toString();
+    }
+
+    private static String string(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeSimple(OutputStream os, String value) throws IOException {
+        writeLine(os, '+', value);
+    }
+
+    private static void writeError(OutputStream os, String message) throws IOException {
+        writeLine(os, '-', message);
+    }
+
+    private static void writeBulk(OutputStream os, byte[] value) throws IOException {
+        if (value == null) {
+            writeLine(os, '$', "-1");
+        } else {
+            writeLine(os, '$', Integer.toString(value.length));
+            os.write(value);
+            os.write('\r');
+            os.write('\n');
+        }
+    }
+
+    private static void writeLine(OutputStream os, char type, String value) throws IOException {
+        os.write(type);
+        os.write(value.getBytes(StandardCharsets.UTF_8));
+        os.write('\r');
+        os.write('\n');
+    }
+
+    private static final class Entry {
+        private final byte[] value;
+        private final long expiry;
+
+        private Entry(byte[] value, long expiry) {
+            this.value = value;
+            this.expiry = expiry;
+        }
+    }
+}
@@ -19,9 +19,10 @@ package org.apache.catalina.session;
 import java.beans.PropertyChangeListener;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.catalina.Manager;
 import org.apache.catalina.Session;
@@ -30,8 +31,8 @@ import org.apache.catalina.Store;
 class TesterStore implements Store {
 
     private Manager manager;
-    private Map<String, Session> sessions = new HashMap<>();
-    private List<String> savedIds = new ArrayList<>();
+    private Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private List<String> savedIds = Collections.synchronizedList(new ArrayList<>());
 
     List<String> getSavedIds() {
         return savedIds;
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.catalina.Store;
+import org.apache.tomcat.unittest.TesterContext;
+import org.apache.tomcat.unittest.TesterHost;
+
+/**
+ * Creates the manager, context and sessions used by the Store tests.
+ */
+final class TesterStoreSupport {
+
+    private TesterStoreSupport() {
+        // Utility class
+    }
+
+
+    static PersistentManager createManager(Store store) {
+        return createManager(store, null);
+    }
+
+
+    static PersistentManager createManager(Store store, String contextName) {
+        PersistentManager manager = new PersistentManager();
+        manager.setStore(store);
+        Host host = new TesterHost();
+        Context context = new TesterContext();
+        if (contextName != null) {
+            context.setName(contextName);
+        }
+        context.setParent(host);
+        manager.setContext(context);
+        return manager;
+    }
+
+
+    static StandardSession createSession(Store store, String id, String value) {
+        StandardSession session = new StandardSession(store.getManager());
+        session.setValid(true);
+        session.setId(id, false);
+        session.setCreationTime(System.currentTimeMillis());
+        session.setMaxInactiveInterval(1800);
+        session.setAttribute("attr", value);
+        return session;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+
+public class TestFragmentationInterceptor {
+
+    private final List<ChannelMessage> sent = Collections.synchronizedList(new ArrayList<ChannelMessage>());
+    private final List<ChannelMessage> received = new ArrayList<>();
+    private FragmentationInterceptor interceptor;
+    private volatile CountDownLatch firstSending = null;
+    private volatile CountDownLatch firstRelease = null;
+
+
+    @Before
+    public void setUp() {
+        interceptor = new FragmentationInterceptor();
+        interceptor.setMaxSize(100);
+        interceptor.setNext(new ChannelInterceptorBase() {
+            @Override
+            public void sendMessage(Member[] destination, ChannelMessage msg, InterceptorPayload payload)
+                    throws ChannelException {
+                sent.add(msg);
+                if (sent.size() == 1 && firstSending != null) {
+                    // Hold the first fragment until the other sender queues
+                    firstSending.countDown();
+                    try {
+                        firstRelease.await();
+                    } catch (InterruptedException e) {
+                        throw new ChannelException(e);
+                    }
+                }
+            }
+        });
+        interceptor.setPrevious(new ChannelInterceptorBase() {
+            @Override
+            public void messageReceived(ChannelMessage msg) {
+                received.add(msg);
+            }
+        });
+    }
+
+
+    @Test
+    public void testFragmentAndAssemble() throws Exception {
+        byte[] data = createData(1050, 1);
+        ChannelData msg = createMessage(data);
+        interceptor.sendMessage(null, msg, null);
+        Assert.assertEquals(11, sent.size());
+        // The message being sent is left untouched
+        Assert.assertArrayEquals(data, Arrays.copyOf(msg.getMessage().getBytes(), data.length));
+
+        // Fragments may arrive in any order
+        Collections.reverse(sent);
+        for (ChannelMessage fragment : sent) {
+            interceptor.messageReceived(fragment);
+        }
+        Assert.assertEquals(1, received.size());
+        Assert.assertArrayEquals(data, received.get(0).getMessage().getBytes());
+    }
+
+
+    @Test
+    public void testFragmentsInterleaved() throws Exception {
+        interceptor.setMaxConcurrentFragments(1);
+        firstSending = new CountDownLatch(1);
+        firstRelease = new CountDownLatch(1);
+        ChannelData msg1 = createMessage(createData(5000, 1));
+        ChannelData msg2 = createMessage(createData(5000, 2));
+        Thread t1 = new Thread(() -> send(msg1));
+        Thread t2 = new Thread(() -> send(msg2));
+        t1.start();
+        firstSending.await();
+        t2.start();
+        // The only place the second sender waits is for a fragment permit
+        while (t2.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        firstRelease.countDown();
+        t1.join();
+        t2.join();
+
+        Assert.assertEquals(100, sent.size());
+        // The second message took its turn before the rest of the first
+        Assert.assertArrayEquals(msg1.getUniqueId(), sent.get(0).getUniqueId());
+        Assert.assertArrayEquals(msg2.getUniqueId(), sent.get(1).getUniqueId());
+    }
+
+
+    private void send(ChannelMessage msg) {
+        try {
+            interceptor.sendMessage(null, msg, null);
+        } catch (ChannelException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private static ChannelData createMessage(byte[] data) {
+        ChannelData msg = new ChannelData(true);
+        msg.setMessage(new XByteBuffer(data, false));
+        return msg;
+    }
+
+
+    private static byte[] createData(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * seed);
+        }
+        return data;
+    }
+}
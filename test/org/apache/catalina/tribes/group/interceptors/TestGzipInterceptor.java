@@ -16,10 +16,16 @@
  */
 package org.apache.catalina.tribes.group.interceptors;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -55,4 +61,61 @@ public class TestGzipInterceptor {
         byte[] result = GzipInterceptor.decompress(compress);
         Assert.assertTrue(Arrays.equals(data, result));
     }
+
+    @Test
+    public void testConcurrentPoolOverflow() throws Exception {
+        byte[] data = new byte[bufferSize];
+        Arrays.fill(data, (byte)1);
+        // More threads than pooled instances so that some are ended
+        Thread[] threads = new Thread[GzipInterceptor.POOL_SIZE * 4];
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < 10; j++) {
+                        if (!Arrays.equals(data, GzipInterceptor.decompress(GzipInterceptor.compress(data)))) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(0, failures.get());
+        Assert.assertTrue(GzipInterceptor.deflaters.size() <= GzipInterceptor.POOL_SIZE);
+        Assert.assertTrue(GzipInterceptor.inflaters.size() <= GzipInterceptor.POOL_SIZE);
+    }
+
+    @Test
+    public void testCompatibleWithGzipStreams() throws Exception {
+        byte[] data = new byte[bufferSize];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 31);
+        }
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (GZIPInputStream gin = new GZIPInputStream(
+                new ByteArrayInputStream(GzipInterceptor.compress(data)))) {
+            byte[] buf = new byte[1024];
+            int read;
+            while ((read = gin.read(buf)) > -1) {
+                result.write(buf, 0, read);
+            }
+        }
+        Assert.assertArrayEquals(data, result.toByteArray());
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gout = new GZIPOutputStream(compressed)) {
+            gout.write(data);
+        }
+        Assert.assertArrayEquals(data, GzipInterceptor.decompress(compressed.toByteArray()));
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+
+public class TestGzipInterceptorAdaptive {
+
+    private GzipInterceptor interceptor;
+    private ChannelMessage lastSent;
+
+
+    @Before
+    public void setUp() {
+        interceptor = new GzipInterceptor();
+        interceptor.setStatsEnabled(true);
+        interceptor.setNext(new ChannelInterceptorBase() {
+            @Override
+            public void sendMessage(Member[] destination, ChannelMessage msg, InterceptorPayload payload) {
+                lastSent = msg;
+            }
+        });
+    }
+
+
+    @Test
+    public void testNoCompressionOptions() throws Exception {
+        interceptor.setNoCompressionOptions(Channel.SEND_OPTIONS_BYTE_MESSAGE);
+        Assert.assertFalse(send(new byte[4096], Channel.SEND_OPTIONS_BYTE_MESSAGE));
+        Assert.assertTrue(send(new byte[4096], Channel.SEND_OPTIONS_USE_ACK));
+        Assert.assertEquals(1, interceptor.getCountCompressedTX());
+        Assert.assertTrue(interceptor.getBytesSavedTX() > 3000);
+    }
+
+
+    @Test
+    public void testSuspendedWhenRatioLow() throws Exception {
+        interceptor.setMinCompressionRatio(1.5);
+        interceptor.setSampleSize(5);
+        interceptor.setSuspendedMessages(10);
+        Random random = new Random(1);
+        byte[] incompressible = new byte[4096];
+        for (int i = 0; i < 5; i++) {
+            random.nextBytes(incompressible);
+            Assert.assertTrue(send(incompressible, 0));
+        }
+        Assert.assertEquals(1, interceptor.getCountSuspended());
+        Assert.assertTrue(interceptor.getBytesSavedTX() < 0);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertFalse(send(incompressible, 0));
+        }
+        // Sampled again, compresses well
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(send(new byte[4096], 0));
+        }
+        Assert.assertEquals(1, interceptor.getCountSuspended());
+    }
+
+
+    private boolean send(byte[] data, int options) throws Exception {
+        ChannelData msg = new ChannelData(true);
+        msg.setOptions(options);
+        msg.setMessage(new XByteBuffer(data.clone(), false));
+        interceptor.sendMessage(null, msg, null);
+        boolean compressed = (lastSent.getOptions() & interceptor.getOptionFlag()) != 0;
+        // The message is received unchanged
+        interceptor.setPrevious(new ChannelInterceptorBase() {
+            @Override
+            public void messageReceived(ChannelMessage received) {
+                Assert.assertTrue(Arrays.equals(data, received.getMessage().getBytes()));
+            }
+        });
+        interceptor.messageReceived(lastSent);
+        return compressed;
+    }
+}
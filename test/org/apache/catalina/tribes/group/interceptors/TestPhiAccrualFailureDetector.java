@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.group.interceptors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.tribes.ChannelException;
+import org.apache.catalina.tribes.ChannelMessage;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.ChannelInterceptorBase;
+import org.apache.catalina.tribes.group.InterceptorPayload;
+import org.apache.catalina.tribes.group.interceptors.PhiAccrualFailureDetector.HeartbeatHistory;
+import org.apache.catalina.tribes.io.ChannelData;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.catalina.tribes.membership.MemberImpl;
+
+public class TestPhiAccrualFailureDetector {
+
+    private final List<Member> added = new ArrayList<>();
+    private final List<Member> disappeared = new ArrayList<>();
+    private PhiAccrualFailureDetector detector;
+    private Member m1;
+    private Member m2;
+
+
+    @Before
+    public void setUp() throws Exception {
+        m1 = new MemberImpl("localhost", 4001, 0);
+        m2 = new MemberImpl("localhost", 4002, 0);
+        detector = new PhiAccrualFailureDetector();
+        detector.setFirstHeartbeatEstimate(20);
+        detector.setMinStdDeviation(5);
+        detector.setNext(new ChannelInterceptorBase() {
+            @Override
+            public Member[] getMembers() {
+                return new Member[] { m1, m2 };
+            }
+        });
+        detector.setPrevious(new ChannelInterceptorBase() {
+            @Override
+            public void memberAdded(Member member) {
+                added.add(member);
+            }
+
+            @Override
+            public void memberDisappeared(Member member) {
+                disappeared.add(member);
+            }
+
+            @Override
+            public void messageReceived(ChannelMessage msg) {
+                // NO-OP
+            }
+        });
+    }
+
+
+    @Test
+    public void testPhi() {
+        HeartbeatHistory history = new HeartbeatHistory(100, 1000, 0);
+        for (long t = 1000; t <= 100000; t += 1000) {
+            history.heartbeat(t);
+        }
+        double onTime = history.phi(101000, 100, 0);
+        double late = history.phi(101500, 100, 0);
+        double veryLate = history.phi(103000, 100, 0);
+        Assert.assertTrue(onTime < 1);
+        Assert.assertTrue(onTime < late && late < veryLate);
+        Assert.assertTrue(veryLate > 8);
+        // A pause that is acceptable lowers the suspicion
+        Assert.assertTrue(history.phi(103000, 100, 2000) < 1);
+    }
+
+
+    @Test
+    public void testSuspectAndRecover() throws Exception {
+        detector.memberAdded(m1);
+        detector.memberAdded(m2);
+        for (int i = 0; i < 20; i++) {
+            detector.messageReceived(createPing(m1));
+            detector.messageReceived(createPing(m2));
+            Thread.sleep(20);
+        }
+        detector.checkMembers();
+        Assert.assertEquals(0, detector.getSuspectCount());
+
+        // m2 stops responding
+        for (int i = 0; i < 10; i++) {
+            detector.messageReceived(createPing(m1));
+            Thread.sleep(20);
+        }
+        detector.checkMembers();
+        Assert.assertEquals(1, detector.getSuspectCount());
+        Assert.assertTrue(detector.getPhi(m2) > detector.getThreshold());
+        Assert.assertArrayEquals(new Member[] { m1 }, detector.getMembers());
+        Assert.assertNull(detector.getMember(m2));
+        Assert.assertEquals(1, disappeared.size());
+        Assert.assertEquals(m2, disappeared.get(0));
+
+        // Heard from again
+        detector.messageReceived(createPing(m2));
+        Assert.assertEquals(0, detector.getSuspectCount());
+        Assert.assertEquals(2, detector.getMembers().length);
+        Assert.assertEquals(m2, added.get(added.size() - 1));
+
+        // The membership below reporting the member gone is not repeated
+        detector.messageReceived(createPing(m1));
+        Thread.sleep(200);
+        detector.checkMembers();
+        detector.memberDisappeared(m1);
+        detector.memberDisappeared(m2);
+        Assert.assertEquals(3, disappeared.size());
+    }
+
+
+    @Test
+    public void testMutualSuspicionRecoveredByPings() throws Exception {
+        PhiAccrualFailureDetector[] detectors = new PhiAccrualFailureDetector[2];
+        Member[] members = new Member[] { m1, m2 };
+        boolean[] connected = new boolean[] { true };
+        for (int i = 0; i < detectors.length; i++) {
+            final int local = i;
+            final int remote = 1 - i;
+            detectors[i] = new PhiAccrualFailureDetector();
+            detectors[i].setFirstHeartbeatEstimate(20);
+            detectors[i].setMinStdDeviation(5);
+            detectors[i].setNext(new ChannelInterceptorBase() {
+                @Override
+                public Member[] getMembers() {
+                    return new Member[] { members[remote] };
+                }
+
+                @Override
+                public Member getLocalMember(boolean incAlive) {
+                    return members[local];
+                }
+
+                @Override
+                public void sendMessage(Member[] destination, ChannelMessage msg, InterceptorPayload payload)
+                        throws ChannelException {
+                    if (connected[0]) {
+                        ChannelMessage copy = (ChannelMessage) msg.deepclone();
+                        copy.setAddress(members[local]);
+                        detectors[remote].messageReceived(copy);
+                    }
+                }
+            });
+            detectors[i].setPrevious(new ChannelInterceptorBase() {
+                @Override
+                public void messageReceived(ChannelMessage msg) {
+                    // NO-OP
+                }
+            });
+        }
+        detectors[0].memberAdded(m2);
+        detectors[1].memberAdded(m1);
+        for (int i = 0; i < 10; i++) {
+            pingAndCheck(detectors);
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(0, detectors[0].getSuspectCount());
+        Assert.assertEquals(0, detectors[1].getSuspectCount());
+
+        // Both members pause and suspect each other
+        connected[0] = false;
+        for (int i = 0; i < 10; i++) {
+            pingAndCheck(detectors);
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(1, detectors[0].getSuspectCount());
+        Assert.assertEquals(1, detectors[1].getSuspectCount());
+        Assert.assertEquals(0, detectors[0].getMembers().length);
+        Assert.assertEquals(0, detectors[1].getMembers().length);
+
+        // The pings from above no longer reach a suspected member, the
+        // detectors ping it themselves
+        connected[0] = true;
+        for (int i = 0; i < 10; i++) {
+            pingAndCheck(detectors);
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(0, detectors[0].getSuspectCount());
+        Assert.assertEquals(0, detectors[1].getSuspectCount());
+        Assert.assertArrayEquals(new Member[] { m2 }, detectors[0].getMembers());
+        Assert.assertArrayEquals(new Member[] { m1 }, detectors[1].getMembers());
+    }
+
+
+    /*
+     * Pings the members each detector reports, as TcpPingInterceptor does
+     * above it, and then checks the members.
+     */
+    private static void pingAndCheck(PhiAccrualFailureDetector[] detectors) throws ChannelException {
+        for (PhiAccrualFailureDetector detector : detectors) {
+            Member[] members = detector.getMembers();
+            if (members.length > 0) {
+                ChannelData data = new ChannelData(true);
+                data.setAddress(detector.getLocalMember(false));
+                data.setMessage(new XByteBuffer(TcpPingInterceptor.TCP_PING_DATA, false));
+                detector.sendMessage(members, data, null);
+            }
+        }
+        for (PhiAccrualFailureDetector detector : detectors) {
+            detector.checkMembers();
+        }
+    }
+
+
+    private static ChannelMessage createPing(Member member) {
+        ChannelData msg = new ChannelData(true);
+        msg.setAddress(member);
+        msg.setMessage(new XByteBuffer(TcpPingInterceptor.TCP_PING_DATA, false));
+        return msg;
+    }
+}
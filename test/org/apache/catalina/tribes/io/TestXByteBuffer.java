@@ -16,9 +16,13 @@
  */
 package org.apache.catalina.tribes.io;
 
+import java.nio.charset.StandardCharsets;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.apache.catalina.tribes.membership.MemberImpl;
+
 public class TestXByteBuffer {
 
     @Test
@@ -35,4 +39,31 @@ public class TestXByteBuffer {
         Assert.assertTrue(obj instanceof String);
         Assert.assertEquals(test, obj);
     }
+
+    @Test
+    public void testExtractPackages() throws Exception {
+        XByteBuffer buffer = new XByteBuffer(1024, true);
+        for (int i = 0; i < 3; i++) {
+            ChannelData data = new ChannelData(true);
+            data.setAddress(new MemberImpl("localhost", 4001 + i, 0));
+            byte[] message = ("message" + i).getBytes(StandardCharsets.ISO_8859_1);
+            data.setMessage(new XByteBuffer(message, false));
+            byte[] pkg = XByteBuffer.createDataPackage(data);
+            buffer.append(pkg, 0, pkg.length);
+        }
+        // Start of an incomplete package
+        byte[] partial = XByteBuffer.createDataPackage(new byte[] { 1, 2, 3 });
+        buffer.append(partial, 0, 10);
+
+        ChannelData[] packages = buffer.extractPackages();
+        Assert.assertEquals(3, packages.length);
+        for (int i = 0; i < packages.length; i++) {
+            Assert.assertEquals("message" + i, new String(packages[i].getMessage().getBytes(),
+                    StandardCharsets.ISO_8859_1));
+            Assert.assertEquals(4001 + i, packages[i].getAddress().getPort());
+        }
+        Assert.assertEquals(10, buffer.getLength());
+        buffer.append(partial, 10, partial.length - 10);
+        Assert.assertEquals(1, buffer.countPackages());
+    }
 }
@@ -0,0 +1,433 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.test.channel;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.tribes.ByteMessage;
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ChannelListener;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.group.GroupChannel;
+import org.apache.catalina.tribes.group.interceptors.EncryptInterceptor;
+import org.apache.catalina.tribes.group.interceptors.FragmentationInterceptor;
+import org.apache.catalina.tribes.group.interceptors.GzipInterceptor;
+import org.apache.catalina.tribes.group.interceptors.MessageDispatchInterceptor;
+import org.apache.catalina.tribes.group.interceptors.TcpFailureDetector;
+import org.apache.catalina.tribes.io.XByteBuffer;
+import org.apache.catalina.tribes.membership.StaticMember;
+import org.apache.catalina.tribes.membership.StaticMembershipService;
+import org.apache.catalina.tribes.transport.ReceiverBase;
+
+/**
+ * Starts a number of channels in this JVM that use static membership over
+ * the loopback interface, sends messages of a fixed size from every channel
+ * to every other channel and reports the throughput and the latency from
+ * send to delivery.
+ * <p>
+ * Run with <code>-help</code> for the options.
+ */
+public class ChannelBenchmark {
+
+    private static final String HOST = "127.0.0.1";
+
+    private int nodes = 2;
+    private int threads = 1;
+    private int messageCount = 1000;
+    private int warmupCount = 100;
+    private int messageSize = 1024;
+    private int sendOptions = Channel.SEND_OPTIONS_USE_ACK;
+    private boolean gzip = false;
+    private boolean encrypt = false;
+    private boolean frag = false;
+    private int fragSize = 1024 * 100;
+    private boolean failureDetect = false;
+    private long timeout = 60000;
+
+
+    public static String usage() {
+        StringBuilder buf = new StringBuilder();
+        buf.append("Usage: ChannelBenchmark")
+           .append("\n\t\t[-nodes number of channels, at least 2]")
+           .append("\n\t\t[-threads sending threads per channel]")
+           .append("\n\t\t[-count messages per sending thread]")
+           .append("\n\t\t[-warmup messages per sending thread before measuring]")
+           .append("\n\t\t[-size message size in bytes]")
+           .append("\n\t\t[-mode ack|syncack|noack|async]")
+           .append("\n\t\t[-gzip]")
+           .append("\n\t\t[-encrypt]")
+           .append("\n\t\t[-frag]")
+           .append("\n\t\t[-fragsize maxmsgsize]")
+           .append("\n\t\t[-failuredetect]")
+           .append("\n\t\t[-timeout milliseconds to wait for delivery]");
+        return buf.toString();
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        ChannelBenchmark benchmark = new ChannelBenchmark();
+        for (int i = 0; i < args.length; i++) {
+            if ("-nodes".equals(args[i])) {
+                benchmark.setNodes(Integer.parseInt(args[++i]));
+            } else if ("-threads".equals(args[i])) {
+                benchmark.setThreads(Integer.parseInt(args[++i]));
+            } else if ("-count".equals(args[i])) {
+                benchmark.setMessageCount(Integer.parseInt(args[++i]));
+            } else if ("-warmup".equals(args[i])) {
+                benchmark.setWarmupCount(Integer.parseInt(args[++i]));
+            } else if ("-size".equals(args[i])) {
+                benchmark.setMessageSize(Integer.parseInt(args[++i]));
+            } else if ("-mode".equals(args[i])) {
+                benchmark.setMode(args[++i]);
+            } else if ("-gzip".equals(args[i])) {
+                benchmark.setGzip(true);
+            } else if ("-encrypt".equals(args[i])) {
+                benchmark.setEncrypt(true);
+            } else if ("-frag".equals(args[i])) {
+                benchmark.setFrag(true);
+            } else if ("-fragsize".equals(args[i])) {
+                benchmark.setFragSize(Integer.parseInt(args[++i]));
+            } else if ("-failuredetect".equals(args[i])) {
+                benchmark.setFailureDetect(true);
+            } else if ("-timeout".equals(args[i])) {
+                benchmark.setTimeout(Long.parseLong(args[++i]));
+            } else {
+                System.out.println(usage());
+                return;
+            }
+        }
+        System.out.println(benchmark.run());
+    }
+
+
+    public void setNodes(int nodes) {
+        if (nodes < 2) {
+            throw new IllegalArgumentException("At least two nodes are required");
+        }
+        this.nodes = nodes;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setMessageCount(int messageCount) {
+        this.messageCount = messageCount;
+    }
+
+    public void setWarmupCount(int warmupCount) {
+        this.warmupCount = warmupCount;
+    }
+
+    public void setMessageSize(int messageSize) {
+        // Room for the send time
+        this.messageSize = Math.max(messageSize, 8);
+    }
+
+    public void setMode(String mode) {
+        if ("ack".equals(mode)) {
+            sendOptions = Channel.SEND_OPTIONS_USE_ACK;
+        } else if ("syncack".equals(mode)) {
+            sendOptions = Channel.SEND_OPTIONS_USE_ACK | Channel.SEND_OPTIONS_SYNCHRONIZED_ACK;
+        } else if ("noack".equals(mode)) {
+            sendOptions = 0;
+        } else if ("async".equals(mode)) {
+            sendOptions = Channel.SEND_OPTIONS_ASYNCHRONOUS;
+        } else {
+            throw new IllegalArgumentException("Unknown mode [" + mode + "]");
+        }
+    }
+
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    public void setEncrypt(boolean encrypt) {
+        this.encrypt = encrypt;
+    }
+
+    public void setFrag(boolean frag) {
+        this.frag = frag;
+    }
+
+    public void setFragSize(int fragSize) {
+        this.fragSize = fragSize;
+    }
+
+    public void setFailureDetect(boolean failureDetect) {
+        this.failureDetect = failureDetect;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+
+    /**
+     * Runs the benchmark.
+     *
+     * @return the measured results
+     * @throws Exception if the channels could not be started or not all
+     *         the messages were delivered within the timeout
+     */
+    public Result run() throws Exception {
+        int[] ports = new int[nodes];
+        for (int i = 0; i < nodes; i++) {
+            ports[i] = findFreePort();
+        }
+        GroupChannel[] channels = new GroupChannel[nodes];
+        int expected = nodes * threads * messageCount * (nodes - 1);
+        Recorder recorder = new Recorder(expected);
+        try {
+            for (int i = 0; i < nodes; i++) {
+                channels[i] = createChannel(i, ports);
+                channels[i].addChannelListener(recorder);
+                channels[i].start(Channel.DEFAULT);
+            }
+            for (GroupChannel channel : channels) {
+                waitForMembers(channel);
+            }
+
+            send(channels, warmupCount);
+            recorder.waitFor(nodes * threads * warmupCount * (nodes - 1), timeout);
+            recorder.reset();
+
+            long start = System.nanoTime();
+            send(channels, messageCount);
+            recorder.waitFor(expected, timeout);
+            long elapsed = System.nanoTime() - start;
+            return new Result(expected, (long) expected * messageSize, elapsed, recorder.getLatencies());
+        } finally {
+            for (GroupChannel channel : channels) {
+                if (channel != null) {
+                    channel.stop(Channel.DEFAULT);
+                }
+            }
+        }
+    }
+
+
+    private GroupChannel createChannel(int index, int[] ports) throws IOException {
+        GroupChannel channel = new GroupChannel();
+        // The static membership only talks to channels with the same name
+        channel.setName("benchmark");
+        channel.setJmxEnabled(false);
+        ReceiverBase receiver = (ReceiverBase) channel.getChannelReceiver();
+        receiver.setAddress(HOST);
+        receiver.setPort(ports[index]);
+        receiver.setAutoBind(1);
+
+        StaticMembershipService membership = new StaticMembershipService();
+        for (int i = 0; i < ports.length; i++) {
+            StaticMember member = new StaticMember(HOST, ports[i], 0);
+            member.setUniqueId(uniqueId(i));
+            if (i == index) {
+                membership.setLocalMember(member);
+            } else {
+                membership.addStaticMember(member);
+            }
+        }
+        channel.setMembershipService(membership);
+
+        if ((sendOptions & Channel.SEND_OPTIONS_ASYNCHRONOUS) != 0) {
+            channel.addInterceptor(new MessageDispatchInterceptor());
+        }
+        if (gzip) {
+            channel.addInterceptor(new GzipInterceptor());
+        }
+        if (encrypt) {
+            EncryptInterceptor interceptor = new EncryptInterceptor();
+            interceptor.setEncryptionKey("cafebabecafebabecafebabecafebabe");
+            channel.addInterceptor(interceptor);
+        }
+        if (frag) {
+            FragmentationInterceptor interceptor = new FragmentationInterceptor();
+            interceptor.setMaxSize(fragSize);
+            channel.addInterceptor(interceptor);
+        }
+        if (failureDetect) {
+            channel.addInterceptor(new TcpFailureDetector());
+        }
+        return channel;
+    }
+
+
+    private void waitForMembers(Channel channel) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (channel.getMembers().length < nodes - 1) {
+            if (System.currentTimeMillis() - start > timeout) {
+                throw new IllegalStateException("Only [" + channel.getMembers().length +
+                        "] members of [" + (nodes - 1) + "] found");
+            }
+            Thread.sleep(50);
+        }
+    }
+
+
+    private void send(GroupChannel[] channels, int count) throws Exception {
+        List<Thread> senders = new ArrayList<>();
+        AtomicLong failures = new AtomicLong();
+        for (GroupChannel channel : channels) {
+            Member[] destination = channel.getMembers();
+            for (int t = 0; t < threads; t++) {
+                Thread sender = new Thread(() -> {
+                    byte[] data = new byte[messageSize];
+                    Arrays.fill(data, (byte) 'x');
+                    for (int i = 0; i < count; i++) {
+                        XByteBuffer.toBytes(System.nanoTime(), data, 0);
+                        try {
+                            channel.send(destination, new ByteMessage(data),
+                                    sendOptions | Channel.SEND_OPTIONS_BYTE_MESSAGE);
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                });
+                senders.add(sender);
+                sender.start();
+            }
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        if (failures.get() > 0) {
+            throw new IllegalStateException("[" + failures.get() + "] messages could not be sent");
+        }
+    }
+
+
+    private static byte[] uniqueId(int index) {
+        byte[] id = new byte[16];
+        Arrays.fill(id, (byte) 1);
+        id[0] = (byte) index;
+        return id;
+    }
+
+
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+
+    private static class Recorder implements ChannelListener {
+
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger received = new AtomicInteger();
+        private final long[] latencies;
+
+        Recorder(int capacity) {
+            latencies = new long[capacity];
+        }
+
+        @Override
+        public void messageReceived(Serializable msg, Member sender) {
+            long latency = System.nanoTime() - XByteBuffer.toLong(((ByteMessage) msg).getMessage(), 0);
+            int index = next.getAndIncrement();
+            if (index < latencies.length) {
+                latencies[index] = latency;
+            }
+            received.incrementAndGet();
+        }
+
+        @Override
+        public boolean accept(Serializable msg, Member sender) {
+            return msg instanceof ByteMessage;
+        }
+
+        void reset() {
+            next.set(0);
+            received.set(0);
+        }
+
+        void waitFor(int count, long timeout) throws InterruptedException {
+            long start = System.currentTimeMillis();
+            while (received.get() < count) {
+                if (System.currentTimeMillis() - start > timeout) {
+                    throw new IllegalStateException("Only [" + received.get() +
+                            "] messages of [" + count + "] received");
+                }
+                Thread.sleep(1);
+            }
+        }
+
+        long[] getLatencies() {
+            return Arrays.copyOf(latencies, Math.min(received.get(), latencies.length));
+        }
+    }
+
+
+    /**
+     * The results of a benchmark run. Latencies are in nanoseconds.
+     */
+    public static class Result {
+
+        private final long messages;
+        private final long bytes;
+        private final long elapsed;
+        private final long[] latencies;
+
+        Result(long messages, long bytes, long elapsed, long[] latencies) {
+            this.messages = messages;
+            this.bytes = bytes;
+            this.elapsed = elapsed;
+            this.latencies = latencies;
+            Arrays.sort(this.latencies);
+        }
+
+        public long getMessages() {
+            return messages;
+        }
+
+        public double getMessagesPerSecond() {
+            return messages * 1000000000.0 / elapsed;
+        }
+
+        public double getBytesPerSecond() {
+            return bytes * 1000000000.0 / elapsed;
+        }
+
+        /**
+         * @param percentile The percentile, between 0 and 100
+         * @return the latency in nanoseconds at the given percentile
+         */
+        public long getLatency(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.min(Math.max(index, 0), latencies.length - 1)];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("messages=%d, msgs/s=%.0f, MB/s=%.2f, latency ms p50=%.3f p90=%.3f p99=%.3f max=%.3f",
+                    Long.valueOf(messages), Double.valueOf(getMessagesPerSecond()),
+                    Double.valueOf(getBytesPerSecond() / (1024 * 1024)),
+                    Double.valueOf(getLatency(50) / 1000000.0), Double.valueOf(getLatency(90) / 1000000.0),
+                    Double.valueOf(getLatency(99) / 1000000.0), Double.valueOf(getLatency(100) / 1000000.0));
+        }
+    }
+}
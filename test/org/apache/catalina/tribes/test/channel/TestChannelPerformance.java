@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.test.channel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestChannelPerformance {
+
+    @Test
+    public void testDefault() throws Exception {
+        ChannelBenchmark benchmark = new ChannelBenchmark();
+        benchmark.setMessageCount(2000);
+        doTest("default", benchmark);
+    }
+
+
+    @Test
+    public void testThreeNodesAsync() throws Exception {
+        ChannelBenchmark benchmark = new ChannelBenchmark();
+        benchmark.setNodes(3);
+        benchmark.setThreads(2);
+        benchmark.setMode("async");
+        doTest("3 nodes async", benchmark);
+    }
+
+
+    @Test
+    public void testInterceptors() throws Exception {
+        ChannelBenchmark benchmark = new ChannelBenchmark();
+        benchmark.setMessageSize(64 * 1024);
+        benchmark.setMessageCount(200);
+        benchmark.setGzip(true);
+        benchmark.setEncrypt(true);
+        benchmark.setFrag(true);
+        benchmark.setFragSize(16 * 1024);
+        benchmark.setFailureDetect(true);
+        doTest("gzip, encrypt, frag", benchmark);
+    }
+
+
+    private void doTest(String name, ChannelBenchmark benchmark) throws Exception {
+        ChannelBenchmark.Result result = benchmark.run();
+        System.out.println(name + ": " + result);
+        Assert.assertTrue(result.getMessagesPerSecond() > 0);
+        Assert.assertTrue(result.getLatency(50) <= result.getLatency(99));
+    }
+}
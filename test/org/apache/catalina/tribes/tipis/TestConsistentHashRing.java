@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.tipis;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.membership.MemberImpl;
+
+public class TestConsistentHashRing {
+
+    private static final int KEYS = 10000;
+
+    private Member m1;
+    private Member m2;
+    private Member m3;
+    private Member m4;
+
+
+    @Before
+    public void setUp() throws Exception {
+        m1 = new MemberImpl("localhost", 4001, 1000);
+        m2 = new MemberImpl("localhost", 4002, 1000);
+        m3 = new MemberImpl("localhost", 4003, 1000);
+        m4 = new MemberImpl("localhost", 4004, 1000);
+    }
+
+
+    @Test
+    public void testDeterministic() {
+        ConsistentHashRing ring1 = new ConsistentHashRing(new Member[] { m1, m2, m3, m4 }, 100);
+        ConsistentHashRing ring2 = new ConsistentHashRing(new Member[] { m4, m3, m2, m1 }, 100);
+        Assert.assertTrue(ring1.hasMembers(new Member[] { m2, m1, m4, m3 }));
+        Assert.assertFalse(ring1.hasMembers(new Member[] { m1, m2, m3 }));
+        for (int i = 0; i < KEYS; i++) {
+            String key = "session" + i;
+            Assert.assertArrayEquals(ring1.getMembers(key, 2, null), ring2.getMembers(key, 2, null));
+        }
+    }
+
+
+    @Test
+    public void testGetMembers() {
+        ConsistentHashRing ring = new ConsistentHashRing(new Member[] { m1, m2, m3 }, 10);
+        for (int i = 0; i < 100; i++) {
+            String key = "session" + i;
+            Member[] all = ring.getMembers(key, 5, null);
+            Assert.assertEquals(3, all.length);
+            Assert.assertTrue(all[0] != all[1] && all[1] != all[2] && all[0] != all[2]);
+
+            // Excluding a member skips it without changing the order
+            Member[] others = ring.getMembers(key, 2, all[0]);
+            Assert.assertArrayEquals(new Member[] { all[1], all[2] }, others);
+            others = ring.getMembers(key, 1, all[1]);
+            Assert.assertArrayEquals(new Member[] { all[0] }, others);
+        }
+        Assert.assertEquals(0, new ConsistentHashRing(new Member[0], 10).getMembers("key", 1, null).length);
+    }
+
+
+    @Test
+    public void testBalanced() {
+        ConsistentHashRing ring = new ConsistentHashRing(new Member[] { m1, m2, m3, m4 }, 100);
+        Map<Member,Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.getMembers("session" + i, 1, null)[0], Integer.valueOf(1), Integer::sum);
+        }
+        for (Integer count : counts.values()) {
+            // An even spread would be 2500 each
+            Assert.assertTrue(count.toString(), count.intValue() > 1500 && count.intValue() < 3500);
+        }
+    }
+
+
+    @Test
+    public void testMemberRemovalMovesOnlyItsKeys() {
+        ConsistentHashRing before = new ConsistentHashRing(new Member[] { m1, m2, m3, m4 }, 100);
+        ConsistentHashRing after = new ConsistentHashRing(new Member[] { m1, m2, m3 }, 100);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "session" + i;
+            Member[] owners = before.getMembers(key, 2, null);
+            Member[] newOwners = after.getMembers(key, 2, null);
+            if (owners[0] != m4 && owners[1] != m4) {
+                Assert.assertArrayEquals(owners, newOwners);
+            } else {
+                moved++;
+                // The surviving owner keeps the key
+                Member survivor = owners[0] == m4 ? owners[1] : owners[0];
+                Assert.assertEquals(survivor, newOwners[0]);
+            }
+        }
+        Assert.assertTrue(moved < KEYS * 0.7);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidVirtualNodes() {
+        new ConsistentHashRing(new Member[] { m1 }, 0);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.tribes.tipis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.tribes.Channel;
+import org.apache.catalina.tribes.ManagedChannel;
+import org.apache.catalina.tribes.Member;
+import org.apache.catalina.tribes.TesterUtil;
+import org.apache.catalina.tribes.group.GroupChannel;
+import org.apache.catalina.tribes.tipis.AbstractReplicatedMap.MapEntry;
+import org.apache.catalina.tribes.tipis.AbstractReplicatedMap.MapOwner;
+
+public class TestLazyReplicatedMap {
+
+    private static final String MAP_NAME = "TestLazyReplicatedMap";
+    private static final long TIMEOUT = 10000;
+
+    private ManagedChannel[] channels = new ManagedChannel[3];
+    private List<LazyReplicatedMap<String,String>> maps = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = new GroupChannel();
+        }
+        TesterUtil.addRandomDomain(channels);
+        for (int i = 0; i < channels.length; i++) {
+            channels[i].start(Channel.DEFAULT);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (LazyReplicatedMap<String,String> map : maps) {
+            map.breakdown();
+        }
+        for (ManagedChannel channel : channels) {
+            try {
+                channel.stop(Channel.DEFAULT);
+            } catch (Exception ignore) {
+                // Ignore
+            }
+        }
+    }
+
+
+    @Test
+    public void testRetrieve() throws Exception {
+        createMaps(3);
+        maps.get(0).put("key", "value");
+        MapEntry<String,String> entry = maps.get(0).getInternal("key");
+        Assert.assertTrue(entry.isPrimary());
+        Assert.assertEquals(1, entry.getBackupNodes().length);
+
+        // Find the member that holds neither the primary nor the backup copy
+        LazyReplicatedMap<String,String> other = null;
+        for (int i = 1; i < maps.size(); i++) {
+            if (!getLocalMember(i).equals(entry.getBackupNodes()[0])) {
+                other = maps.get(i);
+            }
+        }
+        Assert.assertNotNull(other);
+        Assert.assertNull(other.getInternal("key"));
+
+        Assert.assertEquals("value", other.get("key"));
+        Assert.assertTrue(other.getInternal("key").isPrimary());
+        waitForPlacement("key", other);
+    }
+
+
+    @Test
+    public void testRetrieveMiss() throws Exception {
+        createMaps(3);
+        LazyReplicatedMap<String,String> map = maps.get(0);
+        Assert.assertFalse(map.isRetrieveMiss("missing"));
+        Assert.assertNull(map.get("missing"));
+        Assert.assertTrue(map.isRetrieveMiss("missing"));
+        Assert.assertNull(map.get("missing"));
+
+        Thread.sleep(LazyReplicatedMap.RETRIEVE_MISS_TIMEOUT + 100);
+        Assert.assertFalse(map.isRetrieveMiss("missing"));
+
+        maps.get(1).put("missing", "value");
+        Assert.assertEquals("value", map.get("missing"));
+    }
+
+
+    @Test
+    public void testRelocateOnMemberAdded() throws Exception {
+        createMaps(2);
+        for (int i = 0; i < 20; i++) {
+            maps.get(0).put("key-" + i, "value-" + i);
+        }
+        createMaps(1);
+        waitForMapMembers();
+
+        // Some keys now belong on the new member and the others stay put
+        int relocated = 0;
+        for (int i = 0; i < 20; i++) {
+            waitForPlacement("key-" + i, maps.get(0));
+            if (maps.get(2).getInternal("key-" + i) != null) {
+                relocated++;
+            }
+        }
+        Assert.assertTrue(relocated > 0);
+        Assert.assertTrue(relocated < 20);
+    }
+
+
+    @Test
+    public void testMemberDisappeared() throws Exception {
+        createMaps(3);
+        maps.get(0).put("key", "value");
+        Member backup = maps.get(0).getInternal("key").getBackupNodes()[0];
+        LazyReplicatedMap<String,String> successor = null;
+        for (int i = 1; i < maps.size(); i++) {
+            if (getLocalMember(i).equals(backup)) {
+                successor = maps.get(i);
+            }
+        }
+        Assert.assertNotNull(successor);
+        waitForPlacement("key", maps.get(0));
+
+        channels[0].stop(Channel.DEFAULT);
+
+        // The backup node becomes the primary node and a new backup is made
+        // on the only other member left
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < TIMEOUT) {
+            MapEntry<String,String> entry = successor.getInternal("key");
+            if (entry != null && entry.isPrimary()) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        Assert.assertTrue(successor.getInternal("key").isPrimary());
+        Assert.assertEquals("value", successor.get("key"));
+        waitForPlacement("key", successor);
+    }
+
+
+    private void createMaps(int count) {
+        for (int i = 0; i < count; i++) {
+            LazyReplicatedMap<String,String> map = new LazyReplicatedMap<>(new TesterMapOwner(),
+                    channels[maps.size()], 5000, MAP_NAME, null, true, true, 1, 100);
+            maps.add(map);
+        }
+        waitForMapMembers();
+    }
+
+
+    private void waitForMapMembers() {
+        long start = System.currentTimeMillis();
+        for (LazyReplicatedMap<String,String> map : maps) {
+            while (map.getMapMembers().length < maps.size() - 1 &&
+                    System.currentTimeMillis() - start < TIMEOUT) {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+            }
+            Assert.assertEquals(maps.size() - 1, map.getMapMembers().length);
+        }
+    }
+
+
+    /*
+     * Waits until the key is held by the primary map and by its backup nodes
+     * on the ring only.
+     */
+    private void waitForPlacement(String key, LazyReplicatedMap<String,String> primary)
+            throws InterruptedException {
+        Member local = primary.getChannel().getLocalMember(false);
+        Member[] backup = primary.getHashRing().getMembers(key, 1, local);
+        long start = System.currentTimeMillis();
+        boolean placed = false;
+        while (!placed && System.currentTimeMillis() - start < TIMEOUT) {
+            placed = true;
+            for (int i = 0; i < maps.size(); i++) {
+                if (maps.get(i) != primary &&
+                        !primary.inSet(getLocalMember(i), primary.getMapMembers())) {
+                    // Stopped
+                    continue;
+                }
+                MapEntry<String,String> entry = maps.get(i).getInternal(key);
+                if (maps.get(i) == primary) {
+                    placed &= entry != null && entry.isPrimary();
+                } else if (primary.inSet(getLocalMember(i), backup)) {
+                    placed &= entry != null && entry.isBackup();
+                } else {
+                    placed &= entry == null;
+                }
+            }
+            if (!placed) {
+                Thread.sleep(100);
+            }
+        }
+        Assert.assertTrue(placed);
+    }
+
+
+    private Member getLocalMember(int index) {
+        return channels[index].getLocalMember(false);
+    }
+
+
+    private static class TesterMapOwner implements MapOwner {
+        @Override
+        public void objectMadePrimary(Object key, Object value) {
+            // NO-OP
+        }
+    }
+}
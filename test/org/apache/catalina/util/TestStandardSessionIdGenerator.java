@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.util;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestStandardSessionIdGenerator {
+
+    @Test
+    public void testPooledRandom() throws Exception {
+        doTestGenerateSessionIds(false, 16);
+    }
+
+
+    @Test
+    public void testPerThreadRandom() throws Exception {
+        doTestGenerateSessionIds(true, 16);
+    }
+
+
+    @Test
+    public void testPerThreadRandomSmallBlock() throws Exception {
+        // IDs span more than one block
+        doTestGenerateSessionIds(true, 5);
+    }
+
+
+    private void doTestGenerateSessionIds(boolean perThreadRandom, int randomBlockSize)
+            throws Exception {
+        StandardSessionIdGenerator generator = new StandardSessionIdGenerator();
+        generator.setPerThreadRandom(perThreadRandom);
+        generator.setRandomBlockSize(randomBlockSize);
+        generator.setSessionIdLength(20);
+        generator.setJvmRoute("node1");
+        generator.start();
+
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String id = generator.generateSessionId();
+            Assert.assertTrue(id, id.matches("[0-9A-F]{40}\\.node1"));
+            Assert.assertTrue(ids.add(id));
+        }
+
+        // Restarting does not re-use the random bytes of the previous run
+        generator.stop();
+        generator.start();
+        Assert.assertTrue(ids.add(generator.generateSessionId()));
+        generator.stop();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.servlet.ServletException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Manager;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.session.StandardManager;
+import org.apache.catalina.session.StandardSession;
+import org.easymock.EasyMock;
+
+public class TestSessionAttributeChangeValve {
+
+    @Test
+    public void testInPlaceModificationDetected() throws Exception {
+        StandardSession session = createSession();
+        List<String> list = new ArrayList<>();
+        session.setAttribute("list", list);
+        session.setAttribute("other", "value");
+
+        SessionAttributeChangeValve valve = new SessionAttributeChangeValve();
+        // First request records the initial state
+        invoke(valve, session, s -> s.getAttribute("list"));
+        long version = session.getAttributesVersion();
+
+        // Read without modification
+        invoke(valve, session, s -> s.getAttribute("list"));
+        Assert.assertEquals(version, session.getAttributesVersion());
+
+        // Modified in place
+        invoke(valve, session, s -> {
+            @SuppressWarnings("unchecked")
+            List<String> l = (List<String>) s.getAttribute("list");
+            l.add("entry");
+        });
+        Assert.assertEquals(version + 1, session.getAttributesVersion());
+
+        // Only attributes read by the request are checked
+        list.add("another");
+        invoke(valve, session, s -> s.getAttribute("other"));
+        Assert.assertEquals(version + 1, session.getAttributesVersion());
+        invoke(valve, session, s -> s.getAttribute("list"));
+        Assert.assertEquals(version + 2, session.getAttributesVersion());
+    }
+
+
+    @Test
+    public void testExistingSessionTreatedAsModified() throws Exception {
+        StandardSession session = createSession();
+        session.setAttribute("attr01", new ArrayList<String>());
+        session.setAttribute("attr02", new ArrayList<String>());
+        // Immutable so can't have been modified in place
+        session.setAttribute("attr03", "value03");
+        session.setNew(false);
+        long version = session.getAttributesVersion();
+
+        invoke(new SessionAttributeChangeValve(), session, s -> {});
+        Assert.assertEquals(version + 2, session.getAttributesVersion());
+    }
+
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        StandardSession session = createSession();
+        List<String> list = new ArrayList<>();
+        session.setAttribute("list", list);
+
+        SessionAttributeChangeValve valve = new SessionAttributeChangeValve();
+        invoke(valve, session, s -> s.getAttribute("list"));
+        long version = session.getAttributesVersion();
+
+        // A second request for the session completes after the list has been
+        // read but before it is modified
+        invoke(valve, session, s -> {
+            @SuppressWarnings("unchecked")
+            List<String> l = (List<String>) s.getAttribute("list");
+            try {
+                invoke(new SessionAttributeChangeValve(), session, other -> {});
+            } catch (IOException | ServletException e) {
+                throw new IllegalStateException(e);
+            }
+            l.add("entry");
+        });
+        Assert.assertEquals(version + 1, session.getAttributesVersion());
+    }
+
+
+    private static StandardSession createSession() {
+        Manager manager = new StandardManager();
+        manager.setContext(new StandardContext());
+        StandardSession session = new StandardSession(manager);
+        session.setValid(true);
+        session.setNew(true);
+        return session;
+    }
+
+
+    private static void invoke(SessionAttributeChangeValve valve, StandardSession session,
+            Consumer<StandardSession> application) throws IOException, ServletException {
+        valve.setNext(new ValveBase() {
+            @Override
+            public void invoke(Request request, Response response) {
+                application.accept(session);
+            }
+        });
+        Request request = EasyMock.createMock(Request.class);
+        EasyMock.expect(request.getSessionInternal(false)).andReturn(session).times(2);
+        EasyMock.replay(request);
+        valve.invoke(request, null);
+        EasyMock.verify(request);
+    }
+}
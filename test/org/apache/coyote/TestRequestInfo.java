@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.collections.LatencyHistogram;
+
+public class TestRequestInfo {
+
+    @Test
+    public void testSubMillisecondLatency() {
+        RequestGroupInfo group = new RequestGroupInfo();
+        Request request = new Request();
+        request.setResponse(new Response());
+        request.getRequestProcessor().setGlobalProcessor(group);
+
+        request.setStartTime(System.currentTimeMillis());
+        long end = System.nanoTime() + 300 * 1000;
+        while (System.nanoTime() < end) {
+            // Spin
+        }
+        request.updateCounters();
+
+        LatencyHistogram.Snapshot snapshot = group.getLatencyHistogram().getSnapshot();
+        Assert.assertEquals(1, snapshot.getCount());
+        // Recorded with microsecond rather than millisecond resolution
+        Assert.assertTrue(snapshot.getMax() >= 250);
+        Assert.assertNotEquals(0, snapshot.getMax() % 1000);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.catalina.valves.AbstractAccessLogValve;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestRequestPhaseTiming extends TomcatBaseTest {
+
+    @Test
+    public void testDisabled() {
+        Request request = new Request();
+        request.phaseStart(RequestPhase.PARSE);
+        request.phaseEnd(RequestPhase.PARSE);
+        Assert.assertEquals(-1, request.getPhaseTime(RequestPhase.PARSE));
+        Assert.assertEquals(Long.MIN_VALUE, request.getPhaseTimingStart());
+    }
+
+
+    @Test
+    public void testAccumulateAndRecycle() throws Exception {
+        Request request = new Request();
+        request.setPhaseTiming(true);
+
+        request.phaseEnd(RequestPhase.SESSION);
+        Assert.assertEquals(-1, request.getPhaseTime(RequestPhase.SESSION));
+
+        request.phaseStart(RequestPhase.SESSION);
+        Thread.sleep(5);
+        request.phaseEnd(RequestPhase.SESSION);
+        long first = request.getPhaseTime(RequestPhase.SESSION);
+        Assert.assertTrue(first > 0);
+
+        request.phaseStart(RequestPhase.SESSION);
+        Thread.sleep(5);
+        request.phaseEnd(RequestPhase.SESSION);
+        Assert.assertTrue(request.getPhaseTime(RequestPhase.SESSION) > first);
+        Assert.assertNotEquals(Long.MIN_VALUE, request.getPhaseTimingStart());
+
+        request.recycle();
+        Assert.assertEquals(-1, request.getPhaseTime(RequestPhase.SESSION));
+        Assert.assertEquals(Long.MIN_VALUE, request.getPhaseTimingStart());
+    }
+
+
+    @Test
+    public void testAccessLog() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setProperty("phaseTiming", "true");
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/", "hello");
+
+        CapturingAccessLogValve accessLog = new CapturingAccessLogValve();
+        accessLog.setPattern("%{parse}P %{map}P %{filter-chain}P %{servlet}P " +
+                "%{finish}P %{session}P %{authenticate}P %{unknown}P");
+        tomcat.getHost().getPipeline().addValve(accessLog);
+
+        tomcat.start();
+
+        ByteChunk bc = getUrl("http://localhost:" + getPort() + "/");
+        Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, bc.toString());
+
+        // The access log entry is written after the response is returned
+        for (int i = 0; i < 20 && accessLog.entries.isEmpty(); i++) {
+            Thread.sleep(100);
+        }
+        String entry = accessLog.entries.poll();
+        Assert.assertNotNull(entry);
+
+        String[] values = entry.split(" ");
+        Assert.assertEquals(8, values.length);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(entry, Long.parseLong(values[i]) >= 0);
+        }
+        long filterChain = Long.parseLong(values[2]);
+        long servlet = Long.parseLong(values[3]);
+        Assert.assertTrue(entry, filterChain >= servlet);
+        // No session is used
+        Assert.assertEquals("-", values[5]);
+        // Tomcat adds a NonLoginAuthenticator to contexts with no login config
+        Assert.assertTrue(entry, Long.parseLong(values[6]) >= 0);
+        Assert.assertEquals("???", values[7]);
+    }
+
+
+    @Test
+    public void testAsync() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setProperty("phaseTiming", "true");
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Wrapper wrapper = Tomcat.addServlet(ctx, "async", new AsyncServlet());
+        wrapper.setAsyncSupported(true);
+        ctx.addServletMappingDecoded("/", "async");
+
+        CapturingAccessLogValve accessLog = new CapturingAccessLogValve();
+        accessLog.setPattern("%{host}P %{context}P %{filter-chain}P %{finish}P");
+        tomcat.getHost().getPipeline().addValve(accessLog);
+
+        tomcat.start();
+
+        ByteChunk bc = getUrl("http://localhost:" + getPort() + "/");
+        Assert.assertEquals("OK", bc.toString());
+
+        // The access log entry is written after the response is returned
+        for (int i = 0; i < 20 && accessLog.entries.isEmpty(); i++) {
+            Thread.sleep(100);
+        }
+        String entry = accessLog.entries.poll();
+        Assert.assertNotNull(entry);
+
+        String[] values = entry.split(" ");
+        Assert.assertEquals(4, values.length);
+        long host = Long.parseLong(values[0]);
+        long context = Long.parseLong(values[1]);
+        long filterChain = Long.parseLong(values[2]);
+        Assert.assertTrue(entry, host >= context);
+        Assert.assertTrue(entry, context >= filterChain);
+        // The completion of the async request is timed
+        Assert.assertTrue(entry, Long.parseLong(values[3]) >= 0);
+    }
+
+
+    private static class AsyncServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            final AsyncContext ac = req.startAsync();
+            ac.start(() -> {
+                try {
+                    ac.getResponse().getWriter().print("OK");
+                } catch (IOException e) {
+                    // Ignore
+                }
+                ac.complete();
+            });
+        }
+    }
+
+
+    private static class CapturingAccessLogValve extends AbstractAccessLogValve {
+
+        private final Queue<String> entries = new ConcurrentLinkedQueue<>();
+
+        @Override
+        protected void log(CharArrayWriter message) {
+            entries.add(message.toString());
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
@@ -215,4 +216,30 @@ public class TestByteChunk {
         // immediately after a call to recycle().
         Assert.assertNull(bc.toString());
     }
+
+
+    @Test
+    public void testToStringCharsets() {
+        // ASCII, non-ASCII and ISO-8859-1 only characters take different
+        // paths through toString()
+        doTestToString("abc=def&ghi", StandardCharsets.UTF_8);
+        doTestToString("abc=d\u00e9f\u20ac", StandardCharsets.UTF_8);
+        doTestToString("abc=def", StandardCharsets.US_ASCII);
+        doTestToString("abc=d\u00e9f\u00ff", StandardCharsets.ISO_8859_1);
+        doTestToString("abc=d\u00e9f", StandardCharsets.UTF_16BE);
+    }
+
+
+    private void doTestToString(String expected, Charset charset) {
+        byte[] content = expected.getBytes(charset);
+        // Offset the content in a larger array to check start and end are
+        // respected
+        byte[] data = new byte[content.length + 8];
+        Arrays.fill(data, (byte) 'x');
+        System.arraycopy(content, 0, data, 4, content.length);
+        ByteChunk bc = new ByteChunk();
+        bc.setBytes(data, 4, content.length);
+        bc.setCharset(charset);
+        Assert.assertEquals(expected, bc.toString());
+    }
 }
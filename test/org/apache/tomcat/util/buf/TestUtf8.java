@@ -563,6 +563,43 @@ public class TestUtf8 {
     }
 
 
+    @Test
+    public void testHarmonyDecoderAsciiRuns() {
+        // Mix short and long runs of ASCII with multi-byte sequences and decode
+        // with output buffers of various sizes so that the ASCII fast path has
+        // to stop part way through a run. The minimum size is two as that is
+        // required to decode a supplementary character.
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            sb.append("{\"key\":\"value-");
+            sb.append(i);
+            // Long enough to be passed to the JRE's decoder
+            sb.append("\",\"description\":\"a longer run of ASCII text ");
+            sb.append("\u00e9\u20ac\ud83d\ude00\"}");
+        }
+        String expected = sb.toString();
+        byte[] input = expected.getBytes(StandardCharsets.UTF_8);
+
+        for (int outSize = 2; outSize < 40; outSize++) {
+            CharsetDecoder decoder = new Utf8Decoder();
+            ByteBuffer bb = ByteBuffer.wrap(input);
+            CharBuffer cb = CharBuffer.allocate(outSize);
+            StringBuilder result = new StringBuilder();
+            CoderResult cr;
+            do {
+                cr = decoder.decode(bb, cb, true);
+                Assert.assertFalse(cr.isError());
+                cb.flip();
+                result.append(cb);
+                cb.clear();
+            } while (cr.isOverflow());
+            Assert.assertEquals("Output buffer size [" + outSize + "]", expected,
+                    result.toString());
+            Assert.assertFalse(bb.hasRemaining());
+        }
+    }
+
+
     private void doTest(CharsetDecoder decoder, Utf8TestCase testCase,
             int flags) {
 
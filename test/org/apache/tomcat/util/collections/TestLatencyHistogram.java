@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.collections.LatencyHistogram.Snapshot;
+
+public class TestLatencyHistogram {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Snapshot snapshot = histogram.getSnapshot();
+        Assert.assertEquals(0, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getMin());
+        Assert.assertEquals(0, snapshot.getMax());
+        Assert.assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+
+
+    @Test
+    public void testSmallValuesExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+        Snapshot snapshot = histogram.getSnapshot();
+        Assert.assertEquals(10, snapshot.getCount());
+        Assert.assertEquals(55, snapshot.getSum());
+        Assert.assertEquals(1, snapshot.getMin());
+        Assert.assertEquals(10, snapshot.getMax());
+        Assert.assertEquals(5, snapshot.getValueAtPercentile(50));
+        Assert.assertEquals(9, snapshot.getValueAtPercentile(90));
+        Assert.assertEquals(10, snapshot.getValueAtPercentile(100));
+    }
+
+
+    @Test
+    public void testRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        Snapshot snapshot = histogram.getSnapshot();
+        Assert.assertEquals(100000, snapshot.getCount());
+        Assert.assertEquals(100000, snapshot.getMax());
+        assertWithin(50000, snapshot.getValueAtPercentile(50));
+        assertWithin(99000, snapshot.getValueAtPercentile(99));
+        assertWithin(99900, snapshot.getValueAtPercentile(99.9));
+    }
+
+
+    @Test
+    public void testClamping() {
+        LatencyHistogram histogram = new LatencyHistogram(5, 1000, 1);
+        histogram.record(-5);
+        histogram.record(5000);
+        Snapshot snapshot = histogram.getSnapshot();
+        Assert.assertEquals(2, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getMin());
+        Assert.assertEquals(1000, snapshot.getMax());
+    }
+
+
+    @Test
+    public void testIntervalSnapshot() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.record(20);
+        Snapshot first = histogram.getIntervalSnapshot();
+        Assert.assertEquals(2, first.getCount());
+
+        histogram.record(1000);
+        Snapshot second = histogram.getIntervalSnapshot();
+        Assert.assertEquals(1, second.getCount());
+        Assert.assertEquals(1000, second.getSum());
+        assertWithin(1000, second.getMin());
+        assertWithin(1000, second.getMax());
+
+        Assert.assertEquals(0, histogram.getIntervalSnapshot().getCount());
+        Assert.assertEquals(3, histogram.getSnapshot().getCount());
+    }
+
+
+    @Test
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.getIntervalSnapshot();
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getSnapshot().getCount());
+        histogram.record(30);
+        Assert.assertEquals(1, histogram.getIntervalSnapshot().getCount());
+    }
+
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram(5, 1 << 20, 4);
+        final int threadCount = 8;
+        final int iterations = 100000;
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < iterations; j++) {
+                        histogram.record(j % 1000);
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Snapshot snapshot = histogram.getSnapshot();
+        Assert.assertEquals(threadCount * iterations, snapshot.getCount());
+        Assert.assertEquals(999, snapshot.getMax());
+        Assert.assertEquals(0, snapshot.getMin());
+    }
+
+
+    private static void assertWithin(long expected, long actual) {
+        // Default precision guarantees a relative error of at most 1/16
+        double error = Math.abs(actual - expected) / (double) expected;
+        Assert.assertTrue("Expected [" + expected + "] but was [" + actual + "]",
+                error <= 1.0 / 16);
+    }
+}